@@ -0,0 +1,437 @@
+import java.time.LocalDate;
+
+/**
+ * {@code AnalyticsCube} figures per night and per star tier, kept up to date on every booking and
+ * cancellation so that occupancy and billing reports over any period are answered without looking at
+ * the reservations. For every tier it keeps
+ * <ul>
+ * <li>guests arriving and leaving per day, to count the guests whose stay overlaps a period,</li>
+ * <li>guests staying per night, to count guest nights,</li>
+ * <li>revenue per night in cents, the total charged for every reservation split over its room nights in
+ * proportion to their rates in the hotel file, see {@link #share}.</li>
+ * </ul>
+ * Each series is a Fenwick tree over epoch days, so an update and a range sum cost O(log days).
+ * Capacity is the number of beds of a tier, taken from the room types, for every night of the period.
+ * <p>
+ * Each tier has its own lock, so bookings of different tiers update the cube concurrently.
+ * <p>
+ * Periods run from the start date up to, but not including, the end date, so a stay overlaps a period
+ * when it checks in before the end and checks out after the start.
+ */
+public class AnalyticsCube {
+
+    private volatile RoomTypeRegistry roomTypes;
+    private final DaySeries[] arrivals = new DaySeries[RoomTypeRegistry.TIERS];
+    private final DaySeries[] departures = new DaySeries[RoomTypeRegistry.TIERS];
+    private final RangeSeries[] guestNights = new RangeSeries[RoomTypeRegistry.TIERS];
+    private final DaySeries[] revenue = new DaySeries[RoomTypeRegistry.TIERS];
+    private final Object[] tierLocks = new Object[RoomTypeRegistry.TIERS];
+
+    /**
+     * {@code AnalyticsCube} create an empty cube
+     *
+     * @param roomTypes the room types which define the capacity of each tier
+     */
+    public AnalyticsCube(RoomTypeRegistry roomTypes) {
+        this.roomTypes = roomTypes;
+        for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+            tierLocks[tier] = new Object();
+        }
+        reset();
+    }
+
+    /**
+     * {@code setRoomTypes} take the capacity from the room types of a hotel file decoded again
+     *
+     * @param roomTypes the room types which define the capacity of each tier
+     */
+    public void setRoomTypes(RoomTypeRegistry roomTypes) {
+        this.roomTypes = roomTypes;
+    }
+
+    /**
+     * {@code clear} forget every counted stay
+     */
+    public void clear() {
+        reset();
+    }
+
+    private void reset() {
+        for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+            synchronized (tierLocks[tier]) {
+                arrivals[tier] = new DaySeries();
+                departures[tier] = new DaySeries();
+                guestNights[tier] = new RangeSeries();
+                revenue[tier] = new DaySeries();
+            }
+        }
+    }
+
+    /**
+     * {@code rebuild} replace every figure with the stays of the rows of columns. The figures are added up
+     * as plain values per day and the trees are built from them in linear time, instead of updating the
+     * trees stay by stay
+     *
+     * @param columns     the reservations
+     * @param tierOfType  the star tier of every room type id of the columns
+     * @param ratesOfType the rates from Monday to Sunday of every room type id of the columns, which weigh
+     *                    the nights of the rooms when the total charged for a row is split over them
+     */
+    public void rebuild(ReservationColumns columns, int[] tierOfType, int[][] ratesOfType) {
+        long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+        columns.forEachRoom((typeId, checkIn, checkOut, occupancy, advancePurchase) -> {
+            range[0] = Math.min(range[0], checkIn);
+            range[1] = Math.max(range[1], checkOut);
+        });
+        if (range[0] > range[1]) {
+            reset();
+            return;
+        }
+        long base = range[0];
+        int days = (int) (range[1] - base) + 2;
+        long[][] arrived = new long[RoomTypeRegistry.TIERS][days];
+        long[][] departed = new long[RoomTypeRegistry.TIERS][days];
+        long[][] staying = new long[RoomTypeRegistry.TIERS][days];
+        long[][] weighted = new long[RoomTypeRegistry.TIERS][days];
+        long[][] cents = new long[RoomTypeRegistry.TIERS][days];
+        columns.forEachRoom((typeId, checkIn, checkOut, occupancy, advancePurchase) -> {
+            if (checkIn >= checkOut) {
+                return;
+            }
+            int tier = tierOfType[typeId];
+            int from = (int) (checkIn - base);
+            int to = (int) (checkOut - base);
+            arrived[tier][from] += occupancy;
+            departed[tier][to] += occupancy;
+            staying[tier][from] += occupancy;
+            staying[tier][to] -= occupancy;
+            weighted[tier][from] += (long) occupancy * checkIn;
+            weighted[tier][to] -= (long) occupancy * checkOut;
+        });
+        int[] tiers = new int[ReservationColumns.MAX_ROOMS];
+        int[][] rates = new int[ReservationColumns.MAX_ROOMS][];
+        for (int row = 0; row < columns.rows(); row++) {
+            int rooms = columns.isEmpty(row) ? 0 : columns.roomCount(row);
+            for (int i = 0; i < rooms; i++) {
+                tiers[i] = tierOfType[columns.roomType(row, i)];
+                rates[i] = ratesOfType[columns.roomType(row, i)];
+            }
+            split(rooms, rates, columns.checkIn(row), columns.checkOut(row), Math.round(columns.totalCost(row) * 100),
+                    (room, day, share) -> cents[tiers[room]][(int) (day - base)] += share);
+        }
+        for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+            synchronized (tierLocks[tier]) {
+                arrivals[tier] = DaySeries.of(base, arrived[tier]);
+                departures[tier] = DaySeries.of(base, departed[tier]);
+                guestNights[tier] = new RangeSeries(DaySeries.of(base, staying[tier]),
+                        DaySeries.of(base, weighted[tier]));
+                revenue[tier] = DaySeries.of(base, cents[tier]);
+            }
+        }
+    }
+
+    /**
+     * {@code addGuests} count the guests of one tier of a reservation, or remove them with a negative sign
+     *
+     * @param tier     the star tier
+     * @param guests   number of guests, negative to remove them
+     * @param checkIn  epoch day of the check in
+     * @param checkOut epoch day of the check out
+     */
+    public void addGuests(int tier, int guests, long checkIn, long checkOut) {
+        if (guests == 0 || checkIn >= checkOut) {
+            return;
+        }
+        synchronized (tierLocks[tier]) {
+            arrivals[tier].add(checkIn, guests);
+            departures[tier].add(checkOut, guests);
+            guestNights[tier].add(checkIn, checkOut, guests);
+        }
+    }
+
+    /**
+     * {@code addRevenue} count the total charged for a reservation night by night, split over its rooms as
+     * {@link #share} does, or remove it with a negative sign
+     *
+     * @param tiers    the star tier of every room
+     * @param rates    the rates of every room from Monday to Sunday, of its room type in the hotel file
+     * @param checkIn  epoch day of the check in
+     * @param checkOut epoch day of the check out
+     * @param cents    the total charged in cents
+     * @param sign     1 to add the revenue, -1 to remove it
+     */
+    public void addRevenue(int[] tiers, int[][] rates, long checkIn, long checkOut, long cents, int sign) {
+        split(tiers.length, rates, checkIn, checkOut, cents, (room, day, share) -> {
+            synchronized (tierLocks[tiers[room]]) {
+                revenue[tiers[room]].add(day, sign * share);
+            }
+        });
+    }
+
+    /**
+     * {@code share} the share in cents of some room nights of a reservation in its total charged. The room
+     * nights are taken room by room and night by night, each weighed by its rate in the hotel file, or all
+     * alike when the rates add up to nothing. A share is rounded down on the running sum of the weights,
+     * so the shares of all room nights add up to the total charged to the cent, a cancellation takes off
+     * exactly what its booking added, and the share of a room is the sum of the shares of its nights
+     *
+     * @param cents  the total charged in cents
+     * @param before the weight of the room nights taken before these
+     * @param weight the weight of these room nights
+     * @param total  the weight of every room night of the reservation, more than 0
+     * @return the share in cents
+     */
+    static long share(long cents, long before, long weight, long total) {
+        return Math.floorDiv(cents * (before + weight), total) - Math.floorDiv(cents * before, total);
+    }
+
+    /**
+     * Receives the share of a room night of a reservation in its total charged.
+     */
+    private interface NightShare {
+        void add(int room, long day, long cents);
+    }
+
+    private static void split(int rooms, int[][] rates, long checkIn, long checkOut, long cents, NightShare sink) {
+        long total = 0;
+        for (int room = 0; room < rooms; room++) {
+            for (long day = checkIn; day < checkOut; day++) {
+                total += rates[room][PricingEngine.dayOfWeek(day)];
+            }
+        }
+        boolean flat = total == 0;
+        if (flat) {
+            total = rooms * (checkOut - checkIn);
+        }
+        long before = 0;
+        for (int room = 0; room < rooms; room++) {
+            for (long day = checkIn; day < checkOut; day++) {
+                int weight = flat ? 1 : rates[room][PricingEngine.dayOfWeek(day)];
+                sink.add(room, day, share(cents, before, weight, total));
+                before += weight;
+            }
+        }
+    }
+
+    /**
+     * {@code guests} the guests whose stay overlaps a period
+     *
+     * @param start start date
+     * @param end   end date, exclusive
+     * @return guests of the 3-star, 4-star and 5-star hotel and the total
+     */
+    public long[] guests(LocalDate start, LocalDate end) {
+        long from = start.toEpochDay();
+        long to = end.toEpochDay();
+        long[] figures = new long[RoomTypeRegistry.TIERS + 1];
+        if (from >= to) {
+            return figures;
+        }
+        for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+            // arrived before the end, minus those who had already left at the start
+            synchronized (tierLocks[tier]) {
+                figures[tier] = arrivals[tier].sumBefore(to) - departures[tier].sumBefore(from + 1);
+            }
+        }
+        return total(figures);
+    }
+
+    /**
+     * {@code guestNights} the number of guests staying, summed over every night of a period
+     *
+     * @param start start date
+     * @param end   end date, exclusive
+     * @return guest nights of the 3-star, 4-star and 5-star hotel and the total
+     */
+    public long[] guestNights(LocalDate start, LocalDate end) {
+        long from = start.toEpochDay();
+        long to = end.toEpochDay();
+        long[] figures = new long[RoomTypeRegistry.TIERS + 1];
+        if (from >= to) {
+            return figures;
+        }
+        for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+            synchronized (tierLocks[tier]) {
+                figures[tier] = guestNights[tier].sum(from, to);
+            }
+        }
+        return total(figures);
+    }
+
+    /**
+     * {@code capacityNights} the number of beds, summed over every night of a period
+     *
+     * @param start start date
+     * @param end   end date, exclusive
+     * @return bed nights of the 3-star, 4-star and 5-star hotel and the total
+     */
+    public long[] capacityNights(LocalDate start, LocalDate end) {
+        long nights = Math.max(0, end.toEpochDay() - start.toEpochDay());
+        long[] figures = new long[RoomTypeRegistry.TIERS + 1];
+        RoomTypeRegistry types = roomTypes;
+        for (int id = 0; id < types.size(); id++) {
+            figures[types.tier(id)] += (long) types.numberOfRooms(id) * types.maxOccupancy(id) * nights;
+        }
+        return total(figures);
+    }
+
+    /**
+     * {@code revenueCents} the revenue of the nights of a period in cents
+     *
+     * @param start start date
+     * @param end   end date, exclusive
+     * @return revenue of the 3-star, 4-star and 5-star hotel and the total
+     */
+    public long[] revenueCents(LocalDate start, LocalDate end) {
+        long from = start.toEpochDay();
+        long to = end.toEpochDay();
+        long[] figures = new long[RoomTypeRegistry.TIERS + 1];
+        if (from >= to) {
+            return figures;
+        }
+        for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+            synchronized (tierLocks[tier]) {
+                figures[tier] = revenue[tier].sumBefore(to) - revenue[tier].sumBefore(from);
+            }
+        }
+        return total(figures);
+    }
+
+    private static long[] total(long[] figures) {
+        for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+            figures[RoomTypeRegistry.TIERS] += figures[tier];
+        }
+        return figures;
+    }
+
+    /**
+     * A Fenwick tree of values per epoch day. The tree covers a window of days which doubles, and is
+     * rebuilt from the plain values it keeps alongside, whenever a day outside of it is added.
+     */
+    static class DaySeries {
+
+        private static final int INITIAL_DAYS = 1024;
+
+        private long base;
+        private long[] values;
+        private long[] tree;
+
+        /**
+         * {@code of} a series holding the given values from a day on
+         */
+        static DaySeries of(long base, long[] values) {
+            DaySeries series = new DaySeries();
+            series.base = base;
+            series.values = values;
+            series.build();
+            return series;
+        }
+
+        void add(long day, long delta) {
+            ensure(day);
+            int i = (int) (day - base);
+            values[i] += delta;
+            for (i++; i <= tree.length - 1; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        /**
+         * {@code value} the value of a day, 0 outside of the window
+         */
+        long value(long day) {
+            if (values == null || day < base || day >= base + values.length) {
+                return 0;
+            }
+            return values[(int) (day - base)];
+        }
+
+        /**
+         * {@code sumBefore} the sum of the values of every day before a day
+         */
+        long sumBefore(long day) {
+            if (values == null || day <= base) {
+                return 0;
+            }
+            int i = (int) Math.min(day - base, values.length);
+            long sum = 0;
+            for (; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        private void ensure(long day) {
+            if (values == null) {
+                base = day - INITIAL_DAYS / 2;
+                values = new long[INITIAL_DAYS];
+                tree = new long[INITIAL_DAYS + 1];
+                return;
+            }
+            if (day >= base && day < base + values.length) {
+                return;
+            }
+            long newBase = base;
+            long newEnd = base + values.length;
+            while (day < newBase || day >= newEnd) {
+                long length = newEnd - newBase;
+                if (day < newBase) {
+                    newBase -= length;
+                } else {
+                    newEnd += length;
+                }
+            }
+            long[] grown = new long[(int) (newEnd - newBase)];
+            System.arraycopy(values, 0, grown, (int) (base - newBase), values.length);
+            base = newBase;
+            values = grown;
+            build();
+        }
+
+        private void build() {
+            tree = new long[values.length + 1];
+            // linear time construction of the tree from the values
+            for (int i = 1; i < tree.length; i++) {
+                tree[i] += values[i - 1];
+                int parent = i + (i & -i);
+                if (parent < tree.length) {
+                    tree[parent] += tree[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a value to every day of a range and sums ranges, with the usual pair of Fenwick trees:
+     * after adding v to [l, r) the prefix sum up to x is first(x) * x - second(x).
+     */
+    static class RangeSeries {
+
+        private final DaySeries first;
+        private final DaySeries second;
+
+        RangeSeries() {
+            this(new DaySeries(), new DaySeries());
+        }
+
+        RangeSeries(DaySeries first, DaySeries second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        void add(long from, long to, long delta) {
+            first.add(from, delta);
+            first.add(to, -delta);
+            second.add(from, delta * from);
+            second.add(to, -delta * to);
+        }
+
+        long sum(long from, long to) {
+            return prefix(to) - prefix(from);
+        }
+
+        private long prefix(long day) {
+            return first.sumBefore(day) * day - second.sumBefore(day);
+        }
+    }
+}
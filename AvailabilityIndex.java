@@ -0,0 +1,212 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code AvailabilityIndex} keeps, for every room type, the number of rooms taken on each night.
+ * A stay from check-in to check-out occupies the nights [checkIn, checkOut), so two stays where
+ * one checks out on the day the other checks in do not overlap.
+ * <p>
+ * The counters of a room type are not synchronized: callers have to hold a lock which covers the room
+ * type, such as the striped locks of {@link ReservationSystem}, while they read or update it. Counters
+ * of different room types can be used concurrently.
+ */
+public class AvailabilityIndex {
+
+    private final Map<String, NightCounter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * {@code add} count the rooms of a reservation against the nights it covers
+     *
+     * @param reservation the reservation which has been stored
+     */
+    public void add(Reservation reservation) {
+        update(reservation, 1);
+    }
+
+    /**
+     * {@code remove} release the rooms of a reservation from the nights it covers
+     *
+     * @param reservation the reservation which has been removed
+     */
+    public void remove(Reservation reservation) {
+        update(reservation, -1);
+    }
+
+    /**
+     * {@code clear} forget every counted reservation
+     */
+    public void clear() {
+        counters.clear();
+    }
+
+    /**
+     * {@code rebuild} replace every count with the rooms of the rows of columns, adding up the stays of a
+     * room type as differences per night and summing them once instead of counting night by night
+     *
+     * @param columns the reservations
+     */
+    public void rebuild(ReservationColumns columns) {
+        int types = columns.typeCount();
+        long[] first = new long[types];
+        long[] last = new long[types];
+        Arrays.fill(first, Long.MAX_VALUE);
+        Arrays.fill(last, Long.MIN_VALUE);
+        columns.forEachRoom((typeId, checkIn, checkOut, occupancy, advancePurchase) -> {
+            first[typeId] = Math.min(first[typeId], checkIn);
+            last[typeId] = Math.max(last[typeId], checkOut);
+        });
+        int[][] taken = new int[types][];
+        for (int id = 0; id < types; id++) {
+            if (first[id] < last[id]) {
+                taken[id] = new int[(int) (last[id] - first[id]) + 1];
+            }
+        }
+        columns.forEachRoom((typeId, checkIn, checkOut, occupancy, advancePurchase) -> {
+            if (checkIn < checkOut) {
+                taken[typeId][(int) (checkIn - first[typeId])]++;
+                taken[typeId][(int) (checkOut - first[typeId])]--;
+            }
+        });
+        counters.clear();
+        for (int id = 0; id < types; id++) {
+            if (taken[id] == null) {
+                continue;
+            }
+            for (int i = 1; i < taken[id].length; i++) {
+                taken[id][i] += taken[id][i - 1];
+            }
+            NightCounter counter = new NightCounter();
+            counter.base = first[id];
+            counter.taken = taken[id];
+            counters.put(columns.typeName(id), counter);
+        }
+    }
+
+    /**
+     * {@code maxTaken} the highest number of rooms of one type taken on any night of a stay
+     *
+     * @param roomType the room type to look up
+     * @param checkIn  check in date
+     * @param checkOut check out date
+     * @return the number of rooms taken on the busiest night, 0 if none
+     */
+    public int maxTaken(String roomType, LocalDate checkIn, LocalDate checkOut) {
+        NightCounter counter = counters.get(roomType);
+        if (counter == null) {
+            return 0;
+        }
+        return counter.max(checkIn.toEpochDay(), checkOut.toEpochDay());
+    }
+
+    /**
+     * {@code taken} the number of rooms of one type taken on a single night
+     *
+     * @param roomType the room type to look up
+     * @param night    the night to look up
+     * @return the number of rooms taken on that night
+     */
+    public int taken(String roomType, LocalDate night) {
+        NightCounter counter = counters.get(roomType);
+        if (counter == null) {
+            return 0;
+        }
+        long day = night.toEpochDay();
+        return counter.max(day, day + 1);
+    }
+
+    /**
+     * {@code takenNights} the number of rooms of one type taken on every night of a range
+     *
+     * @param roomType the room type to look up
+     * @param from     epoch day of the first night
+     * @param to       epoch day after the last night
+     * @return the rooms taken on each night, a new array of to - from nights
+     */
+    public int[] takenNights(String roomType, long from, long to) {
+        int[] nights = new int[(int) Math.max(0, to - from)];
+        NightCounter counter = counters.get(roomType);
+        if (counter == null || counter.taken == null) {
+            return nights;
+        }
+        long start = Math.max(from, counter.base);
+        long end = Math.min(to, counter.base + counter.taken.length);
+        if (start < end) {
+            System.arraycopy(counter.taken, (int) (start - counter.base), nights, (int) (start - from),
+                    (int) (end - start));
+        }
+        return nights;
+    }
+
+    private void update(Reservation reservation, int delta) {
+        long from = reservation.getCheckIn().toEpochDay();
+        long to = reservation.getCheckOut().toEpochDay();
+        List<Room> rooms = reservation.getRoomList().getRooms();
+        for (Room room : rooms) {
+            counters.computeIfAbsent(room.getRoomType(), k -> new NightCounter()).add(from, to, delta);
+        }
+    }
+
+    /**
+     * Rooms taken per night for one room type, stored in an array which starts at {@code base}
+     * (an epoch day) and grows in either direction when a stay falls outside of it.
+     */
+    private static class NightCounter {
+
+        private static final int INITIAL_NIGHTS = 512;
+
+        private long base;
+        private int[] taken;
+
+        void add(long from, long to, int delta) {
+            if (from >= to) {
+                return;
+            }
+            ensureRange(from, to);
+            for (long day = from; day < to; day++) {
+                taken[(int) (day - base)] += delta;
+            }
+        }
+
+        int max(long from, long to) {
+            if (taken == null) {
+                return 0;
+            }
+            int start = (int) Math.max(from - base, 0);
+            int end = (int) Math.min(to - base, taken.length);
+            int max = 0;
+            for (int i = start; i < end; i++) {
+                if (taken[i] > max) {
+                    max = taken[i];
+                }
+            }
+            return max;
+        }
+
+        private void ensureRange(long from, long to) {
+            if (taken == null) {
+                base = from;
+                taken = new int[(int) Math.max(INITIAL_NIGHTS, to - from)];
+                return;
+            }
+            long newBase = base;
+            long newEnd = base + taken.length;
+            if (from < newBase) {
+                // grow towards the past by at least the current length to amortise copies
+                newBase = Math.min(from, base - taken.length);
+            }
+            if (to > newEnd) {
+                newEnd = Math.max(to, base + 2L * taken.length);
+            }
+            if (newBase == base && newEnd == base + taken.length) {
+                return;
+            }
+            int[] grown = new int[(int) (newEnd - newBase)];
+            System.arraycopy(taken, 0, grown, (int) (base - newBase), taken.length);
+            base = newBase;
+            taken = grown;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * {@code AvailabilityIndexCheck} books random stays of 1 to 3 rooms into an {@link AvailabilityIndex},
+ * cancels a share of them again and compares the rooms the index counts as taken with a brute-force
+ * overlap check over every stay still booked, for random stays of 1 to 21 nights, some of them reaching
+ * past the first or the last night booked. A second index rebuilt from the same stays as
+ * {@link ReservationColumns} must give the same answers.
+ * <p>
+ * Usage: {@code java AvailabilityIndexCheck [reservations] [queries] [seed]}
+ */
+public class AvailabilityIndexCheck {
+
+    private static final String[] TYPES = {"Classic Double", "Executive Twin", "Deluxe Suite"};
+    private static final LocalDate FIRST_NIGHT = LocalDate.of(2024, 1, 1);
+    private static final int HORIZON = 2000;
+
+    public static void main(String[] args) {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        SplittableRandom random = new SplittableRandom(args.length > 2 ? Long.parseLong(args[2]) : 1);
+
+        AvailabilityIndex index = new AvailabilityIndex();
+        List<Reservation> booked = new ArrayList<>(reservations);
+        for (int refNo = 0; refNo < reservations; refNo++) {
+            RoomList roomList = new RoomList();
+            int numOfRoom = 1 + random.nextInt(3);
+            for (int i = 0; i < numOfRoom; i++) {
+                roomList.add(new Room(TYPES[random.nextInt(TYPES.length)], 1));
+            }
+            LocalDate checkIn = FIRST_NIGHT.plusDays(random.nextInt(HORIZON));
+            Reservation reservation = new Reservation(refNo, "Guest", "S", checkIn,
+                    checkIn.plusDays(1 + random.nextInt(14)), numOfRoom, roomList, 0);
+            booked.add(reservation);
+            index.add(reservation);
+        }
+        // cancel a fifth of them, swapping the last stay into the place of every one cancelled
+        for (int i = 0; i < reservations / 5; i++) {
+            int victim = random.nextInt(booked.size());
+            index.remove(booked.get(victim));
+            booked.set(victim, booked.get(booked.size() - 1));
+            booked.remove(booked.size() - 1);
+        }
+        ReservationColumns columns = new ReservationColumns();
+        for (Reservation reservation : booked) {
+            columns.append(reservation);
+        }
+        AvailabilityIndex rebuilt = new AvailabilityIndex();
+        rebuilt.rebuild(columns);
+
+        long begin = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            String roomType = TYPES[random.nextInt(TYPES.length)];
+            long from = FIRST_NIGHT.toEpochDay() - 30 + random.nextInt(HORIZON + 60);
+            int nights = 1 + random.nextInt(21);
+            int[] expected = bruteForce(booked, roomType, from, nights);
+            int busiest = 0;
+            for (int night = 0; night < nights; night++) {
+                LocalDate date = LocalDate.ofEpochDay(from + night);
+                if (index.taken(roomType, date) != expected[night]
+                        || rebuilt.taken(roomType, date) != expected[night]) {
+                    throw new IllegalStateException("The index counts " + index.taken(roomType, date) + " and the"
+                            + " rebuilt index " + rebuilt.taken(roomType, date) + " rooms " + roomType + " taken on "
+                            + date + " instead of " + expected[night]);
+                }
+                busiest = Math.max(busiest, expected[night]);
+            }
+            LocalDate checkIn = LocalDate.ofEpochDay(from);
+            LocalDate checkOut = checkIn.plusDays(nights);
+            if (index.maxTaken(roomType, checkIn, checkOut) != busiest
+                    || rebuilt.maxTaken(roomType, checkIn, checkOut) != busiest) {
+                throw new IllegalStateException("The index counts " + index.maxTaken(roomType, checkIn, checkOut)
+                        + " rooms " + roomType + " taken at most from " + checkIn + " to " + checkOut
+                        + " instead of " + busiest);
+            }
+        }
+        System.out.printf("Both indexes match the overlap check of %d stays over %d queries in %.1f s%n",
+                booked.size(), queries, (System.nanoTime() - begin) / 1e9);
+    }
+
+    /**
+     * {@code bruteForce} count the rooms of a type taken on every night of a range by walking every stay
+     *
+     * @return the rooms taken on each night from the first
+     */
+    private static int[] bruteForce(List<Reservation> booked, String roomType, long from, int nights) {
+        int[] taken = new int[nights];
+        long to = from + nights;
+        for (Reservation reservation : booked) {
+            long checkIn = reservation.getCheckIn().toEpochDay();
+            long checkOut = reservation.getCheckOut().toEpochDay();
+            if (checkIn >= to || checkOut <= from) {
+                continue;
+            }
+            for (Room room : reservation.getRoomList().getRooms()) {
+                if (room.getRoomType().equals(roomType)) {
+                    for (long night = Math.max(checkIn, from); night < Math.min(checkOut, to); night++) {
+                        taken[(int) (night - from)]++;
+                    }
+                }
+            }
+        }
+        return taken;
+    }
+}
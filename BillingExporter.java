@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * {@code BillingExporter} appends the reservations which have been charged, those whose guests have
+ * checked out, to the billing file, each of them once. It keeps a watermark: the day before which every
+ * check out has been exported, and the highest reference number booked at the time. An export only
+ * writes the reservations which checked out since the watermark, plus those booked since whose check
+ * out had already passed, and then moves the watermark on.
+ * <p>
+ * Rows are encoded into one buffer and appended through a file channel a batch at a time. Optionally
+ * they are rolled into a file per month of check out, billing-2024-05.csv next to billing.csv, so that
+ * accounting can pick up a month without scanning the others.
+ * <p>
+ * The watermark is kept in billing.csv.watermark together with the length of every billing file. An
+ * export forces its rows to disk before it replaces the watermark atomically; when the exporter is
+ * opened after a crash in between, the files are cut back to the lengths of the watermark so no
+ * reservation is exported twice. A billing file written before there were watermarks is kept: the
+ * watermark is rebuilt from its rows, the day after the last check out and the highest reference number.
+ */
+public final class BillingExporter {
+
+    private static final int BATCH_BYTES = 1 << 16;
+
+    private final Path billing;
+    private final Path watermarkPath;
+    private final boolean monthly;
+    private long watermark = Long.MIN_VALUE;
+    private int lastRefNo = -1;
+    // length of every billing file as of the watermark, by file name
+    private final Map<String, Long> lengths = new TreeMap<>();
+
+    /**
+     * {@code BillingExporter} open the billing file and its watermark, undoing a crashed export
+     *
+     * @param billing the billing file
+     * @param monthly true to write a file per month of check out instead of the billing file itself
+     * @throws IOException if the files can not be read or repaired
+     */
+    public BillingExporter(Path billing, boolean monthly) throws IOException {
+        this.billing = billing;
+        this.watermarkPath = billing.resolveSibling(billing.getFileName() + ".watermark");
+        this.monthly = monthly;
+        recover();
+    }
+
+    /**
+     * {@code watermark} the day before which every check out has been exported
+     *
+     * @return the epoch day, Long.MIN_VALUE before the first export
+     */
+    public long watermark() {
+        return watermark;
+    }
+
+    /**
+     * {@code lastRefNo} the highest reference number booked at the last export
+     *
+     * @return the reference number, -1 before the first export
+     */
+    public int lastRefNo() {
+        return lastRefNo;
+    }
+
+    /**
+     * {@code isCharged} whether a reservation is charged by an export up to a day and has not been exported
+     * yet
+     *
+     * @param refNo    the reference number of the reservation
+     * @param checkOut the epoch day of its check out
+     * @param until    the day of the export, check outs before it are charged
+     * @return true if the export has to write the reservation
+     */
+    public boolean isCharged(int refNo, long checkOut, long until) {
+        return checkOut < until && (checkOut >= watermark || refNo > lastRefNo);
+    }
+
+    /**
+     * {@code export} append charged reservations, ordered by check out, and move the watermark on
+     *
+     * @param charged   the reservations selected by {@link #isCharged}
+     * @param until     the day of the export
+     * @param lastRefNo the highest reference number booked when the reservations were selected
+     * @return the number of reservations written
+     * @throws IOException if the rows or the watermark can not be written
+     */
+    public int export(List<Reservation> charged, long until, int lastRefNo) throws IOException {
+        List<Reservation> sorted = new ArrayList<>(charged);
+        sorted.sort(Comparator.comparing(Reservation::getCheckOut).thenComparingInt(Reservation::getRefNo));
+        Map<Path, FileChannel> channels = new LinkedHashMap<>();
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH_BYTES);
+        FileChannel current = null;
+        Path file = billing;
+        int month = Integer.MIN_VALUE;
+        try {
+            if (!monthly) {
+                channels.put(billing, open(billing));
+            }
+            for (Reservation reservation : sorted) {
+                LocalDate checkOut = reservation.getCheckOut();
+                if (monthly && checkOut.getYear() * 12 + checkOut.getMonthValue() != month) {
+                    // the reservations are sorted, so the file only changes with the month
+                    month = checkOut.getYear() * 12 + checkOut.getMonthValue();
+                    file = fileOf(checkOut);
+                }
+                FileChannel channel = channels.get(file);
+                if (channel == null) {
+                    channel = open(file);
+                    channels.put(file, channel);
+                }
+                byte[] row = (CSVEncoder.reservationRow(reservation) + "\n").getBytes(StandardCharsets.UTF_8);
+                if (channel != current || buffer.remaining() < row.length) {
+                    drain(buffer, current);
+                    current = channel;
+                }
+                if (row.length > buffer.capacity()) {
+                    write(ByteBuffer.wrap(row), current);
+                } else {
+                    buffer.put(row);
+                }
+            }
+            drain(buffer, current);
+            for (Map.Entry<Path, FileChannel> entry : channels.entrySet()) {
+                entry.getValue().force(false);
+                lengths.put(entry.getKey().getFileName().toString(), entry.getValue().size());
+            }
+        } finally {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+        this.watermark = Math.max(watermark, until);
+        this.lastRefNo = Math.max(this.lastRefNo, lastRefNo);
+        writeWatermark();
+        return sorted.size();
+    }
+
+    private Path fileOf(LocalDate checkOut) {
+        if (!monthly) {
+            return billing;
+        }
+        return billing.resolveSibling(String.format("%s-%04d-%02d.csv", stem(), checkOut.getYear(),
+                checkOut.getMonthValue()));
+    }
+
+    private String stem() {
+        String name = billing.getFileName().toString();
+        return name.endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    /**
+     * {@code open} open a billing file for appending, writing its header first if it is new
+     */
+    private static FileChannel open(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            new CSVEncoder(file.toString()).csvInit();
+        }
+        return FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        buffer.flip();
+        write(buffer, channel);
+        buffer.clear();
+    }
+
+    private static void write(ByteBuffer buffer, FileChannel channel) throws IOException {
+        Metrics.addBytes(Metrics.Operation.BILLING_EXPORT, buffer.remaining());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void recover() throws IOException {
+        if (!Files.exists(watermarkPath)) {
+            rebuildWatermark();
+            return;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(watermarkPath, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        try {
+            watermark = Long.parseLong(properties.getProperty("watermark"));
+            lastRefNo = Integer.parseInt(properties.getProperty("lastRefNo"));
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith("length.")) {
+                    lengths.put(key.substring("length.".length()), Long.parseLong(properties.getProperty(key)));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Billing watermark " + watermarkPath + " is corrupt", e);
+        }
+        // rows appended after the watermark was written belong to an export which did not finish
+        for (Map.Entry<String, Long> entry : lengths.entrySet()) {
+            Path file = billing.resolveSibling(entry.getKey());
+            if (Files.exists(file) && Files.size(file) > entry.getValue()) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(entry.getValue());
+                    channel.force(false);
+                }
+            }
+        }
+        // so do month files missing from the watermark
+        Path dir = billing.toAbsolutePath().getParent();
+        String months = stem() + "-[0-9][0-9][0-9][0-9]-[0-9][0-9].csv";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, months)) {
+            for (Path file : files) {
+                if (!lengths.containsKey(file.getFileName().toString())) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@code rebuildWatermark} take the watermark from a billing file written before there were watermarks,
+     * which was rewritten as a whole with every reservation charged at the time, so its rows stay and only
+     * the reservations charged since are appended
+     *
+     * @throws IOException if the billing file can not be read or holds a row which is not a reservation
+     */
+    private void rebuildWatermark() throws IOException {
+        if (!Files.exists(billing) || Files.size(billing) == 0) {
+            if (!monthly) {
+                new CSVEncoder(billing.toString()).csvInit();
+            }
+            return;
+        }
+        long[] lastCheckOut = {Long.MIN_VALUE};
+        int[] highestRefNo = {-1};
+        try {
+            new CSVEncoder(billing.toString()).csvStream(row -> {
+                // the first row is the header written by csvInit
+                if (row.number() > 0 && row.size() > 0 && !row.isEmpty(0)) {
+                    Reservation reservation = CSVEncoder.parseReservation(row);
+                    lastCheckOut[0] = Math.max(lastCheckOut[0], reservation.getCheckOut().toEpochDay());
+                    highestRefNo[0] = Math.max(highestRefNo[0], reservation.getRefNo());
+                }
+                return true;
+            });
+        } catch (RuntimeException e) {
+            throw new IOException("Billing file " + billing + " has no watermark and can not be read", e);
+        }
+        if (highestRefNo[0] < 0) {
+            // only the header, there is nothing to keep
+            return;
+        }
+        watermark = lastCheckOut[0] + 1;
+        lastRefNo = highestRefNo[0];
+        if (!monthly) {
+            lengths.put(billing.getFileName().toString(), Files.size(billing));
+        }
+        writeWatermark();
+    }
+
+    private void writeWatermark() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("watermark", Long.toString(watermark));
+        properties.setProperty("lastRefNo", Integer.toString(lastRefNo));
+        for (Map.Entry<String, Long> entry : lengths.entrySet()) {
+            properties.setProperty("length." + entry.getKey(), Long.toString(entry.getValue()));
+        }
+        Path tmp = watermarkPath.resolveSibling(watermarkPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = Channels.newOutputStream(channel);
+            properties.store(out, "billing watermark, check outs before the epoch day have been exported");
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, watermarkPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
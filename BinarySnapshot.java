@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * {@code BinarySnapshot} the hotel catalogue and the reservation book in a binary file, which loads
+ * without parsing any text. The file is memory mapped and the reservations are read column by column
+ * with bulk copies straight into {@link ReservationColumns}.
+ * <p>
+ * The layout, little endian throughout:
+ * <pre>
+ * header    int magic "HRBS", int version, int number of sections
+ * section   int tag, long length of the payload, int CRC32 of the payload, payload
+ * </pre>
+ * Section {@link #CATALOGUE} holds the room types with their number of rooms, maximal occupancy and
+ * rates; section {@link #RESERVATIONS} holds the reservation columns. A reader skips sections with tags
+ * it does not know and refuses versions newer than its own. Total costs are kept as the bits of their
+ * doubles, as in the columns, so a snapshot gives back the exact costs it was written from; version 1
+ * kept them in cents and is still read.
+ * <p>
+ * A snapshot is written to a temporary file which is forced to disk and then moved over the old one,
+ * so a crash leaves either the old or the new snapshot, never a mix.
+ */
+public final class BinarySnapshot {
+
+    /** The version written by this class, and the newest it reads. */
+    public static final int VERSION = 2;
+    /** Tag of the section holding the room types. */
+    public static final int CATALOGUE = 1;
+    /** Tag of the section holding the reservations. */
+    public static final int RESERVATIONS = 2;
+
+    private static final int MAGIC = 0x53425248;// "HRBS" read little endian
+    private static final int HEADER = 12;
+    private static final int SECTION_HEADER = 16;
+
+    private final RoomTypeRegistry roomTypes;
+    private final ReservationColumns reservations;
+
+    /**
+     * {@code BinarySnapshot} a snapshot of a catalogue and of reservations
+     *
+     * @param roomTypes    the room types of the catalogue
+     * @param reservations the reservations, empty rows are left out of the file
+     */
+    public BinarySnapshot(RoomTypeRegistry roomTypes, ReservationColumns reservations) {
+        this.roomTypes = roomTypes;
+        this.reservations = reservations;
+    }
+
+    /**
+     * {@code roomTypes} the room types of the catalogue
+     *
+     * @return the room types
+     */
+    public RoomTypeRegistry roomTypes() {
+        return roomTypes;
+    }
+
+    /**
+     * {@code reservations} the reservations
+     *
+     * @return the reservation columns, null if the snapshot was read without them
+     */
+    public ReservationColumns reservations() {
+        return reservations;
+    }
+
+    /**
+     * {@code write} write the snapshot, replacing the file atomically
+     *
+     * @param path the snapshot file
+     * @throws IOException if the snapshot can not be written
+     */
+    public void write(Path path) throws IOException {
+        long begin = System.nanoTime();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(2).flip();
+            channel.write(header);
+            writeSection(channel, CATALOGUE, this::writeCatalogue);
+            writeSection(channel, RESERVATIONS, reservations::write);
+            channel.force(true);
+            Metrics.addBytes(Metrics.Operation.SNAPSHOT_WRITE, channel.size());
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Metrics.record(Metrics.Operation.SNAPSHOT_WRITE, begin);
+    }
+
+    /**
+     * {@code read} read a whole snapshot
+     *
+     * @param path the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file can not be read, is corrupt or is of a newer version
+     */
+    public static BinarySnapshot read(Path path) throws IOException {
+        return read(path, true);
+    }
+
+    /**
+     * {@code read} read a snapshot
+     *
+     * @param path         the snapshot file
+     * @param reservations false to read only the catalogue, without mapping or checking the reservations
+     * @return the snapshot
+     * @throws IOException if the file can not be read, is corrupt or is of a newer version
+     */
+    public static BinarySnapshot read(Path path, boolean reservations) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER) {
+                throw corrupt(path, "it is too short");
+            }
+            ByteBuffer header = map(channel, 0, HEADER);
+            if (header.getInt() != MAGIC) {
+                throw corrupt(path, "it is not a snapshot");
+            }
+            int version = header.getInt();
+            if (version > VERSION) {
+                throw new IOException("Snapshot " + path + " has version " + version + ", newer than " + VERSION);
+            }
+            int sections = header.getInt();
+            RoomTypeRegistry roomTypes = new RoomTypeRegistry();
+            ReservationColumns columns = reservations ? new ReservationColumns() : null;
+            long position = HEADER;
+            for (int i = 0; i < sections; i++) {
+                if (position + SECTION_HEADER > size) {
+                    throw corrupt(path, "section " + i + " is cut short");
+                }
+                ByteBuffer sectionHeader = map(channel, position, SECTION_HEADER);
+                int tag = sectionHeader.getInt();
+                long length = sectionHeader.getLong();
+                int crc = sectionHeader.getInt();
+                position += SECTION_HEADER;
+                if (length < 0 || position + length > size || length > Integer.MAX_VALUE) {
+                    throw corrupt(path, "section " + i + " is cut short");
+                }
+                if (tag == CATALOGUE || (tag == RESERVATIONS && reservations)) {
+                    ByteBuffer payload = map(channel, position, length);
+                    CRC32 checksum = new CRC32();
+                    checksum.update(payload.duplicate());
+                    if ((int) checksum.getValue() != crc) {
+                        throw corrupt(path, "the checksum of section " + i + " does not match");
+                    }
+                    try {
+                        if (tag == CATALOGUE) {
+                            readCatalogue(payload, roomTypes);
+                        } else {
+                            columns = ReservationColumns.read(payload, version);
+                        }
+                    } catch (RuntimeException e) {
+                        throw corrupt(path, "section " + i + " can not be decoded: " + e);
+                    }
+                }
+                position += length;
+            }
+            return new BinarySnapshot(roomTypes, columns);
+        }
+    }
+
+    private void writeCatalogue(Output out) throws IOException {
+        out.putInt(roomTypes.size());
+        for (int id = 0; id < roomTypes.size(); id++) {
+            out.putString(roomTypes.name(id));
+            out.putInt(roomTypes.numberOfRooms(id));
+            out.putInt(roomTypes.maxOccupancy(id));
+            for (int rate : roomTypes.rates(id)) {
+                out.putInt(rate);
+            }
+        }
+    }
+
+    private static void readCatalogue(ByteBuffer in, RoomTypeRegistry roomTypes) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            String roomType = getString(in);
+            int numberOfRooms = in.getInt();
+            int maxOccupancy = in.getInt();
+            int[] rates = new int[7];
+            for (int day = 0; day < 7; day++) {
+                rates[day] = in.getInt();
+            }
+            roomTypes.register(roomType, numberOfRooms, maxOccupancy, rates);
+        }
+    }
+
+    /**
+     * {@code getString} read a string written by {@link Output#putString}
+     */
+    static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the payload of a section.
+     */
+    private interface SectionWriter {
+        void write(Output out) throws IOException;
+    }
+
+    private static void writeSection(FileChannel channel, int tag, SectionWriter writer) throws IOException {
+        long start = channel.position();
+        channel.position(start + SECTION_HEADER);
+        Output out = new Output(channel);
+        writer.write(out);
+        out.flush();
+        ByteBuffer header = ByteBuffer.allocate(SECTION_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(tag).putLong(out.length).putInt((int) out.crc.getValue()).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, start + header.position());
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static IOException corrupt(Path path, String reason) {
+        return new IOException("Snapshot " + path + " is corrupt, " + reason);
+    }
+
+    /**
+     * The payload of a section being written: values go through a buffer into the file, and are counted
+     * and checksummed on the way.
+     */
+    static final class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private long length;
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putShort(short value) throws IOException {
+            ensure(2);
+            buffer.putShort(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putBytes(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                ensure(1);
+                int chunk = Math.min(count, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+                count -= chunk;
+            }
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes, 0, bytes.length);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            length += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
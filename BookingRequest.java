@@ -0,0 +1,52 @@
+import java.time.LocalDate;
+
+/**
+ * {@code BookingRequest} one booking of a batch passed to {@link ReservationSystem#bookBatch}: the party,
+ * its stay and the rooms it wants. The reference number and the total cost are given by the system when
+ * the booking is accepted.
+ */
+public final class BookingRequest {
+
+    private final String name;
+    private final String resType;
+    private final LocalDate checkIn;
+    private final LocalDate checkOut;
+    private final RoomList roomList;
+
+    /**
+     * {@code BookingRequest} a booking to make
+     *
+     * @param name     name of the person booking
+     * @param resType  type of reservation, "S" or "AP"
+     * @param checkIn  check in date
+     * @param checkOut check out date
+     * @param roomList the rooms, 1 to 3 of them
+     */
+    public BookingRequest(String name, String resType, LocalDate checkIn, LocalDate checkOut, RoomList roomList) {
+        this.name = name;
+        this.resType = resType;
+        this.checkIn = checkIn;
+        this.checkOut = checkOut;
+        this.roomList = roomList;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getResType() {
+        return resType;
+    }
+
+    public LocalDate getCheckIn() {
+        return checkIn;
+    }
+
+    public LocalDate getCheckOut() {
+        return checkOut;
+    }
+
+    public RoomList getRoomList() {
+        return roomList;
+    }
+}
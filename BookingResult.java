@@ -0,0 +1,57 @@
+/**
+ * {@code BookingResult} what became of one booking of a batch: the reservation made for it, or the
+ * reason it was rejected. A booking is accepted or rejected as a whole, never for some of its rooms.
+ */
+public final class BookingResult {
+
+    /**
+     * Why a booking was accepted or rejected.
+     */
+    public enum Reason {
+        /** The booking was made. */
+        BOOKED,
+        /** The booking has no rooms, more than 3, or is not a stay ReservationSystem.isValidStay accepts. */
+        INVALID,
+        /** A room type of the booking is not in the hotel catalogue. */
+        UNKNOWN_ROOM_TYPE,
+        /** Too few rooms of a type are left on a night of the stay. */
+        NO_AVAILABILITY,
+        /** The reference number handed to the booking is already booked, so its rooms were given back. */
+        DUPLICATE_REF_NO,
+        /** The batch could not be written to disk, so none of it was booked. */
+        NOT_PERSISTED
+    }
+
+    private final BookingRequest request;
+    private final Reservation reservation;
+    private final Reason reason;
+
+    /**
+     * {@code BookingResult} the outcome of a booking
+     *
+     * @param request     the booking
+     * @param reservation the reservation made, null if the booking was rejected
+     * @param reason      BOOKED, or why the booking was rejected
+     */
+    public BookingResult(BookingRequest request, Reservation reservation, Reason reason) {
+        this.request = request;
+        this.reservation = reservation;
+        this.reason = reason;
+    }
+
+    public BookingRequest getRequest() {
+        return request;
+    }
+
+    public Reservation getReservation() {
+        return reservation;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public boolean isBooked() {
+        return reason == Reason.BOOKED;
+    }
+}
@@ -0,0 +1,527 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@code BookingServer} serves the operations of a {@link ReservationSystem} as a JSON API over HTTP,
+ * using the HTTP server of the JDK and one virtual thread per request. Request and response bodies are
+ * JSON objects; dates are written as yyyy-mm-dd and rooms as {@code {"roomType": .., "occupancy": ..}}.
+ * <pre>
+ * GET    /roomtypes                          room types with their number of rooms and occupancy
+ * POST   /roomtypes/reload                   read the rates from the hotel file again -> the room types
+ * POST   /availability                       {roomType, checkIn, checkOut} -> {available}
+ * POST   /availability/search                {checkIn, checkOut[, partySize, resType]} -> [offer, ..]
+ * POST   /availability/flexible              {month, nights[, partySize, resType]} -> [offer, ..]
+ * POST   /quote                              {rooms, checkIn, checkOut, resType} -> {totalCost}
+ * POST   /reservations                       {name, resType, checkIn, checkOut, rooms} -> reservation
+ * GET    /reservations?name=&from=&to=&roomType=&resType=&cursor=&limit=
+ *                                            a page of the reservations -> {reservations, next}
+ * POST   /reservations/batch                 {bookings: [booking, ..]} -> [{reason[, reservation]}, ..]
+ * GET    /reservations/{refNo}               the reservation
+ * DELETE /reservations/{refNo}               cancel it -> {refNo, refund}
+ * POST   /waitlist                           {name, resType, checkIn, checkOut, rooms[, priority]}
+ *                                            book it, or wait for a cancellation -> {id, status[, reservation]}
+ * DELETE /waitlist/{id}                      leave the waitlist -> {id, status}
+ * POST   /analysis/occupancy-figures         {start, end[, mode]} -> [3-star, 4-star, 5-star, total]
+ * POST   /analysis/occupancy-rates           {start, end[, mode]} -> [3-star, 4-star, 5-star, total]
+ * POST   /analysis/billing                   {start, end[, mode]} -> [3-star, 4-star, 5-star, total]
+ * </pre>
+ * The analyses count stays overlapping the period by default, or only stays contained in it with
+ * {@code "mode": "contained"}, as the console analysis methods do. Stays longer than
+ * {@link ReservationSystem#MAX_NIGHTS} nights or beyond {@link ReservationSystem#BOOKING_HORIZON} days of today
+ * are refused with 400, and with {@code INVALID} in a batch. A booking or cancellation that can not be
+ * written to the reservation journal is answered with 503 and is not made. A reload of the rates from a
+ * hotel file that can not be read is answered with 503 too, and keeps the old rates.
+ */
+public class BookingServer {
+
+    static {
+        // the JDK server writes the headers and the body of a response separately, and without TCP_NODELAY
+        // the body waits for the delayed ack of the headers on keep-alive connections
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final ReservationSystem reservationSystem;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * {@code BookingServer} bind the server to a port, it does not accept requests before start
+     *
+     * @param reservationSystem the system serving the requests
+     * @param port              the port to listen on, 0 for any free port
+     * @throws IOException if the port can not be bound
+     */
+    public BookingServer(ReservationSystem reservationSystem, int port) throws IOException {
+        this.reservationSystem = reservationSystem;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/roomtypes", exchange -> handle(exchange, "GET", this::roomTypes));
+        server.createContext("/roomtypes/reload", exchange -> handle(exchange, "POST", this::reloadRates));
+        server.createContext("/availability", exchange -> handle(exchange, "POST", this::availability));
+        server.createContext("/availability/search", exchange -> handle(exchange, "POST", this::search));
+        server.createContext("/availability/flexible", exchange -> handle(exchange, "POST", this::flexible));
+        server.createContext("/quote", exchange -> handle(exchange, "POST", this::quote));
+        server.createContext("/reservations", this::reservations);
+        server.createContext("/waitlist", this::waitlist);
+        server.createContext("/analysis/occupancy-figures", exchange -> handle(exchange, "POST", this::figures));
+        server.createContext("/analysis/occupancy-rates", exchange -> handle(exchange, "POST", this::rates));
+        server.createContext("/analysis/billing", exchange -> handle(exchange, "POST", this::billing));
+    }
+
+    /**
+     * {@code start} start accepting requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * {@code port} the port the server listens on
+     *
+     * @return the bound port
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * {@code stop} stop accepting requests and wait up to a second for running ones
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * A request handler which turns a JSON request into a JSON response.
+     */
+    private interface Endpoint {
+        Object serve(Map<String, Object> request);
+    }
+
+    private void handle(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals(method)) {
+                respond(exchange, 405, error("Use " + method));
+                return;
+            }
+            respond(exchange, 200, endpoint.serve(readBody(exchange)));
+        } catch (IllegalArgumentException | DateTimeParseException | ClassCastException e) {
+            respond(exchange, 400, error(e.getMessage()));
+        } catch (NoSuchElementException e) {
+            respond(exchange, 404, error(e.getMessage()));
+        } catch (UncheckedIOException e) {
+            respond(exchange, 503, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            respond(exchange, 500, error("Internal error"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void reservations(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/reservations/batch")) {
+                if (!method.equals("POST")) {
+                    respond(exchange, 405, error("Use POST"));
+                    return;
+                }
+                respond(exchange, 200, bookBatch(readBody(exchange)));
+                return;
+            }
+            if (path.equals("/reservations") || path.equals("/reservations/")) {
+                if (method.equals("GET")) {
+                    respond(exchange, 200, list(parameters(exchange.getRequestURI().getRawQuery())));
+                    return;
+                }
+                if (!method.equals("POST")) {
+                    respond(exchange, 405, error("Use GET or POST"));
+                    return;
+                }
+                Reservation reservation = book(readBody(exchange));
+                if (reservation == null) {
+                    respond(exchange, 409, error("There is no room available"));
+                } else {
+                    respond(exchange, 201, toJson(reservation));
+                }
+                return;
+            }
+            int refNo = Integer.parseInt(path.substring("/reservations/".length()));
+            Reservation reservation = reservationSystem.findReservation(refNo);
+            switch (method) {
+                case "GET" -> respond(exchange, 200, toJson(reservation));
+                case "DELETE" -> {
+                    double refund = reservationSystem.refundFor(reservation);
+                    if (!reservationSystem.cancel(reservation)) {
+                        throw new NoSuchElementException("Reservation " + refNo + " is already canceled");
+                    }
+                    Map<String, Object> response = new LinkedHashMap<>();
+                    response.put("refNo", refNo);
+                    response.put("refund", refund);
+                    respond(exchange, 200, response);
+                }
+                default -> respond(exchange, 405, error("Use GET or DELETE"));
+            }
+        } catch (IllegalArgumentException | DateTimeParseException | ClassCastException e) {
+            respond(exchange, 400, error(e.getMessage()));
+        } catch (NoSuchElementException e) {
+            respond(exchange, 404, error("No such reservation"));
+        } catch (UncheckedIOException e) {
+            respond(exchange, 503, error("The reservation journal can not be written"));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            respond(exchange, 500, error("Internal error"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void waitlist(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/waitlist") || path.equals("/waitlist/")) {
+                if (!method.equals("POST")) {
+                    respond(exchange, 405, error("Use POST"));
+                    return;
+                }
+                Map<String, Object> request = readBody(exchange);
+                Object priority = request.get("priority");
+                WaitlistEntry entry = reservationSystem.joinWaitlist(new BookingRequest(text(request, "name"),
+                        resType(request), date(request, "checkIn"), date(request, "checkOut"), rooms(request)),
+                        priority == null ? 0 : ((Number) priority).intValue());
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("id", entry.getId());
+                if (entry.getAllocation().isDone()) {
+                    response.put("status", "BOOKED");
+                    response.put("reservation", toJson(entry.getAllocation().join()));
+                    respond(exchange, 201, response);
+                } else {
+                    response.put("status", "WAITING");
+                    respond(exchange, 202, response);
+                }
+                return;
+            }
+            if (!method.equals("DELETE")) {
+                respond(exchange, 405, error("Use DELETE"));
+                return;
+            }
+            long id = Long.parseLong(path.substring("/waitlist/".length()));
+            WaitlistEntry entry = reservationSystem.getWaitlist().find(id);
+            if (entry == null || !reservationSystem.leaveWaitlist(entry)) {
+                throw new NoSuchElementException();
+            }
+            respond(exchange, 200, Map.of("id", id, "status", "WITHDRAWN"));
+        } catch (IllegalArgumentException | DateTimeParseException | ClassCastException e) {
+            respond(exchange, 400, error(e.getMessage()));
+        } catch (NoSuchElementException e) {
+            respond(exchange, 404, error("No such waitlist entry"));
+        } catch (UncheckedIOException e) {
+            respond(exchange, 503, error("The reservation journal can not be written"));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            respond(exchange, 500, error("Internal error"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Object roomTypes(Map<String, Object> request) {
+        RoomTypeRegistry roomTypes = reservationSystem.getRoomTypes();
+        List<Object> types = new ArrayList<>();
+        for (int id = 0; id < roomTypes.size(); id++) {
+            Map<String, Object> type = new LinkedHashMap<>();
+            type.put("roomType", roomTypes.name(id));
+            type.put("numberOfRooms", roomTypes.numberOfRooms(id));
+            type.put("maxOccupancy", roomTypes.maxOccupancy(id));
+            type.put("rates", roomTypes.rates(id));
+            types.add(type);
+        }
+        return types;
+    }
+
+    private Object reloadRates(Map<String, Object> request) {
+        if (reservationSystem.reloadRates() == null) {
+            throw new UncheckedIOException("The hotel file can not be read",
+                    new IOException("Can not read file hotel.csv"));
+        }
+        return roomTypes(request);
+    }
+
+    private Object availability(Map<String, Object> request) {
+        LocalDate checkIn = date(request, "checkIn");
+        LocalDate checkOut = date(request, "checkOut");
+        // reversed dates find no night taken, and dates of centuries away overflow the nights of the index
+        ReservationSystem.checkStay(checkIn, checkOut);
+        boolean available = reservationSystem.available(roomType(text(request, "roomType")), checkIn, checkOut);
+        return Map.of("available", available);
+    }
+
+    private Object search(Map<String, Object> request) {
+        return offers(reservationSystem.searchAvailability(date(request, "checkIn"), date(request, "checkOut"),
+                partySize(request), resType(request)));
+    }
+
+    private Object flexible(Map<String, Object> request) {
+        YearMonth month = YearMonth.parse(text(request, "month"));
+        if (!(request.get("nights") instanceof Number nights) || nights.intValue() <= 0) {
+            throw new IllegalArgumentException("nights has to be a positive number");
+        }
+        return offers(reservationSystem.searchFlexible(month, nights.intValue(), partySize(request),
+                resType(request)));
+    }
+
+    private static int partySize(Map<String, Object> request) {
+        Object partySize = request.getOrDefault("partySize", 1);
+        if (!(partySize instanceof Number number) || number.intValue() <= 0) {
+            throw new IllegalArgumentException("partySize has to be a positive number");
+        }
+        return number.intValue();
+    }
+
+    private static List<Object> offers(List<RoomOffer> offers) {
+        List<Object> json = new ArrayList<>();
+        for (RoomOffer offer : offers) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("roomType", offer.getRoomType());
+            item.put("checkIn", offer.getCheckIn().toString());
+            item.put("checkOut", offer.getCheckOut().toString());
+            item.put("remaining", offer.getRemaining());
+            item.put("maxOccupancy", offer.getMaxOccupancy());
+            item.put("totalCost", offer.getTotalCost());
+            json.add(item);
+        }
+        return json;
+    }
+
+    private Object quote(Map<String, Object> request) {
+        double totalCost = reservationSystem.calcTotalCost(rooms(request), date(request, "checkIn"),
+                date(request, "checkOut"), resType(request));
+        return Map.of("totalCost", totalCost);
+    }
+
+    private Reservation book(Map<String, Object> request) {
+        RoomList roomList = rooms(request);
+        int numOfRoom = roomList.getRooms().size();
+        if (numOfRoom == 0 || numOfRoom > 3) {
+            throw new IllegalArgumentException("A reservation holds 1 to 3 rooms");
+        }
+        LocalDate checkIn = date(request, "checkIn");
+        LocalDate checkOut = date(request, "checkOut");
+        // a stay of centuries would make the indexes and the prices work through every night of it
+        ReservationSystem.checkStay(checkIn, checkOut);
+        String resType = resType(request);
+        double totalCost = reservationSystem.calcTotalCost(roomList, checkIn, checkOut, resType);
+        return reservationSystem.makeReservation(reservationSystem.nextRefNo(), text(request, "name"), resType,
+                checkIn, checkOut, numOfRoom, roomList, totalCost);
+    }
+
+    private Object list(Map<String, String> parameters) {
+        ReservationQuery query = ReservationQuery.all();
+        if (parameters.containsKey("name")) {
+            query = query.withNamePrefix(parameters.get("name"));
+        }
+        if (parameters.containsKey("from") || parameters.containsKey("to")) {
+            LocalDate from = parameters.containsKey("from") ? LocalDate.parse(parameters.get("from")) : LocalDate.MIN;
+            LocalDate to = parameters.containsKey("to") ? LocalDate.parse(parameters.get("to")) : LocalDate.MAX;
+            query = query.withStay(from, to);
+        }
+        if (parameters.containsKey("roomType")) {
+            query = query.withRoomType(parameters.get("roomType"));
+        }
+        if (parameters.containsKey("resType")) {
+            query = query.withResType(parameters.get("resType").toUpperCase());
+        }
+        int cursor = parameters.containsKey("cursor") ? Integer.parseInt(parameters.get("cursor"))
+                : ReservationPage.FIRST;
+        int limit = Integer.parseInt(parameters.getOrDefault("limit", "50"));
+        if (limit <= 0 || limit > 1000) {
+            throw new IllegalArgumentException("limit has to be from 1 to 1000");
+        }
+        ReservationPage page = reservationSystem.queryReservations(query, cursor, limit);
+        List<Object> reservations = new ArrayList<>();
+        for (Reservation reservation : page.getReservations()) {
+            reservations.add(toJson(reservation));
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("reservations", reservations);
+        json.put("next", page.hasNext() ? page.getNextCursor() : null);
+        return json;
+    }
+
+    private static Map<String, String> parameters(String rawQuery) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private Object bookBatch(Map<String, Object> request) {
+        if (!(request.get("bookings") instanceof List<?> bookings)) {
+            throw new IllegalArgumentException("Missing bookings");
+        }
+        List<BookingRequest> requests = new ArrayList<>();
+        for (Object item : bookings) {
+            if (!(item instanceof Map<?, ?>)) {
+                throw new IllegalArgumentException("A booking is an object");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> booking = (Map<String, Object>) item;
+            // unknown room types are rejected per booking rather than failing the batch
+            requests.add(new BookingRequest(text(booking, "name"), resType(booking), date(booking, "checkIn"),
+                    date(booking, "checkOut"), roomList(booking)));
+        }
+        List<Object> results = new ArrayList<>();
+        for (BookingResult result : reservationSystem.bookBatch(requests)) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("reason", result.getReason().name());
+            if (result.isBooked()) {
+                json.put("reservation", toJson(result.getReservation()));
+            }
+            results.add(json);
+        }
+        return results;
+    }
+
+    private Object figures(Map<String, Object> request) {
+        LocalDate start = date(request, "start");
+        LocalDate end = date(request, "end");
+        return contained(request) ? reservationSystem.analyseOccupancyFigures(start, end)
+                : reservationSystem.reportOccupancyFigures(start, end);
+    }
+
+    private Object rates(Map<String, Object> request) {
+        LocalDate start = date(request, "start");
+        LocalDate end = date(request, "end");
+        return contained(request) ? reservationSystem.analyseOccupancyRates(start, end)
+                : reservationSystem.reportOccupancyRates(start, end);
+    }
+
+    private Object billing(Map<String, Object> request) {
+        LocalDate start = date(request, "start");
+        LocalDate end = date(request, "end");
+        return contained(request) ? reservationSystem.analyseBilling(start, end)
+                : reservationSystem.reportBilling(start, end);
+    }
+
+    private static boolean contained(Map<String, Object> request) {
+        return "contained".equals(request.get("mode"));
+    }
+
+    private static Map<String, Object> toJson(Reservation reservation) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("refNo", reservation.getRefNo());
+        json.put("name", reservation.getName());
+        json.put("resType", reservation.getResType());
+        json.put("checkIn", reservation.getCheckIn().toString());
+        json.put("checkOut", reservation.getCheckOut().toString());
+        List<Object> rooms = new ArrayList<>();
+        for (Room room : reservation.getRoomList().getRooms()) {
+            rooms.add(Map.of("roomType", room.getRoomType(), "occupancy", room.getOccupancy()));
+        }
+        json.put("rooms", rooms);
+        json.put("totalCost", reservation.getTotalCost());
+        return json;
+    }
+
+    private RoomList rooms(Map<String, Object> request) {
+        RoomList roomList = roomList(request);
+        for (Room room : roomList.getRooms()) {
+            roomType(room.getRoomType());
+        }
+        return roomList;
+    }
+
+    private static RoomList roomList(Map<String, Object> request) {
+        Object rooms = request.get("rooms");
+        if (!(rooms instanceof List<?> list)) {
+            throw new IllegalArgumentException("Missing rooms");
+        }
+        RoomList roomList = new RoomList();
+        for (Object item : list) {
+            if (!(item instanceof Map<?, ?> room) || room.get("roomType") == null) {
+                throw new IllegalArgumentException("A room is an object with roomType and occupancy");
+            }
+            String roomType = String.valueOf(room.get("roomType"));
+            Object occupancy = room.get("occupancy");
+            roomList.add(new Room(roomType,
+                    occupancy == null ? 1 : ((Number) occupancy).intValue()));
+        }
+        return roomList;
+    }
+
+    private String roomType(String roomType) {
+        if (reservationSystem.getRoomTypes().id(roomType) < 0) {
+            throw new IllegalArgumentException("Unknown room type " + roomType);
+        }
+        return roomType;
+    }
+
+    private static String resType(Map<String, Object> request) {
+        return "AP".equalsIgnoreCase(String.valueOf(request.get("resType"))) ? "AP" : "S";
+    }
+
+    private static LocalDate date(Map<String, Object> request, String name) {
+        return LocalDate.parse(text(request, name));
+    }
+
+    private static String text(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return value.toString();
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        if (body.length == 0) {
+            return new LinkedHashMap<>();
+        }
+        return Json.parseObject(new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, Object> error(String message) {
+        return Map.of("error", message == null ? "Invalid request" : message);
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
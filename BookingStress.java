@@ -0,0 +1,187 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code BookingStress} lets several threads book random rooms on one {@link ReservationSystem} at the
+ * same time, for 1, 2, 4 ... threads up to the number of cores, and reports the bookings per second of
+ * every run. After each run it counts the rooms taken per room type and night from scratch and fails if
+ * any night holds more rooms than the hotel has, or if a reference number was handed out twice.
+ * <p>
+ * Every run makes the same number of attempts against the same capacity, split between its threads, and
+ * keeps the reservations in memory, so the runs differ only in how many threads share the locks. The
+ * speed-up of the last run over the first is reported together with the parallel efficiency, the speed-up
+ * per thread the cores can run at once, so the bar is scaled to the cores of the machine. The stress test
+ * fails if the efficiency is below a minimum efficiency, 0.5 by default or the one given. The bookings
+ * start tomorrow, so they stay within the booking horizon.
+ * <p>
+ * Usage: {@code java BookingStress [attemptsPerThread] [maxThreads] [roomTypes] [efficiency]}
+ */
+public class BookingStress {
+
+    private static final LocalDate FIRST_NIGHT = LocalDate.now().plusDays(1);
+    private static final int HORIZON = 365;
+
+    public static void main(String[] args) throws Exception {
+        int attempts = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int types = args.length > 2 ? Integer.parseInt(args[2]) : 48;
+        // the minimum speed-up per thread the cores can run at once
+        double efficiency = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+        long total = (long) attempts * maxThreads;
+        Path dir = Files.createTempDirectory("booking-stress");
+        Path hotels = writeCatalogue(dir, types);
+
+        System.out.printf("%8s %12s %12s %14s%n", "threads", "attempts", "booked", "bookings/s");
+        boolean failed = false;
+        double first = 0;
+        double last = 0;
+        // step 0 is a run of one thread to warm up the JIT, left out of the speed-up
+        for (int step = 0; ; step = Math.max(1, 2 * step)) {
+            int threads = Math.max(1, Math.min(step, maxThreads));
+            Path run = Files.createDirectories(dir.resolve(step == 0 ? "warm-up" : "run-" + threads));
+            ReservationSystem system = new ReservationSystem(hotels.toString(),
+                    run.resolve("reservation.csv").toString(), run.resolve("billing.csv").toString());
+            system.decodeHotelCSV();
+            system.openJournal(run.resolve("reservation.journal").toString());
+            // the runs measure the locks, not the disk
+            system.detachStorage();
+            long perThread = total / threads;
+
+            AtomicLong booked = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                Thread agent = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (long i = 0; i < perThread; i++) {
+                            if (book(system, types) != null) {
+                                booked.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+                agent.start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            done.await();
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            double throughput = threads * perThread / seconds;
+            System.out.printf("%8s %12d %12d %14.0f%n", step == 0 ? "warm-up" : threads, threads * perThread,
+                    booked.get(), throughput);
+            if (step == 1) {
+                first = throughput;
+            }
+            last = throughput;
+            failed |= !verify(system, types);
+            system.closeJournal();
+            if (step > 0 && threads == maxThreads) {
+                break;
+            }
+        }
+        if (maxThreads > 1) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            int parallel = Math.min(maxThreads, cores);
+            double speedUp = last / first;
+            System.out.printf("Speed-up of %d threads over 1: %.2f, parallel efficiency %.2f on %d cores%n",
+                    maxThreads, speedUp, speedUp / parallel, cores);
+            if (speedUp / parallel < efficiency) {
+                System.err.printf("Throughput does not scale with the threads, a minimum efficiency of %.2f is"
+                        + " required%n", efficiency);
+                failed = true;
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+        System.out.println("Capacity was never exceeded and every reference number is unique");
+    }
+
+    private static Reservation book(ReservationSystem system, int types) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RoomList roomList = new RoomList();
+        int numOfRoom = 1 + random.nextInt(3);
+        for (int i = 0; i < numOfRoom; i++) {
+            roomList.add(new Room(roomType(random.nextInt(types)), 1));
+        }
+        LocalDate checkIn = FIRST_NIGHT.plusDays(random.nextInt(HORIZON));
+        LocalDate checkOut = checkIn.plusDays(1 + random.nextInt(7));
+        String resType = random.nextBoolean() ? "S" : "AP";
+        double totalCost = system.calcTotalCost(roomList, checkIn, checkOut, resType);
+        return system.makeReservation(system.nextRefNo(), "agent", resType, checkIn, checkOut, numOfRoom,
+                roomList, totalCost);
+    }
+
+    /**
+     * {@code verify} recount the rooms taken per room type and night from the reservations themselves
+     *
+     * @return true if no night holds more rooms than there are
+     */
+    private static boolean verify(ReservationSystem system, int types) {
+        List<Reservation> reservations = system.getResList();
+        int[][] taken = new int[types][HORIZON + 8];
+        Set<Integer> refNos = new HashSet<>();
+        boolean ok = true;
+        for (Reservation reservation : reservations) {
+            if (!refNos.add(reservation.getRefNo())) {
+                System.err.println("Reference number " + reservation.getRefNo() + " was used twice");
+                ok = false;
+            }
+            int from = (int) (reservation.getCheckIn().toEpochDay() - FIRST_NIGHT.toEpochDay());
+            int to = (int) (reservation.getCheckOut().toEpochDay() - FIRST_NIGHT.toEpochDay());
+            for (Room room : reservation.getRoomList().getRooms()) {
+                int typeId = system.getRoomTypes().id(room.getRoomType());
+                for (int night = from; night < to; night++) {
+                    taken[typeId][night]++;
+                }
+            }
+        }
+        for (int typeId = 0; typeId < types; typeId++) {
+            int rooms = system.getRoomTypes().numberOfRooms(typeId);
+            for (int night = 0; night < taken[typeId].length; night++) {
+                if (taken[typeId][night] > rooms) {
+                    System.err.println(system.getRoomTypes().name(typeId) + " is overbooked on "
+                            + FIRST_NIGHT.plusDays(night) + ": " + taken[typeId][night] + " of " + rooms);
+                    ok = false;
+                }
+            }
+        }
+        return ok;
+    }
+
+    private static String roomType(int i) {
+        String[] tiers = {"Classic", "Executive", "Deluxe"};
+        return tiers[i % 3] + " Room " + i;
+    }
+
+    private static Path writeCatalogue(Path dir, int types) throws IOException {
+        Path hotels = dir.resolve("hotels.csv");
+        try (BufferedWriter bw = Files.newBufferedWriter(hotels)) {
+            bw.append("Hotel,Room type,Number of rooms,Min occupancy,Max occupancy,Mon,Tue,Wed,Thu,Fri,Sat,Sun\n");
+            bw.append(",,,,,,,,,,,\n");
+            for (int i = 0; i < types; i++) {
+                int rate = 60 + 40 * (i % 3);
+                bw.append("Stress hotel,").append(roomType(i)).append(",10,1,2");
+                for (int day = 0; day < 7; day++) {
+                    bw.append(",").append(String.valueOf(day < 4 ? rate : rate + 20));
+                }
+                bw.append("\n");
+            }
+        }
+        return hotels;
+    }
+}
@@ -1,5 +1,13 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -10,6 +18,9 @@ import java.util.List;
  */
 public class CSVEncoder {
 
+	// size of the part of a file which is mapped into memory at once while streaming it
+	private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
 	private String path;
 
 	/**
@@ -22,53 +33,155 @@ public class CSVEncoder {
 	}
 
 	/**
-	 * {@code csvRead} read the file and store it into 2d array
+	 * {@code RowVisitor} receives the rows of a streamed csv file one at a time
+	 */
+	public interface RowVisitor {
+
+		/**
+		 * {@code visit} handle one row, which is only valid until this method returns
+		 * 
+		 * @param row the current row
+		 * @return false to stop reading the file
+		 * @throws IOException
+		 */
+		boolean visit(CSVRow row) throws IOException;
+	}
+
+	/**
+	 * {@code csvRead} read the file and store it into 2d array, rows shorter than the widest one are
+	 * padded with empty fields
 	 * 
-	 * @return the encoded file
+	 * @return the encoded file, an empty array if the file is empty
 	 * @throws IOException
 	 */
 	public String[][] csvRead() throws IOException {
-		ArrayList<ArrayList<String>> content = new ArrayList<>();
-		ArrayList<String> lineFormatted = new ArrayList<>();
-
-		try (Reader fr = new FileReader(path)) {
-			// use BufferedReader to read the file line by line
-			BufferedReader br = new BufferedReader(fr);
-			StringBuilder sb = new StringBuilder();
-			String line;
-			while (true) {
-				line = br.readLine();
-				if (line == null) {
-					break;
+		List<String[]> content = new ArrayList<>();
+		csvStream(row -> content.add(row.toArray()));
+		int width = 0;
+		for (String[] line : content) {
+			width = Math.max(width, line.length);
+		}
+		// line first, then column
+		String[][] result = new String[content.size()][];
+		for (int i = 0; i < content.size(); i++) {
+			String[] line = content.get(i);
+			result[i] = line.length == width ? line : Arrays.copyOf(line, width);
+			Arrays.fill(result[i], line.length, width, "");
+		}
+		return result;
+	}
+
+	/**
+	 * {@code csvStream} read the file row by row without loading it. The file is memory-mapped in windows
+	 * and every row is parsed in place, so memory use does not depend on the size of the file. Fields may
+	 * be quoted with double quotes, in which case they can contain commas, line breaks and doubled quotes.
+	 * 
+	 * @param visitor the visitor which receives every row
+	 * @throws IOException if the file can not be read or a row is longer than a mapping window
+	 */
+	public void csvStream(RowVisitor visitor) throws IOException {
+		long begin = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+			long size = channel.size();
+			long offset = 0;
+			long number = 0;
+			int window = (int) Math.min(size, MAP_WINDOW);
+			CSVRow row = new CSVRow();
+			while (offset < size) {
+				long length = Math.min(window, size - offset);
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+				boolean last = offset + length == size;
+				int pos = 0;
+				while (pos < length) {
+					row.reset(buffer, number);
+					int next = parseRow(buffer, pos, (int) length, last, row);
+					if (next < 0) {
+						break;// the row continues after this window
+					}
+					number++;
+					pos = next;
+					if (!visitor.visit(row)) {
+						return;
+					}
 				}
-				// for loop reads every char in this line
-				for (char c : line.toCharArray()) {
-					if (c == ',') {
-						// check if StringBulider sb is empty, if so add "," into arraylist.
-						if (sb.isEmpty()) {
-							lineFormatted.add("");
-						} else {
-							lineFormatted.add(sb.toString());
-							sb.setLength(0);// init sb
-						}
-					} else {
-						sb.append(c);
+				if (pos == 0 && !last) {
+					// a single row is longer than the window, map a larger one
+					if (window == Integer.MAX_VALUE) {
+						throw new IOException("Row " + number + " of " + path + " is too long");
 					}
+					window = (int) Math.min(Integer.MAX_VALUE, 2L * window);
 				}
-				lineFormatted.add(sb.toString());
-				sb.setLength(0);
-				content.add(lineFormatted);
-				lineFormatted = new ArrayList<>();// init lineFormatted
+				offset += pos;
 			}
+		} finally {
+			Metrics.record(Metrics.Operation.CSV_READ, begin);
 		}
-		// line first, then column
-		String[][] result = new String[content.size()][content.get(0).size()];
-		for (int i = 0; i < content.size(); i++) {
-			for (int j = 0; j < content.get(0).size(); j++) {
-				result[i][j] = content.get(i).get(j);
+	}
+
+	/**
+	 * {@code parseRow} split one row starting at {@code pos} into fields
+	 * 
+	 * @return the position after the line break, or -1 if the row is not complete in this window
+	 */
+	private static int parseRow(ByteBuffer buffer, int pos, int limit, boolean last, CSVRow row) {
+		while (true) {
+			int start = pos;
+			int end;
+			boolean escapedQuotes = false;
+			if (pos < limit && buffer.get(pos) == '"') {
+				// quoted field: ends at a quote which is not doubled
+				start = ++pos;
+				while (true) {
+					if (pos >= limit) {
+						if (!last) {
+							return -1;
+						}
+						end = pos;
+						break;
+					}
+					if (buffer.get(pos) == '"') {
+						if (pos + 1 < limit && buffer.get(pos + 1) == '"') {
+							escapedQuotes = true;
+							pos += 2;
+							continue;
+						}
+						if (pos + 1 >= limit && !last) {
+							return -1;
+						}
+						end = pos++;
+						break;
+					}
+					pos++;
+				}
+				// skip anything between the closing quote and the separator
+				while (pos < limit && buffer.get(pos) != ',' && buffer.get(pos) != '\n') {
+					pos++;
+				}
+			} else {
+				while (pos < limit && buffer.get(pos) != ',' && buffer.get(pos) != '\n') {
+					pos++;
+				}
+				end = pos;
+				if (end > start && end < limit && buffer.get(end) == '\n' && buffer.get(end - 1) == '\r') {
+					end--;
+				}
+				if (pos == limit && end > start && last && buffer.get(end - 1) == '\r') {
+					end--;
+				}
+			}
+			if (pos >= limit) {
+				if (!last) {
+					return -1;
+				}
+				row.addField(start, end, escapedQuotes);
+				return limit;
+			}
+			row.addField(start, end, escapedQuotes);
+			if (buffer.get(pos) == '\n') {
+				return pos + 1;
 			}
+			pos++;// skip the comma
 		}
-		return result;
 	}
 
 	/**
@@ -103,25 +216,141 @@ public class CSVEncoder {
 	 * @throws IOException
 	 */
 	public void csvWrite(List<Reservation> resList) throws IOException {
+		long begin = System.nanoTime();
 		csvInit();
 		try (Writer fw = new FileWriter(path, true)) {
+			// one buffer for the whole file, flushed once when the writer is closed
+			BufferedWriter bw = new BufferedWriter(fw);
 			for (Reservation reservation : resList) {
-				int numOfComma = 3 - reservation.getNumOfRoom();// we allows customers to order max 3 rooms once
-				BufferedWriter bw = new BufferedWriter(fw);
-				bw.append(String.valueOf(reservation.getRefNo())).append(",");
-				bw.append(reservation.getName()).append(",");
-				bw.append(reservation.getResType()).append(",");
-				bw.append(reservation.getCheckIn().toString()).append(",");
-				bw.append(reservation.getCheckOut().toString()).append(",");
-				bw.append(String.valueOf(reservation.getNumOfRoom())).append(",");
-				bw.append(reservation.getRoomList().toTextOutput());
-				for (int i = 0; i < numOfComma; i++) {
-					bw.append(",").append(",");
-				}
-				bw.append(String.valueOf(reservation.getTotalCost()));
-				bw.append("\n");
-				bw.flush();
+				bw.append(reservationRow(reservation)).append("\n");
+			}
+			bw.flush();
+		} finally {
+			Metrics.addBytes(Metrics.Operation.CSV_WRITE, new File(path).length());
+			Metrics.record(Metrics.Operation.CSV_WRITE, begin);
+		}
+	}
+
+	/**
+	 * {@code reservationRow} format one reservation as a line of reservation.csv, without the line break
+	 * 
+	 * @param reservation the reservation to format
+	 * @return the columns of the reservation separated by commas
+	 */
+	public static String reservationRow(Reservation reservation) {
+		int numOfComma = 3 - reservation.getNumOfRoom();// we allows customers to order max 3 rooms once
+		StringBuilder sb = new StringBuilder();
+		sb.append(reservation.getRefNo()).append(",");
+		sb.append(quote(reservation.getName())).append(",");
+		sb.append(reservation.getResType()).append(",");
+		sb.append(reservation.getCheckIn().toString()).append(",");
+		sb.append(reservation.getCheckOut().toString()).append(",");
+		sb.append(reservation.getNumOfRoom()).append(",");
+		sb.append(reservation.getRoomList().toTextOutput());
+		for (int i = 0; i < numOfComma; i++) {
+			sb.append(",").append(",");
+		}
+		sb.append(reservation.getTotalCost());
+		return sb.toString();
+	}
+
+	/**
+	 * {@code parseReservation} rebuild a reservation from the columns of a reservation.csv line
+	 * 
+	 * @param row the columns as written by {@link #reservationRow(Reservation)}
+	 * @return the reservation described by the row
+	 * @throws IllegalArgumentException if the row is not a reservation
+	 */
+	public static Reservation parseReservation(CSVRow row) {
+		if (row.size() < 8) {
+			throw new IllegalArgumentException("Not a reservation row: " + row);
+		}
+		try {
+			int numOfRoom = row.intField(5);
+			RoomList roomList = new RoomList();
+			for (int i = 0; i < numOfRoom; i++) {
+				roomList.add(new Room(row.string(6 + 2 * i), row.intField(7 + 2 * i)));
+			}
+			// the total cost is always the last column, after the padding of unused room columns
+			return new Reservation(row.intField(0), row.string(1), row.string(2), row.dateField(3),
+					row.dateField(4), numOfRoom, roomList, row.doubleField(row.size() - 1));
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Not a reservation row: " + row, e);
+		}
+	}
+
+	/**
+	 * {@code parseLine} split a single csv line into fields, following the same rules as {@link #csvStream}
+	 * 
+	 * @param line the line without its line break
+	 * @return a row holding the fields of the line
+	 */
+	public static CSVRow parseLine(String line) {
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		CSVRow row = new CSVRow();
+		row.reset(buffer, 0);
+		parseRow(buffer, 0, bytes.length, true, row);
+		return row;
+	}
+
+	/**
+	 * {@code quote} quote a field if it contains a comma, a quote or a line break
+	 * 
+	 * @param field the content of the field
+	 * @return the field as it should be written to the file
+	 */
+	public static String quote(String field) {
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+			return field;
+		}
+		return "\"" + field.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * {@code escapeLine} escape the line breaks and backslashes of a record, so that a record holding a
+	 * quoted line break, such as a guest name, is still written as one line of an append-only log
+	 * 
+	 * @param record the record
+	 * @return the record without line breaks
+	 */
+	public static String escapeLine(String record) {
+		if (record.indexOf('\\') < 0 && record.indexOf('\n') < 0 && record.indexOf('\r') < 0) {
+			return record;
+		}
+		StringBuilder sb = new StringBuilder(record.length() + 8);
+		for (int i = 0; i < record.length(); i++) {
+			char c = record.charAt(i);
+			switch (c) {
+			case '\\' -> sb.append("\\\\");
+			case '\n' -> sb.append("\\n");
+			case '\r' -> sb.append("\\r");
+			default -> sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * {@code unescapeLine} the record of a line written by {@link #escapeLine(String)}
+	 * 
+	 * @param line the line, without its line break
+	 * @return the record
+	 */
+	public static String unescapeLine(String line) {
+		if (line.indexOf('\\') < 0) {
+			return line;
+		}
+		StringBuilder sb = new StringBuilder(line.length());
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c != '\\' || i + 1 == line.length()) {
+				sb.append(c);
+				continue;
 			}
+			char next = line.charAt(++i);
+			sb.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
 		}
+		return sb.toString();
 	}
 }
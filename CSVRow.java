@@ -0,0 +1,285 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * {@code CSVRow} a view of one line of a csv file, handed to a {@link CSVEncoder.RowVisitor} while the
+ * file is streamed. The fields are not copied out of the file: they are slices of the mapped buffer and
+ * are only valid until the visitor returns, after which the same objects describe the next line.
+ * <p>
+ * {@link #field(int)} exposes a field as a {@link CharSequence} which reads one char per byte, so it is
+ * exact for ASCII content; {@link #string(int)} decodes UTF-8 when a real {@code String} is needed.
+ */
+public class CSVRow {
+
+	private ByteBuffer buffer;
+	private long number;
+	private int size;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private boolean[] escaped = new boolean[16];
+	private Field[] fields = new Field[16];
+
+	/**
+	 * {@code number} the line number of this row, starting with 0
+	 *
+	 * @return the line number
+	 */
+	public long number() {
+		return number;
+	}
+
+	/**
+	 * {@code size} the number of fields in this row, which may differ from line to line
+	 *
+	 * @return the number of fields
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * {@code isEmpty} check if a field is missing or has no characters
+	 *
+	 * @param i the index of the field
+	 * @return true if the field is empty
+	 */
+	public boolean isEmpty(int i) {
+		return i >= size || starts[i] == ends[i];
+	}
+
+	/**
+	 * {@code field} the content of a field without its surrounding quotes, viewed in place
+	 *
+	 * @param i the index of the field
+	 * @return a view which is valid until the visitor returns
+	 */
+	public CharSequence field(int i) {
+		check(i);
+		if (fields[i] == null) {
+			fields[i] = new Field();
+		}
+		fields[i].bind(starts[i], ends[i], escaped[i]);
+		return fields[i];
+	}
+
+	/**
+	 * {@code string} the content of a field decoded as UTF-8
+	 *
+	 * @param i the index of the field
+	 * @return the field as a new String
+	 */
+	public String string(int i) {
+		check(i);
+		if (escaped[i]) {
+			return field(i).toString();
+		}
+		return decode(starts[i], ends[i]);
+	}
+
+	/**
+	 * {@code intField} parse a field as a decimal int without creating a String
+	 *
+	 * @param i the index of the field
+	 * @return the value of the field
+	 * @throws NumberFormatException if the field is not an int
+	 */
+	public int intField(int i) {
+		long value = longField(i);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Out of int range: " + string(i));
+		}
+		return (int) value;
+	}
+
+	/**
+	 * {@code longField} parse a field as a decimal long without creating a String
+	 *
+	 * @param i the index of the field
+	 * @return the value of the field
+	 * @throws NumberFormatException if the field is not a long
+	 */
+	public long longField(int i) {
+		check(i);
+		int start = starts[i];
+		int end = ends[i];
+		while (start < end && buffer.get(start) == ' ') {
+			start++;
+		}
+		while (end > start && buffer.get(end - 1) == ' ') {
+			end--;
+		}
+		boolean negative = start < end && buffer.get(start) == '-';
+		int pos = negative ? start + 1 : start;
+		if (pos == end || end - pos > 18) {
+			return Long.parseLong(string(i).trim());
+		}
+		long value = 0;
+		for (; pos < end; pos++) {
+			int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Not a number: " + string(i));
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * {@code doubleField} parse a field as a double
+	 *
+	 * @param i the index of the field
+	 * @return the value of the field
+	 * @throws NumberFormatException if the field is not a number
+	 */
+	public double doubleField(int i) {
+		return Double.parseDouble(string(i).trim());
+	}
+
+	/**
+	 * {@code dateField} parse a field written as yyyy-mm-dd without creating a String
+	 *
+	 * @param i the index of the field
+	 * @return the date in the field
+	 * @throws java.time.format.DateTimeParseException if the field is not a date
+	 */
+	public LocalDate dateField(int i) {
+		check(i);
+		int s = starts[i];
+		if (ends[i] - s == 10 && buffer.get(s + 4) == '-' && buffer.get(s + 7) == '-') {
+			int year = digits(s, 4);
+			int month = digits(s + 5, 2);
+			int day = digits(s + 8, 2);
+			if (year >= 0 && month >= 0 && day >= 0) {
+				return LocalDate.of(year, month, day);
+			}
+		}
+		return LocalDate.parse(string(i).trim());
+	}
+
+	/**
+	 * {@code toArray} copy every field of this row into Strings
+	 *
+	 * @return the fields of the row
+	 */
+	public String[] toArray() {
+		String[] result = new String[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = string(i);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return String.join(",", toArray());
+	}
+
+	void reset(ByteBuffer buffer, long number) {
+		this.buffer = buffer;
+		this.number = number;
+		this.size = 0;
+	}
+
+	void addField(int start, int end, boolean escapedQuotes) {
+		if (size == starts.length) {
+			int length = size * 2;
+			starts = Arrays.copyOf(starts, length);
+			ends = Arrays.copyOf(ends, length);
+			escaped = Arrays.copyOf(escaped, length);
+			fields = Arrays.copyOf(fields, length);
+		}
+		starts[size] = start;
+		ends[size] = end;
+		escaped[size] = escapedQuotes;
+		size++;
+	}
+
+	private void check(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Field " + i + " of a row with " + size + " fields");
+		}
+	}
+
+	private int digits(int pos, int count) {
+		int value = 0;
+		for (int k = 0; k < count; k++) {
+			int digit = buffer.get(pos + k) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private String decode(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		buffer.get(start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A field in place. Quoted fields which contain doubled quotes are the only ones that need their
+	 * content rewritten, and are unescaped into a buffer owned by the view.
+	 */
+	private class Field implements CharSequence {
+
+		private int start;
+		private int end;
+		private StringBuilder unescaped;
+
+		void bind(int start, int end, boolean escapedQuotes) {
+			this.start = start;
+			this.end = end;
+			if (!escapedQuotes) {
+				if (unescaped != null) {
+					unescaped.setLength(0);
+				}
+				return;
+			}
+			if (unescaped == null) {
+				unescaped = new StringBuilder();
+			}
+			unescaped.setLength(0);
+			unescaped.append(new String(bytes(), StandardCharsets.UTF_8).replace("\"\"", "\""));
+		}
+
+		private byte[] bytes() {
+			byte[] bytes = new byte[end - start];
+			buffer.get(start, bytes);
+			return bytes;
+		}
+
+		private boolean isEscaped() {
+			return unescaped != null && unescaped.length() > 0;
+		}
+
+		@Override
+		public int length() {
+			return isEscaped() ? unescaped.length() : end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (isEscaped()) {
+				return unescaped.charAt(index);
+			}
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException(index);
+			}
+			return (char) (buffer.get(start + index) & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return toString().subSequence(from, to);
+		}
+
+		@Override
+		public String toString() {
+			return isEscaped() ? unescaped.toString() : new String(bytes(), StandardCharsets.UTF_8);
+		}
+	}
+}
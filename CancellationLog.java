@@ -0,0 +1,109 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code CancellationLog} the durable history of the cancelled reservations, an append-only csv file with
+ * a line per cancellation: the day it was cancelled on, the refund, then the reservation as a line of
+ * reservation.csv, its line breaks and backslashes escaped as in the journal so that a guest name holding a
+ * line break does not split it. The reservation system moves cancellations into the log before it reclaims their
+ * memory, so a cancellation outlives the journal and the snapshot.
+ * <p>
+ * A cancellation is written at least once: after a crash between writing the log and compacting the
+ * journal, the cancellation is replayed from the journal and written again. {@link #read} keeps the last
+ * line of every reference number.
+ */
+public final class CancellationLog {
+
+    private static final String HEADER = "Cancelled on,Refund,Reservation number,Reservation name,"
+            + "Reservation type,Check-in date,Check-out date,Number of rooms,Room type,Occupancy,Room type,"
+            + "Occupancy,Room type,Occupancy,Total cost\n";
+
+    private final Path path;
+
+    /**
+     * {@code CancellationLog} the log in a file, which is created by the first append
+     *
+     * @param path the location of the log
+     */
+    public CancellationLog(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * {@code append} add cancellations to the log and force them to disk
+     *
+     * @param cancellations the cancellations
+     * @throws IOException if the log can not be written
+     */
+    public void append(List<CancelledReservation> cancellations) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            lines.append(HEADER);
+        }
+        for (CancelledReservation cancellation : cancellations) {
+            String line = (cancellation.getCancelledOn() == null ? "" : cancellation.getCancelledOn().toString())
+                    + ',' + cancellation.getRefund() + ',' + CSVEncoder.reservationRow(cancellation.getReservation());
+            lines.append(CSVEncoder.escapeLine(line)).append('\n');
+        }
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(lines.toString());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * {@code read} every cancellation in the log, the last line of a reference number written twice, in the
+     * order those lines were written
+     *
+     * @return the cancellations, empty if there is no log yet
+     * @throws IOException if the log can not be read or a line is not a cancellation
+     */
+    public List<CancelledReservation> read() throws IOException {
+        Map<Integer, CancelledReservation> cancellations = new LinkedHashMap<>();
+        if (!Files.exists(path)) {
+            return new ArrayList<>();
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String read = reader.readLine();
+            while ((read = reader.readLine()) != null) {
+                if (read.isEmpty()) {
+                    continue;
+                }
+                String line = CSVEncoder.unescapeLine(read);
+                // the day and the refund hold no commas, the reservation follows them
+                int day = line.indexOf(',');
+                int refund = line.indexOf(',', day + 1);
+                if (day < 0 || refund < 0) {
+                    throw new IOException("Not a cancellation in " + path + ": " + line);
+                }
+                try {
+                    LocalDate cancelledOn = day == 0 ? null : LocalDate.parse(line.substring(0, day));
+                    CancelledReservation cancellation = new CancelledReservation(
+                            CSVEncoder.parseReservation(CSVEncoder.parseLine(line.substring(refund + 1))),
+                            Double.parseDouble(line.substring(day + 1, refund)), cancelledOn);
+                    // a line written again after a crash replaces the first one, in its place in the order
+                    cancellations.remove(cancellation.getRefNo());
+                    cancellations.put(cancellation.getRefNo(), cancellation);
+                } catch (RuntimeException e) {
+                    throw new IOException("Not a cancellation in " + path + ": " + line, e);
+                }
+            }
+        }
+        return new ArrayList<>(cancellations.values());
+    }
+}
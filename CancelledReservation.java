@@ -0,0 +1,47 @@
+import java.time.LocalDate;
+
+/**
+ * {@code CancelledReservation} a reservation which has been cancelled, with the refund paid for it and the
+ * day it was cancelled on, kept so refunds can be audited and cancellations analysed after the fact.
+ */
+public final class CancelledReservation {
+
+    private final Reservation reservation;
+    private final double refund;
+    private final LocalDate cancelledOn;
+
+    /**
+     * {@code CancelledReservation} the record of a cancellation
+     *
+     * @param reservation the reservation as it was booked
+     * @param refund      the amount refunded
+     * @param cancelledOn the day of the cancellation, null if it is not known
+     */
+    public CancelledReservation(Reservation reservation, double refund, LocalDate cancelledOn) {
+        this.reservation = reservation;
+        this.refund = refund;
+        this.cancelledOn = cancelledOn;
+    }
+
+    public Reservation getReservation() {
+        return reservation;
+    }
+
+    public int getRefNo() {
+        return reservation.getRefNo();
+    }
+
+    public double getRefund() {
+        return refund;
+    }
+
+    public LocalDate getCancelledOn() {
+        return cancelledOn;
+    }
+
+    @Override
+    public String toString() {
+        return reservation + ", cancelled on " + (cancelledOn == null ? "an unknown day" : cancelledOn)
+                + " with a refund of " + refund;
+    }
+}
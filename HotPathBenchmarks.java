@@ -0,0 +1,340 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * {@code HotPathBenchmarks} measures the hot paths of the reservation system on synthetic hotels with
+ * reservation histories of growing size:
+ * <ul>
+ * <li>{@link ReservationSystem#available}, both {@code calcTotalCost} overloads, the second also with the
+ * quote cache, the first also with the prices of the yield pipeline, and
+ * {@link ReservationSystem#makeReservation} in memory followed by {@link ReservationSystem#cancel}, so
+ * capacity stays the same; the pair is measured, as the name it is reported under says,</li>
+ * <li>{@link ReservationSystem#analyseBilling} and {@link ReservationSystem#analyseOccupancyRates} over a
+ * month, and {@link ReservationSystem#analysePeriod} with parallel analytics,</li>
+ * <li>{@link CSVEncoder#csvRead} and {@link CSVEncoder#csvWrite} of the whole reservation file.</li>
+ * </ul>
+ * They are measured by JMH in the benchmarks module of the Maven build, see {@link Fixture}, together with
+ * the price of stays of 1 to 365 nights, see {@link Pricing}. JMH writes the results as JSON:
+ * <pre>
+ * mvn -B package
+ * java -jar benchmarks/target/benchmarks.jar -rf json -rff bench.json [-p reservations=10000000]
+ * </pre>
+ * Sizes up to 10 million reservations are supported given the heap for them. Given the results of an
+ * earlier run as a baseline, {@link #main} reports every benchmark slower than the baseline by more than the
+ * tolerance and fails, so a regression is caught before it is released.
+ * <p>
+ * Usage: {@code java HotPathBenchmarks --results bench.json --baseline old.json [--tolerance 0.10]}
+ */
+public class HotPathBenchmarks {
+
+    private static final int ROOM_TYPES = 60;
+    private static final int ROOMS_PER_TYPE = 20;
+    private static final int QUERIES = 1024;
+
+    /** The operations measured, by the names the results are reported under. */
+    public static final List<String> OPERATIONS = List.of("ReservationSystem.available",
+            "ReservationSystem.calcTotalCost(String)", "ReservationSystem.calcTotalCost(RoomList)",
+            "ReservationSystem.calcTotalCost(RoomList) cached", "ReservationSystem.calcTotalCost(String) dynamic",
+            "ReservationSystem.makeReservation+cancel", "ReservationSystem.analyseBilling",
+            "ReservationSystem.analyseOccupancyRates", "ReservationSystem.analysePeriod(parallel)",
+            "CSVEncoder.csvRead", "CSVEncoder.csvWrite");
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = options(args);
+        if (!options.containsKey("results") || !options.containsKey("baseline")) {
+            throw new IllegalArgumentException("Usage: HotPathBenchmarks --results <json> --baseline <json>"
+                    + " [--tolerance 0.10]");
+        }
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "0.10"));
+        if (regressions(read(Path.of(options.get("results"))), read(Path.of(options.get("baseline"))),
+                tolerance) > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * {@code Fixture} a reservation system loaded with synthetic data of one size in a directory of its
+     * own, and the operations measured on it by name. The JMH benchmarks of the benchmarks module, which
+     * can not name a class of the default package, create it by reflection and use it as a
+     * {@link Function} and an {@link AutoCloseable}.
+     */
+    public static final class Fixture implements Function<String, Callable<Object>>, AutoCloseable {
+
+        private final Path dir;
+        private final int horizon;
+        private final ReservationSystem system;
+        // a fixed set of random stays, cycled through so the generator is not measured
+        private final String[] types = new String[QUERIES];
+        private final LocalDate[] checkIns = new LocalDate[QUERIES];
+        private final LocalDate[] checkOuts = new LocalDate[QUERIES];
+        private final RoomList[] roomLists = new RoomList[QUERIES];
+        // stays from today on, priced from the curves of the yield pipeline
+        private final LocalDate[] soonIns = new LocalDate[QUERIES];
+        private final LocalDate[] soonOuts = new LocalDate[QUERIES];
+        private int next;
+
+        /**
+         * {@code Fixture} generate a catalogue and a reservation history and load them
+         *
+         * @param reservations the number of reservations of the history
+         * @throws IOException if the data can not be written or loaded
+         */
+        public Fixture(int reservations) throws IOException {
+            dir = Files.createTempDirectory("hot-path-benchmarks");
+            SyntheticData data = new SyntheticData(ROOM_TYPES, ROOMS_PER_TYPE, 42);
+            data.writeCatalogue(dir.resolve("l4Hotels.csv"));
+            horizon = data.writeReservations(dir.resolve("reservation.csv"), reservations);
+
+            system = new ReservationSystem(dir.resolve("l4Hotels.csv").toString(),
+                    dir.resolve("reservation.csv").toString(), dir.resolve("billing.csv").toString());
+            if (system.decodeHotelCSV() == null || !system.openJournal(dir.resolve("reservation.journal").toString())) {
+                throw new IOException("Can not load the synthetic data in " + dir);
+            }
+            // a booking measured waits for neither an fsync of the journal nor a rewrite of reservation.csv
+            system.detachStorage();
+
+            SplittableRandom random = new SplittableRandom(7);
+            for (int i = 0; i < QUERIES; i++) {
+                types[i] = SyntheticData.roomType(random.nextInt(ROOM_TYPES));
+                checkIns[i] = SyntheticData.FIRST_NIGHT.plusDays(random.nextInt(horizon));
+                checkOuts[i] = checkIns[i].plusDays(1 + random.nextInt(7));
+                roomLists[i] = new RoomList();
+                roomLists[i].add(new Room(types[i], 2));
+                roomLists[i].add(new Room(SyntheticData.roomType(random.nextInt(ROOM_TYPES)), 1));
+            }
+            for (int i = 0; i < QUERIES; i++) {
+                soonIns[i] = LocalDate.now().plusDays(random.nextInt(700));
+                soonOuts[i] = soonIns[i].plusDays(1 + random.nextInt(7));
+            }
+        }
+
+        /**
+         * {@code apply} set the system up for an operation
+         *
+         * @param operation one of {@link #OPERATIONS}
+         * @return the operation, one call per measured invocation
+         * @throws IllegalArgumentException if the operation is unknown
+         */
+        @Override
+        public Callable<Object> apply(String operation) {
+            system.setQuoteCache(0);
+            system.setPricing(PricingPipeline.standard());
+            system.setParallelAnalytics(false);
+            LocalDate farAway = SyntheticData.FIRST_NIGHT.plusDays(horizon + 30);
+            LocalDate monthStart = SyntheticData.FIRST_NIGHT.plusDays(horizon / 2);
+            LocalDate monthEnd = monthStart.plusMonths(1);
+            switch (operation) {
+                case "ReservationSystem.available" -> {
+                    return () -> {
+                        int i = next++ & (QUERIES - 1);
+                        return system.available(types[i], checkIns[i], checkOuts[i]);
+                    };
+                }
+                case "ReservationSystem.calcTotalCost(String)" -> {
+                    return () -> {
+                        int i = next++ & (QUERIES - 1);
+                        return system.calcTotalCost(types[i], checkIns[i], checkOuts[i], "AP");
+                    };
+                }
+                case "ReservationSystem.calcTotalCost(RoomList)" -> {
+                    return () -> {
+                        int i = next++ & (QUERIES - 1);
+                        return system.calcTotalCost(roomLists[i], checkIns[i], checkOuts[i], "S");
+                    };
+                }
+                case "ReservationSystem.calcTotalCost(RoomList) cached" -> {
+                    // the same quotes again and again, all of them held by the quote cache
+                    system.setQuoteCache(4 * QUERIES);
+                    return () -> {
+                        int i = next++ & (QUERIES - 1);
+                        return system.calcTotalCost(roomLists[i], checkIns[i], checkOuts[i], "S");
+                    };
+                }
+                case "ReservationSystem.calcTotalCost(String) dynamic" -> {
+                    system.setPricing(PricingPipeline.yield());
+                    return () -> {
+                        int i = next++ & (QUERIES - 1);
+                        return system.calcTotalCost(types[i], soonIns[i], soonOuts[i], "AP");
+                    };
+                }
+                case "ReservationSystem.makeReservation+cancel" -> {
+                    return () -> {
+                        // beyond the history, so the booking fits and is cancelled again
+                        int i = next++ & (QUERIES - 1);
+                        Reservation reservation = system.makeReservation(system.nextRefNo(), "Bench", "S", farAway,
+                                farAway.plusDays(3), 2, roomLists[i], 0);
+                        if (reservation != null) {
+                            system.cancel(reservation);
+                        }
+                        return reservation;
+                    };
+                }
+                case "ReservationSystem.analyseBilling" -> {
+                    return () -> system.analyseBilling(monthStart, monthEnd);
+                }
+                case "ReservationSystem.analyseOccupancyRates" -> {
+                    return () -> system.analyseOccupancyRates(monthStart, monthEnd);
+                }
+                case "ReservationSystem.analysePeriod(parallel)" -> {
+                    system.setParallelAnalytics(true);
+                    return () -> system.analysePeriod(monthStart, monthEnd);
+                }
+                case "CSVEncoder.csvRead" -> {
+                    CSVEncoder reader = new CSVEncoder(dir.resolve("reservation.csv").toString());
+                    return reader::csvRead;
+                }
+                case "CSVEncoder.csvWrite" -> {
+                    List<Reservation> resList = system.getResList();
+                    CSVEncoder writer = new CSVEncoder(dir.resolve("written.csv").toString());
+                    return () -> {
+                        writer.csvWrite(resList);
+                        return resList;
+                    };
+                }
+                default -> throw new IllegalArgumentException("Unknown operation " + operation);
+            }
+        }
+
+        /**
+         * {@code close} delete the data of the fixture
+         *
+         * @throws IOException if a file can not be deleted
+         */
+        @Override
+        public void close() throws IOException {
+            system.setParallelAnalytics(false);
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * {@code Pricing} a quote of one room for a stay of a number of nights, priced night by night as
+     * calcTotalCost did before the {@link PricingEngine} and in its closed form. The JMH benchmarks create it
+     * by reflection like the {@link Fixture} and use it as a {@link Function}. That both give the same price
+     * is checked by {@code PricingEngineCheck}.
+     */
+    public static final class Pricing implements Function<String, DoubleSupplier> {
+
+        /**
+         * the ways of pricing a stay, by the names the JMH benchmarks report them under
+         */
+        public static final List<String> METHODS = List.of("PricingEngine.dailyCost", "PricingEngine.cost");
+
+        private static final int[] RATES = {100, 100, 100, 100, 120, 150, 150};
+
+        private final PricingEngine engine;
+        private final int typeId;
+        private final LocalDate checkIn = LocalDate.of(2024, 1, 1);
+        private final LocalDate checkOut;
+
+        /**
+         * {@code Pricing} register a room type with rates that differ over the week
+         *
+         * @param nights the length of the stay
+         */
+        public Pricing(int nights) {
+            RoomTypeRegistry roomTypes = new RoomTypeRegistry();
+            typeId = roomTypes.register("Classic Double", 10, 2, RATES);
+            engine = new PricingEngine(roomTypes);
+            checkOut = checkIn.plusDays(nights);
+        }
+
+        /**
+         * {@code apply} the quote of a way of pricing
+         *
+         * @param method one of {@link #METHODS}
+         * @return the quote, one call per measured invocation
+         * @throws IllegalArgumentException if the method is unknown
+         */
+        @Override
+        public DoubleSupplier apply(String method) {
+            return switch (method) {
+                case "PricingEngine.dailyCost" -> () -> PricingEngine.dailyCost(RATES, checkIn, checkOut, "AP");
+                case "PricingEngine.cost" -> () -> engine.cost(typeId, checkIn, checkOut, "AP");
+                default -> throw new IllegalArgumentException("Unknown method " + method);
+            };
+        }
+    }
+
+    /**
+     * {@code regressions} compare the results with a baseline and report every slower benchmark
+     *
+     * @return the number of benchmarks slower than the baseline by more than the tolerance
+     */
+    private static int regressions(List<Map<String, Object>> results, List<Map<String, Object>> baseline,
+                                   double tolerance) {
+        Map<String, Double> before = new HashMap<>();
+        for (Map<String, Object> result : baseline) {
+            before.put(key(result), score(result));
+        }
+        int regressions = 0;
+        for (Map<String, Object> result : results) {
+            Double old = before.get(key(result));
+            double now = score(result);
+            if (old != null && now > old * (1 + tolerance)) {
+                System.err.printf("REGRESSION %s: %.1f ns/op, was %.1f ns/op (+%.0f%%)%n", key(result), now,
+                        old, (now / old - 1) * 100);
+                regressions++;
+            }
+        }
+        if (regressions == 0) {
+            System.out.println("No benchmark is slower than the baseline by more than " + tolerance * 100 + "%");
+        }
+        return regressions;
+    }
+
+    /**
+     * {@code read} the results of a JMH run written with {@code -rf json}
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> read(Path file) throws IOException {
+        return (List<Map<String, Object>>) Json.parse(Files.readString(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@code score} the score of a result in the JMH json layout
+     */
+    @SuppressWarnings("unchecked")
+    private static double score(Map<String, Object> result) {
+        return ((Number) ((Map<String, Object>) result.get("primaryMetric")).get("score")).doubleValue();
+    }
+
+    /**
+     * {@code key} the benchmark name and parameters of a result, which identify it across runs
+     */
+    private static String key(Map<String, Object> result) {
+        return result.get("benchmark") + " " + Json.write(result.get("params"));
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value of " + args[i]);
+            }
+        }
+        return options;
+    }
+}
@@ -1,12 +1,28 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public class HotelSystem {
 
     static BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+    // the files of the reservation system, copied to a scratch directory for a replay
+    private static final List<String> DATA_FILES = List.of("l4Hotels.csv", "reservation.csv", "reservation.snapshot",
+            "reservation.journal", "billing.csv", "cancellations.csv");
+    // the rates and the income of the analyses, shared by every line printed
+    private static final DecimalFormat TWO_DECIMALS = new DecimalFormat("##.##");
 
     /**
      * This methode invokes the service in ReservationSystem and handles the interaction with user
@@ -16,26 +32,127 @@ public class HotelSystem {
      */
     public static void main(String[] args) throws IOException {
 
-        // initialise the reservation system with the default path
-        ReservationSystem reservationSystem = new ReservationSystem("l4Hotels.csv",
-                "reservation.csv", "billing.csv");
-        // decode l4hotel.csv in order to get information about hotel and its rooms
-        HotelList hotelList = reservationSystem.decodeHotelCSV();
-        if (hotelList == null) {
-            System.err.println("Can not decode l4Hotel.csv, exiting...");
-            System.exit(1);
-        }
-        // initialise the header of reservation.csv and billing.csv
-        reservationSystem.initCSV();
+        List<String> options = Arrays.asList(args);
+        ReservationSystem reservationSystem;
+        HotelList hotelList;
+        // with --replay <trace> run the operations of a trace file instead of the console menu, as fast as
+        // possible or at --rate <operations per second>, and print the throughput, latencies and inventory;
+        // the trace runs against a scratch copy of the data files, so its bookings never reach the live
+        // journal, snapshot or csv files
+        int replayOption = options.indexOf("--replay");
+        Path scratch = replayOption >= 0 && replayOption + 1 < args.length
+                ? Files.createTempDirectory("replay") : null;
+        Path data = Path.of("");
+        // --properties <directory> serves every property below the directory, each with a directory of its
+        // own files, and the console books in the one chosen with --property <id>, by default the first
+        PropertyShards shards = null;
+        int propertiesOption = options.indexOf("--properties");
+        if (propertiesOption >= 0 && propertiesOption + 1 < args.length) {
+            try {
+                Path root = Path.of(args[propertiesOption + 1]);
+                if (scratch != null) {
+                    copyTree(root, scratch);
+                    root = scratch;
+                }
+                shards = PropertyShards.open(root, system -> configure(system, options, args));
+            } catch (IOException e) {
+                System.err.println(e.getMessage() + ", exiting...");
+                System.exit(1);
+            }
+            if (shards.properties().isEmpty()) {
+                System.err.println("There is no property in " + args[propertiesOption + 1] + ", exiting...");
+                System.exit(1);
+            }
+            int propertyOption = options.indexOf("--property");
+            String propertyId = propertyOption >= 0 && propertyOption + 1 < args.length
+                    ? args[propertyOption + 1] : shards.properties().iterator().next();
+            if (!shards.properties().contains(propertyId)) {
+                System.err.println("There is no property " + propertyId + ", exiting...");
+                System.exit(1);
+            }
+            reservationSystem = shards.shard(propertyId);
+            hotelList = shards.hotels(propertyId);
+        } else {
+            if (scratch != null) {
+                for (String file : DATA_FILES) {
+                    if (Files.exists(Path.of(file))) {
+                        Files.copy(Path.of(file), scratch.resolve(file));
+                    }
+                }
+                data = scratch;
+            }
+            // initialise the reservation system with the default path
+            reservationSystem = new ReservationSystem(data.resolve("l4Hotels.csv").toString(),
+                    data.resolve("reservation.csv").toString(), data.resolve("billing.csv").toString());
+            // the reservations are kept in a binary snapshot which loads without parsing text
+            reservationSystem.setSnapshotPath(data.resolve("reservation.snapshot").toString());
+            // decode the hotels and their rooms from the snapshot, or from l4hotel.csv if it has changed since
+            hotelList = reservationSystem.decodeHotels();
+            if (hotelList == null) {
+                System.err.println("Can not decode l4Hotel.csv, exiting...");
+                System.exit(1);
+            }
+            configure(reservationSystem, options, args);
+            // restore the reservations from the snapshot and the journal written since
+            if (!reservationSystem.openJournal(data.resolve("reservation.journal").toString())) {
+                System.err.println("Can not restore the reservations, exiting...");
+                System.exit(1);
+            }
+            // the reservations are kept in the snapshot; billing.csv keeps its charges across restarts
+            reservationSystem.initCSV();
+        }
+        PropertyShards properties = shards;
+        // time the operations and publish the figures over JMX as HotelSystem:type=Metrics, with the gauges
+        // of every property
+        if (properties != null) {
+            Map<String, ReservationSystem> systems = new LinkedHashMap<>();
+            for (String propertyId : properties.properties()) {
+                systems.put(propertyId, properties.shard(propertyId));
+            }
+            Metrics.watch(systems);
+        } else {
+            Metrics.watch(reservationSystem);
+        }
+        if (scratch != null) {
+            int rateOption = options.indexOf("--rate");
+            TraceReplay replay = new TraceReplay(reservationSystem,
+                    rateOption >= 0 && rateOption + 1 < args.length ? Double.parseDouble(args[rateOption + 1]) : 0);
+            try {
+                replay.replay(Path.of(args[replayOption + 1]));
+                System.out.print(replay.summary());
+            } finally {
+                if (properties != null) {
+                    properties.close();
+                } else {
+                    reservationSystem.closeJournal();
+                }
+                deleteTree(scratch);
+            }
+            return;
+        }
+        // with --server <port> serve the JSON booking API instead of the console menu
+        int serverOption = options.indexOf("--server");
+        if (serverOption >= 0 && serverOption + 1 < args.length) {
+            BookingServer server = new BookingServer(reservationSystem, Integer.parseInt(args[serverOption + 1]));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                if (properties != null) {
+                    properties.close();
+                } else {
+                    reservationSystem.closeJournal();
+                }
+            }));
+            server.start();
+            System.out.println("Serving the booking API on port " + server.port());
+            return;
+        }
         // the program stopped when the flag is set to false
         boolean flag = true;
-        // the reference number begins with 0
-        int refNo = 0;
 
         StringBuilder sb = new StringBuilder();
         sb.append("Welcome to the hotel reservation system developed by BestSolutions Ltd\n");
         sb.append("1 : Show all room information\n");
-        sb.append("2 : Show all reservation information\n");
+        sb.append("2 : Show the reservation information, page by page\n");
         sb.append("3 : Make a room reservation\n");
         sb.append("4 : Cancel a room reservation\n");
         sb.append("======================================================================\n");
@@ -43,6 +160,15 @@ public class HotelSystem {
         sb.append("6 : Start the billing/accounts analysis\n");
         sb.append("7 : Create .csv File for all charged hotel reservations\n");
         sb.append("8 : Quit the system\n");
+        sb.append("9 : Show the performance metrics\n");
+        sb.append("10 : Reload the room rates from l4Hotels.csv\n");
+        sb.append("11 : Find the cheapest nights within a month\n");
+        if (properties != null) {
+            sb.append("12 : Show the guests and income of every property\n");
+        }
+        if (options.contains("--assign-rooms")) {
+            sb.append("13 : Show how the free nights of the rooms are split between stays\n");
+        }
         System.out.println(sb);
 
         while(flag) {
@@ -75,8 +201,24 @@ public class HotelSystem {
                     }
                 }
                 case "2" -> {
-                    // show all reservation made by user excludes the canceled reservations
-                    reservationSystem.showAllReservation();
+                    // show the reservations a page at a time, excluding the canceled reservations
+                    System.out.println("Please enter the start of the guest name, or nothing to show everyone");
+                    String namePrefix = br.readLine().trim();
+                    ReservationQuery query = namePrefix.isEmpty() ? ReservationQuery.all()
+                            : ReservationQuery.all().withNamePrefix(namePrefix);
+                    int cursor = ReservationPage.FIRST;
+                    while (true) {
+                        ReservationPage page = reservationSystem.queryReservations(query, cursor, 20);
+                        page.getReservations().forEach(System.out::println);
+                        if (!page.hasNext()) {
+                            break;
+                        }
+                        System.out.println("Notice : Press Enter for the next page, Q to stop");
+                        if (br.readLine().toUpperCase().contains("Q")) {
+                            break;
+                        }
+                        cursor = page.getNextCursor();
+                    }
                 }
                 case "3" -> {
                     // make a new reservation
@@ -88,13 +230,33 @@ public class HotelSystem {
                     LocalDate checkIn = LocalDate.parse(br.readLine());
                     System.out.println("Please enter the checkout date");
                     LocalDate checkOut = LocalDate.parse(br.readLine());
+                    if (!ReservationSystem.isValidStay(checkIn, checkOut)) {
+                        System.out.println("Notice : A stay checks out after it checks in, lasts at most "
+                                + ReservationSystem.MAX_NIGHTS + " nights and lies within "
+                                + ReservationSystem.BOOKING_HORIZON + " days of today");
+                        continue;
+                    }
+                    // show what is free for the dates, so the guest does not have to guess a room type
+                    List<RoomOffer> offers = reservationSystem.searchAvailability(checkIn, checkOut, 1, "S");
+                    if (offers.isEmpty()) {
+                        System.out.println("Notice : There is no room free for these dates");
+                    } else {
+                        System.out.println("The rooms free for these dates are:");
+                        offers.forEach(System.out::println);
+                    }
 
                     int numOfRoom = 0;
                     while (true) {
                         System.out.println("Please enter the room type you selected");
                         String roomType = br.readLine();
+                        RoomTypeRegistry roomTypes = reservationSystem.getRoomTypes();
+                        int typeId = roomTypes.id(roomType);
+                        if (typeId < 0) {
+                            System.out.println("Notice : There is no room type " + roomType);
+                            continue;
+                        }
                         System.out.println("Please enter the number of occupancy");
-                        int maxOcc = HotelList.getMaxOccupancy(roomType);
+                        int maxOcc = roomTypes.maxOccupancy(typeId);
                         System.out.println("Notice : The room you selected has a maximum occupancy of " + maxOcc
                                 + " people");
                         String occ = br.readLine();
@@ -117,18 +279,52 @@ public class HotelSystem {
 
                     double totalCost = reservationSystem.calcTotalCost(roomList, checkIn, checkOut, resType);
 
-                    Reservation res = reservationSystem.makeReservation(refNo, name, resType, checkIn, checkOut, numOfRoom,
-                            roomList, totalCost);
+                    // the reference number continues after the restored reservations
+                    int refNo = reservationSystem.nextRefNo();
+                    Reservation res;
+                    try {
+                        res = reservationSystem.makeReservation(refNo, name, resType, checkIn, checkOut, numOfRoom,
+                                roomList, totalCost);
+                    } catch (UncheckedIOException e) {
+                        System.out.println("Your reservation could not be saved and is not made, please try again "
+                                + "later");
+                        continue;
+                    }
                     // fail to make a new reservation
                     if (res == null) {
                         System.out.println("There is no room available and your reservation can not be made");
+                        System.out.println("Do you want to join the waitlist? You are booked when a room is freed");
+                        System.out.println("Notice : Enter Y for yes, N for no");
+                        if (br.readLine().toUpperCase().contains("Y")) {
+                            WaitlistEntry entry;
+                            try {
+                                entry = reservationSystem.joinWaitlist(new BookingRequest(name, resType, checkIn,
+                                        checkOut, roomList), 0);
+                            } catch (UncheckedIOException e) {
+                                System.out.println("A room has been freed meanwhile but your reservation could not be"
+                                        + " saved, you stay on the waitlist");
+                                continue;
+                            }
+                            if (entry.getAllocation().isDone()) {
+                                System.out.println("A room has been freed meanwhile, your reservation is made:");
+                                System.out.println(entry.getAllocation().join());
+                            } else {
+                                System.out.println("You are number " + entry.getId() + " on the waitlist");
+                                entry.getAllocation().thenAccept(booked -> System.out.println(
+                                        "Notice : A room has been freed for waitlist number " + entry.getId()
+                                                + ", the reservation is made: " + booked));
+                            }
+                        }
                     } else {
                         System.out.println("Your reservation is made successfully and " +
                                 "please confirm your reservation here:");
                         System.out.println(res.toString());
+                        int[] roomNumbers = reservationSystem.getRoomNumbers(res);
+                        if (roomNumbers != null) {
+                            System.out.println("Your room numbers: " + Arrays.toString(roomNumbers));
+                        }
                         System.out.println("" + totalCost + " will be charged from your account");
                     }
-                    refNo++;
                 }
                 case "4" -> {
                     // cancel a specified reservation with a valid reference number
@@ -136,8 +332,10 @@ public class HotelSystem {
                     while (true) {
                         String num = br.readLine();
                         int number = Integer.parseInt(num);
-                        if (reservationSystem.isValidReservationNumber(number)) {
-                            reservationSystem.cancelReservation(reservationSystem.findReservation(number));
+                        // one lookup, which also finds nothing once another agent cancelled it
+                        Optional<Reservation> reservation = reservationSystem.lookupReservation(number);
+                        if (reservation.isPresent()) {
+                            reservationSystem.cancelReservation(reservation.get());
                             break;
                         }
                         System.out.println("The reservation number is invalid");
@@ -152,7 +350,7 @@ public class HotelSystem {
                     System.out.println("Please enter the end date for the occupancy analysis");
                     String endDate = br.readLine();
                     LocalDate end = LocalDate.parse(endDate);
-                    int[] figuresAnalysis = reservationSystem.analyseOccupancyFigures(start, end);
+                    int[] figuresAnalysis = reservationSystem.reportOccupancyFigures(start, end);
                     System.out.println("There are totally " + figuresAnalysis[3] + " guests stayed " +
                             "at the hotel in the given period");
                     System.out.println("There are " + figuresAnalysis[0] + " guests in the 3-star " +
@@ -161,15 +359,15 @@ public class HotelSystem {
                             "hotel among them");
                     System.out.println("There are " + figuresAnalysis[2] + " guests in the 5-star " +
                             "hotel among them");
-                    double[] ratesAnalysis = reservationSystem.analyseOccupancyRates(start, end);
+                    double[] ratesAnalysis = reservationSystem.reportOccupancyRates(start, end);
                     System.out.println("The total occupancy rate in the given period is about "
-                            + new DecimalFormat("##.##").format(ratesAnalysis[3]) + "%");
+                            + TWO_DECIMALS.format(ratesAnalysis[3]) + "%");
                     System.out.println("The occupancy rate of 3-star hotel in the given period is about "
-                            + new DecimalFormat("##.##").format(ratesAnalysis[0]) + "%");
+                            + TWO_DECIMALS.format(ratesAnalysis[0]) + "%");
                     System.out.println("The occupancy rate of 4-star hotel in the given period is about "
-                            + new DecimalFormat("##.##").format(ratesAnalysis[1]) + "%");
+                            + TWO_DECIMALS.format(ratesAnalysis[1]) + "%");
                     System.out.println("The occupancy rate of 5-star hotel in the given period is about "
-                            + new DecimalFormat("##.##").format(ratesAnalysis[2]) + "%");
+                            + TWO_DECIMALS.format(ratesAnalysis[2]) + "%");
                 }
                 case "6" -> {
                     // start the analysis of billing within the given period
@@ -180,27 +378,178 @@ public class HotelSystem {
                     System.out.println("Please enter the end date for the billing analysis");
                     String endDate = br.readLine();
                     LocalDate end = LocalDate.parse(endDate);
-                    double[] billingAnalysis = reservationSystem.analyseBilling(start, end);
+                    double[] billingAnalysis = reservationSystem.reportBilling(start, end);
                     System.out.println("The total income in the given period is " +
-                            new DecimalFormat("##.##").format(billingAnalysis[3]));
+                            TWO_DECIMALS.format(billingAnalysis[3]));
                     System.out.println("The income of 3-star hotel in the given period is " +
-                            new DecimalFormat("##.##").format(billingAnalysis[0]));
+                            TWO_DECIMALS.format(billingAnalysis[0]));
                     System.out.println("The income of 4-star hotel in the given period is " +
-                            new DecimalFormat("##.##").format(billingAnalysis[1]));
+                            TWO_DECIMALS.format(billingAnalysis[1]));
                     System.out.println("The income of 5-star hotel in the given period is " +
-                            new DecimalFormat("##.##").format(billingAnalysis[2]));
+                            TWO_DECIMALS.format(billingAnalysis[2]));
                 }
                 case "7" -> {
-                    // manually save the charged reservation into billing.csv
-                    reservationSystem.updateBillingCSV();
+                    // append the reservations charged since the last time to billing.csv, in the background
+                    System.out.println("Updating the billing file in the background");
+                    reservationSystem.updateBillingCSVAsync().thenAccept(charged ->
+                            System.out.println(charged + " newly charged reservations added to the billing file"));
                 }
                 case "8" -> {
+                    // write a final snapshot so reservation.csv holds every reservation
+                    if (properties != null) {
+                        properties.close();
+                    } else {
+                        reservationSystem.closeJournal();
+                    }
                     flag = false;
                 }
+                case "9" -> {
+                    // counts and latency percentiles of every operation, and the gauges
+                    System.out.println(Metrics.get().dump());
+                }
+                case "10" -> {
+                    // new rates apply to quotes from now on, booked reservations keep their price
+                    HotelList reloaded = reservationSystem.reloadRates();
+                    if (reloaded == null) {
+                        System.out.println("The rates could not be reloaded, the old rates stay in use");
+                    } else {
+                        hotelList = reloaded;
+                        System.out.println("The room rates have been reloaded");
+                    }
+                }
+                case "11" -> {
+                    // for guests with flexible dates, the cheapest free stay of every room type
+                    System.out.println("Please enter the month");
+                    System.out.println("Notice: The month format should be yyyy-mm");
+                    YearMonth month = YearMonth.parse(br.readLine().trim());
+                    System.out.println("Please enter the number of nights");
+                    int nights = Integer.parseInt(br.readLine().trim());
+                    System.out.println("Please enter the number of guests per room");
+                    int partySize = Integer.parseInt(br.readLine().trim());
+                    List<RoomOffer> offers = reservationSystem.searchFlexible(month, nights, partySize, "S");
+                    if (offers.isEmpty()) {
+                        System.out.println("There is no room free for " + nights + " nights in " + month);
+                    } else {
+                        offers.forEach(System.out::println);
+                    }
+                }
+                case "12" -> {
+                    if (properties == null) {
+                        System.out.println("Please enter a valid character");
+                        continue;
+                    }
+                    // every property is asked at once and the answers summed
+                    System.out.println("Please enter the start date for the analysis");
+                    System.out.println("Notice: The date format should be yyyy-mm-dd");
+                    LocalDate start = LocalDate.parse(br.readLine().trim());
+                    System.out.println("Please enter the end date for the analysis");
+                    LocalDate end = LocalDate.parse(br.readLine().trim());
+                    Map<String, int[]> guests = properties.scatter(system -> system.reportOccupancyFigures(start,
+                            end));
+                    Map<String, double[]> income = properties.scatter(system -> system.reportBilling(start, end));
+                    for (String propertyId : properties.properties()) {
+                        System.out.println(propertyId + " : " + guests.get(propertyId)[3] + " guests, income "
+                                + TWO_DECIMALS.format(income.get(propertyId)[3]));
+                    }
+                    System.out.println("Every property : " + properties.reportOccupancyFigures(start, end)[3]
+                            + " guests, income "
+                            + TWO_DECIMALS.format(properties.reportBilling(start, end)[3]));
+                }
+                case "13" -> {
+                    if (!options.contains("--assign-rooms")) {
+                        System.out.println("Please enter a valid character");
+                        continue;
+                    }
+                    // fill the gaps left by cancellations first, then report the gaps left
+                    int moved = reservationSystem.optimiseRoomAssignments();
+                    System.out.println(moved + " stays moved to another room");
+                    for (RoomAssignmentEngine.Fragmentation figures : reservationSystem.reportFragmentation()) {
+                        System.out.println(figures.roomType() + " : " + figures.freeNights() + " free nights in "
+                                + figures.rooms() + " rooms, " + figures.gaps() + " gaps between stays, "
+                                + figures.orphanNights() + " nights in gaps of 1 or 2 nights, "
+                                + figures.unassigned() + " stays without a room");
+                    }
+                }
                 default -> {
                     System.out.println("Please enter a valid character");
                 }
             }
         }
     }
+
+    /**
+     * Applies the options which are set before the reservations of a system are restored
+     * @param reservationSystem the system to configure
+     * @param options the command line options
+     * @param args the command line arguments
+     */
+    static void configure(ReservationSystem reservationSystem, List<String> options, String[] args) {
+        // --columnar holds the reservations in columns, for histories of millions of reservations
+        if (options.contains("--columnar")) {
+            reservationSystem.setColumnarStore(true);
+        }
+        // --billing-partitions writes the charges of every month of check out to a file of their own
+        if (options.contains("--billing-partitions")) {
+            reservationSystem.setBillingPartitions(true);
+        }
+        // --parallel-analytics scans the reservations on every core for the analyses
+        if (options.contains("--parallel-analytics")) {
+            reservationSystem.setParallelAnalytics(true);
+        }
+        // --quote-cache <prices> keeps the prices of recent quotes
+        int quoteCacheOption = options.indexOf("--quote-cache");
+        if (quoteCacheOption >= 0 && quoteCacheOption + 1 < args.length) {
+            reservationSystem.setQuoteCache(Integer.parseInt(args[quoteCacheOption + 1]));
+        }
+        // --dynamic-pricing raises the prices of busy nights and discounts long stays
+        if (options.contains("--dynamic-pricing")) {
+            reservationSystem.setPricing(PricingPipeline.yield());
+        }
+        // --assign-rooms gives every reservation physical rooms for its whole stay
+        if (options.contains("--assign-rooms")) {
+            reservationSystem.setRoomAssignment(true);
+        }
+        // --write-behind <records> queues journal records for a writer thread which writes them in batches
+        int writeBehindOption = options.indexOf("--write-behind");
+        if (writeBehindOption >= 0 && writeBehindOption + 1 < args.length) {
+            reservationSystem.setWriteBehind(Integer.parseInt(args[writeBehindOption + 1]));
+        }
+        // --reclaim-threshold <fraction> of empty slots at which cancelled reservations are reclaimed
+        int reclaimOption = options.indexOf("--reclaim-threshold");
+        if (reclaimOption >= 0 && reclaimOption + 1 < args.length) {
+            reservationSystem.setReclaimThreshold(Double.parseDouble(args[reclaimOption + 1]));
+        }
+    }
+
+    /**
+     * Copies a directory with everything below it into another directory
+     * @param from the directory to copy
+     * @param to the directory to copy into
+     * @throws IOException if a file can not be copied
+     */
+    private static void copyTree(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path target = to.resolve(from.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(path, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory with everything below it
+     * @param root the directory
+     * @throws IOException if a file can not be deleted
+     */
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
 }
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code JournalCheck} writes a {@link ReservationJournal} holding guest names with line breaks,
+ * backslashes and commas, leaves it without closing it as a crash would, and replays it into an empty
+ * book, which must hold every reservation with its name unchanged. A record cut short at the end of the
+ * journal must be dropped, and a broken record followed by others must stop the replay with an error
+ * and leave the file as it was. The {@link CancellationLog} must read the same names back.
+ * <p>
+ * Usage: {@code java JournalCheck}
+ */
+public class JournalCheck {
+
+    private static final String[] NAMES = {"Ann", "Evil\nName", "Back\\slash\r\n", "O'Brien, \"Bob\"", "Cid"};
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("journal-check");
+        Path path = dir.resolve("reservation.journal");
+        try {
+            ReservationJournal journal = new ReservationJournal(path.toString());
+            for (int refNo = 0; refNo < NAMES.length; refNo++) {
+                journal.commit(journal.appendCreate(reservation(refNo, NAMES[refNo])));
+            }
+            journal.commit(journal.appendCancel(2, 10, LocalDate.of(2031, 1, 1)));
+            // not closed, as after a crash
+            expect(replay(path), 4);
+
+            // a record cut short by a crash in the middle of an append
+            append(path, "1a2b3c;C,9,Torn");
+            long torn = Files.size(path);
+            expect(replay(path), 4);
+            if (Files.size(path) >= torn) {
+                throw new IllegalStateException("The torn record was not cut off");
+            }
+
+            // a broken record in the middle of the journal
+            byte[] bytes = Files.readAllBytes(path);
+            int second = indexOf(bytes, (byte) '\n') + 1;
+            bytes[second + 12] ^= 1;
+            Files.write(path, bytes);
+            try {
+                replay(path);
+                throw new IllegalStateException("A broken record in the middle of the journal was replayed");
+            } catch (IOException e) {
+                // expected
+            }
+            if (Files.size(path) != bytes.length) {
+                throw new IllegalStateException("The journal was cut at a broken record followed by others");
+            }
+            CancellationLog log = new CancellationLog(dir.resolve("cancellations.csv"));
+            List<CancelledReservation> cancelled = new ArrayList<>();
+            for (int refNo = 0; refNo < NAMES.length; refNo++) {
+                cancelled.add(new CancelledReservation(reservation(refNo, NAMES[refNo]), refNo, null));
+            }
+            log.append(cancelled.subList(0, 2));
+            log.append(cancelled.subList(2, NAMES.length));
+            // written again, as after a crash before the journal was compacted
+            log.append(List.of(new CancelledReservation(reservation(0, NAMES[0]), -1, null)));
+            List<CancelledReservation> read = log.read();
+            for (int refNo = 1; refNo < NAMES.length; refNo++) {
+                String name = read.get(refNo - 1).getReservation().getName();
+                if (read.size() != NAMES.length || !name.equals(NAMES[refNo])) {
+                    throw new IllegalStateException("The cancellation log read back " + read);
+                }
+            }
+            if (read.get(NAMES.length - 1).getRefNo() != 0 || read.get(NAMES.length - 1).getRefund() != -1) {
+                throw new IllegalStateException("The cancellation log did not keep the last line of a reference "
+                        + "number " + read);
+            }
+            System.out.println("The journal and the cancellation log keep every name, the journal stops at a broken"
+                    + " record");
+        } finally {
+            try (var paths = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) paths::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static Reservation reservation(int refNo, String name) {
+        RoomList roomList = new RoomList();
+        roomList.add(new Room("Classic Double", 1));
+        return new Reservation(refNo, name, "S", LocalDate.of(2031, 2, 1), LocalDate.of(2031, 2, 3), 1,
+                roomList, 100);
+    }
+
+    private static ReservationBook replay(Path path) throws IOException {
+        ReservationBook book = new ReservationBook();
+        try (ReservationJournal journal = new ReservationJournal(path.toString())) {
+            journal.replay(book);
+        }
+        return book;
+    }
+
+    private static void expect(ReservationBook book, int booked) {
+        if (book.size() != booked) {
+            throw new IllegalStateException("Replayed " + book.size() + " reservations instead of " + booked);
+        }
+        for (int refNo = 0; refNo < NAMES.length; refNo++) {
+            Reservation reservation = refNo == 2 ? book.findCancelled(refNo).map(CancelledReservation::getReservation)
+                    .orElse(null) : book.find(refNo).orElse(null);
+            if (reservation == null || !reservation.getName().equals(NAMES[refNo])) {
+                throw new IllegalStateException("Reservation " + refNo + " was replayed as " + reservation);
+            }
+        }
+    }
+
+    private static void append(Path path, String text) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte b) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
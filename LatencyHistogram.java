@@ -0,0 +1,123 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code LatencyHistogram} counts latencies in nanoseconds in log-linear buckets, as HdrHistogram does:
+ * every power of two is split into {@value #SUB_BUCKETS} buckets of equal width, so any recorded value is
+ * known to within about 3% whatever its magnitude, from a nanosecond up to {@link #HIGHEST} nanoseconds.
+ * <p>
+ * Recording is lock free and allocates nothing: it increments one slot of a preallocated array. Reading
+ * a percentile walks the buckets, while other threads may keep recording.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** The highest value told apart, about 18 minutes; longer latencies are counted as this. */
+    public static final long HIGHEST = 1L << 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(HIGHEST) + 1);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * {@code record} count one latency
+     *
+     * @param nanos the latency in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), HIGHEST);
+        counts.incrementAndGet(index(value));
+        total.increment();
+        sum.add(value);
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    /**
+     * {@code count} the number of recorded latencies
+     *
+     * @return the count
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * {@code mean} the mean of the recorded latencies
+     *
+     * @return the mean in nanoseconds, 0 if nothing was recorded
+     */
+    public double mean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * {@code max} the highest recorded latency
+     *
+     * @return the maximum in nanoseconds
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * {@code percentile} the latency below which a share of the recorded latencies fall
+     *
+     * @param percentile the share, from 0 to 100
+     * @return the middle of the bucket holding that latency in nanoseconds, 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min((lowest(i) + lowest(i + 1) - 1) / 2, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * {@code reset} forget every recorded latency
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int top = (int) (value >>> (exponent - SUB_BITS));
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + top - SUB_BUCKETS;
+    }
+
+    /**
+     * {@code lowest} the lowest value counted in a bucket
+     */
+    private static long lowest(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long top = SUB_BUCKETS + index % SUB_BUCKETS;
+        return top << (exponent - SUB_BITS);
+    }
+}
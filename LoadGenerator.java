@@ -0,0 +1,151 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@code LoadGenerator} drives a {@link BookingServer} with a mix of quotes, availability checks,
+ * bookings and lookups from many concurrent clients, then reports the latency percentiles and the
+ * requests per second. Every client runs on its own virtual thread and sends its requests one after
+ * another.
+ * <p>
+ * Usage: {@code java LoadGenerator [baseUrl] [clients] [requestsPerClient]}, by default
+ * {@code http://localhost:8080 64 500}.
+ */
+public class LoadGenerator {
+
+    private static final LocalDate FIRST_NIGHT = LocalDate.now().plusDays(30);
+
+    private final String baseUrl;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final List<String> roomTypes = new ArrayList<>();
+
+    private LoadGenerator(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        LoadGenerator generator = new LoadGenerator(baseUrl);
+        generator.loadRoomTypes();
+
+        List<Future<long[]>> results = new ArrayList<>();
+        long begin = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                results.add(executor.submit(() -> generator.run(requests)));
+            }
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        long[] latencies = new long[clients * requests];
+        int count = 0;
+        long errors = 0;
+        for (Future<long[]> result : results) {
+            for (long latency : result.get()) {
+                if (latency < 0) {
+                    errors++;
+                } else {
+                    latencies[count++] = latency;
+                }
+            }
+        }
+        latencies = Arrays.copyOf(latencies, count);
+        Arrays.sort(latencies);
+        System.out.printf("requests  %d in %.2f s (%d failed)%n", count + errors, seconds, errors);
+        System.out.printf("req/s     %.0f%n", (count + errors) / seconds);
+        System.out.printf("p50       %.3f ms%n", percentile(latencies, 0.50) / 1e6);
+        System.out.printf("p99       %.3f ms%n", percentile(latencies, 0.99) / 1e6);
+        System.out.printf("p999      %.3f ms%n", percentile(latencies, 0.999) / 1e6);
+        System.out.printf("max       %.3f ms%n", count == 0 ? 0 : latencies[count - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadRoomTypes() throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/roomtypes")).GET()
+                .build(), HttpResponse.BodyHandlers.ofString());
+        for (Object type : (List<Object>) Json.parse(response.body())) {
+            roomTypes.add((String) ((Map<String, Object>) type).get("roomType"));
+        }
+        if (roomTypes.isEmpty()) {
+            throw new IllegalStateException("The server has no room types");
+        }
+    }
+
+    /**
+     * {@code run} send a number of requests as one client
+     *
+     * @return the latency of every request in nanoseconds, -1 for a failed request
+     */
+    private long[] run(int requests) {
+        long[] latencies = new long[requests];
+        List<Integer> booked = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < requests; i++) {
+            HttpRequest request = nextRequest(random, booked);
+            long begin = System.nanoTime();
+            try {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                latencies[i] = System.nanoTime() - begin;
+                if (response.statusCode() >= 500) {
+                    latencies[i] = -1;
+                } else if (response.statusCode() == 201) {
+                    Object refNo = Json.parseObject(response.body()).get("refNo");
+                    booked.add(((Number) refNo).intValue());
+                }
+            } catch (Exception e) {
+                latencies[i] = -1;
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * {@code nextRequest} pick the next request: 50% quotes, 25% availability checks, 15% bookings and
+     * 10% lookups of an earlier booking
+     */
+    private HttpRequest nextRequest(ThreadLocalRandom random, List<Integer> booked) {
+        int dice = random.nextInt(100);
+        if (dice >= 90 && !booked.isEmpty()) {
+            int refNo = booked.get(random.nextInt(booked.size()));
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/reservations/" + refNo)).GET().build();
+        }
+        String roomType = roomTypes.get(random.nextInt(roomTypes.size()));
+        LocalDate checkIn = FIRST_NIGHT.plusDays(random.nextInt(365));
+        LocalDate checkOut = checkIn.plusDays(1 + random.nextInt(7));
+        String rooms = "[{\"roomType\":" + Json.write(roomType) + ",\"occupancy\":1}]";
+        String dates = "\"checkIn\":\"" + checkIn + "\",\"checkOut\":\"" + checkOut + "\"";
+        if (dice < 50) {
+            return post("/quote", "{\"rooms\":" + rooms + "," + dates + ",\"resType\":\"S\"}");
+        } else if (dice < 75) {
+            return post("/availability", "{\"roomType\":" + Json.write(roomType) + "," + dates + "}");
+        }
+        return post("/reservations", "{\"name\":\"load\",\"resType\":\"AP\",\"rooms\":" + rooms + "," + dates + "}");
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+}
@@ -0,0 +1,322 @@
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@code Metrics} counts and times the hot paths of the hotel system: bookings, cancellations,
+ * availability checks, quotes, every analysis and every read and write of a file, with the bytes written.
+ * There is one set of metrics per process, shared by every {@link ReservationSystem} and
+ * {@link CSVEncoder}, as there is one JMX server.
+ * <p>
+ * An operation is timed with
+ * <pre>
+ * long begin = System.nanoTime();
+ * try {
+ *     ...
+ * } finally {
+ *     Metrics.record(Metrics.Operation.MAKE, begin);
+ * }
+ * </pre>
+ * which costs two clock reads and a few uncontended atomic increments and allocates nothing. The
+ * reservation count, the utilisation of the room types, the figures of the quote cache and the queue of
+ * the journal writer are gauges, worked out from the watched reservation systems only when they are read.
+ * With several properties served at once the gauges add up the systems of all of them, and the room types
+ * are listed by property.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    /**
+     * The timed operations, in the order they are listed.
+     */
+    public enum Operation {
+        MAKE("make"),
+        BOOK_BATCH("bookBatch"),
+        CANCEL("cancel"),
+        AVAILABLE("available"),
+        SEARCH("searchAvailability"),
+        SEARCH_FLEXIBLE("searchFlexible"),
+        QUERY("queryReservations"),
+        QUOTE("quote"),
+        ANALYSE_FIGURES("analyseOccupancyFigures"),
+        ANALYSE_RATES("analyseOccupancyRates"),
+        ANALYSE_BILLING("analyseBilling"),
+        ANALYSE_PERIOD("analysePeriod"),
+        REPORT_FIGURES("reportOccupancyFigures"),
+        REPORT_RATES("reportOccupancyRates"),
+        REPORT_BILLING("reportBilling"),
+        CSV_READ("csvRead"),
+        CSV_WRITE("csvWrite"),
+        JOURNAL_COMMIT("journalCommit"),
+        RECLAIM("reclaimCancellations"),
+        WAITLIST_ALLOCATE("allocateWaitlist"),
+        SNAPSHOT_WRITE("snapshotWrite"),
+        BILLING_EXPORT("billingExport");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder[] bytes = new LongAdder[OPERATIONS.length];
+    // the watched systems by property id, an empty id for a system serving one property
+    private volatile Map<String, ReservationSystem> watched = Map.of();
+
+    private Metrics() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            bytes[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * {@code get} the metrics of the process
+     *
+     * @return the metrics
+     */
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * {@code record} count one run of an operation with the time it took
+     *
+     * @param operation the operation
+     * @param begin     the {@link System#nanoTime} when it began
+     */
+    public static void record(Operation operation, long begin) {
+        INSTANCE.latencies[operation.ordinal()].record(System.nanoTime() - begin);
+    }
+
+    /**
+     * {@code addBytes} count bytes written to disk by an operation
+     *
+     * @param operation the operation
+     * @param written   number of bytes
+     */
+    public static void addBytes(Operation operation, long written) {
+        INSTANCE.bytes[operation.ordinal()].add(written);
+    }
+
+    /**
+     * {@code watch} take the gauges from a reservation system and register the metrics with the platform
+     * MBean server
+     *
+     * @param system the reservation system in use
+     */
+    public static void watch(ReservationSystem system) {
+        watch(Map.of("", system));
+    }
+
+    /**
+     * {@code watch} take the gauges from the reservation systems of several properties, adding them up,
+     * and register the metrics with the platform MBean server
+     *
+     * @param systems the reservation system of every property, by property id
+     */
+    public static void watch(Map<String, ReservationSystem> systems) {
+        // in the order of the property ids, for the utilisation of the room types
+        INSTANCE.watched = new TreeMap<>(systems);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("HotelSystem:type=Metrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Can not register the metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * {@code histogram} the latencies of an operation
+     *
+     * @param operation the operation
+     * @return its histogram
+     */
+    public LatencyHistogram histogram(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        return perOperation(LatencyHistogram::count);
+    }
+
+    @Override
+    public Map<String, Double> getMeanMicros() {
+        return perOperationMicros(LatencyHistogram::mean);
+    }
+
+    @Override
+    public Map<String, Double> getP50Micros() {
+        return perOperationMicros(histogram -> histogram.percentile(50));
+    }
+
+    @Override
+    public Map<String, Double> getP99Micros() {
+        return perOperationMicros(histogram -> histogram.percentile(99));
+    }
+
+    @Override
+    public Map<String, Double> getP999Micros() {
+        return perOperationMicros(histogram -> histogram.percentile(99.9));
+    }
+
+    @Override
+    public Map<String, Double> getMaxMicros() {
+        return perOperationMicros(LatencyHistogram::max);
+    }
+
+    @Override
+    public Map<String, Long> getBytesWritten() {
+        Map<String, Long> written = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS) {
+            long sum = bytes[operation.ordinal()].sum();
+            if (sum > 0) {
+                written.put(operation.label(), sum);
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public int getReservationCount() {
+        return (int) sum(ReservationSystem::getReservationCount);
+    }
+
+    @Override
+    public Map<String, Double> getRoomTypeUtilisation() {
+        Map<String, Double> utilisation = new LinkedHashMap<>();
+        LocalDate tonight = LocalDate.now();
+        for (Map.Entry<String, ReservationSystem> entry : watched.entrySet()) {
+            ReservationSystem system = entry.getValue();
+            String prefix = entry.getKey().isEmpty() ? "" : entry.getKey() + "/";
+            RoomTypeRegistry roomTypes = system.getRoomTypes();
+            for (int id = 0; id < roomTypes.size(); id++) {
+                utilisation.put(prefix + roomTypes.name(id), system.utilisation(roomTypes.name(id), tonight));
+            }
+        }
+        return utilisation;
+    }
+
+    @Override
+    public long getQuoteCacheHits() {
+        return sumCaches(QuoteCache::hits);
+    }
+
+    @Override
+    public long getQuoteCacheMisses() {
+        return sumCaches(QuoteCache::misses);
+    }
+
+    @Override
+    public double getQuoteCacheHitRate() {
+        long hits = getQuoteCacheHits();
+        long total = hits + getQuoteCacheMisses();
+        return total == 0 ? 0 : hits * 100.0 / total;
+    }
+
+    @Override
+    public int getWriteBehindQueueLength() {
+        return (int) sum(ReservationSystem::getJournalQueueLength);
+    }
+
+    @Override
+    public long getWriteBehindStalls() {
+        return sum(ReservationSystem::getJournalStalls);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-24s %10s %10s %10s %10s %10s %10s %12s%n", "operation", "count", "mean us",
+                "p50 us", "p99 us", "p99.9 us", "max us", "bytes"));
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram histogram = histogram(operation);
+            if (histogram.count() == 0) {
+                continue;
+            }
+            sb.append(String.format("%-24s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %12d%n", operation.label(),
+                    histogram.count(), histogram.mean() / 1e3, histogram.percentile(50) / 1e3,
+                    histogram.percentile(99) / 1e3, histogram.percentile(99.9) / 1e3, histogram.max() / 1e3,
+                    bytes[operation.ordinal()].sum()));
+        }
+        sb.append(String.format("%nreservations %d%n", getReservationCount()));
+        if (watched.values().stream().anyMatch(system -> system.getQuoteCache() != null)) {
+            sb.append(String.format("quote cache %d of %d prices, %d hits, %d misses, %d evictions, %.1f%% hits%n",
+                    sumCaches(QuoteCache::size), sumCaches(QuoteCache::capacity), getQuoteCacheHits(),
+                    getQuoteCacheMisses(), sumCaches(QuoteCache::evictions), getQuoteCacheHitRate()));
+        }
+        int queued = getWriteBehindQueueLength();
+        long stalls = getWriteBehindStalls();
+        if (queued > 0 || stalls > 0) {
+            sb.append(String.format("journal writer %d records queued, %d stalls on a full queue%n", queued, stalls));
+        }
+        for (Map.Entry<String, Double> entry : getRoomTypeUtilisation().entrySet()) {
+            sb.append(String.format("utilisation tonight %-24s %5.1f%%%n", entry.getKey(), entry.getValue()));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i].reset();
+            bytes[i].reset();
+        }
+    }
+
+    private long sum(ToLongFunction<ReservationSystem> gauge) {
+        long sum = 0;
+        for (ReservationSystem system : watched.values()) {
+            sum += gauge.applyAsLong(system);
+        }
+        return sum;
+    }
+
+    private long sumCaches(ToLongFunction<QuoteCache> gauge) {
+        long sum = 0;
+        for (ReservationSystem system : watched.values()) {
+            QuoteCache cache = system.getQuoteCache();
+            if (cache != null) {
+                sum += gauge.applyAsLong(cache);
+            }
+        }
+        return sum;
+    }
+
+
+    private Map<String, Long> perOperation(ToLongFunction<LatencyHistogram> figure) {
+        Map<String, Long> figures = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS) {
+            figures.put(operation.label(), figure.applyAsLong(histogram(operation)));
+        }
+        return figures;
+    }
+
+    private Map<String, Double> perOperationMicros(ToDoubleFunction<LatencyHistogram> figure) {
+        Map<String, Double> figures = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS) {
+            figures.put(operation.label(), figure.applyAsDouble(histogram(operation)) / 1e3);
+        }
+        return figures;
+    }
+}
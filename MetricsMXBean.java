@@ -0,0 +1,90 @@
+import java.util.Map;
+
+/**
+ * {@code MetricsMXBean} the management interface of {@link Metrics}, registered as
+ * {@code HotelSystem:type=Metrics} so the figures can be read with JConsole or any JMX client. Latencies
+ * are in microseconds.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * {@code getCounts} the number of times every operation ran
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * {@code getMeanMicros} the mean latency of every operation
+     */
+    Map<String, Double> getMeanMicros();
+
+    /**
+     * {@code getP50Micros} the median latency of every operation
+     */
+    Map<String, Double> getP50Micros();
+
+    /**
+     * {@code getP99Micros} the 99th percentile latency of every operation
+     */
+    Map<String, Double> getP99Micros();
+
+    /**
+     * {@code getP999Micros} the 99.9th percentile latency of every operation
+     */
+    Map<String, Double> getP999Micros();
+
+    /**
+     * {@code getMaxMicros} the highest latency of every operation
+     */
+    Map<String, Double> getMaxMicros();
+
+    /**
+     * {@code getBytesWritten} the bytes written to disk by every operation which writes files
+     */
+    Map<String, Long> getBytesWritten();
+
+    /**
+     * {@code getReservationCount} the number of reservations booked
+     */
+    int getReservationCount();
+
+    /**
+     * {@code getRoomTypeUtilisation} the percentage of the rooms of every type taken tonight
+     */
+    Map<String, Double> getRoomTypeUtilisation();
+
+    /**
+     * {@code getQuoteCacheHits} the number of quotes answered from the quote cache
+     */
+    long getQuoteCacheHits();
+
+    /**
+     * {@code getQuoteCacheMisses} the number of quotes the quote cache had to price
+     */
+    long getQuoteCacheMisses();
+
+    /**
+     * {@code getQuoteCacheHitRate} the percentage of quotes answered from the quote cache
+     */
+    double getQuoteCacheHitRate();
+
+    /**
+     * {@code getWriteBehindQueueLength} the number of journal records waiting for the journal writer
+     */
+    int getWriteBehindQueueLength();
+
+    /**
+     * {@code getWriteBehindStalls} the number of bookings and cancellations which waited for the journal
+     * writer because its queue was full
+     */
+    long getWriteBehindStalls();
+
+    /**
+     * {@code dump} every figure as plain text
+     */
+    String dump();
+
+    /**
+     * {@code reset} forget every recorded latency, count and byte
+     */
+    void reset();
+}
@@ -0,0 +1,107 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@code MutationRing} a bounded queue of many producers and one consumer without locks, over a ring of
+ * slots which each carry a sequence number: a producer claims the next slot by advancing the tail with a
+ * compare and set, fills it and publishes it by setting its sequence, and the consumer takes slots in the
+ * order they were claimed, stopping at the first one not yet published. A slot is claimed in the order of
+ * the claims, so items put by a producer holding a lock come out in the order of that lock.
+ *
+ * @param <T> the type of the items
+ */
+public final class MutationRing<T> {
+
+    private final Object[] items;
+    // the sequence at which a slot is free to be claimed, or claimed sequence + 1 once it is published
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // only the consumer moves the head
+    private volatile long head;
+
+    /**
+     * {@code MutationRing} an empty ring
+     *
+     * @param capacity the most items held, rounded up to a power of two
+     */
+    public MutationRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        items = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * {@code offer} put an item at the tail
+     *
+     * @param item the item
+     * @return the sequence number of the item, counted from 0, or -1 if the ring is full
+     */
+    public long offer(T item) {
+        while (true) {
+            long claim = tail.get();
+            int slot = (int) (claim & mask);
+            long sequence = sequences.get(slot);
+            if (sequence == claim) {
+                if (tail.compareAndSet(claim, claim + 1)) {
+                    items[slot] = item;
+                    sequences.set(slot, claim + 1);
+                    return claim;
+                }
+            } else if (sequence < claim) {
+                // the slot still holds the item of the previous lap
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * {@code poll} take the item at the head, called by the consumer only
+     *
+     * @return the item, null if the ring is empty or the next item is not published yet
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long next = head;
+        int slot = (int) (next & mask);
+        if (sequences.get(slot) != next + 1) {
+            return null;
+        }
+        T item = (T) items[slot];
+        items[slot] = null;
+        sequences.set(slot, next + items.length);
+        head = next + 1;
+        return item;
+    }
+
+    /**
+     * {@code size} the number of items claimed and not yet taken
+     *
+     * @return the length of the queue
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * {@code claimed} the number of items ever claimed, the sequence number the next item gets
+     *
+     * @return the number of claims
+     */
+    public long claimed() {
+        return tail.get();
+    }
+
+    /**
+     * {@code capacity} the most items held
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return items.length;
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@code NameIndex} the reference numbers of the reservations of every guest, sorted by the name of the
+ * guest, so the reservations of a guest or of every guest whose name starts alike are found without
+ * walking the whole book. Names are compared ignoring case.
+ * <p>
+ * The index is not thread safe, callers synchronize access to it.
+ */
+public final class NameIndex {
+
+    // the reference numbers of every name, in no particular order
+    private final TreeMap<String, RefNos> names = new TreeMap<>();
+
+    /**
+     * {@code add} index a reservation under the name of its guest
+     *
+     * @param name  the name of the guest
+     * @param refNo the reference number of the reservation
+     */
+    public void add(String name, int refNo) {
+        names.computeIfAbsent(key(name), k -> new RefNos()).add(refNo);
+    }
+
+    /**
+     * {@code remove} drop a reservation from the index
+     *
+     * @param name  the name of the guest
+     * @param refNo the reference number of the reservation
+     */
+    public void remove(String name, int refNo) {
+        String key = key(name);
+        RefNos refNos = names.get(key);
+        if (refNos != null && refNos.remove(refNo) && refNos.size == 0) {
+            names.remove(key);
+        }
+    }
+
+    /**
+     * {@code count} count the reservations of every guest whose name starts with a prefix, up to a bound,
+     * walking no more names than that
+     *
+     * @param prefix  the start of the name, "" for every guest
+     * @param atMost  the bound
+     * @return the number of reservations, atMost + 1 if there are more than atMost
+     */
+    public int count(String prefix, int atMost) {
+        String start = key(prefix);
+        int count = 0;
+        for (Map.Entry<String, RefNos> entry : names.tailMap(start, true).entrySet()) {
+            if (!entry.getKey().startsWith(start)) {
+                break;
+            }
+            count += entry.getValue().size;
+            if (count > atMost) {
+                return atMost + 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * {@code find} the reservations of every guest whose name starts with a prefix
+     *
+     * @param prefix     the start of the name, "" for every guest
+     * @param afterRefNo only reference numbers above this one are returned
+     * @return the reference numbers in ascending order
+     */
+    public int[] find(String prefix, int afterRefNo) {
+        String start = key(prefix);
+        int[] found = new int[16];
+        int count = 0;
+        for (Map.Entry<String, RefNos> entry : names.tailMap(start, true).entrySet()) {
+            if (!entry.getKey().startsWith(start)) {
+                break;
+            }
+            RefNos refNos = entry.getValue();
+            for (int i = 0; i < refNos.size; i++) {
+                if (refNos.values[i] > afterRefNo) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = refNos.values[i];
+                }
+            }
+        }
+        int[] sorted = Arrays.copyOf(found, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The reference numbers of one name; a guest rarely has more than a few reservations.
+     */
+    private static final class RefNos {
+
+        private int[] values = new int[2];
+        private int size;
+
+        void add(int refNo) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = refNo;
+        }
+
+        boolean remove(int refNo) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == refNo) {
+                    values[i] = values[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
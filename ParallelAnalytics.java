@@ -0,0 +1,337 @@
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * {@code ParallelAnalytics} the occupancy figures, occupancy rates and billing of the stays within a
+ * period, computed together in one pass over the reservations instead of a scan per analysis.
+ * <p>
+ * The reservations are split in halves until a range holds at most {@link #GRAIN} of them, the ranges
+ * are scanned on a fork join pool into accumulators of their own and the accumulators are added up as
+ * the tasks join, so no two threads ever write to the same figures. Income is summed in whole cents
+ * rather than as doubles, so the result is exactly the same however the reservations were split and in
+ * whatever order the ranges finished.
+ * <p>
+ * Stays within a period check in on or after its start and check out on or before its end, as in
+ * {@link ReservationSystem#analyseOccupancyFigures}. Guests are counted in the tier of
+ * {@link RoomTypeRegistry#tierOf}, income in the tier the billing analysis has always used: Classic rooms
+ * in the 3-star hotel, Executive rooms in the 4-star hotel and every other room in the 5-star hotel. The
+ * income of a reservation is the total it was charged, whichever pricing pipeline priced it, split over
+ * its rooms in proportion to their rates in the hotel file as {@link AnalyticsCube#share} does.
+ */
+public final class ParallelAnalytics {
+
+    /** Ranges of at most this many reservations are scanned without splitting them further. */
+    public static final int GRAIN = 1 << 14;
+
+    // offsets of the figures of the three tiers in an accumulator
+    static final int GUESTS = 0;
+    static final int MAXIMAL = RoomTypeRegistry.TIERS;
+    static final int CENTS = 2 * RoomTypeRegistry.TIERS;
+    static final int SLOTS = 3 * RoomTypeRegistry.TIERS;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Reservations which can be scanned range by range, each range into its own accumulator.
+     */
+    public interface Partitions {
+
+        /**
+         * {@code size} the number of positions to scan, empty positions included
+         */
+        int size();
+
+        /**
+         * {@code accumulate} add the figures of the stays within the period at positions [from, to)
+         */
+        void accumulate(int from, int to, long[] figures);
+    }
+
+    /**
+     * Sums the rates of the hotel file over the nights of a stay in one room, as
+     * {@link PricingEngine#nightsTotal} does, 0 for a room type not in the hotel file.
+     */
+    public interface StayRates {
+        long nightsTotal(String roomType, long checkIn, long nights);
+    }
+
+    /**
+     * {@code ParallelAnalytics} analyses on a pool
+     *
+     * @param pool the pool to scan on, null to scan in the calling thread
+     */
+    public ParallelAnalytics(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * {@code analyse} scan every range of the reservations and add up their figures
+     *
+     * @param partitions the reservations
+     * @return the figures of the stays within the period
+     */
+    public Figures analyse(Partitions partitions) {
+        int size = partitions.size();
+        long[] figures;
+        if (pool == null || size <= GRAIN) {
+            figures = new long[SLOTS];
+            partitions.accumulate(0, size, figures);
+        } else {
+            figures = pool.invoke(new Scan(partitions, 0, size));
+        }
+        return new Figures(figures);
+    }
+
+    /**
+     * {@code of} the partitions of a list of reservations
+     *
+     * @param reservations the reservations, which must not change during the scan
+     * @param start        start date
+     * @param end          end date
+     * @param rates        weighs the rooms of a reservation
+     * @return the partitions of the list
+     */
+    public static Partitions of(List<Reservation> reservations, LocalDate start, LocalDate end, StayRates rates) {
+        return new Partitions() {
+            @Override
+            public int size() {
+                return reservations.size();
+            }
+
+            @Override
+            public void accumulate(int from, int to, long[] figures) {
+                for (int i = from; i < to; i++) {
+                    Reservation r = reservations.get(i);
+                    if (r.getCheckIn().isBefore(start) || r.getCheckOut().isAfter(end)) {
+                        continue;
+                    }
+                    int[] occ = r.getTotalOccupancy();
+                    int[] maxOcc = r.getMaximalOccupancy();
+                    for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+                        figures[GUESTS + tier] += occ[tier];
+                        figures[MAXIMAL + tier] += maxOcc[tier];
+                    }
+                    List<Room> rooms = r.getRoomList().getRooms();
+                    long checkIn = r.getCheckIn().toEpochDay();
+                    long nights = r.getCheckOut().toEpochDay() - checkIn;
+                    long[] weights = new long[rooms.size()];
+                    long total = 0;
+                    for (int room = 0; room < weights.length; room++) {
+                        weights[room] = rates.nightsTotal(rooms.get(room).getRoomType(), checkIn, nights);
+                        total += weights[room];
+                    }
+                    long cents = Math.round(r.getTotalCost() * 100);
+                    long before = 0;
+                    for (int room = 0; room < weights.length; room++) {
+                        // with no rates to go by, every room night weighs the same
+                        long weight = total == 0 ? nights : weights[room];
+                        figures[CENTS + billingTier(rooms.get(room).getRoomType())] += AnalyticsCube.share(cents,
+                                before, weight, total == 0 ? nights * weights.length : total);
+                        before += weight;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * {@code of} the partitions of the rows of a columnar store
+     *
+     * @param columns the reservations, which must not change during the scan
+     * @param start   start date
+     * @param end     end date
+     * @param types   the figures of the room types of the columns
+     * @return the partitions of the rows
+     */
+    public static Partitions of(ReservationColumns columns, LocalDate start, LocalDate end, TypeTable types) {
+        long from = start.toEpochDay();
+        long to = end.toEpochDay();
+        return new Partitions() {
+            @Override
+            public int size() {
+                return columns.rows();
+            }
+
+            @Override
+            public void accumulate(int fromRow, int toRow, long[] figures) {
+                columns.analyseContained(fromRow, toRow, from, to, types, figures);
+            }
+        };
+    }
+
+    /**
+     * {@code billingTier} the tier a room type is billed to
+     *
+     * @param roomType the name of the room type
+     * @return 0 for Classic rooms, 1 for Executive rooms, 2 for any other room
+     */
+    public static int billingTier(String roomType) {
+        return roomType.contains("Classic") ? 0 : roomType.contains("Executive") ? 1 : 2;
+    }
+
+    /**
+     * Splits a range of reservations in halves until it is small enough to scan.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class Scan extends RecursiveTask<long[]> {
+
+        private final Partitions partitions;
+        private final int from;
+        private final int to;
+
+        Scan(Partitions partitions, int from, int to) {
+            this.partitions = partitions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= GRAIN) {
+                long[] figures = new long[SLOTS];
+                partitions.accumulate(from, to, figures);
+                return figures;
+            }
+            int middle = (from + to) >>> 1;
+            Scan right = new Scan(partitions, middle, to);
+            right.fork();
+            long[] figures = new Scan(partitions, from, middle).compute();
+            long[] other = right.join();
+            for (int i = 0; i < SLOTS; i++) {
+                figures[i] += other[i];
+            }
+            return figures;
+        }
+    }
+
+    /**
+     * The tiers, maximal occupancy and rates of the room type ids of a columnar store.
+     */
+    public static final class TypeTable {
+
+        final int[] tier;
+        final int[] billingTier;
+        final int[] maxOccupancy;
+        final PricingEngine engine;
+        // the id in the engine of every room type id, -1 if it is unknown to the engine
+        final int[] engineId;
+        final ReservationColumns.RoomRates fallback;
+
+        /**
+         * {@code TypeTable} the figures of the room types of columns
+         *
+         * @param columns      the columns
+         * @param roomTypes    the room types known to the engine
+         * @param engine       the pricing engine
+         * @param maxOccupancy the maximal occupancy of every room type id
+         * @param fallback     sums the rates of the rooms of types unknown to the engine
+         */
+        public TypeTable(ReservationColumns columns, RoomTypeRegistry roomTypes, PricingEngine engine,
+                         int[] maxOccupancy, ReservationColumns.RoomRates fallback) {
+            int types = columns.typeCount();
+            this.tier = new int[types];
+            this.billingTier = new int[types];
+            this.engineId = new int[types];
+            for (int id = 0; id < types; id++) {
+                String roomType = columns.typeName(id);
+                tier[id] = RoomTypeRegistry.tierOf(roomType);
+                billingTier[id] = billingTier(roomType);
+                int typeId = roomTypes.id(roomType);
+                engineId[id] = typeId < engine.size() ? typeId : -1;
+            }
+            this.maxOccupancy = maxOccupancy;
+            this.engine = engine;
+            this.fallback = fallback;
+        }
+    }
+
+    /**
+     * The figures of the stays within a period.
+     */
+    public static final class Figures {
+
+        private final long[] figures;
+
+        Figures(long[] figures) {
+            this.figures = figures;
+        }
+
+        /**
+         * {@code plus} the figures of two sets of stays together, such as those of two properties
+         *
+         * @param other the other figures
+         * @return the summed figures
+         */
+        public Figures plus(Figures other) {
+            long[] sum = new long[SLOTS];
+            for (int i = 0; i < SLOTS; i++) {
+                sum[i] = figures[i] + other.figures[i];
+            }
+            return new Figures(sum);
+        }
+
+        /**
+         * {@code occupancyFigures} the guests of the stays
+         *
+         * @return guests of the 3-star, 4-star and 5-star hotel and the total
+         */
+        public int[] occupancyFigures() {
+            int[] guests = new int[RoomTypeRegistry.TIERS + 1];
+            for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+                guests[tier] = (int) figures[GUESTS + tier];
+                guests[RoomTypeRegistry.TIERS] += guests[tier];
+            }
+            return guests;
+        }
+
+        /**
+         * {@code occupancyRates} the guests of the stays as a percentage of the maximal occupancy of their
+         * rooms
+         *
+         * @return occupancy rates of the 3-star, 4-star and 5-star hotel and in total
+         */
+        public double[] occupancyRates() {
+            double[] rates = new double[RoomTypeRegistry.TIERS + 1];
+            long guests = 0;
+            long maximal = 0;
+            for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+                long max = figures[MAXIMAL + tier];
+                rates[tier] = max == 0 ? 0 : (double) figures[GUESTS + tier] / max * 100;
+                guests += figures[GUESTS + tier];
+                maximal += max;
+            }
+            rates[RoomTypeRegistry.TIERS] = maximal == 0 ? 0 : (double) guests / maximal * 100;
+            return rates;
+        }
+
+        /**
+         * {@code incomeCents} the income of the stays in cents
+         *
+         * @return income of the 3-star, 4-star and 5-star hotel and the total
+         */
+        public long[] incomeCents() {
+            long[] cents = new long[RoomTypeRegistry.TIERS + 1];
+            for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+                cents[tier] = figures[CENTS + tier];
+                cents[RoomTypeRegistry.TIERS] += cents[tier];
+            }
+            return cents;
+        }
+
+        /**
+         * {@code billing} the income of the stays
+         *
+         * @return income of the 3-star, 4-star and 5-star hotel and the total
+         */
+        public double[] billing() {
+            long[] cents = incomeCents();
+            double[] income = new double[cents.length];
+            for (int i = 0; i < cents.length; i++) {
+                income[i] = cents[i] / 100.0;
+            }
+            return income;
+        }
+    }
+}
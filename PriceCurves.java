@@ -0,0 +1,144 @@
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+/**
+ * {@code PriceCurves} the nightly prices of every room type over a window of days, priced ahead by a
+ * {@link PricingPipeline} and kept as a Fenwick tree of cents per room type, so a stay is priced by two
+ * prefix sums whatever its length. When a booking or a cancellation changes the rooms taken, only its
+ * nights are priced again.
+ * <p>
+ * Quotes read a curve without locking it and retry under its read lock if it changed meanwhile; updates
+ * of a room type are made by the holder of the room type's lock in {@link ReservationSystem}. Stays
+ * outside of the window are not priced here, {@link #quote} returns NaN for them.
+ */
+public class PriceCurves {
+
+    /** The nights every curve covers from its first night on. */
+    public static final int WINDOW_NIGHTS = 1024;
+
+    private final PricingPipeline pipeline;
+    private final RoomTypeRegistry roomTypes;
+    private final long first;
+    private final Curve[] curves;
+
+    /**
+     * {@code PriceCurves} price every night of the window of every room type
+     *
+     * @param pipeline  the pipeline pricing the nights
+     * @param roomTypes the room types with their rates and rooms
+     * @param first     the epoch day of the first night of the window
+     * @param taken     the rooms taken on every night of the window, by room type id
+     */
+    public PriceCurves(PricingPipeline pipeline, RoomTypeRegistry roomTypes, long first, IntFunction<int[]> taken) {
+        this.pipeline = pipeline;
+        this.roomTypes = roomTypes;
+        this.first = first;
+        this.curves = new Curve[roomTypes.size()];
+        for (int id = 0; id < curves.length; id++) {
+            int[] takenNights = taken.apply(id);
+            long[] cents = new long[WINDOW_NIGHTS];
+            for (int i = 0; i < WINDOW_NIGHTS; i++) {
+                cents[i] = pipeline.nightCents(roomTypes, id, first + i, takenNights[i]);
+            }
+            curves[id] = new Curve(AnalyticsCube.DaySeries.of(first, cents));
+        }
+    }
+
+    /**
+     * {@code size} the number of room types priced
+     *
+     * @return the number of room types
+     */
+    public int size() {
+        return curves.length;
+    }
+
+    /**
+     * {@code getPipeline} the pipeline the curves were priced by
+     *
+     * @return the pipeline
+     */
+    public PricingPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * {@code getRoomTypes} the room types the curves were priced for
+     *
+     * @return the room types, with the ids of the curves
+     */
+    public RoomTypeRegistry getRoomTypes() {
+        return roomTypes;
+    }
+
+    /**
+     * {@code quote} the price of one room for a stay within the window
+     *
+     * @param typeId   the id of the room type
+     * @param checkIn  the epoch day of the check in
+     * @param checkOut the epoch day of the check out
+     * @param advance  whether it is an advance purchase (AP) reservation
+     * @return the price, NaN if the stay is not within the window
+     */
+    public double quote(int typeId, long checkIn, long checkOut, boolean advance) {
+        if (checkIn < first || checkOut > first + WINDOW_NIGHTS || checkIn > checkOut) {
+            return Double.NaN;
+        }
+        return pipeline.stay(typeId, checkIn, checkOut - checkIn, advance, curves[typeId].cents(checkIn, checkOut));
+    }
+
+    /**
+     * {@code reprice} price the nights of a range of a room type again, after the rooms taken changed
+     *
+     * @param typeId the id of the room type
+     * @param from   the epoch day of the first night
+     * @param taken  the rooms taken on every night of the range
+     */
+    public void reprice(int typeId, long from, int[] taken) {
+        long start = Math.max(from, first);
+        long end = Math.min(from + taken.length, first + WINDOW_NIGHTS);
+        if (start >= end || typeId >= curves.length) {
+            return;
+        }
+        Curve curve = curves[typeId];
+        long stamp = curve.lock.writeLock();
+        try {
+            for (long night = start; night < end; night++) {
+                long cents = pipeline.nightCents(roomTypes, typeId, night, taken[(int) (night - from)]);
+                long delta = cents - curve.series.value(night);
+                if (delta != 0) {
+                    curve.series.add(night, delta);
+                }
+            }
+        } finally {
+            curve.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * The nightly prices of one room type and the lock guarding them.
+     */
+    private static final class Curve {
+
+        final AnalyticsCube.DaySeries series;
+        final StampedLock lock = new StampedLock();
+
+        Curve(AnalyticsCube.DaySeries series) {
+            this.series = series;
+        }
+
+        long cents(long from, long to) {
+            long stamp = lock.tryOptimisticRead();
+            long cents = series.sumBefore(to) - series.sumBefore(from);
+            if (lock.validate(stamp)) {
+                return cents;
+            }
+            stamp = lock.readLock();
+            try {
+                return series.sumBefore(to) - series.sumBefore(from);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
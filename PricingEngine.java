@@ -0,0 +1,132 @@
+import java.time.LocalDate;
+
+/**
+ * {@code PricingEngine} prices stays from the weekly rates of every room type without walking the
+ * stay night by night. Since rates only depend on the day of the week, a stay of n nights costs
+ * n / 7 times the weekly sum plus the sum of the remaining nights, which is read from a prefix sum over
+ * two consecutive weeks. Pricing therefore takes the same time for a night as for a year.
+ * <p>
+ * The engine is an immutable copy of the rates in a {@link RoomTypeRegistry}; build a new one when the
+ * rates change. It keeps the registry it was built from, so the ids it prices and the names they stand for
+ * are read together.
+ */
+public class PricingEngine {
+
+    /** discount factor of an advance purchase (AP) reservation */
+    public static final double AP_FACTOR = 0.95;
+
+    // 1970-01-01, epoch day 0, was a Thursday which is index 3 when Monday is 0
+    private static final int EPOCH_DAY_OF_WEEK = 3;
+
+    private final RoomTypeRegistry roomTypes;
+    private final int[] weekSums;
+    // prefix[id][k] is the sum of the rates of the first k days of two weeks starting on a Monday
+    private final int[][] prefix;
+
+    /**
+     * {@code PricingEngine} precompute the tables for every room type in the registry
+     *
+     * @param roomTypes the registry holding the rates
+     */
+    public PricingEngine(RoomTypeRegistry roomTypes) {
+        this.roomTypes = roomTypes;
+        int size = roomTypes.size();
+        weekSums = new int[size];
+        prefix = new int[size][15];
+        for (int id = 0; id < size; id++) {
+            int[] rates = roomTypes.rates(id);
+            for (int k = 0; k < 14; k++) {
+                prefix[id][k + 1] = prefix[id][k] + rates[k % 7];
+            }
+            weekSums[id] = prefix[id][7];
+        }
+    }
+
+    /**
+     * {@code roomTypes} the registry this engine was built from
+     *
+     * @return the room types, with the ids the engine prices
+     */
+    public RoomTypeRegistry roomTypes() {
+        return roomTypes;
+    }
+
+    /**
+     * {@code size} the number of room types this engine can price
+     *
+     * @return the number of room types
+     */
+    public int size() {
+        return weekSums.length;
+    }
+
+    /**
+     * {@code nightsTotal} the undiscounted sum of the rates of a stay
+     *
+     * @param typeId   the id of the room type
+     * @param checkIn  the epoch day of the check in
+     * @param nights   the number of nights
+     * @return the sum of the rates of every night, 0 for a stay without nights
+     */
+    public long nightsTotal(int typeId, long checkIn, long nights) {
+        if (nights <= 0) {
+            return 0;
+        }
+        int start = dayOfWeek(checkIn);
+        int rest = (int) (nights % 7);
+        int[] sums = prefix[typeId];
+        return (nights / 7) * weekSums[typeId] + sums[start + rest] - sums[start];
+    }
+
+    /**
+     * {@code dayOfWeek} the index of the rate of a night
+     *
+     * @param epochDay the epoch day of the night
+     * @return 0 for a Monday up to 6 for a Sunday
+     */
+    public static int dayOfWeek(long epochDay) {
+        return Math.floorMod(epochDay + EPOCH_DAY_OF_WEEK, 7);
+    }
+
+    /**
+     * {@code cost} the cost of one room for a stay, with the AP discount applied once to the whole stay
+     *
+     * @param typeId   the id of the room type
+     * @param checkIn  check in date
+     * @param checkOut check out date
+     * @param resType  type of reservation, "AP" for an advance purchase
+     * @return the cost of the stay
+     */
+    public double cost(int typeId, LocalDate checkIn, LocalDate checkOut, String resType) {
+        long from = checkIn.toEpochDay();
+        double total = nightsTotal(typeId, from, checkOut.toEpochDay() - from);
+        if (resType.equals("AP")) {
+            total *= AP_FACTOR;
+        }
+        return total;
+    }
+
+    /**
+     * {@code dailyCost} the cost of a stay summed night by night, as prices were calculated before this
+     * engine existed. Kept for room types missing from the registry and as a reference for benchmarks.
+     *
+     * @param rates    the rates from Monday to Sunday
+     * @param checkIn  check in date
+     * @param checkOut check out date
+     * @param resType  type of reservation
+     * @return the cost of the stay
+     */
+    public static double dailyCost(int[] rates, LocalDate checkIn, LocalDate checkOut, String resType) {
+        LocalDate dateCopy = checkIn;
+        double total = 0;
+        while (dateCopy.isBefore(checkOut)) {
+            int index = dateCopy.getDayOfWeek().getValue() - 1;
+            total += rates[index];
+            dateCopy = dateCopy.plusDays(1);
+        }
+        if (resType.equals("AP")) {
+            total *= AP_FACTOR;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,40 @@
+import java.time.LocalDate;
+
+/**
+ * {@code PricingEngineCheck} compares the closed-form {@link PricingEngine} with the night-by-night loop
+ * which calcTotalCost used before, for every start weekday and stays of 0 to 365 nights, and fails at the
+ * first price they disagree on. How much faster the engine is, is measured by the JMH benchmarks of the
+ * benchmarks module, see {@link HotPathBenchmarks.Pricing}.
+ * <p>
+ * Usage: {@code java PricingEngineCheck}
+ */
+public class PricingEngineCheck {
+
+    private static final int[] RATES = {100, 100, 100, 100, 120, 150, 150};
+
+    public static void main(String[] args) {
+        RoomTypeRegistry roomTypes = new RoomTypeRegistry();
+        int typeId = roomTypes.register("Classic Double", 10, 2, RATES);
+        PricingEngine engine = new PricingEngine(roomTypes);
+        LocalDate start = LocalDate.of(2024, 1, 1);
+
+        // every engine result has to match the loop exactly
+        int checked = 0;
+        for (int offset = 0; offset < 7; offset++) {
+            for (int nights = 0; nights <= 365; nights++) {
+                LocalDate checkIn = start.plusDays(offset);
+                LocalDate checkOut = checkIn.plusDays(nights);
+                for (String resType : new String[] {"S", "AP"}) {
+                    double expected = PricingEngine.dailyCost(RATES, checkIn, checkOut, resType);
+                    double actual = engine.cost(typeId, checkIn, checkOut, resType);
+                    if (expected != actual) {
+                        throw new IllegalStateException("Engine priced " + nights + " nights from " + checkIn
+                                + " at " + actual + " instead of " + expected);
+                    }
+                    checked++;
+                }
+            }
+        }
+        System.out.println("All " + checked + " prices match the night-by-night loop");
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * {@code PricingPipeline} prices a stay by passing it through stages in order: every night is priced by
+ * the nightly stages, the nights are summed in cents and the sum is adjusted by the stay stages.
+ * <pre>
+ * PricingPipeline.of(PricingStage.baseRates(), PricingStage.occupancySurge(0.8, 1.15),
+ *         PricingStage.lengthOfStay(7, 0.9), PricingStage.advancePurchase(PricingEngine.AP_FACTOR))
+ * </pre>
+ * The {@link #standard() standard} pipeline prices as the weekly rates always did and is priced by the
+ * {@link PricingEngine}; any other is priced from {@link PriceCurves} which follow the bookings.
+ * A pipeline is immutable, {@link #then} returns a new one.
+ */
+public final class PricingPipeline {
+
+    private static final PricingPipeline STANDARD = of(PricingStage.baseRates(),
+            PricingStage.advancePurchase(PricingEngine.AP_FACTOR));
+
+    private final PricingStage[] stages;
+    private final boolean readsOccupancy;
+
+    private PricingPipeline(PricingStage[] stages) {
+        this.stages = stages;
+        boolean reads = false;
+        for (PricingStage stage : stages) {
+            reads |= stage.readsOccupancy();
+        }
+        this.readsOccupancy = reads;
+    }
+
+    /**
+     * {@code of} a pipeline of stages
+     *
+     * @param stages the stages, in the order they are applied
+     * @return the pipeline
+     */
+    public static PricingPipeline of(PricingStage... stages) {
+        return new PricingPipeline(stages.clone());
+    }
+
+    /**
+     * {@code standard} the weekly rates with the AP discount, the prices of the hotel file
+     *
+     * @return the pipeline
+     */
+    public static PricingPipeline standard() {
+        return STANDARD;
+    }
+
+    /**
+     * {@code yield} the weekly rates raised by 10% on nights 70% full and by a further 15% on nights 90%
+     * full, 10% off stays of a week or longer and the AP discount
+     *
+     * @return the pipeline
+     */
+    public static PricingPipeline yield() {
+        return of(PricingStage.baseRates(), PricingStage.occupancySurge(0.7, 1.10),
+                PricingStage.occupancySurge(0.9, 1.15), PricingStage.lengthOfStay(7, 0.9),
+                PricingStage.advancePurchase(PricingEngine.AP_FACTOR));
+    }
+
+    /**
+     * {@code then} this pipeline followed by one more stage
+     *
+     * @param stage the stage
+     * @return the longer pipeline
+     */
+    public PricingPipeline then(PricingStage stage) {
+        PricingStage[] longer = Arrays.copyOf(stages, stages.length + 1);
+        longer[stages.length] = stage;
+        return new PricingPipeline(longer);
+    }
+
+    /**
+     * {@code isStandard} whether this is the standard pipeline
+     *
+     * @return true for {@link #standard()}
+     */
+    public boolean isStandard() {
+        return this == STANDARD;
+    }
+
+    /**
+     * {@code readsOccupancy} whether any stage prices a night by the rooms taken
+     *
+     * @return true if bookings change the prices
+     */
+    public boolean readsOccupancy() {
+        return readsOccupancy;
+    }
+
+    /**
+     * {@code nightCents} the price of one night of one room, in whole cents so nights add up exactly
+     *
+     * @param roomTypes the room types with their rates and rooms
+     * @param typeId    the id of the room type
+     * @param night     the epoch day of the night
+     * @param taken     the rooms of the type taken that night
+     * @return the price in cents
+     */
+    public long nightCents(RoomTypeRegistry roomTypes, int typeId, long night, int taken) {
+        double price = 0;
+        for (PricingStage stage : stages) {
+            price = stage.night(roomTypes, typeId, night, taken, price);
+        }
+        return Math.round(price * 100);
+    }
+
+    /**
+     * {@code stay} the price of one room for a stay from the sum of its nightly prices
+     *
+     * @param typeId     the id of the room type
+     * @param checkIn    the epoch day of the check in
+     * @param nights     the number of nights
+     * @param advance    whether it is an advance purchase (AP) reservation
+     * @param nightCents the sum of the nightly prices in cents
+     * @return the price
+     */
+    public double stay(int typeId, long checkIn, long nights, boolean advance, long nightCents) {
+        double total = nightCents / 100.0;
+        for (PricingStage stage : stages) {
+            total = stage.stay(typeId, checkIn, nights, advance, total);
+        }
+        return total;
+    }
+
+    /**
+     * {@code price} the price of one room for a stay, night by night
+     *
+     * @param roomTypes the room types with their rates and rooms
+     * @param typeId    the id of the room type
+     * @param checkIn   the epoch day of the check in
+     * @param taken     the rooms of the type taken on every night of the stay
+     * @param advance   whether it is an advance purchase (AP) reservation
+     * @return the price
+     */
+    public double price(RoomTypeRegistry roomTypes, int typeId, long checkIn, int[] taken, boolean advance) {
+        long cents = 0;
+        for (int i = 0; i < taken.length; i++) {
+            cents += nightCents(roomTypes, typeId, checkIn + i, taken[i]);
+        }
+        return stay(typeId, checkIn, taken.length, advance, cents);
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * {@code PricingStage} one step of a {@link PricingPipeline}. A stage adjusts the price of every night of a
+ * stay, given how many rooms of the type are taken that night, or the total of a whole stay, or both; the
+ * method a stage does not override passes the price on unchanged. Stages are pure functions of their
+ * arguments, so the nightly prices can be computed ahead into price curves and recomputed for the nights
+ * a booking changes.
+ */
+public interface PricingStage {
+
+    /**
+     * {@code night} adjust the price of one night of one room
+     *
+     * @param roomTypes the room types with their rates and rooms
+     * @param typeId    the id of the room type
+     * @param night     the epoch day of the night
+     * @param taken     the rooms of the type taken that night
+     * @param price     the price from the stages before, 0 for the first stage
+     * @return the adjusted price
+     */
+    default double night(RoomTypeRegistry roomTypes, int typeId, long night, int taken, double price) {
+        return price;
+    }
+
+    /**
+     * {@code stay} adjust the price of one room for a whole stay, the sum of its nightly prices
+     *
+     * @param typeId  the id of the room type
+     * @param checkIn the epoch day of the check in
+     * @param nights  the number of nights
+     * @param advance whether it is an advance purchase (AP) reservation
+     * @param total   the price from the stages before
+     * @return the adjusted price
+     */
+    default double stay(int typeId, long checkIn, long nights, boolean advance, double total) {
+        return total;
+    }
+
+    /**
+     * {@code readsOccupancy} whether the nightly price depends on the rooms taken, so the nights of a
+     * booking or cancellation have to be priced again
+     *
+     * @return true if {@link #night} reads {@code taken}
+     */
+    default boolean readsOccupancy() {
+        return false;
+    }
+
+    /**
+     * {@code baseRates} the weekly rate of the room type for the day of the week of the night
+     *
+     * @return the stage
+     */
+    static PricingStage baseRates() {
+        return new PricingStage() {
+            @Override
+            public double night(RoomTypeRegistry roomTypes, int typeId, long night, int taken, double price) {
+                return roomTypes.rates(typeId)[PricingEngine.dayOfWeek(night)];
+            }
+        };
+    }
+
+    /**
+     * {@code occupancySurge} raise the price of the nights on which a share of the rooms is taken
+     *
+     * @param utilisation the share of the rooms taken from which on the price is raised, 0.8 for 80%
+     * @param factor      the factor the price is multiplied with, 1.15 for 15% more
+     * @return the stage
+     */
+    static PricingStage occupancySurge(double utilisation, double factor) {
+        return new PricingStage() {
+            @Override
+            public double night(RoomTypeRegistry roomTypes, int typeId, long night, int taken, double price) {
+                int rooms = roomTypes.numberOfRooms(typeId);
+                return rooms > 0 && taken >= utilisation * rooms ? price * factor : price;
+            }
+
+            @Override
+            public boolean readsOccupancy() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * {@code lengthOfStay} discount the stays of at least a number of nights
+     *
+     * @param nights the fewest nights discounted
+     * @param factor the factor the price is multiplied with, 0.9 for 10% off
+     * @return the stage
+     */
+    static PricingStage lengthOfStay(int nights, double factor) {
+        return new PricingStage() {
+            @Override
+            public double stay(int typeId, long checkIn, long stayNights, boolean advance, double total) {
+                return stayNights >= nights ? total * factor : total;
+            }
+        };
+    }
+
+    /**
+     * {@code advancePurchase} discount advance purchase (AP) reservations
+     *
+     * @param factor the factor the price is multiplied with, {@link PricingEngine#AP_FACTOR} as always
+     * @return the stage
+     */
+    static PricingStage advancePurchase(double factor) {
+        return new PricingStage() {
+            @Override
+            public double stay(int typeId, long checkIn, long nights, boolean advance, double total) {
+                return advance ? total * factor : total;
+            }
+        };
+    }
+}
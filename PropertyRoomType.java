@@ -0,0 +1,51 @@
+/**
+ * {@code PropertyRoomType} a room type of one property: the property's id and the id of the room type in
+ * the registry of that property. Room type ids are dense per property, so the same id names different
+ * room types in different properties and only the pair identifies a room type across the estate.
+ */
+public final class PropertyRoomType {
+
+    private final String propertyId;
+    private final int roomTypeId;
+
+    /**
+     * {@code PropertyRoomType} a room type of a property
+     *
+     * @param propertyId the id of the property
+     * @param roomTypeId the id of the room type in the registry of the property
+     */
+    public PropertyRoomType(String propertyId, int roomTypeId) {
+        this.propertyId = propertyId;
+        this.roomTypeId = roomTypeId;
+    }
+
+    public String getPropertyId() {
+        return propertyId;
+    }
+
+    public int getRoomTypeId() {
+        return roomTypeId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PropertyRoomType)) {
+            return false;
+        }
+        PropertyRoomType other = (PropertyRoomType) o;
+        return roomTypeId == other.roomTypeId && propertyId.equals(other.propertyId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * propertyId.hashCode() + roomTypeId;
+    }
+
+    @Override
+    public String toString() {
+        return propertyId + "/" + roomTypeId;
+    }
+}
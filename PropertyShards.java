@@ -0,0 +1,363 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * {@code PropertyShards} the reservation systems of many properties, one shard per directory below a root
+ * directory. A shard is a property, or a group of properties kept in one hotel file as l4Hotels.csv keeps
+ * three hotels, and owns its reservations, indexes, journal, snapshot and billing files, so shards book
+ * without sharing a lock and each loads on its own:
+ * <pre>
+ * root/
+ *   dublin/   l4Hotels.csv reservation.csv reservation.snapshot reservation.journal billing.csv
+ *   galway/   l4Hotels.csv ...
+ * </pre>
+ * The name of the directory is the id of the property. Shards are loaded in parallel, and reports over
+ * every property are scattered to the shards in parallel and their figures gathered and summed.
+ */
+public final class PropertyShards implements AutoCloseable {
+
+    /** The hotel file of a shard, a directory holding one is a shard. */
+    public static final String HOTEL_FILE = "l4Hotels.csv";
+    private static final String RESERVATION_FILE = "reservation.csv";
+    private static final String BILLING_FILE = "billing.csv";
+    private static final String SNAPSHOT_FILE = "reservation.snapshot";
+    private static final String JOURNAL_FILE = "reservation.journal";
+
+    // the shards by property id, in order of the ids, not changed once loaded
+    private final Map<String, Shard> shards;
+    // runs the loads and the scattered queries, which mostly wait on files and locks
+    private final ExecutorService workers;
+
+    private PropertyShards(Map<String, Shard> shards, ExecutorService workers) {
+        this.shards = shards;
+        this.workers = workers;
+    }
+
+    /**
+     * {@code open} load every shard below a root directory in parallel: decode its hotels, restore its
+     * reservations from its snapshot and journal and open its journal for writing
+     *
+     * @param root      the directory holding a directory per shard
+     * @param configure applied to every reservation system before its reservations are restored, to set
+     *                  options such as the columnar store
+     * @return the loaded shards
+     * @throws IOException if the root can not be listed or a shard can not be loaded, in which case the
+     *                     shards already loaded are closed again
+     */
+    public static PropertyShards open(Path root, Consumer<ReservationSystem> configure) throws IOException {
+        List<Path> directories;
+        try (Stream<Path> entries = Files.list(root)) {
+            directories = entries.filter(dir -> Files.isRegularFile(dir.resolve(HOTEL_FILE))).sorted().toList();
+        }
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        Map<String, Future<Shard>> loading = new LinkedHashMap<>();
+        for (Path dir : directories) {
+            loading.put(dir.getFileName().toString(), workers.submit(() -> load(dir, configure)));
+        }
+        Map<String, Shard> shards = new TreeMap<>();
+        IOException failure = null;
+        for (Map.Entry<String, Future<Shard>> entry : loading.entrySet()) {
+            try {
+                shards.put(entry.getKey(), join(entry.getValue()));
+            } catch (RuntimeException e) {
+                IOException cause = e.getCause() instanceof IOException io ? io
+                        : new IOException("Can not load property " + entry.getKey(), e);
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        PropertyShards opened = new PropertyShards(Collections.unmodifiableMap(shards), workers);
+        if (failure != null) {
+            opened.close();
+            throw failure;
+        }
+        return opened;
+    }
+
+    private static Shard load(Path dir, Consumer<ReservationSystem> configure) throws IOException {
+        ReservationSystem system = new ReservationSystem(dir.resolve(HOTEL_FILE).toString(),
+                dir.resolve(RESERVATION_FILE).toString(), dir.resolve(BILLING_FILE).toString());
+        system.setSnapshotPath(dir.resolve(SNAPSHOT_FILE).toString());
+        HotelList hotels;
+        // HotelList keeps the room types it was built with in static fields, so hotels are built one at a
+        // time; the shards still restore their reservations, the bulk of a load, in parallel
+        synchronized (HotelList.class) {
+            hotels = system.decodeHotels();
+        }
+        if (hotels == null) {
+            throw new IOException("Can not decode " + dir.resolve(HOTEL_FILE));
+        }
+        configure.accept(system);
+        if (!system.openJournal(dir.resolve(JOURNAL_FILE).toString())) {
+            throw new IOException("Can not restore the reservations of " + dir);
+        }
+        system.initCSV();
+        return new Shard(system, hotels);
+    }
+
+    /**
+     * {@code properties} the ids of the properties
+     *
+     * @return the ids in ascending order
+     */
+    public Set<String> properties() {
+        return shards.keySet();
+    }
+
+    /**
+     * {@code shard} the reservation system of a property
+     *
+     * @param propertyId the id of the property
+     * @return its reservation system
+     * @throws IllegalArgumentException if there is no such property
+     */
+    public ReservationSystem shard(String propertyId) {
+        return get(propertyId).system;
+    }
+
+    /**
+     * {@code hotels} the hotels of a property, as decoded from its hotel file
+     *
+     * @param propertyId the id of the property
+     * @return its hotels
+     * @throws IllegalArgumentException if there is no such property
+     */
+    public HotelList hotels(String propertyId) {
+        return get(propertyId).hotels;
+    }
+
+    /**
+     * {@code roomType} the room type of a property with a name
+     *
+     * @param propertyId the id of the property
+     * @param roomType   the name of the room type
+     * @return the room type, null if the property has no room type of that name
+     * @throws IllegalArgumentException if there is no such property
+     */
+    public PropertyRoomType roomType(String propertyId, String roomType) {
+        int id = shard(propertyId).getRoomTypes().id(roomType);
+        return id < 0 ? null : new PropertyRoomType(propertyId, id);
+    }
+
+    /**
+     * {@code roomTypes} the room types of every property
+     *
+     * @return the room types by property and id
+     */
+    public List<PropertyRoomType> roomTypes() {
+        List<PropertyRoomType> types = new ArrayList<>();
+        for (Map.Entry<String, Shard> entry : shards.entrySet()) {
+            int count = entry.getValue().system.getRoomTypes().size();
+            for (int id = 0; id < count; id++) {
+                types.add(new PropertyRoomType(entry.getKey(), id));
+            }
+        }
+        return types;
+    }
+
+    /**
+     * {@code name} the name of a room type in its property
+     *
+     * @param roomType the room type
+     * @return its name
+     * @throws IllegalArgumentException if there is no such property
+     */
+    public String name(PropertyRoomType roomType) {
+        return shard(roomType.getPropertyId()).getRoomTypes().name(roomType.getRoomTypeId());
+    }
+
+    /**
+     * {@code available} whether a room of a type is free on every night of a stay
+     *
+     * @param roomType the room type
+     * @param checkIn  check in date
+     * @param checkOut check out date
+     * @return true if a room is free
+     */
+    public boolean available(PropertyRoomType roomType, LocalDate checkIn, LocalDate checkOut) {
+        return shard(roomType.getPropertyId()).available(name(roomType), checkIn, checkOut);
+    }
+
+    /**
+     * {@code calcTotalCost} the price of one room of a type for a stay
+     *
+     * @param roomType the room type
+     * @param checkIn  check in date
+     * @param checkOut check out date
+     * @param resType  "S" or "AP"
+     * @return the price
+     */
+    public double calcTotalCost(PropertyRoomType roomType, LocalDate checkIn, LocalDate checkOut,
+                                String resType) {
+        return shard(roomType.getPropertyId()).calcTotalCost(name(roomType), checkIn, checkOut, resType);
+    }
+
+    /**
+     * {@code scatter} run a query on every shard in parallel and gather the answers
+     *
+     * @param query the query, run once on the reservation system of every property
+     * @param <T>   the type of the answers
+     * @return the answers by property id, in order of the ids
+     */
+    public <T> Map<String, T> scatter(Function<ReservationSystem, T> query) {
+        Map<String, Future<T>> running = new LinkedHashMap<>();
+        for (Map.Entry<String, Shard> entry : shards.entrySet()) {
+            ReservationSystem system = entry.getValue().system;
+            running.put(entry.getKey(), workers.submit(() -> query.apply(system)));
+        }
+        Map<String, T> answers = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<T>> entry : running.entrySet()) {
+            answers.put(entry.getKey(), join(entry.getValue()));
+        }
+        return answers;
+    }
+
+    /**
+     * {@code searchAvailability} the room types of every property free for a stay and a party
+     *
+     * @param checkIn   check in date
+     * @param checkOut  check out date
+     * @param partySize the guests to house
+     * @param resType   "S" or "AP"
+     * @return the offers of every property by property id, cheapest first within a property
+     */
+    public Map<String, List<RoomOffer>> searchAvailability(LocalDate checkIn, LocalDate checkOut, int partySize,
+                                                           String resType) {
+        return scatter(system -> system.searchAvailability(checkIn, checkOut, partySize, resType));
+    }
+
+    /**
+     * {@code getReservationCount} the reservations booked in every property
+     *
+     * @return the number of reservations
+     */
+    public int getReservationCount() {
+        int count = 0;
+        for (int shardCount : scatter(ReservationSystem::getReservationCount).values()) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    /**
+     * {@code analysePeriod} the occupancy figures, occupancy rates and earnings of the stays within a
+     * period over every property. The rates are those of the summed guests and maximal occupancies, not
+     * an average of the rates of the properties
+     *
+     * @param start start date
+     * @param end   end date
+     * @return the figures of every property together
+     */
+    public ParallelAnalytics.Figures analysePeriod(LocalDate start, LocalDate end) {
+        ParallelAnalytics.Figures total = null;
+        for (ParallelAnalytics.Figures figures : scatter(system -> system.analysePeriod(start, end)).values()) {
+            total = total == null ? figures : total.plus(figures);
+        }
+        return total == null ? new ParallelAnalytics.Figures(new long[ParallelAnalytics.SLOTS]) : total;
+    }
+
+    /**
+     * {@code reportOccupancyFigures} the guests whose stay overlaps a period over every property
+     *
+     * @param start start date
+     * @param end   end date, exclusive
+     * @return guests of the 3-star, 4-star and 5-star hotels of every property and in total
+     */
+    public int[] reportOccupancyFigures(LocalDate start, LocalDate end) {
+        int[] total = new int[RoomTypeRegistry.TIERS + 1];
+        for (int[] figures : scatter(system -> system.reportOccupancyFigures(start, end)).values()) {
+            for (int i = 0; i < total.length; i++) {
+                total[i] += figures[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * {@code reportBilling} the income of the nights within a period over every property
+     *
+     * @param start start date
+     * @param end   end date, exclusive
+     * @return income of the 3-star, 4-star and 5-star hotels of every property and in total
+     */
+    public double[] reportBilling(LocalDate start, LocalDate end) {
+        double[] total = new double[RoomTypeRegistry.TIERS + 1];
+        for (double[] income : scatter(system -> system.reportBilling(start, end)).values()) {
+            for (int i = 0; i < total.length; i++) {
+                total[i] += income[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * {@code close} close the journal of every shard, in parallel
+     */
+    @Override
+    public void close() {
+        scatter(system -> {
+            system.closeJournal();
+            return Boolean.TRUE;
+        });
+        workers.shutdown();
+    }
+
+    private Shard get(String propertyId) {
+        Shard shard = shards.get(propertyId);
+        if (shard == null) {
+            throw new IllegalArgumentException("No property " + propertyId);
+        }
+        return shard;
+    }
+
+    // the answer of a task, rethrowing what it threw
+    private static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a shard", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * The reservation system of a property and the hotels decoded for it.
+     */
+    private static final class Shard {
+
+        final ReservationSystem system;
+        final HotelList hotels;
+
+        Shard(ReservationSystem system, HotelList hotels) {
+            this.system = system;
+            this.hotels = hotels;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code QuoteCache} remembers the prices of recent quotes: the cost of one room of a type for a stay,
+ * keyed by the room type id, the check in, the number of nights and whether it is an advance purchase.
+ * Entries are spread over segments by key so that quotes from many threads rarely wait on each other;
+ * each segment is a least recently used map holding its share of the capacity.
+ * <p>
+ * A price is only valid for the rates it was computed from, and a key only for the room type ids it was
+ * made with. {@link #invalidate} swaps in the new rates and empties the cache; the generation is odd while
+ * it runs and moves on twice, so a quote running at the same time neither reads nor stores a price of the
+ * old rates under a key of the new ids: read {@link #generation} before the rates, trust a price from
+ * {@link #get} only if {@link #isStable} afterwards, and hand the generation to {@link #put}.
+ */
+public final class QuoteCache {
+
+    private static final int SEGMENTS = 16;
+    // bits of a key, stays longer than MAX_NIGHTS and type ids from 2^16 are not cached
+    private static final int NIGHT_BITS = 15;
+    private static final int TYPE_BITS = 16;
+    /** The longest stay which is cached. */
+    public static final int MAX_NIGHTS = (1 << NIGHT_BITS) - 1;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int capacity;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * {@code QuoteCache} an empty cache
+     *
+     * @param capacity the most prices held
+     */
+    public QuoteCache(int capacity) {
+        if (capacity < SEGMENTS) {
+            throw new IllegalArgumentException("A quote cache holds at least " + SEGMENTS + " prices");
+        }
+        this.capacity = capacity;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity / SEGMENTS);
+        }
+    }
+
+    /**
+     * {@code key} the key of a quote
+     *
+     * @param typeId   the id of the room type
+     * @param checkIn  the epoch day of the check in
+     * @param nights   the number of nights
+     * @param advance  true for an advance purchase
+     * @return the key, -1 if the quote can not be cached
+     */
+    public static long key(int typeId, long checkIn, long nights, boolean advance) {
+        if (typeId < 0 || typeId >= 1 << TYPE_BITS || nights < 0 || nights > MAX_NIGHTS
+                || checkIn != (int) checkIn) {
+            return -1;
+        }
+        return ((long) typeId << 48) | ((checkIn & 0xFFFFFFFFL) << 16) | (nights << 1) | (advance ? 1 : 0);
+    }
+
+    /**
+     * {@code generation} the generation of the rates, to be passed to {@link #put}
+     *
+     * @return the generation, odd while the rates are being swapped
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * {@code isStable} whether the rates read since a generation was read are still those of that
+     * generation, so the prices read from the cache meanwhile belong to them
+     *
+     * @param generation the {@link #generation} read before the rates
+     * @return true if no swap of the rates ran or runs since
+     */
+    public boolean isStable(long generation) {
+        return (generation & 1) == 0 && generation == this.generation.get();
+    }
+
+    /**
+     * {@code get} the cached price of a quote, counting a hit or a miss
+     *
+     * @param key the key of the quote
+     * @return the price, NaN if it is not cached
+     */
+    public double get(long key) {
+        Segment segment = segmentOf(key);
+        Double price;
+        synchronized (segment) {
+            price = segment.get(key);
+        }
+        if (price == null) {
+            misses.increment();
+            return Double.NaN;
+        }
+        hits.increment();
+        return price;
+    }
+
+    /**
+     * {@code put} cache the price of a quote, unless the rates changed since it was computed
+     *
+     * @param key        the key of the quote
+     * @param price      the price
+     * @param generation the {@link #generation} read before the price was computed
+     */
+    public void put(long key, double price, long generation) {
+        Segment segment = segmentOf(key);
+        synchronized (segment) {
+            if (isStable(generation)) {
+                segment.put(key, price);
+            }
+        }
+    }
+
+    /**
+     * {@code invalidate} change the rates and forget every price. Callers which swap rates are expected to
+     * hold a lock of their own, as one swap has to finish before the next starts
+     *
+     * @param swap swaps in the new rates
+     */
+    public void invalidate(Runnable swap) {
+        generation.incrementAndGet();
+        try {
+            swap.run();
+        } finally {
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    segment.clear();
+                }
+            }
+            generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@code capacity} the most prices held
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * {@code size} the number of prices held
+     *
+     * @return the number of prices
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * {@code hits} the number of quotes answered from the cache
+     *
+     * @return the hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * {@code misses} the number of quotes which had to be priced
+     *
+     * @return the misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * {@code evictions} the number of prices dropped to make room for others
+     *
+     * @return the evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * {@code hitRate} the share of the quotes answered from the cache
+     *
+     * @return the percentage of hits, 0 before the first quote
+     */
+    public double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : hit * 100.0 / total;
+    }
+
+    private Segment segmentOf(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (mixed >>> 60)];
+    }
+
+    /**
+     * A least recently used map of a share of the prices.
+     */
+    @SuppressWarnings("serial") // the cache is never serialized
+    private final class Segment extends LinkedHashMap<Long, Double> {
+
+        private final int limit;
+
+        Segment(int limit) {
+            super(16, 0.75f, true);
+            this.limit = limit;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Double> eldest) {
+            if (size() > limit) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,671 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * {@code ReservationBook} the booked reservations, keyed by their reference number. The reservations sit
+ * in a slab in booking order; an open addressing table of primitive ints maps each reference number to
+ * its slot, so lookups neither box the key nor walk the reservations.
+ * <p>
+ * The table probes linearly and deletes by shifting the rest of the probe run back, so it never holds
+ * tombstones and lookups stay short however many reservations are cancelled. A cancelled reservation
+ * leaves an empty slot in the slab instead of shifting the ones after it, and its record, with the
+ * refund and the day of the cancellation, is kept with the cancellations until it is reclaimed. The
+ * slab is compacted by {@link #compact}, or when a reservation is added while half of it is empty,
+ * which keeps adding and removing O(1) amortised.
+ * <p>
+ * A columnar book keeps the reservations in {@link ReservationColumns} instead of the slab, a row per
+ * slot. It takes several times less heap per reservation, but hands out a new copy of a reservation on
+ * every lookup, so its reservations are matched by reference number rather than by identity.
+ * <p>
+ * Queries page through the reservations in the order of their reference numbers, which concurrent
+ * bookings and a replayed journal do not always add them in. An index of the slots sorted by reference
+ * number, one long per slot holding both, finds the page of a cursor by a binary search. A slot is
+ * inserted where its number belongs, which is at or near the end for numbers handed out in order; one
+ * far out of order goes to a short sorted list of late slots instead, merged into the index once it
+ * outgrows the square root of the index. A slot stays in the index once it is emptied, as emptied
+ * slots are not used again, and the index is rebuilt when the slots are compacted.
+ * <p>
+ * Queries by the name of the guest use a {@link NameIndex}, built by the first of them and kept up to
+ * date from then on, when the name matches few reservations: at most the square root of the size of the
+ * book times the limit of a page, whose matches are then sorted for every page. A name matching more, as
+ * a prefix of one letter does, is looked for along the index of the slots, which stops once the page is
+ * full; matches are frequent then, so neither way reads much more than that square root for a page.
+ * <p>
+ * The book is not thread safe, callers synchronize access to it.
+ */
+public final class ReservationBook {
+
+    private static final int INITIAL_CAPACITY = 16;
+    // the most entries of the order shifted to add a slot in place
+    private static final int LATE_SHIFT = 64;
+
+    // refNo of every bucket, valid where slots holds a slot
+    private int[] keys;
+    // slot + 1 of every bucket, 0 for an empty bucket
+    private int[] slots;
+    private int mask;
+    private Reservation[] slab;
+    // the rows of a columnar book, which has no slab
+    private final ReservationColumns columns;
+    // the next free slot, slots before it are taken or empty after a removal
+    private int end;
+    private int size;
+    // refNo << 32 | slot of every slot taken since the last compaction, ascending, in order or late
+    private long[] order = new long[INITIAL_CAPACITY];
+    private int orderSize;
+    private long[] late = new long[INITIAL_CAPACITY];
+    private int lateSize;
+    // the names of the guests, null until a query by name needs them
+    private NameIndex names;
+    // cancelled reservations by reference number, until they are reclaimed
+    private final Map<Integer, CancelledReservation> cancelled = new LinkedHashMap<>();
+
+    /**
+     * {@code ReservationBook} an empty book of reservation objects
+     */
+    public ReservationBook() {
+        this(false);
+    }
+
+    /**
+     * {@code ReservationBook} an empty book
+     *
+     * @param columnar true to keep the reservations in columns rather than as objects
+     */
+    public ReservationBook(boolean columnar) {
+        keys = new int[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+        if (columnar) {
+            columns = new ReservationColumns();
+        } else {
+            columns = null;
+            slab = new Reservation[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * {@code ReservationBook} a book holding the given reservations
+     *
+     * @param columnar     true to keep the reservations in columns rather than as objects
+     * @param reservations the reservations, with distinct reference numbers
+     */
+    public ReservationBook(boolean columnar, Iterable<Reservation> reservations) {
+        this(columnar);
+        for (Reservation reservation : reservations) {
+            add(reservation);
+        }
+    }
+
+    /**
+     * {@code ReservationBook} a book holding the reservations of columns read from a snapshot
+     *
+     * @param columnar     true to keep the columns themselves, false to hold their rows as objects
+     * @param reservations the columns, with distinct reference numbers
+     */
+    public ReservationBook(boolean columnar, ReservationColumns reservations) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3L < reservations.rows() * 4L) {
+            capacity *= 2;
+        }
+        keys = new int[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+        if (!columnar) {
+            columns = null;
+            slab = new Reservation[Math.max(INITIAL_CAPACITY, reservations.rows())];
+            for (int row = 0; row < reservations.rows(); row++) {
+                if (!reservations.isEmpty(row)) {
+                    add(reservations.reservation(row));
+                }
+            }
+            return;
+        }
+        columns = reservations;
+        end = reservations.rows();
+        for (int row = 0; row < end; row++) {
+            if (reservations.isEmpty(row)) {
+                continue;
+            }
+            int bucket = bucketOf(reservations.refNo(row));
+            if (slots[bucket] != 0) {
+                // the first row of a reference number wins, as when adding
+                reservations.clear(row);
+                continue;
+            }
+            keys[bucket] = reservations.refNo(row);
+            slots[bucket] = row + 1;
+            size++;
+        }
+        sortOrder();
+    }
+
+    /**
+     * {@code columns} the columns of a columnar book
+     *
+     * @return the columns, null for a book of reservation objects
+     */
+    public ReservationColumns columns() {
+        return columns;
+    }
+
+    /**
+     * {@code size} the number of reservations
+     *
+     * @return number of reservations in the book
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@code add} add a reservation unless its reference number is already booked
+     *
+     * @param reservation the reservation
+     * @return true if it was added
+     */
+    public boolean add(Reservation reservation) {
+        int refNo = reservation.getRefNo();
+        int bucket = bucketOf(refNo);
+        if (slots[bucket] != 0) {
+            return false;
+        }
+        if (columns != null) {
+            if (end >= 64 && size * 2 < end) {
+                compactColumns();
+            }
+            end = columns.append(reservation);
+        } else {
+            if (end == slab.length) {
+                growSlab();
+            }
+            slab[end] = reservation;
+        }
+        keys[bucket] = refNo;
+        slots[bucket] = ++end;
+        size++;
+        track(refNo, end - 1);
+        if (names != null) {
+            names.add(reservation.getName(), refNo);
+        }
+        if (size * 4L > keys.length * 3L) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * {@code find} look a reservation up by its reference number
+     *
+     * @param refNo the reference number
+     * @return the reservation, empty if there is none with that number
+     */
+    public Optional<Reservation> find(int refNo) {
+        return Optional.ofNullable(get(refNo));
+    }
+
+    /**
+     * {@code get} look a reservation up by its reference number
+     *
+     * @param refNo the reference number
+     * @return the reservation, null if there is none with that number
+     */
+    public Reservation get(int refNo) {
+        int slot = slots[bucketOf(refNo)];
+        if (slot == 0) {
+            return null;
+        }
+        return columns != null ? columns.reservation(slot - 1) : slab[slot - 1];
+    }
+
+    /**
+     * {@code contains} whether a reference number is booked
+     *
+     * @param refNo the reference number
+     * @return true if a reservation has that number
+     */
+    public boolean contains(int refNo) {
+        return slots[bucketOf(refNo)] != 0;
+    }
+
+    /**
+     * {@code remove} remove a reservation, if it is the one booked under its reference number. A
+     * columnar book removes any reservation booked under the number
+     *
+     * @param reservation the reservation
+     * @return the reservation as it was booked, null if it was not removed
+     */
+    public Reservation remove(Reservation reservation) {
+        int bucket = bucketOf(reservation.getRefNo());
+        int slot = slots[bucket];
+        if (slot == 0) {
+            return null;
+        }
+        Reservation removed;
+        if (columns != null) {
+            removed = columns.reservation(slot - 1);
+            columns.clear(slot - 1);
+        } else if (slab[slot - 1] == reservation) {
+            removed = reservation;
+            slab[slot - 1] = null;
+        } else {
+            return null;
+        }
+        deleteBucket(bucket);
+        size--;
+        if (names != null) {
+            names.remove(removed.getName(), removed.getRefNo());
+        }
+        return removed;
+    }
+
+    /**
+     * {@code cancel} remove a reservation, as {@link #remove(Reservation)} does, and keep the record of its
+     * cancellation
+     *
+     * @param reservation the reservation
+     * @param refund      the amount refunded
+     * @param cancelledOn the day of the cancellation, null if it is not known
+     * @return the reservation as it was booked, null if it was not removed
+     */
+    public Reservation cancel(Reservation reservation, double refund, LocalDate cancelledOn) {
+        Reservation removed = remove(reservation);
+        if (removed != null) {
+            cancelled.put(removed.getRefNo(), new CancelledReservation(removed, refund, cancelledOn));
+        }
+        return removed;
+    }
+
+    /**
+     * {@code cancel} cancel whatever reservation is booked under a reference number
+     *
+     * @param refNo       the reference number
+     * @param refund      the amount refunded
+     * @param cancelledOn the day of the cancellation, null if it is not known
+     * @return the reservation as it was booked, null if there was none
+     */
+    public Reservation cancel(int refNo, double refund, LocalDate cancelledOn) {
+        Reservation booked = get(refNo);
+        return booked == null ? null : cancel(booked, refund, cancelledOn);
+    }
+
+    /**
+     * {@code findCancelled} look the cancellation of a reservation up, unless it has been reclaimed
+     *
+     * @param refNo the reference number
+     * @return the cancellation, empty if the reservation was not cancelled or has been reclaimed
+     */
+    public Optional<CancelledReservation> findCancelled(int refNo) {
+        return Optional.ofNullable(cancelled.get(refNo));
+    }
+
+    /**
+     * {@code cancellations} the cancellations which have not been reclaimed
+     *
+     * @return a new list of the cancellations, in the order they were cancelled
+     */
+    public List<CancelledReservation> cancellations() {
+        return new ArrayList<>(cancelled.values());
+    }
+
+    /**
+     * {@code forget} drop the records of cancellations once they are kept elsewhere
+     *
+     * @param reclaimed cancellations returned by {@link #cancellations}
+     */
+    public void forget(List<CancelledReservation> reclaimed) {
+        for (CancelledReservation cancellation : reclaimed) {
+            // a number booked again and cancelled again meanwhile has a record of its own
+            cancelled.remove(cancellation.getRefNo(), cancellation);
+        }
+    }
+
+    /**
+     * {@code keepCancellations} take over the cancellations of the book this one replaces
+     *
+     * @param replaced the book which is replaced
+     */
+    public void keepCancellations(ReservationBook replaced) {
+        cancelled.putAll(replaced.cancelled);
+    }
+
+    /**
+     * {@code emptyFraction} the share of the slots left empty by cancelled or removed reservations
+     *
+     * @return the fraction from 0 to 1
+     */
+    public double emptyFraction() {
+        return end == 0 ? 0 : (double) (end - size) / end;
+    }
+
+    /**
+     * {@code compact} close the gaps left by cancelled and removed reservations, keeping the booking order
+     */
+    public void compact() {
+        compactSlab();
+    }
+
+    /**
+     * {@code remove} remove whatever reservation is booked under a reference number
+     *
+     * @param refNo the reference number
+     * @return the reservation as it was booked, null if there was none
+     */
+    public Reservation remove(int refNo) {
+        Reservation booked = get(refNo);
+        return booked == null ? null : remove(booked);
+    }
+
+    /**
+     * {@code toList} the reservations in the order they were booked
+     *
+     * @return a new list of the reservations
+     */
+    public List<Reservation> toList() {
+        List<Reservation> list = new ArrayList<>(size);
+        for (int i = 0; i < end; i++) {
+            if (columns != null) {
+                if (!columns.isEmpty(i)) {
+                    list.add(columns.reservation(i));
+                }
+            } else if (slab[i] != null) {
+                list.add(slab[i]);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * {@code forEachMatching} pass the reservations whose stay matches a filter to an action, in the order
+     * they were booked. A columnar book only creates the reservations which match
+     *
+     * @param filter tests the reference number and stay of every reservation
+     * @param action receives the reservations which match
+     */
+    public void forEachMatching(StayFilter filter, Consumer<Reservation> action) {
+        for (int i = 0; i < end; i++) {
+            if (columns != null) {
+                if (!columns.isEmpty(i) && filter.test(columns.refNo(i), columns.checkIn(i), columns.checkOut(i))) {
+                    action.accept(columns.reservation(i));
+                }
+            } else if (slab[i] != null && filter.test(slab[i].getRefNo(), slab[i].getCheckIn().toEpochDay(),
+                    slab[i].getCheckOut().toEpochDay())) {
+                action.accept(slab[i]);
+            }
+        }
+    }
+
+    /**
+     * {@code query} the reservations selected by a query with a reference number above a cursor, in
+     * ascending order of their reference numbers
+     *
+     * @param query      the query
+     * @param afterRefNo the cursor, the reference number of the last reservation of the page before
+     * @param limit      the most reservations returned
+     * @return the reservations, the first limit of them
+     */
+    public List<Reservation> query(ReservationQuery query, int afterRefNo, int limit) {
+        List<Reservation> found = new ArrayList<>(Math.min(limit, 1024));
+        int sparse = (int) Math.min(Math.sqrt((double) size * limit), Integer.MAX_VALUE - 1);
+        if (query.getNamePrefix() != null && names().count(query.getNamePrefix(), sparse) <= sparse) {
+            for (int refNo : names().find(query.getNamePrefix(), afterRefNo)) {
+                Reservation reservation = get(refNo);
+                if (query.matches(reservation)) {
+                    found.add(reservation);
+                    if (found.size() == limit) {
+                        break;
+                    }
+                }
+            }
+            return found;
+        }
+        long cursor = (long) afterRefNo << 32 | 0xFFFFFFFFL;
+        int i = firstAbove(order, orderSize, cursor);
+        int j = firstAbove(late, lateSize, cursor);
+        while (found.size() < limit && (i < orderSize || j < lateSize)) {
+            long entry = j == lateSize || (i < orderSize && order[i] < late[j]) ? order[i++] : late[j++];
+            Reservation reservation = matching((int) entry, query);
+            if (reservation != null) {
+                found.add(reservation);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * {@code matching} the reservation of a slot if it is selected by a query, testing its stay before a
+     * columnar book creates it
+     */
+    private Reservation matching(int slot, ReservationQuery query) {
+        Reservation reservation;
+        if (columns != null) {
+            if (columns.isEmpty(slot) || !query.matchesStay(columns.checkIn(slot), columns.checkOut(slot))) {
+                return null;
+            }
+            reservation = columns.reservation(slot);
+        } else {
+            reservation = slab[slot];
+            if (reservation == null) {
+                return null;
+            }
+        }
+        return query.matches(reservation) ? reservation : null;
+    }
+
+    /**
+     * {@code firstAbove} the position of the first of sorted entries above a key
+     */
+    private static int firstAbove(long[] entries, int size, long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries[middle] > key) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * {@code track} add a newly taken slot to the order: in place if at most a few entries have higher
+     * reference numbers, which is the rule, else among the late slots
+     */
+    private void track(int refNo, int slot) {
+        long entry = (long) refNo << 32 | slot;
+        int at = orderSize > 0 && order[orderSize - 1] > entry ? firstAbove(order, orderSize, entry) : orderSize;
+        if (orderSize - at <= LATE_SHIFT) {
+            order = insert(order, orderSize, at, entry);
+            orderSize++;
+            return;
+        }
+        late = insert(late, lateSize, firstAbove(late, lateSize, entry), entry);
+        lateSize++;
+        if ((long) lateSize * lateSize > orderSize) {
+            mergeLate();
+        }
+    }
+
+    private static long[] insert(long[] entries, int size, int at, long entry) {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        System.arraycopy(entries, at, entries, at + 1, size - at);
+        entries[at] = entry;
+        return entries;
+    }
+
+    /**
+     * {@code mergeLate} merge the late slots into the order, from the back so no other array is needed
+     */
+    private void mergeLate() {
+        if (order.length < orderSize + lateSize) {
+            order = Arrays.copyOf(order, Math.max(order.length * 2, orderSize + lateSize));
+        }
+        int i = orderSize - 1;
+        int j = lateSize - 1;
+        for (int to = orderSize + lateSize - 1; j >= 0; to--) {
+            order[to] = i >= 0 && order[i] > late[j] ? order[i--] : late[j--];
+        }
+        orderSize += lateSize;
+        lateSize = 0;
+    }
+
+    /**
+     * {@code sortOrder} rebuild the order from the slots taken
+     */
+    private void sortOrder() {
+        if (order.length < end) {
+            order = new long[end];
+        }
+        orderSize = 0;
+        for (int slot = 0; slot < end; slot++) {
+            if (columns != null ? !columns.isEmpty(slot) : slab[slot] != null) {
+                int refNo = columns != null ? columns.refNo(slot) : slab[slot].getRefNo();
+                order[orderSize++] = (long) refNo << 32 | slot;
+            }
+        }
+        Arrays.sort(order, 0, orderSize);
+        lateSize = 0;
+    }
+
+    private NameIndex names() {
+        if (names == null) {
+            names = new NameIndex();
+            for (int i = 0; i < end; i++) {
+                if (columns != null) {
+                    if (!columns.isEmpty(i)) {
+                        names.add(columns.name(i), columns.refNo(i));
+                    }
+                } else if (slab[i] != null) {
+                    names.add(slab[i].getName(), slab[i].getRefNo());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Selects reservations by their reference number and stay, before a columnar book creates them.
+     */
+    public interface StayFilter {
+        boolean test(int refNo, long checkIn, long checkOut);
+    }
+
+    /**
+     * {@code bucketOf} the bucket holding a reference number, or the empty bucket where it would go
+     */
+    private int bucketOf(int refNo) {
+        int bucket = hash(refNo) & mask;
+        while (slots[bucket] != 0 && keys[bucket] != refNo) {
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    private static int hash(int refNo) {
+        // reference numbers are consecutive, spread them over the table
+        int h = refNo * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * {@code deleteBucket} empty a bucket and move later entries of its probe run back into the gap, so
+     * every entry stays reachable from its home bucket without tombstones
+     */
+    private void deleteBucket(int gap) {
+        int bucket = gap;
+        while (true) {
+            bucket = (bucket + 1) & mask;
+            if (slots[bucket] == 0) {
+                break;
+            }
+            int home = hash(keys[bucket]) & mask;
+            // the entry may fill the gap unless its home lies cyclically after the gap
+            boolean homeAfterGap = gap <= bucket ? home > gap && home <= bucket : home > gap || home <= bucket;
+            if (!homeAfterGap) {
+                keys[gap] = keys[bucket];
+                slots[gap] = slots[bucket];
+                gap = bucket;
+            }
+        }
+        slots[gap] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new int[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSlots[i] != 0) {
+                int bucket = bucketOf(oldKeys[i]);
+                keys[bucket] = oldKeys[i];
+                slots[bucket] = oldSlots[i];
+            }
+        }
+    }
+
+    private void growSlab() {
+        if (size * 2 < end) {
+            compactSlab();
+            return;
+        }
+        Reservation[] grown = new Reservation[slab.length * 2];
+        System.arraycopy(slab, 0, grown, 0, end);
+        slab = grown;
+    }
+
+    /**
+     * {@code compactSlab} close the gaps left by removed reservations, keeping the booking order
+     */
+    private void compactSlab() {
+        if (columns != null) {
+            compactColumns();
+            return;
+        }
+        int to = 0;
+        for (int from = 0; from < end; from++) {
+            Reservation reservation = slab[from];
+            if (reservation == null) {
+                continue;
+            }
+            if (to != from) {
+                slab[to] = reservation;
+                slots[bucketOf(reservation.getRefNo())] = to + 1;
+            }
+            to++;
+        }
+        for (int i = to; i < end; i++) {
+            slab[i] = null;
+        }
+        end = to;
+        sortOrder();
+    }
+
+    private void compactColumns() {
+        int to = 0;
+        for (int from = 0; from < end; from++) {
+            if (columns.isEmpty(from)) {
+                continue;
+            }
+            if (to != from) {
+                columns.move(from, to);
+                slots[bucketOf(columns.refNo(to))] = to + 1;
+            }
+            to++;
+        }
+        columns.truncate(to);
+        end = to;
+        sortOrder();
+    }
+}
@@ -0,0 +1,138 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+/**
+ * {@code ReservationBookCheck} runs random adds, removes and lookups against a {@link ReservationBook} and
+ * a {@link LinkedHashMap} of the same reservations, and fails at the first answer they disagree on. Most
+ * reference numbers are drawn from a small range, so adds collide with booked numbers and removes find
+ * them, and the rest from every int, so the table sees negative numbers and long probe runs. Both the
+ * slab and the columnar book are checked, the columnar one by reference number as it hands out copies.
+ * At the end the book is paged through by reference number, as streamed queries do, and has to list
+ * every number the map holds in ascending order, and so have the pages of queries by a name prefix
+ * matched by every guest, by many or by a few, which take both ways through the name index.
+ * <p>
+ * Usage: {@code java ReservationBookCheck [operations] [seed]}
+ */
+public class ReservationBookCheck {
+
+    private static final LocalDate CHECK_IN = LocalDate.of(2024, 1, 1);
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 3_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 3;
+        for (boolean columnar : new boolean[] {false, true}) {
+            long begin = System.nanoTime();
+            check(new ReservationBook(columnar), columnar, operations, new SplittableRandom(seed));
+            System.out.printf("%s book matches the map over %d operations in %.1f s%n",
+                    columnar ? "Columnar" : "Slab", operations, (System.nanoTime() - begin) / 1e9);
+        }
+    }
+
+    private static void check(ReservationBook book, boolean columnar, int operations, SplittableRandom random) {
+        Map<Integer, Reservation> expected = new LinkedHashMap<>();
+        for (int op = 0; op < operations; op++) {
+            int refNo = random.nextInt(4) == 0 ? random.nextInt() : random.nextInt(200_000);
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    RoomList roomList = new RoomList();
+                    roomList.add(new Room("Classic Double", 1));
+                    Reservation reservation = new Reservation(refNo, "Guest " + refNo, "S", CHECK_IN,
+                            CHECK_IN.plusDays(1 + (refNo & 7)), 1, roomList, 100);
+                    boolean free = !expected.containsKey(refNo);
+                    if (book.add(reservation) != free) {
+                        throw new IllegalStateException("Adding " + refNo + " answered " + !free + " at " + op);
+                    }
+                    if (free) {
+                        expected.put(refNo, reservation);
+                    }
+                }
+                case 1 -> {
+                    Reservation booked = expected.remove(refNo);
+                    if (booked != null) {
+                        Reservation removed = book.remove(booked);
+                        if (removed == null || removed.getRefNo() != refNo) {
+                            throw new IllegalStateException("Removing " + refNo + " failed at " + op);
+                        }
+                    } else if (book.contains(refNo) || book.remove(refNo) != null) {
+                        throw new IllegalStateException("Removed " + refNo + " is still booked at " + op);
+                    }
+                }
+                default -> {
+                    if (!same(book.get(refNo), expected.get(refNo), columnar)
+                            || book.find(refNo).isPresent() != expected.containsKey(refNo)) {
+                        throw new IllegalStateException("Looking up " + refNo + " disagreed at " + op);
+                    }
+                }
+            }
+            if (book.size() != expected.size()) {
+                throw new IllegalStateException("The book holds " + book.size() + " reservations instead of "
+                        + expected.size() + " at " + op);
+            }
+            if (op % 250_000 == 249_999) {
+                pages(book, expected, null);
+            }
+        }
+        List<Reservation> listed = book.toList();
+        List<Reservation> booked = new ArrayList<>(expected.values());
+        if (listed.size() != booked.size()) {
+            throw new IllegalStateException("The book lists " + listed.size() + " of " + booked.size()
+                    + " reservations");
+        }
+        for (int i = 0; i < booked.size(); i++) {
+            if (!same(listed.get(i), booked.get(i), columnar)) {
+                throw new IllegalStateException("The book lists " + listed.get(i).getRefNo() + " in booking order"
+                        + " where " + booked.get(i).getRefNo() + " was booked");
+            }
+        }
+        for (String prefix : new String[] {null, "", "gUEST 1", "Guest 1234"}) {
+            pages(book, expected, prefix);
+        }
+    }
+
+    /**
+     * {@code pages} page through the book by reference number and compare the pages with the numbers booked
+     * whose guest name starts with a prefix, ignoring case, or with all of them for a null prefix
+     */
+    private static void pages(ReservationBook book, Map<Integer, Reservation> expected, String prefix) {
+        TreeSet<Integer> refNos = new TreeSet<>();
+        for (Reservation reservation : expected.values()) {
+            if (prefix == null || reservation.getName().toLowerCase().startsWith(prefix.toLowerCase())) {
+                refNos.add(reservation.getRefNo());
+            }
+        }
+        refNos.remove(ReservationPage.FIRST);
+        ReservationQuery query = prefix == null ? ReservationQuery.all()
+                : ReservationQuery.all().withNamePrefix(prefix);
+        int cursor = ReservationPage.FIRST;
+        while (true) {
+            List<Reservation> page = book.query(query, cursor, 1000);
+            for (Reservation reservation : page) {
+                Integer next = refNos.pollFirst();
+                if (next == null || next != reservation.getRefNo()) {
+                    throw new IllegalStateException("A page lists " + reservation.getRefNo() + " where " + next
+                            + " comes next");
+                }
+                cursor = reservation.getRefNo();
+            }
+            if (page.size() < 1000) {
+                break;
+            }
+        }
+        if (!refNos.isEmpty()) {
+            throw new IllegalStateException("The pages leave out " + refNos.size() + " reservations");
+        }
+    }
+
+    private static boolean same(Reservation actual, Reservation expected, boolean columnar) {
+        if (actual == null || expected == null) {
+            return actual == expected;
+        }
+        return columnar ? actual.getRefNo() == expected.getRefNo() && actual.getName().equals(expected.getName())
+                && actual.getCheckOut().equals(expected.getCheckOut()) : actual == expected;
+    }
+}
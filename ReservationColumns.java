@@ -0,0 +1,505 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code ReservationColumns} reservations stored column by column in parallel primitive arrays, one row
+ * per reservation, instead of as a graph of objects:
+ * <ul>
+ * <li>check in and check out as epoch days,</li>
+ * <li>up to three rooms as room type ids and occupancies,</li>
+ * <li>the total cost as the bits of the double, so a row reads back the exact cost it was given,</li>
+ * <li>the reservation type as an id.</li>
+ * </ul>
+ * Room types and reservation types are dictionary encoded and the names of the guests are kept as UTF-8
+ * in one shared array of bytes, so a row holds no objects at all. A {@link Reservation} is only created
+ * when a row is read, as a copy of the row.
+ * <p>
+ * The analysis scans run over the columns alone, comparing ints instead of dates and room type names.
+ * Rows are addressed by their number; a cleared row stays empty until the rows are moved together with
+ * {@link #move} and {@link #truncate}. The columns are not thread safe.
+ */
+public final class ReservationColumns {
+
+    /** The most rooms a reservation can hold, as in reservation.csv. */
+    public static final int MAX_ROOMS = 3;
+
+    private static final int INITIAL_ROWS = 16;
+    private static final byte EMPTY = -1;
+
+    private int[] refNos = new int[INITIAL_ROWS];
+    // where the name of every row starts in the name bytes, and its length
+    private int[] nameOffsets = new int[INITIAL_ROWS];
+    private int[] nameLengths = new int[INITIAL_ROWS];
+    private byte[] nameBytes = new byte[INITIAL_ROWS * 16];
+    private int nameEnd;
+    private int[] checkIns = new int[INITIAL_ROWS];
+    private int[] checkOuts = new int[INITIAL_ROWS];
+    private byte[] resTypes = new byte[INITIAL_ROWS];
+    // number of rooms of every row, EMPTY for a cleared row
+    private byte[] roomCounts = new byte[INITIAL_ROWS];
+    // MAX_ROOMS entries per row
+    private short[] roomTypes = new short[INITIAL_ROWS * MAX_ROOMS];
+    private byte[] occupancies = new byte[INITIAL_ROWS * MAX_ROOMS];
+    // the bits of the total cost of every row, see Double.doubleToRawLongBits
+    private long[] costBits = new long[INITIAL_ROWS];
+    private int rows;
+
+    private final List<String> typeNames = new ArrayList<>();
+    private final Map<String, Integer> typeIds = new HashMap<>();
+    private final List<String> resTypeNames = new ArrayList<>();
+    private final Map<String, Integer> resTypeIds = new HashMap<>();
+
+    /**
+     * Sums the rates of the rooms of a type unknown to the pricing engine during an analysis scan.
+     */
+    public interface RoomRates {
+        long nightsTotal(int typeId, long checkIn, long nights);
+    }
+
+    /**
+     * Receives every booked room of the rows, for indexes built from the columns in one pass.
+     */
+    public interface RoomVisitor {
+        void visit(int typeId, int checkIn, int checkOut, int occupancy, boolean advancePurchase);
+    }
+
+    /**
+     * {@code rows} the number of rows, cleared rows included
+     *
+     * @return the row after the last one
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * {@code append} add a reservation as a new row
+     *
+     * @param reservation the reservation
+     * @return the number of the row
+     * @throws IllegalArgumentException if the reservation has more rooms or guests than the columns hold
+     */
+    public int append(Reservation reservation) {
+        List<Room> rooms = reservation.getRoomList().getRooms();
+        if (rooms.size() > MAX_ROOMS) {
+            throw new IllegalArgumentException("A reservation holds at most " + MAX_ROOMS + " rooms");
+        }
+        for (Room room : rooms) {
+            if (room.getOccupancy() < 0 || room.getOccupancy() > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid occupancy " + room.getOccupancy());
+            }
+        }
+        if (rows == refNos.length) {
+            grow(rows * 2);
+        }
+        int row = rows++;
+        refNos[row] = reservation.getRefNo();
+        byte[] name = reservation.getName().getBytes(StandardCharsets.UTF_8);
+        if (nameEnd + name.length > nameBytes.length) {
+            nameBytes = Arrays.copyOf(nameBytes, Math.max(nameBytes.length * 2, nameEnd + name.length));
+        }
+        System.arraycopy(name, 0, nameBytes, nameEnd, name.length);
+        nameOffsets[row] = nameEnd;
+        nameLengths[row] = name.length;
+        nameEnd += name.length;
+        checkIns[row] = Math.toIntExact(reservation.getCheckIn().toEpochDay());
+        checkOuts[row] = Math.toIntExact(reservation.getCheckOut().toEpochDay());
+        resTypes[row] = (byte) dictionaryId(resTypeIds, resTypeNames, reservation.getResType(), Byte.MAX_VALUE);
+        roomCounts[row] = (byte) rooms.size();
+        for (int i = 0; i < rooms.size(); i++) {
+            Room room = rooms.get(i);
+            roomTypes[row * MAX_ROOMS + i] = (short) dictionaryId(typeIds, typeNames, room.getRoomType(),
+                    Short.MAX_VALUE);
+            occupancies[row * MAX_ROOMS + i] = (byte) room.getOccupancy();
+        }
+        costBits[row] = Double.doubleToRawLongBits(reservation.getTotalCost());
+        return row;
+    }
+
+    /**
+     * {@code reservation} read a row as a reservation
+     *
+     * @param row the number of the row
+     * @return a new reservation holding the values of the row
+     */
+    public Reservation reservation(int row) {
+        RoomList roomList = new RoomList();
+        for (int i = 0; i < roomCounts[row]; i++) {
+            roomList.add(new Room(typeNames.get(roomTypes[row * MAX_ROOMS + i]), occupancies[row * MAX_ROOMS + i]));
+        }
+        String name = new String(nameBytes, nameOffsets[row], nameLengths[row], StandardCharsets.UTF_8);
+        return new Reservation(refNos[row], name, resTypeNames.get(resTypes[row]),
+                LocalDate.ofEpochDay(checkIns[row]), LocalDate.ofEpochDay(checkOuts[row]), roomCounts[row], roomList,
+                Double.longBitsToDouble(costBits[row]));
+    }
+
+    /**
+     * {@code refNo} the reference number of a row
+     *
+     * @param row the number of the row
+     * @return the reference number
+     */
+    public int refNo(int row) {
+        return refNos[row];
+    }
+
+    /**
+     * {@code name} the name of the guest of a row
+     *
+     * @param row the number of the row
+     * @return the name
+     */
+    public String name(int row) {
+        return new String(nameBytes, nameOffsets[row], nameLengths[row], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@code checkIn} the check in of a row
+     *
+     * @param row the number of the row
+     * @return the epoch day of the check in
+     */
+    public int checkIn(int row) {
+        return checkIns[row];
+    }
+
+    /**
+     * {@code checkOut} the check out of a row
+     *
+     * @param row the number of the row
+     * @return the epoch day of the check out
+     */
+    public int checkOut(int row) {
+        return checkOuts[row];
+    }
+
+    /**
+     * {@code roomCount} the number of rooms of a row which is not empty
+     *
+     * @param row the number of the row
+     * @return the number of rooms
+     */
+    public int roomCount(int row) {
+        return roomCounts[row];
+    }
+
+    /**
+     * {@code roomType} the room type of a room of a row
+     *
+     * @param row  the number of the row
+     * @param room the room, from 0
+     * @return the room type id, see {@link #typeName}
+     */
+    public int roomType(int row, int room) {
+        return roomTypes[row * MAX_ROOMS + room];
+    }
+
+    /**
+     * {@code totalCost} the total cost of a row, as it was charged
+     *
+     * @param row the number of the row
+     * @return the total cost
+     */
+    public double totalCost(int row) {
+        return Double.longBitsToDouble(costBits[row]);
+    }
+
+    /**
+     * {@code isEmpty} whether a row has been cleared
+     *
+     * @param row the number of the row
+     * @return true if the row holds no reservation
+     */
+    public boolean isEmpty(int row) {
+        return roomCounts[row] == EMPTY;
+    }
+
+    /**
+     * {@code clear} empty a row
+     *
+     * @param row the number of the row
+     */
+    public void clear(int row) {
+        roomCounts[row] = EMPTY;
+    }
+
+    /**
+     * {@code move} copy a row over another one and clear it
+     *
+     * @param from the row to move
+     * @param to   the row to overwrite
+     */
+    public void move(int from, int to) {
+        refNos[to] = refNos[from];
+        nameOffsets[to] = nameOffsets[from];
+        nameLengths[to] = nameLengths[from];
+        checkIns[to] = checkIns[from];
+        checkOuts[to] = checkOuts[from];
+        resTypes[to] = resTypes[from];
+        roomCounts[to] = roomCounts[from];
+        System.arraycopy(roomTypes, from * MAX_ROOMS, roomTypes, to * MAX_ROOMS, MAX_ROOMS);
+        System.arraycopy(occupancies, from * MAX_ROOMS, occupancies, to * MAX_ROOMS, MAX_ROOMS);
+        costBits[to] = costBits[from];
+        clear(from);
+    }
+
+    /**
+     * {@code truncate} drop every row from a row on, and the names of every cleared row
+     *
+     * @param rows the new number of rows
+     */
+    public void truncate(int rows) {
+        this.rows = rows;
+        // moving rows keeps the order of their names, so they can be moved together in place
+        nameEnd = 0;
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] == EMPTY) {
+                nameLengths[row] = 0;
+            }
+            System.arraycopy(nameBytes, nameOffsets[row], nameBytes, nameEnd, nameLengths[row]);
+            nameOffsets[row] = nameEnd;
+            nameEnd += nameLengths[row];
+        }
+    }
+
+    /**
+     * {@code typeCount} the number of room types in the dictionary
+     *
+     * @return the id after the last room type id
+     */
+    public int typeCount() {
+        return typeNames.size();
+    }
+
+    /**
+     * {@code typeName} the room type of a dictionary id
+     *
+     * @param typeId the id
+     * @return the name of the room type
+     */
+    public String typeName(int typeId) {
+        return typeNames.get(typeId);
+    }
+
+    /**
+     * {@code forEachRoom} visit every room of every row which is not empty
+     *
+     * @param visitor receives the room type id, stay and occupancy of every room
+     */
+    public void forEachRoom(RoomVisitor visitor) {
+        int advancePurchase = resTypeIds.getOrDefault("AP", -1);
+        for (int row = 0; row < rows; row++) {
+            int first = row * MAX_ROOMS;
+            for (int i = first; i < first + roomCounts[row]; i++) {
+                visitor.visit(roomTypes[i], checkIns[row], checkOuts[row], occupancies[i],
+                        resTypes[row] == advancePurchase);
+            }
+        }
+    }
+
+    /**
+     * {@code analyseContained} add the guests, the maximal occupancy and the income in cents of every room
+     * of the stays within a period to the figures of its tier, in one pass over a range of rows. The total
+     * charged for a row is split over its rooms as {@link AnalyticsCube#share} does
+     *
+     * @param fromRow the first row to scan
+     * @param toRow   the row after the last one to scan
+     * @param start   first epoch day of the period
+     * @param end     last epoch day of the period, a stay may check out on it
+     * @param types   the tiers, maximal occupancy and prices of the room type ids
+     * @param figures the accumulator of {@link ParallelAnalytics}, added to
+     */
+    public void analyseContained(int fromRow, int toRow, long start, long end, ParallelAnalytics.TypeTable types,
+                                 long[] figures) {
+        long[] weights = new long[MAX_ROOMS];
+        for (int row = fromRow; row < toRow; row++) {
+            int count = roomCounts[row];
+            if (count <= 0 || checkIns[row] < start || checkOuts[row] > end) {
+                continue;
+            }
+            int nights = checkOuts[row] - checkIns[row];
+            int first = row * MAX_ROOMS;
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                int typeId = roomTypes[first + i];
+                figures[ParallelAnalytics.GUESTS + types.tier[typeId]] += occupancies[first + i];
+                figures[ParallelAnalytics.MAXIMAL + types.tier[typeId]] += types.maxOccupancy[typeId];
+                int engineId = types.engineId[typeId];
+                weights[i] = engineId >= 0 ? types.engine.nightsTotal(engineId, checkIns[row], nights)
+                        : types.fallback.nightsTotal(typeId, checkIns[row], nights);
+                total += weights[i];
+            }
+            long cents = Math.round(totalCost(row) * 100);
+            long before = 0;
+            for (int i = 0; i < count; i++) {
+                // with no rates to go by, every room night weighs the same
+                long weight = total == 0 ? nights : weights[i];
+                figures[ParallelAnalytics.CENTS + types.billingTier[roomTypes[first + i]]] += AnalyticsCube.share(
+                        cents, before, weight, total == 0 ? (long) nights * count : total);
+                before += weight;
+            }
+        }
+    }
+
+    /**
+     * {@code write} write the rows which are not empty to a snapshot, column by column
+     *
+     * @param out the payload of the snapshot section
+     * @throws IOException if the snapshot can not be written
+     */
+    void write(BinarySnapshot.Output out) throws IOException {
+        int live = 0;
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] != EMPTY) {
+                live++;
+            }
+        }
+        out.putInt(live);
+        out.putInt(typeNames.size());
+        for (String name : typeNames) {
+            out.putString(name);
+        }
+        out.putInt(resTypeNames.size());
+        for (String name : resTypeNames) {
+            out.putString(name);
+        }
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] != EMPTY) {
+                out.putInt(refNos[row]);
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] != EMPTY) {
+                out.putInt(checkIns[row]);
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] != EMPTY) {
+                out.putInt(checkOuts[row]);
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] != EMPTY) {
+                out.putByte(resTypes[row]);
+                out.putByte(roomCounts[row]);
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] != EMPTY) {
+                for (int i = row * MAX_ROOMS; i < (row + 1) * MAX_ROOMS; i++) {
+                    out.putShort(roomTypes[i]);
+                    out.putByte(occupancies[i]);
+                }
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] != EMPTY) {
+                out.putLong(costBits[row]);
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] != EMPTY) {
+                out.putInt(nameLengths[row]);
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            if (roomCounts[row] != EMPTY) {
+                out.putBytes(nameBytes, nameOffsets[row], nameLengths[row]);
+            }
+        }
+    }
+
+    /**
+     * {@code read} read columns written by {@link #write}, with bulk copies where the layout allows
+     *
+     * @param in      the payload of the snapshot section
+     * @param version the version of the snapshot
+     * @return the columns
+     * @throws IllegalArgumentException if the payload is not consistent
+     */
+    static ReservationColumns read(ByteBuffer in, int version) {
+        ReservationColumns columns = new ReservationColumns();
+        int rows = in.getInt();
+        int types = in.getInt();
+        for (int i = 0; i < types; i++) {
+            dictionaryId(columns.typeIds, columns.typeNames, BinarySnapshot.getString(in), Short.MAX_VALUE);
+        }
+        int resTypes = in.getInt();
+        for (int i = 0; i < resTypes; i++) {
+            dictionaryId(columns.resTypeIds, columns.resTypeNames, BinarySnapshot.getString(in), Byte.MAX_VALUE);
+        }
+        columns.grow(Math.max(INITIAL_ROWS, rows));
+        columns.rows = rows;
+        in.asIntBuffer().get(columns.refNos, 0, rows);
+        in.position(in.position() + 4 * rows);
+        in.asIntBuffer().get(columns.checkIns, 0, rows);
+        in.position(in.position() + 4 * rows);
+        in.asIntBuffer().get(columns.checkOuts, 0, rows);
+        in.position(in.position() + 4 * rows);
+        for (int row = 0; row < rows; row++) {
+            columns.resTypes[row] = in.get();
+            columns.roomCounts[row] = in.get();
+            if (columns.resTypes[row] < 0 || columns.resTypes[row] >= resTypes
+                    || columns.roomCounts[row] < 0 || columns.roomCounts[row] > MAX_ROOMS) {
+                throw new IllegalArgumentException("Invalid reservation row " + row);
+            }
+        }
+        for (int i = 0; i < rows * MAX_ROOMS; i++) {
+            columns.roomTypes[i] = in.getShort();
+            columns.occupancies[i] = in.get();
+            if (columns.roomTypes[i] < 0 || columns.roomTypes[i] >= Math.max(types, 1)) {
+                throw new IllegalArgumentException("Invalid room type of reservation row " + i / MAX_ROOMS);
+            }
+        }
+        in.asLongBuffer().get(columns.costBits, 0, rows);
+        in.position(in.position() + 8 * rows);
+        if (version < 2) {
+            // version 1 kept the total costs in cents
+            for (int row = 0; row < rows; row++) {
+                columns.costBits[row] = Double.doubleToRawLongBits(columns.costBits[row] / 100.0);
+            }
+        }
+        in.asIntBuffer().get(columns.nameLengths, 0, rows);
+        in.position(in.position() + 4 * rows);
+        for (int row = 0; row < rows; row++) {
+            columns.nameOffsets[row] = columns.nameEnd;
+            columns.nameEnd += columns.nameLengths[row];
+        }
+        columns.nameBytes = new byte[Math.max(columns.nameEnd, INITIAL_ROWS * 16)];
+        in.get(columns.nameBytes, 0, columns.nameEnd);
+        return columns;
+    }
+
+    private static int dictionaryId(Map<String, Integer> ids, List<String> names, String name, int max) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (names.size() > max) {
+            throw new IllegalArgumentException("Too many distinct values to encode " + name);
+        }
+        names.add(name);
+        ids.put(name, names.size() - 1);
+        return names.size() - 1;
+    }
+
+    private void grow(int capacity) {
+        refNos = Arrays.copyOf(refNos, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        checkIns = Arrays.copyOf(checkIns, capacity);
+        checkOuts = Arrays.copyOf(checkOuts, capacity);
+        resTypes = Arrays.copyOf(resTypes, capacity);
+        roomCounts = Arrays.copyOf(roomCounts, capacity);
+        roomTypes = Arrays.copyOf(roomTypes, capacity * MAX_ROOMS);
+        occupancies = Arrays.copyOf(occupancies, capacity * MAX_ROOMS);
+        costBits = Arrays.copyOf(costBits, capacity);
+    }
+}
@@ -0,0 +1,597 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * {@code ReservationJournal} an append-only log of reservation changes. Every booking is written as a
+ * create record and every cancellation as a cancel record with its refund and day, so a mutation costs
+ * one small append instead of rewriting reservation.csv. A booking undone because it never became
+ * durable is written as a rollback record, which removes it without keeping a cancellation. Reservation.csv,
+ * or a binary snapshot, becomes the snapshot that the journal is replayed on top of when the system
+ * starts, and the journal is emptied whenever a new snapshot has been written. An emptied journal starts
+ * with a record of the next reference number, so numbers of reservations which are no longer in the
+ * snapshot, cancelled or rolled back, are not handed out again.
+ * <p>
+ * A record is one line: the CRC32 of the payload in hex, a semicolon, then the payload, whose line breaks
+ * and backslashes are escaped so that a guest name holding a line break does not split the record. The
+ * last record, if it is cut short or does not match its checksum, marks the end of the journal, since it
+ * can only come from a crash in the middle of an append which was never acknowledged. A broken record
+ * followed by others is corruption, and the journal is not replayed.
+ * <p>
+ * With {@link #startWriteBehind} records are not written by the thread appending them but queued in a
+ * {@link MutationRing} and written by a writer thread, which takes every append queued meanwhile and
+ * writes and forces them at once. Positions are then counts of the appends queued, a batch of records
+ * from {@link #appendCreates} counting as one, rather than offsets in the file; either way a position
+ * is passed to {@link #commit} or {@link #whenDurable}. A journal which fails to write or force, with or
+ * without a writer, stays failed: every later append and commit throws, as whether the records before
+ * the failure are on disk is not known.
+ */
+public class ReservationJournal implements AutoCloseable {
+
+    private static final char CREATE = 'C';
+    private static final char CANCEL = 'X';
+    private static final char ROLLBACK = 'R';
+    private static final char NEXT_REF_NO = 'N';
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Object forceLock = new Object();
+    // bytes appended so far and bytes known to be on disk, both counted from the start of the file
+    private long written;
+    private volatile long durable;
+    private int records;
+    // the reference number after every one the records replayed have used
+    private int nextRefNo;
+    // the records queued for the writer thread, null while records are written by their callers
+    private volatile MutationRing<CharSequence> ring;
+    private Thread writer;
+    private volatile boolean writerSleeping;
+    private volatile boolean closing;
+    // with a writer, the number of appends on disk counted from the start of the writer
+    private volatile long durableAppends;
+    private volatile IOException failure;
+    // callers waiting for records to be on disk, by position, guarded by itself
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(Comparator.comparingLong(Waiter::position));
+    private final LongAdder stalls = new LongAdder();
+
+    /**
+     * {@code ReservationJournal} open the journal, creating the file if it does not exist yet
+     *
+     * @param path the location of the journal file
+     * @throws IOException if the file can not be opened
+     */
+    public ReservationJournal(String path) throws IOException {
+        this.path = Path.of(path);
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.written = channel.size();
+        this.durable = written;
+    }
+
+    /**
+     * {@code replay} apply every complete record of the journal to a book of reservations. Replaying is
+     * idempotent, so records already contained in the snapshot are harmless. A torn record at the end of
+     * the file is cut off so that new records follow the last complete one.
+     *
+     * @param book the reservations from the snapshot, updated in place
+     * @return the number of records applied
+     * @throws IOException if the journal can not be read, or a record other than the last is broken
+     */
+    public synchronized int replay(ReservationBook book) throws IOException {
+        long valid = 0;
+        int applied = 0;
+        channel.position(0);
+        BufferedReader br = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                StandardCharsets.UTF_8));
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = br.read()) != -1) {
+            if (c != '\n') {
+                line.append((char) c);
+                continue;
+            }
+            String payload = verify(line);
+            if (payload == null) {
+                if (br.read() != -1) {
+                    // records were acknowledged after it, cutting the journal here would lose them
+                    throw new IOException("Broken record at byte " + valid + " of " + path);
+                }
+                break;
+            }
+            nextRefNo = Math.max(nextRefNo, apply(payload, book));
+            applied++;
+            valid += line.toString().getBytes(StandardCharsets.UTF_8).length + 1;
+            line.setLength(0);
+        }
+        if (valid < channel.size()) {
+            channel.truncate(valid);
+            channel.force(false);
+        }
+        written = valid;
+        durable = valid;
+        records = applied;
+        return applied;
+    }
+
+    /**
+     * {@code nextRefNo} the reference number after every one used by the records replayed, including
+     * the reservations cancelled or rolled back since and those whose records were emptied into a snapshot
+     *
+     * @return the next reference number, 0 if the journal held no records
+     */
+    public synchronized int nextRefNo() {
+        return nextRefNo;
+    }
+
+    /**
+     * {@code appendCreate} append a create record for a new reservation
+     *
+     * @param reservation the reservation which was made
+     * @return the journal position to pass to {@link #commit(long)}
+     * @throws IOException if the record can not be written
+     */
+    public long appendCreate(Reservation reservation) throws IOException {
+        return append(CREATE + "," + CSVEncoder.reservationRow(reservation));
+    }
+
+    /**
+     * {@code appendCreates} append the create records of a batch of new reservations in a single write
+     *
+     * @param reservations the reservations which were made
+     * @return the journal position to pass to {@link #commit(long)}
+     * @throws IOException if the records can not be written
+     */
+    public long appendCreates(List<Reservation> reservations) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Reservation reservation : reservations) {
+            lines.append(line(CREATE + "," + CSVEncoder.reservationRow(reservation)));
+        }
+        return submit(lines);
+    }
+
+    /**
+     * {@code appendCancel} append a cancel record for a reservation
+     *
+     * @param refNo       the reference number of the cancelled reservation
+     * @param refund      the amount refunded
+     * @param cancelledOn the day of the cancellation, null if it is not known
+     * @return the journal position to pass to {@link #commit(long)}
+     * @throws IOException if the record can not be written
+     */
+    public long appendCancel(int refNo, double refund, LocalDate cancelledOn) throws IOException {
+        return append(CANCEL + "," + refNo + "," + refund + (cancelledOn == null ? "" : "," + cancelledOn));
+    }
+
+    /**
+     * {@code appendRollback} append a rollback record for a booking which never became durable
+     *
+     * @param refNo the reference number of the booking
+     * @return the journal position to pass to {@link #commit(long)}
+     * @throws IOException if the record can not be written
+     */
+    public long appendRollback(int refNo) throws IOException {
+        return append(ROLLBACK + "," + refNo);
+    }
+
+    /**
+     * {@code commit} make sure every record up to a position is on disk. Callers which arrive while
+     * another thread is forcing the file wait for it and are usually covered by the same force, so
+     * concurrent bookings share one fsync between them.
+     *
+     * @param position the position returned by an append
+     * @throws IOException if the file can not be forced to disk, or the journal has failed before
+     */
+    public void commit(long position) throws IOException {
+        if (ring != null) {
+            try {
+                whenDurable(position).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+            return;
+        }
+        if (durable >= position) {
+            return;
+        }
+        long begin = System.nanoTime();
+        try {
+            synchronized (forceLock) {
+                if (durable >= position) {
+                    return;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                long target;
+                synchronized (this) {
+                    target = written;
+                }
+                try {
+                    channel.force(false);
+                } catch (IOException e) {
+                    fail(e);
+                    throw e;
+                }
+                durable = target;
+            }
+        } finally {
+            Metrics.record(Metrics.Operation.JOURNAL_COMMIT, begin);
+        }
+    }
+
+    /**
+     * {@code whenDurable} a future completed once every record up to a position is on disk, without
+     * waiting for it
+     *
+     * @param position the position returned by an append
+     * @return the future, failed with the IOException if the records can not be written or forced
+     */
+    public CompletableFuture<Void> whenDurable(long position) {
+        if (ring == null) {
+            try {
+                commit(position);
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        if (durableAppends >= position) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Waiter waiter = new Waiter(position, new CompletableFuture<>());
+        synchronized (waiters) {
+            // checked again under the lock the writer completes the waiters under
+            if (failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            if (durableAppends >= position) {
+                return CompletableFuture.completedFuture(null);
+            }
+            waiters.add(waiter);
+        }
+        return waiter.done();
+    }
+
+    /**
+     * {@code flush} make sure every record appended so far is on disk
+     *
+     * @throws IOException if the records can not be written or forced
+     */
+    public void flush() throws IOException {
+        MutationRing<CharSequence> queue = ring;
+        if (queue != null) {
+            commit(queue.claimed());
+            return;
+        }
+        long position;
+        synchronized (this) {
+            position = written;
+        }
+        commit(position);
+    }
+
+    /**
+     * {@code startWriteBehind} from now on queue the records for a writer thread instead of writing them
+     * in the thread appending them. An append, of one record or of a batch, then costs a slot in the
+     * queue, and when the queue is full appends wait for the writer
+     *
+     * @param capacity the most appends queued
+     */
+    public synchronized void startWriteBehind(int capacity) {
+        if (ring != null) {
+            return;
+        }
+        ring = new MutationRing<>(capacity);
+        writer = Thread.ofPlatform().name("journal-writer").daemon().start(this::drain);
+    }
+
+    /**
+     * {@code queued} the number of appends waiting for the writer
+     *
+     * @return the length of the queue, 0 without a writer
+     */
+    public int queued() {
+        MutationRing<CharSequence> queue = ring;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * {@code stalls} the number of appends which found the queue full and waited for the writer
+     *
+     * @return the number of stalled appends
+     */
+    public long stalls() {
+        return stalls.sum();
+    }
+
+    /**
+     * {@code records} the number of records written since the journal was last emptied
+     *
+     * @return the number of records in the journal
+     */
+    public synchronized int records() {
+        return records;
+    }
+
+    /**
+     * {@code reset} empty the journal once its records are contained in a durable snapshot, keeping only
+     * a record of the next reference number
+     *
+     * @param nextRefNo the reference number after every one used so far
+     * @throws IOException if the file can not be truncated or the record not written
+     */
+    public void reset(int nextRefNo) throws IOException {
+        synchronized (forceLock) {
+            synchronized (this) {
+                channel.truncate(0);
+                written = 0;
+                records = 0;
+                write(line(NEXT_REF_NO + "," + nextRefNo));
+                channel.force(false);
+                durable = written;
+                this.nextRefNo = nextRefNo;
+            }
+        }
+    }
+
+    /**
+     * {@code close} force outstanding records to disk and close the file
+     *
+     * @throws IOException if the file can not be forced or closed
+     */
+    @Override
+    public void close() throws IOException {
+        Thread running;
+        synchronized (this) {
+            closing = true;
+            running = writer;
+        }
+        if (running != null) {
+            LockSupport.unpark(running);
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // appends which raced with the close were never written
+            fail(new IOException("The journal is closed"));
+        }
+        synchronized (forceLock) {
+            if (channel.isOpen()) {
+                channel.force(false);
+                channel.close();
+            }
+        }
+    }
+
+    private long append(String payload) throws IOException {
+        return submit(line(payload));
+    }
+
+    /**
+     * {@code submit} write the lines of a record or of a batch of records, or queue them for the writer
+     */
+    private long submit(CharSequence lines) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        MutationRing<CharSequence> queue = ring;
+        if (queue == null) {
+            try {
+                return write(lines);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+        if (closing) {
+            throw new IOException("The journal is closed");
+        }
+        long sequence;
+        int spins = 0;
+        while ((sequence = queue.offer(lines)) < 0) {
+            // the queue is full, the writer is awake while there is anything to write
+            if (spins++ == 0) {
+                stalls.increment();
+            }
+            wakeWriter();
+            if (spins < 64) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+        }
+        wakeWriter();
+        return sequence + 1;
+    }
+
+    private void wakeWriter() {
+        if (writerSleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * {@code drain} the loop of the writer thread: take every queued record, write them with one write
+     * and one force, and sleep while the queue is empty
+     */
+    private void drain() {
+        MutationRing<CharSequence> queue = ring;
+        StringBuilder lines = new StringBuilder();
+        long taken = 0;
+        long through = 0;
+        while (true) {
+            CharSequence next = queue.poll();
+            if (next != null) {
+                lines.append(next);
+                taken++;
+                // keep a batch to a few megabytes under a flood of records
+                if (lines.length() < 4 << 20) {
+                    continue;
+                }
+            }
+            if (taken > through) {
+                writeBatch(lines, taken);
+                lines.setLength(0);
+                through = taken;
+                continue;
+            }
+            if (closing && queue.size() == 0) {
+                return;
+            }
+            writerSleeping = true;
+            if (queue.size() == 0 && !closing) {
+                LockSupport.park(this);
+            }
+            writerSleeping = false;
+        }
+    }
+
+    private void writeBatch(CharSequence lines, long through) {
+        long begin = System.nanoTime();
+        try {
+            if (failure == null) {
+                write(lines);
+                synchronized (forceLock) {
+                    channel.force(false);
+                }
+                durableAppends = through;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            Metrics.record(Metrics.Operation.JOURNAL_COMMIT, begin);
+        }
+        if (failure != null) {
+            fail(failure);
+            return;
+        }
+        List<Waiter> done = new ArrayList<>();
+        synchronized (waiters) {
+            while (!waiters.isEmpty() && waiters.peek().position() <= through) {
+                done.add(waiters.poll());
+            }
+        }
+        for (Waiter waiter : done) {
+            waiter.done().complete(null);
+        }
+    }
+
+    private void fail(IOException e) {
+        List<Waiter> failed;
+        synchronized (waiters) {
+            if (failure == null) {
+                failure = e;
+            }
+            failed = List.copyOf(waiters);
+            waiters.clear();
+        }
+        for (Waiter waiter : failed) {
+            waiter.done().completeExceptionally(failure);
+        }
+    }
+
+    private synchronized long write(CharSequence lines) throws IOException {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(lines));
+        channel.position(written);
+        Metrics.addBytes(Metrics.Operation.JOURNAL_COMMIT, buffer.remaining());
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        // every record is one line
+        for (int i = 0; i < lines.length(); i++) {
+            if (lines.charAt(i) == '\n') {
+                records++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * {@code line} a record of a payload, with its checksum and line break
+     */
+    private static String line(String payload) {
+        String escaped = CSVEncoder.escapeLine(payload);
+        CRC32 crc = new CRC32();
+        crc.update(escaped.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue()) + ";" + escaped + "\n";
+    }
+
+    private static String verify(CharSequence line) {
+        String record = line.toString();
+        int sep = record.indexOf(';');
+        if (sep <= 0) {
+            return null;
+        }
+        String payload = record.substring(sep + 1);
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(StandardCharsets.UTF_8));
+        try {
+            if (Long.parseLong(record.substring(0, sep), 16) != crc.getValue()) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return CSVEncoder.unescapeLine(payload);
+    }
+
+    /**
+     * {@code apply} apply a record to a book
+     *
+     * @return the reference number after the one the record uses, 0 for a record without one
+     */
+    private static int apply(String payload, ReservationBook book) {
+        String body = payload.substring(2);
+        switch (payload.charAt(0)) {
+            case CREATE -> {
+                Reservation reservation = CSVEncoder.parseReservation(CSVEncoder.parseLine(body));
+                book.add(reservation);
+                return reservation.getRefNo() + 1;
+            }
+            case CANCEL -> {
+                // cancel records written before refunds were journaled only hold the reference number
+                String[] fields = body.trim().split(",");
+                double refund = fields.length > 1 ? Double.parseDouble(fields[1]) : 0;
+                LocalDate cancelledOn = fields.length > 2 ? LocalDate.parse(fields[2]) : null;
+                int refNo = Integer.parseInt(fields[0]);
+                book.cancel(refNo, refund, cancelledOn);
+                return refNo + 1;
+            }
+            case ROLLBACK -> {
+                int refNo = Integer.parseInt(body.trim());
+                book.remove(refNo);
+                return refNo + 1;
+            }
+            case NEXT_REF_NO -> {
+                return Integer.parseInt(body.trim());
+            }
+            default -> {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * A caller waiting for the records up to a position to be on disk.
+     */
+    private record Waiter(long position, CompletableFuture<Void> done) {
+    }
+}
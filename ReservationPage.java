@@ -0,0 +1,56 @@
+import java.util.List;
+
+/**
+ * {@code ReservationPage} one page of the reservations selected by a query, in ascending order of their
+ * reference numbers, with the cursor to ask for the next page. A cursor is the reference number of the
+ * last reservation of a page, so pages stay in step when reservations are booked or cancelled between
+ * them: nothing is listed twice, and reservations booked meanwhile with higher numbers are not missed.
+ */
+public final class ReservationPage {
+
+    /** The cursor of the first page. */
+    public static final int FIRST = Integer.MIN_VALUE;
+    /** The cursor returned after the last page. */
+    public static final int END = Integer.MAX_VALUE;
+
+    private final List<Reservation> reservations;
+    private final int nextCursor;
+
+    /**
+     * {@code ReservationPage} a page of reservations
+     *
+     * @param reservations the reservations of the page
+     * @param nextCursor   the cursor of the next page, END if this is the last page
+     */
+    public ReservationPage(List<Reservation> reservations, int nextCursor) {
+        this.reservations = reservations;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * {@code getReservations} the reservations of the page
+     *
+     * @return the reservations, in ascending order of their reference numbers
+     */
+    public List<Reservation> getReservations() {
+        return reservations;
+    }
+
+    /**
+     * {@code getNextCursor} the cursor to ask for the next page with
+     *
+     * @return the reference number of the last reservation of the page, END if this is the last page
+     */
+    public int getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * {@code hasNext} whether a page follows this one
+     *
+     * @return true unless this is the last page
+     */
+    public boolean hasNext() {
+        return nextCursor != END;
+    }
+}
@@ -0,0 +1,132 @@
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@code ReservationQuery} selects reservations by the start of the name of the guest, a period their stay
+ * overlaps, a room type they booked and their reservation type. Every criterion is optional; a query
+ * is immutable and every {@code with} method returns a new query, so queries can be shared and refined.
+ * <pre>
+ * ReservationQuery.all().withNamePrefix("smi").withStay(from, to).withResType("AP")
+ * </pre>
+ */
+public final class ReservationQuery {
+
+    private static final ReservationQuery ALL = new ReservationQuery(null, Long.MIN_VALUE, Long.MAX_VALUE, null,
+            null);
+
+    private final String namePrefix;
+    // epoch days of the period, stays have to overlap [from, to)
+    private final long from;
+    private final long to;
+    private final String roomType;
+    private final String resType;
+
+    private ReservationQuery(String namePrefix, long from, long to, String roomType, String resType) {
+        this.namePrefix = namePrefix;
+        this.from = from;
+        this.to = to;
+        this.roomType = roomType;
+        this.resType = resType;
+    }
+
+    /**
+     * {@code all} the query selecting every reservation
+     *
+     * @return the query
+     */
+    public static ReservationQuery all() {
+        return ALL;
+    }
+
+    /**
+     * {@code withNamePrefix} select the reservations of guests whose name starts with a prefix, ignoring case
+     *
+     * @param namePrefix the start of the name
+     * @return the refined query
+     */
+    public ReservationQuery withNamePrefix(String namePrefix) {
+        return new ReservationQuery(namePrefix, from, to, roomType, resType);
+    }
+
+    /**
+     * {@code withStay} select the reservations whose stay overlaps a period
+     *
+     * @param start first night of the period
+     * @param end   the day after the last night of the period
+     * @return the refined query
+     */
+    public ReservationQuery withStay(LocalDate start, LocalDate end) {
+        return new ReservationQuery(namePrefix, start.toEpochDay(), end.toEpochDay(), roomType, resType);
+    }
+
+    /**
+     * {@code withRoomType} select the reservations holding a room of a type
+     *
+     * @param roomType the room type
+     * @return the refined query
+     */
+    public ReservationQuery withRoomType(String roomType) {
+        return new ReservationQuery(namePrefix, from, to, roomType, resType);
+    }
+
+    /**
+     * {@code withResType} select the reservations of a type
+     *
+     * @param resType "S" or "AP"
+     * @return the refined query
+     */
+    public ReservationQuery withResType(String resType) {
+        return new ReservationQuery(namePrefix, from, to, roomType, resType);
+    }
+
+    /**
+     * {@code getNamePrefix} the start of the names selected
+     *
+     * @return the prefix, null if any name is selected
+     */
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    /**
+     * {@code matchesStay} whether a stay overlaps the period of the query, tested before a reservation is
+     * created from a columnar book
+     *
+     * @param checkIn  epoch day of the check in
+     * @param checkOut epoch day of the check out
+     * @return true if the stay overlaps the period
+     */
+    public boolean matchesStay(long checkIn, long checkOut) {
+        return checkIn < to && checkOut > from;
+    }
+
+    /**
+     * {@code matches} whether a reservation meets every criterion of the query
+     *
+     * @param reservation the reservation
+     * @return true if it is selected
+     */
+    public boolean matches(Reservation reservation) {
+        if (!matchesStay(reservation.getCheckIn().toEpochDay(), reservation.getCheckOut().toEpochDay())) {
+            return false;
+        }
+        if (resType != null && !resType.equals(reservation.getResType())) {
+            return false;
+        }
+        if (namePrefix != null && !reservation.getName().toLowerCase(Locale.ROOT)
+                .startsWith(namePrefix.toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        if (roomType != null) {
+            List<Room> rooms = reservation.getRoomList().getRooms();
+            for (Room room : rooms) {
+                if (roomType.equals(room.getRoomType())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+}
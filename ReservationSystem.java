@@ -1,14 +1,112 @@
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class ReservationSystem {
 
+    // number of locks the room types are spread over
+    private static final int LOCK_STRIPES = 64;
+    // waitlist entries read from the queue of a freed night at a time
+    private static final int WAITLIST_PER_NIGHT = 16;
+    // pages of the queue of a freed night read by one pass, later entries wait for later cancellations
+    private static final int WAITLIST_PAGES = 4;
+    // reservations read at a time by a stream of reservations
+    private static final int STREAM_PAGE = 1024;
+    /** The most nights one stay is booked for. */
+    public static final int MAX_NIGHTS = 365;
+    /** How many days before or after today a stay may check in or out. */
+    public static final int BOOKING_HORIZON = 10 * 365;
+    // the rates of a room type not in the hotel file, which earns nothing
+    private static final int[] NO_RATES = new int[7];
+
     String pathHotel;
     String pathReservation;
     String pathBilling;
-    private List<Reservation> resList = new ArrayList<>();
+    // binary snapshot of the catalogue and the reservations, used instead of reservation.csv when set
+    private String pathSnapshot;
+    private ReservationBook resBook = new ReservationBook();
+    // whether resBook keeps the reservations in columns rather than as objects
+    private boolean columnar;
+    // guards resBook, which bookings of different room types change concurrently
+    private final Object bookLock = new Object();
+    // a booking holds the locks of its room types, taken in ascending order so bookings can not deadlock
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    // shared by bookings and cancellations, exclusive while the reservations are replaced or compacted
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final AtomicInteger nextRefNo = new AtomicInteger();
+    private final AvailabilityIndex availabilityIndex = new AvailabilityIndex();
+    // replaced as a whole when the hotel file is decoded again, holding the state lock exclusively
+    private volatile RoomTypeRegistry roomTypes = new RoomTypeRegistry();
+    // built from roomTypes, read it with engine.roomTypes() where the two must match without the state lock
+    private volatile PricingEngine pricing = new PricingEngine(roomTypes);
+    // prices of recent quotes, null when quotes are always priced
+    private volatile QuoteCache quoteCache;
+    private volatile PricingPipeline pipeline = PricingPipeline.standard();
+    // the nightly prices of a pipeline other than the standard one, null with the standard pipeline
+    private volatile PriceCurves priceCurves;
+    // the time in milliseconds at which the window of the price curves is moved on to the next day
+    private volatile long priceCurvesDue = Long.MAX_VALUE;
+    private final AtomicBoolean priceCurvesPending = new AtomicBoolean();
+    // the physical rooms of the reservations, null unless rooms are assigned
+    private volatile RoomAssignmentEngine roomAssignments;
+    private boolean assignRooms;
+    private final AtomicBoolean repackPending = new AtomicBoolean();
+    private final AnalyticsCube analytics = new AnalyticsCube(roomTypes);
+    private volatile ReservationJournal journal;
+    // false once the reservations are kept in memory only, see detachStorage
+    private volatile boolean stored = true;
+    private volatile ParallelAnalytics parallelAnalytics = new ParallelAnalytics(null);
+    // appends charged reservations to billing.csv, opened by the first update
+    private BillingExporter billingExporter;
+    private boolean billingPartitions;
+    private final Object billingLock = new Object();
+    private int compactionThreshold = 10000;
+    // the queue of the journal writer, 0 to write records in the thread booking
+    private int writeBehind;
+    private Thread flushOnExit;
+    private final AtomicBoolean compactionPending = new AtomicBoolean();
+    // the history of the cancellations, which the compactor moves them into before it reclaims them
+    private final CancellationLog cancellationLog;
+    private volatile double reclaimThreshold = 0.25;
+    private final AtomicBoolean reclaimPending = new AtomicBoolean();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("reservation-compactor").daemon().factory());
+    private final Waitlist waitlist = new Waitlist();
+    // offers the nights freed by cancellations to the waitlist, one pass at a time
+    private final ExecutorService allocator = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("waitlist-allocator").daemon().factory());
 
     /**ReservationSystem constructor
      * 
@@ -20,14 +118,114 @@ public class ReservationSystem {
         this.pathHotel = pathHotel;
         this.pathReservation = pathReservation;
         this.pathBilling = pathBilling;
+        this.cancellationLog = new CancellationLog(Path.of(pathReservation).resolveSibling("cancellations.csv"));
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /** Whether a stay can be booked: it checks out after it checks in, lasts at most MAX_NIGHTS nights
+     * and lies within BOOKING_HORIZON days of today. The indexes, the waitlist and the prices do work for
+     * every night of a stay, so a stay of centuries would exhaust the heap
+     *
+     * @param checkIn check in date
+     * @param checkOut check out date
+     * @return boolean true if the stay can be booked
+     */
+    public static boolean isValidStay(LocalDate checkIn, LocalDate checkOut) {
+        long today = LocalDate.now().toEpochDay();
+        long from = checkIn.toEpochDay();
+        long to = checkOut.toEpochDay();
+        return from < to && to - from <= MAX_NIGHTS && from >= today - BOOKING_HORIZON
+                && to <= today + BOOKING_HORIZON;
+    }
+
+    /** Check that a stay can be booked, as isValidStay does
+     *
+     * @param checkIn check in date
+     * @param checkOut check out date
+     * @throws IllegalArgumentException if it can not be booked
+     */
+    public static void checkStay(LocalDate checkIn, LocalDate checkOut) {
+        if (!isValidStay(checkIn, checkOut)) {
+            throw new IllegalArgumentException("A stay checks out after it checks in, lasts at most " + MAX_NIGHTS
+                    + " nights and lies within " + BOOKING_HORIZON + " days of today");
+        }
+    }
+
+    /**Get a new reference number, unique also when several booking agents use the system at once
+     * 
+     * @return int the next free reference number
+     */
+    public int nextRefNo() {
+        return nextRefNo.getAndIncrement();
+    }
+
+    /**Get the room types decoded from the hotel file. Decoding it again replaces the registry, so hold on
+     * to the one returned only as long as its ids are needed
+     * 
+     * @return RoomTypeRegistry registry of the room types with their ids
+     */
+    public RoomTypeRegistry getRoomTypes() {
+        return roomTypes;
     }
 
     /**Get list of reservations
      * 
-     * @return list<reservation> list of reservations
+     * @return list<reservation> a copy of the list of reservations, taken while no booking changes it
      * @author SeanFitzgerald*/
     public List<Reservation> getResList() {
-        return resList;
+        return snapshot();
+    }
+
+    /**Get the number of reservations booked
+     * 
+     * @return int number of reservations
+     */
+    public int getReservationCount() {
+        synchronized (bookLock) {
+            return resBook.size();
+        }
+    }
+
+    /**Get the share of the rooms of a type taken on a night
+     * 
+     * @param roomType the room type
+     * @param night the night
+     * @return double percentage of the rooms taken, 0 for a type without rooms
+     */
+    public double utilisation(String roomType, LocalDate night) {
+        int capacity = capacity(roomType);
+        if (capacity <= 0) {
+            return 0;
+        }
+        ReentrantLock lock = stripes[stripe(roomType)];
+        lock.lock();
+        try {
+            return availabilityIndex.taken(roomType, night) * 100.0 / capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**Choose how the reservations are held in memory: as objects, or in columns of primitive arrays,
+     * which take several times less heap and make the analysis scans faster, at the price of creating
+     * a reservation object on every lookup
+     * 
+     * @param columnar true to hold the reservations in columns
+     */
+    public void setColumnarStore(boolean columnar) {
+        stateLock.writeLock().lock();
+        try {
+            synchronized (bookLock) {
+                this.columnar = columnar;
+                ReservationBook replaced = resBook;
+                resBook = new ReservationBook(columnar, replaced.toList());
+                resBook.keepCancellations(replaced);
+            }
+        } finally {
+            stateLock.writeLock().unlock();
+        }
     }
 
     /**Check if a room is available
@@ -38,31 +236,369 @@ public class ReservationSystem {
      * @return boolean true if available, false if not
      * @author SeanFitzgerald*/
     public boolean available(String roomType, LocalDate checkIn, LocalDate checkOut) {
-        int taken = 0;
-        for (Reservation res : resList) {
-            LocalDate checkInRes = res.getCheckIn();
-            LocalDate checkOutRes = res.getCheckOut();
-            if ((checkIn.isBefore(checkInRes) && checkOut.isBefore(checkInRes)) ||
-                    (checkIn.isBefore(checkInRes) && checkOut.isEqual(checkInRes)) ||
-                    (checkIn.isAfter(checkOutRes) && checkOut.isAfter(checkOutRes)) ||
-                    (checkIn.isEqual(checkOutRes) && checkOut.isAfter(checkOutRes))) {
-                break;
-            }
-
-            RoomList rl = res.getRoomList();
-            List<Room> rooms = rl.getRooms();
-            for (Room r : rooms) {
-                if (r.getRoomType().equals(roomType)) {
-                    taken++;
+        long begin = System.nanoTime();
+        try {
+            return isFree(roomType, checkIn, checkOut);
+        } finally {
+            Metrics.record(Metrics.Operation.AVAILABLE, begin);
+        }
+    }
+
+    private boolean isFree(String roomType, LocalDate checkIn, LocalDate checkOut) {
+        stateLock.readLock().lock();
+        ReentrantLock lock = stripes[stripe(roomType)];
+        lock.lock();
+        try {
+            int taken = availabilityIndex.maxTaken(roomType, checkIn, checkOut);
+            if (taken >= capacity(roomType)) {
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+            stateLock.readLock().unlock();
+        }
+    }
+
+    /**Search every room type with a room free on all nights of a stay and big enough for a party, with
+     * the rooms left and the price of one room. The nights of all room types are read in one pass over
+     * the availability index, while no booking changes it
+     * 
+     * @param checkIn check in date
+     * @param checkOut check out date
+     * @param partySize the guests one room has to hold
+     * @param resType type of reservation, "AP" for the advance purchase price
+     * @return List<RoomOffer> the free room types, cheapest first
+     */
+    public List<RoomOffer> searchAvailability(LocalDate checkIn, LocalDate checkOut, int partySize, String resType) {
+        long begin = System.nanoTime();
+        try {
+            List<RoomOffer> offers = new ArrayList<>();
+            if (!isValidStay(checkIn, checkOut)) {
+                return offers;
+            }
+            RoomTypeRegistry types;
+            int[] busiest;
+            stateLock.readLock().lock();
+            try {
+                // read once under the state lock, so the ids, names and rooms below are of one registry
+                types = roomTypes;
+                busiest = new int[types.size()];
+                int[] held = lockAllRoomTypes(types);
+                try {
+                    for (int id = 0; id < busiest.length; id++) {
+                        busiest[id] = availabilityIndex.maxTaken(types.name(id), checkIn, checkOut);
+                    }
+                } finally {
+                    unlock(held);
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            for (int id = 0; id < busiest.length; id++) {
+                int remaining = types.numberOfRooms(id) - busiest[id];
+                if (remaining > 0 && types.maxOccupancy(id) >= partySize) {
+                    String roomType = types.name(id);
+                    double cost;
+                    try {
+                        cost = calcTotalCost(roomType, checkIn, checkOut, resType);
+                    } catch (IllegalArgumentException e) {
+                        // removed from the hotel file by a reload since the rooms were read
+                        continue;
+                    }
+                    offers.add(new RoomOffer(roomType, checkIn, checkOut, remaining, types.maxOccupancy(id), cost));
                 }
             }
+            offers.sort(Comparator.comparingDouble(RoomOffer::getTotalCost).thenComparing(RoomOffer::getRoomType));
+            return offers;
+        } finally {
+            Metrics.record(Metrics.Operation.SEARCH, begin);
         }
-        if (taken >= HotelList.getNumberOfRooms(roomType)) {
-            return false;
+    }
+
+    /**Search the cheapest stay of a number of nights within a month for every room type big enough for a
+     * party, for guests whose dates are flexible. Of stays with the same price the earliest is offered.
+     * Only stays which can be booked are offered, see isValidStay, so a month beyond the horizon has none
+     * 
+     * @param month the month, every night of the stay falls within it
+     * @param nights the number of nights
+     * @param partySize the guests one room has to hold
+     * @param resType type of reservation, "AP" for the advance purchase price
+     * @return List<RoomOffer> the cheapest free stay of every room type which has one, cheapest first
+     */
+    public List<RoomOffer> searchFlexible(YearMonth month, int nights, int partySize, String resType) {
+        long begin = System.nanoTime();
+        try {
+            List<RoomOffer> offers = new ArrayList<>();
+            int days = month.lengthOfMonth();
+            if (nights <= 0 || nights > days) {
+                return offers;
+            }
+            LocalDate first = month.atDay(1);
+            // the check ins and check outs within BOOKING_HORIZON days of today, as days of the month
+            long today = LocalDate.now().toEpochDay();
+            long firstCheckIn = Math.max(0, today - BOOKING_HORIZON - first.toEpochDay());
+            long lastCheckOut = Math.min(days, today + BOOKING_HORIZON - first.toEpochDay());
+            if (lastCheckOut - firstCheckIn < nights) {
+                return offers;
+            }
+            RoomTypeRegistry types;
+            int[][] taken;
+            stateLock.readLock().lock();
+            try {
+                // read once under the state lock, so the ids, names and rooms below are of one registry
+                types = roomTypes;
+                taken = takenNights(types, first.toEpochDay(), first.toEpochDay() + days, partySize);
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            int[] full = new int[days + 1];
+            // every candidate check in is priced, so the quote cache is bypassed to keep real quotes in it
+            PriceCurves curves = priceCurves;
+            for (int id = 0; id < taken.length; id++) {
+                if (taken[id] == null) {
+                    continue;
+                }
+                // full[i] is the number of fully booked nights among the first i of the month
+                int capacity = types.numberOfRooms(id);
+                for (int night = 0; night < days; night++) {
+                    full[night + 1] = full[night] + (taken[id][night] >= capacity ? 1 : 0);
+                }
+                String roomType = types.name(id);
+                int best = -1;
+                double bestCost = 0;
+                try {
+                    for (int start = (int) firstCheckIn; start + nights <= lastCheckOut; start++) {
+                        if (full[start + nights] - full[start] > 0) {
+                            continue;
+                        }
+                        LocalDate checkIn = first.plusDays(start);
+                        double cost = curves != null
+                                ? quote(curves, roomType, checkIn, checkIn.plusDays(nights), resType)
+                                : price(roomType, checkIn, checkIn.plusDays(nights), resType);
+                        if (best < 0 || cost < bestCost) {
+                            best = start;
+                            bestCost = cost;
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    // removed from the hotel file by a reload since the rooms were read
+                    continue;
+                }
+                if (best >= 0) {
+                    int busiest = Arrays.stream(taken[id], best, best + nights).max().orElse(0);
+                    LocalDate checkIn = first.plusDays(best);
+                    offers.add(new RoomOffer(roomType, checkIn, checkIn.plusDays(nights), capacity - busiest,
+                            types.maxOccupancy(id), bestCost));
+                }
+            }
+            offers.sort(Comparator.comparingDouble(RoomOffer::getTotalCost).thenComparing(RoomOffer::getCheckIn)
+                    .thenComparing(RoomOffer::getRoomType));
+            return offers;
+        } finally {
+            Metrics.record(Metrics.Operation.SEARCH_FLEXIBLE, begin);
+        }
+    }
+
+    /**Read the rooms taken on every night of a range for every room type big enough for a party. The
+     * caller holds the state lock for reading, under which it read the registry
+     * 
+     * @param types the room types
+     * @param from epoch day of the first night
+     * @param to epoch day after the last night
+     * @param partySize the guests one room has to hold
+     * @return int[][] the rooms taken per night by room type id, null for room types too small
+     */
+    private int[][] takenNights(RoomTypeRegistry types, long from, long to, int partySize) {
+        int[][] taken = new int[types.size()][];
+        int[] held = lockAllRoomTypes(types);
+        try {
+            for (int id = 0; id < taken.length; id++) {
+                if (types.maxOccupancy(id) >= partySize) {
+                    taken[id] = availabilityIndex.takenNights(types.name(id), from, to);
+                }
+            }
+        } finally {
+            unlock(held);
+        }
+        return taken;
+    }
+
+    /**Take the locks of every room type in ascending order, so the rooms taken of all room types are read
+     * at the same time, as in one pass. The caller holds the state lock for reading, under which it read
+     * the registry, so no reload swaps the room types while the locks are held
+     * 
+     * @param types the room types
+     * @return int[] the locked stripes, to be passed to unlock before the state lock is released
+     */
+    private int[] lockAllRoomTypes(RoomTypeRegistry types) {
+        int stripeCount = Math.min(types.size(), LOCK_STRIPES);
+        int[] held = new int[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            // registered room types use the stripe of their id, so the first ids cover every stripe in use
+            held[i] = i;
+            stripes[i].lock();
+        }
+        return held;
+    }
+
+    private int capacity(String roomType) {
+        int typeId = roomTypes.id(roomType);
+        // a room type not in the hotel file of this system has no rooms
+        return typeId < 0 ? 0 : roomTypes.numberOfRooms(typeId);
+    }
+
+    private int stripe(String roomType) {
+        int typeId = roomTypes.id(roomType);
+        return (typeId < 0 ? roomType.hashCode() & Integer.MAX_VALUE : typeId) % LOCK_STRIPES;
+    }
+
+    /**Lock the stripes of every room type in a list of rooms, in ascending order
+     * 
+     * @param rooms the rooms of a reservation
+     * @return int[] the locked stripes, to be passed to unlock
+     */
+    private int[] lockRoomTypes(List<Room> rooms) {
+        int[] held = new int[rooms.size()];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = stripe(rooms.get(i).getRoomType());
+        }
+        return lockStripes(held);
+    }
+
+    private int[] lockStripes(int[] wanted) {
+        int[] held = Arrays.stream(wanted).sorted().distinct().toArray();
+        for (int stripe : held) {
+            stripes[stripe].lock();
+        }
+        return held;
+    }
+
+    private void unlock(int[] held) {
+        for (int i = held.length - 1; i >= 0; i--) {
+            stripes[held[i]].unlock();
+        }
+    }
+
+    /**Check that every room of a booking is available, counting rooms of the same type together so
+     * a booking can not take more rooms of a type than are left. The caller holds the room type locks
+     * 
+     * @param rooms the rooms of the booking
+     * @param checkIn check in date
+     * @param checkOut check out date
+     * @return boolean true if all rooms are available
+     */
+    private boolean fits(List<Room> rooms, LocalDate checkIn, LocalDate checkOut) {
+        for (int i = 0; i < rooms.size(); i++) {
+            String roomType = rooms.get(i).getRoomType();
+            int demand = 0;
+            boolean counted = false;
+            for (int j = 0; j < rooms.size() && !counted; j++) {
+                if (rooms.get(j).getRoomType().equals(roomType)) {
+                    counted = j < i;
+                    demand++;
+                }
+            }
+            if (!counted && availabilityIndex.maxTaken(roomType, checkIn, checkOut) + demand > capacity(roomType)) {
+                return false;
+            }
         }
         return true;
     }
 
+    /**Rebuild the availability index and the analytics cube from the current list of reservations,
+     * used whenever the reservation list is reloaded as a whole
+     */
+    public void rebuildIndexes() {
+        stateLock.writeLock().lock();
+        try {
+            ReservationColumns columns;
+            synchronized (bookLock) {
+                columns = resBook.columns();
+            }
+            if (columns != null) {
+                // a columnar book is indexed straight from its columns, without materializing reservations
+                int types = columns.typeCount();
+                int[] tierOfType = new int[types];
+                int[][] ratesOfType = new int[types][];
+                for (int id = 0; id < types; id++) {
+                    tierOfType[id] = RoomTypeRegistry.tierOf(columns.typeName(id));
+                    ratesOfType[id] = ratesOf(columns.typeName(id));
+                }
+                availabilityIndex.rebuild(columns);
+                analytics.rebuild(columns, tierOfType, ratesOfType);
+            } else {
+                availabilityIndex.clear();
+                analytics.clear();
+                for (Reservation res : snapshot()) {
+                    count(res, 1);
+                }
+            }
+            buildPriceCurves();
+            buildRoomAssignments();
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**Count a reservation in the availability index and the analytics cube, or remove it, assign or free
+     * its physical rooms and price the nights of its room types again if prices follow the occupancy. The
+     * caller holds the locks of the room types of the reservation
+     * 
+     * @param res the reservation
+     * @param sign 1 to add the reservation, -1 to remove it
+     */
+    private void index(Reservation res, int sign) {
+        count(res, sign);
+        assignRooms(res, sign);
+        PriceCurves curves = priceCurves;
+        if (curves == null || !curves.getPipeline().readsOccupancy()) {
+            return;
+        }
+        long checkIn = res.getCheckIn().toEpochDay();
+        long checkOut = res.getCheckOut().toEpochDay();
+        for (Room room : res.getRoomList().getRooms()) {
+            int typeId = roomTypes.id(room.getRoomType());
+            if (typeId >= 0) {
+                curves.reprice(typeId, checkIn, availabilityIndex.takenNights(room.getRoomType(), checkIn, checkOut));
+            }
+        }
+    }
+
+    /**Count a reservation in the availability index and the analytics cube, or remove it
+     * 
+     * @param res the reservation
+     * @param sign 1 to add the reservation, -1 to remove it
+     */
+    private void count(Reservation res, int sign) {
+        if (sign > 0) {
+            availabilityIndex.add(res);
+        } else {
+            availabilityIndex.remove(res);
+        }
+        long checkIn = res.getCheckIn().toEpochDay();
+        long checkOut = res.getCheckOut().toEpochDay();
+        int[] occ = res.getTotalOccupancy();
+        for (int tier = 0; tier < RoomTypeRegistry.TIERS; tier++) {
+            analytics.addGuests(tier, sign * occ[tier], checkIn, checkOut);
+        }
+        List<Room> rooms = res.getRoomList().getRooms();
+        int[] tiers = new int[rooms.size()];
+        int[][] rates = new int[rooms.size()][];
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = RoomTypeRegistry.tierOf(rooms.get(i).getRoomType());
+            rates[i] = ratesOf(rooms.get(i).getRoomType());
+        }
+        // the total charged, whichever pipeline priced it, rather than the rates of the hotel file
+        analytics.addRevenue(tiers, rates, checkIn, checkOut, Math.round(res.getTotalCost() * 100), sign);
+    }
+
+    private int[] ratesOf(String roomType) {
+        RoomTypeRegistry types = roomTypes;
+        int typeId = types.id(roomType);
+        return typeId < 0 ? NO_RATES : types.rates(typeId);
+    }
+
     /**Calculates total cost of booking
      * 
      * @param roomType selected room type
@@ -70,18 +606,123 @@ public class ReservationSystem {
      * @param checkOut checkout date
      * @param resType type of reservation
      * @return double total cost
+     * @throws IllegalArgumentException if the stay is not valid, see isValidStay
      * @author SeanFitzgerald*/
     public double calcTotalCost(String roomType, LocalDate checkIn, LocalDate checkOut, String resType) {
-        LocalDate dateCopy = checkIn;
-        int[] rates = HotelList.getRates(roomType);
-        double total = 0;
-        while (!dateCopy.equals(checkOut)) {
-            int index = dateCopy.getDayOfWeek().getValue() - 1;
-            total += rates[index];
-            dateCopy = dateCopy.plusDays(1);
+        checkStay(checkIn, checkOut);
+        PriceCurves curves = priceCurves;
+        if (curves != null) {
+            movePriceCurvesIfDue();
+            // prices follow the bookings, so they are read from the curves rather than cached
+            return quote(curves, roomType, checkIn, checkOut, resType);
+        }
+        QuoteCache cache = quoteCache;
+        if (cache == null) {
+            return price(roomType, checkIn, checkOut, resType);
+        }
+        // read before the rates, so neither a price nor a key of rates reloaded meanwhile is used
+        long generation = cache.generation();
+        PricingEngine engine = pricing;
+        long from = checkIn.toEpochDay();
+        long key = QuoteCache.key(engine.roomTypes().id(roomType), from, checkOut.toEpochDay() - from,
+                resType.equals("AP"));
+        if (key < 0) {
+            return price(engine, roomType, checkIn, checkOut, resType);
+        }
+        double cached = cache.get(key);
+        if (!Double.isNaN(cached) && cache.isStable(generation)) {
+            return cached;
         }
-        if (resType.equals("AP")) {
-            total *= 0.95;
+        double cost = price(engine, roomType, checkIn, checkOut, resType);
+        cache.put(key, cost, generation);
+        return cost;
+    }
+
+    /**Price one room of a stay with the pricing pipeline, from the price curves or night by night for a stay
+     * outside of their window
+     * 
+     * @param curves the price curves
+     * @param roomType selected room type
+     * @param checkIn checkin date
+     * @param checkOut checkout date
+     * @param resType type of reservation
+     * @return double total cost
+     */
+    private double quote(PriceCurves curves, String roomType, LocalDate checkIn, LocalDate checkOut, String resType) {
+        RoomTypeRegistry types = curves.getRoomTypes();
+        int typeId = types.id(roomType);
+        if (typeId < 0 || typeId >= curves.size()) {
+            return price(roomType, checkIn, checkOut, resType);
+        }
+        long from = checkIn.toEpochDay();
+        long to = checkOut.toEpochDay();
+        boolean advance = resType.equals("AP");
+        double cost = curves.quote(typeId, from, to, advance);
+        if (!Double.isNaN(cost)) {
+            return cost;
+        }
+        int[] taken;
+        ReentrantLock lock = stripes[stripe(roomType)];
+        lock.lock();
+        try {
+            taken = availabilityIndex.takenNights(roomType, from, to);
+        } finally {
+            lock.unlock();
+        }
+        return curves.getPipeline().price(types, typeId, from, taken, advance);
+    }
+
+    /**Price one room of a stay from the weekly rates, without the quote cache or the pricing pipeline. Used
+     * by the flexible search, whose scans over every candidate stay would only push the quotes out of the
+     * cache
+     * 
+     * @param roomType selected room type
+     * @param checkIn checkin date
+     * @param checkOut checkout date
+     * @param resType type of reservation
+     * @return double total cost
+     * @throws IllegalArgumentException if the room type is not in the hotel file of this system
+     */
+    private double price(String roomType, LocalDate checkIn, LocalDate checkOut, String resType) {
+        return price(pricing, roomType, checkIn, checkOut, resType);
+    }
+
+    private double price(PricingEngine engine, String roomType, LocalDate checkIn, LocalDate checkOut,
+                         String resType) {
+        RoomTypeRegistry types = engine.roomTypes();
+        int typeId = types.id(roomType);
+        if (typeId < 0) {
+            throw new IllegalArgumentException("Unknown room type " + roomType);
+        }
+        if (typeId >= engine.size()) {
+            // registered after the pricing engine was built, price it from the rates of the registry
+            return PricingEngine.dailyCost(types.rates(typeId), checkIn, checkOut, resType);
+        }
+        return engine.cost(typeId, checkIn, checkOut, resType);
+    }
+
+    /**Sum the rates of the hotel file over the nights of a stay in one room, which weigh the rooms of a
+     * reservation when the analyses split its total charged over them
+     * 
+     * @param roomType selected room type
+     * @param checkIn epoch day of the check in
+     * @param nights the number of nights
+     * @return long the sum of the rates, 0 for a room type not in the hotel file of this system
+     */
+    private long nightsTotal(String roomType, long checkIn, long nights) {
+        PricingEngine engine = pricing;
+        RoomTypeRegistry types = engine.roomTypes();
+        int typeId = types.id(roomType);
+        if (typeId < 0) {
+            return 0;
+        }
+        if (typeId < engine.size()) {
+            return engine.nightsTotal(typeId, checkIn, nights);
+        }
+        int[] rates = types.rates(typeId);
+        long total = 0;
+        for (long night = checkIn; night < checkIn + nights; night++) {
+            total += rates[PricingEngine.dayOfWeek(night)];
         }
         return total;
     }
@@ -95,12 +736,17 @@ public class ReservationSystem {
      * @return double total cost
      * @author SeanFitzgerald*/
     public double calcTotalCost(RoomList roomList, LocalDate checkIn, LocalDate checkOut, String resType) {
-        double totalCost = 0;
-        List<Room> rooms = roomList.getRooms();
-        for (Room r : rooms) {
-            totalCost += calcTotalCost(r.getRoomType(), checkIn, checkOut, resType);
+        long begin = System.nanoTime();
+        try {
+            double totalCost = 0;
+            List<Room> rooms = roomList.getRooms();
+            for (Room r : rooms) {
+                totalCost += calcTotalCost(r.getRoomType(), checkIn, checkOut, resType);
+            }
+            return totalCost;
+        } finally {
+            Metrics.record(Metrics.Operation.QUOTE, begin);
         }
-        return totalCost;
     }
 
     /**Makes a new reservation
@@ -113,21 +759,355 @@ public class ReservationSystem {
      * @param numOfRoom number of rooms
      * @param roomList list of rooms
      * @param totalCost total cost
-     * @return Reservation the reservation using those details
+     * @return Reservation the reservation using those details, null if the rooms are not free
+     * @throws IllegalArgumentException if the stay is not valid, see isValidStay
+     * @throws UncheckedIOException if the booking can not be made durable, in which case it is undone
      * @author SeanFitzgerald*/
     public Reservation makeReservation(int refNo, String name, String resType, LocalDate checkIn, LocalDate checkOut,
                                        int numOfRoom, RoomList roomList, double totalCost) {
-        List<Room> rooms = roomList.getRooms();
-        for (Room r : rooms) {
-            if (!available(r.getRoomType(), checkIn, checkOut)) {
+        long begin = System.nanoTime();
+        try {
+            Reservation reservation = new Reservation(refNo, name, resType, checkIn, checkOut, numOfRoom,
+                    roomList, totalCost);
+            long position = book(reservation);
+            if (position < 0) {
                 return null;
             }
+            // the booking is only acknowledged once it is on disk
+            try {
+                persist(position);
+            } catch (IOException e) {
+                detach(reservation, 0, null);
+                throw new UncheckedIOException("Can not write the reservation journal", e);
+            }
+            return reservation;
+        } finally {
+            Metrics.record(Metrics.Operation.MAKE, begin);
         }
+    }
+
+    /**Makes a new reservation without waiting for the disk: the rooms are taken at once and the returned
+     * future completes once the booking is on disk, or with null if the rooms are not free. If it can not
+     * be written the booking is undone and the future completes exceptionally with an
+     * UncheckedIOException. With a write-behind journal the time spent booking does not include the
+     * write and the force of the journal
+     * 
+     * @param refNo reference number
+     * @param name name of person booking room
+     * @param resType type of reservation
+     * @param checkIn check in date
+     * @param checkOut check out date
+     * @param numOfRoom number of rooms
+     * @param roomList list of rooms
+     * @param totalCost total cost
+     * @return CompletableFuture<Reservation> the reservation once it is durable, null if it was not booked
+     */
+    public CompletableFuture<Reservation> makeReservationAsync(int refNo, String name, String resType,
+                                                               LocalDate checkIn, LocalDate checkOut, int numOfRoom,
+                                                               RoomList roomList, double totalCost) {
+        long begin = System.nanoTime();
         Reservation reservation = new Reservation(refNo, name, resType, checkIn, checkOut, numOfRoom,
                 roomList, totalCost);
-        resList.add(reservation);
-        updateReservationCSV();
-        return reservation;
+        long position;
+        try {
+            position = book(reservation);
+        } catch (UncheckedIOException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            Metrics.record(Metrics.Operation.MAKE, begin);
+        }
+        if (position < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ReservationJournal opened = journal;
+        if (opened == null) {
+            updateReservationCSV();
+            return CompletableFuture.completedFuture(reservation);
+        }
+        // completed off the writer thread, which must not wait for the locks of an undo or a compaction
+        return opened.whenDurable(position).handleAsync((done, failure) -> {
+            if (failure != null) {
+                detach(reservation, 0, null);
+                throw new UncheckedIOException("Can not write the reservation journal",
+                        failure instanceof IOException io ? io : new IOException(failure));
+            }
+            compactJournalInBackgroundIfDue();
+            return reservation;
+        });
+    }
+
+    /**Take the rooms of a reservation: check they are free, add it to the book and the indexes and
+     * journal it, holding the locks of its room types
+     * 
+     * @param reservation the reservation
+     * @return long the journal position of its record, 0 without journal, -1 if it was not booked
+     * @throws UncheckedIOException if it can not be journaled, in which case it is not booked
+     */
+    private long book(Reservation reservation) {
+        checkStay(reservation.getCheckIn(), reservation.getCheckOut());
+        List<Room> rooms = reservation.getRoomList().getRooms();
+        stateLock.readLock().lock();
+        try {
+            int[] held = lockRoomTypes(rooms);
+            try {
+                if (!fits(rooms, reservation.getCheckIn(), reservation.getCheckOut())) {
+                    return -1;
+                }
+                synchronized (bookLock) {
+                    // a reference number is never booked twice
+                    if (!resBook.add(reservation)) {
+                        return -1;
+                    }
+                }
+                index(reservation, 1);
+                nextRefNo.accumulateAndGet(reservation.getRefNo() + 1, Math::max);
+                ReservationJournal opened = journal;
+                if (opened == null) {
+                    return 0;
+                }
+                try {
+                    // journaled under the room type locks, so a cancellation is always journaled after it
+                    return opened.appendCreate(reservation);
+                } catch (IOException e) {
+                    synchronized (bookLock) {
+                        resBook.remove(reservation);
+                    }
+                    index(reservation, -1);
+                    throw new UncheckedIOException("Can not write the reservation journal", e);
+                }
+            } finally {
+                unlock(held);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    /**Makes a batch of bookings at once, for group sales and channel manager feeds. The rooms the whole
+     * batch asks for are resolved per room type and night against the rooms left in one pass, in the
+     * order of the batch, and every booking is accepted or rejected as a whole with the reason. Unless
+     * a stage of the pricing pipeline prices by occupancy, the bookings are priced before the locks are
+     * taken, as a caller of makeReservation prices them, so other bookings of the same room types do not
+     * wait for the pricing; otherwise an accepted booking is priced after the ones accepted before it are
+     * booked, so it costs what it would in a loop of makeReservation. The accepted bookings are written to
+     * the journal in one append and made durable with one commit
+     * 
+     * @param requests the bookings, priced and given reference numbers when they are accepted
+     * @return List<BookingResult> the outcome of every booking, in the order of the requests
+     */
+    public List<BookingResult> bookBatch(List<BookingRequest> requests) {
+        long begin = System.nanoTime();
+        try {
+            BookingResult[] results = new BookingResult[requests.size()];
+            // the first and the last night every room type of the batch is asked for
+            Map<String, long[]> spans = new HashMap<>();
+            for (int i = 0; i < results.length; i++) {
+                BookingRequest request = requests.get(i);
+                List<Room> rooms = request.getRoomList().getRooms();
+                long checkIn = request.getCheckIn().toEpochDay();
+                long checkOut = request.getCheckOut().toEpochDay();
+                if (rooms.isEmpty() || rooms.size() > 3 || !isValidStay(request.getCheckIn(), request.getCheckOut())) {
+                    results[i] = new BookingResult(request, null, BookingResult.Reason.INVALID);
+                    continue;
+                }
+                for (Room room : rooms) {
+                    if (roomTypes.id(room.getRoomType()) < 0) {
+                        results[i] = new BookingResult(request, null, BookingResult.Reason.UNKNOWN_ROOM_TYPE);
+                        break;
+                    }
+                }
+                if (results[i] != null) {
+                    continue;
+                }
+                for (Room room : rooms) {
+                    spans.merge(room.getRoomType(), new long[] {checkIn, checkOut}, (span, stay) -> {
+                        span[0] = Math.min(span[0], stay[0]);
+                        span[1] = Math.max(span[1], stay[1]);
+                        return span;
+                    });
+                }
+            }
+            // priced outside the locks, unless the price of a booking depends on those booked before it
+            double[] costs = null;
+            if (!pipeline.readsOccupancy()) {
+                costs = new double[results.length];
+                for (int i = 0; i < results.length; i++) {
+                    BookingRequest request = requests.get(i);
+                    if (results[i] == null) {
+                        costs[i] = calcTotalCost(request.getRoomList(), request.getCheckIn(), request.getCheckOut(),
+                                request.getResType());
+                    }
+                }
+            }
+            List<Reservation> accepted = new ArrayList<>();
+            List<Integer> acceptedAt = new ArrayList<>();
+            long position = 0;
+            stateLock.readLock().lock();
+            try {
+                int[] held = lockStripes(spans.keySet().stream().mapToInt(this::stripe).toArray());
+                try {
+                    // rooms taken on the nights of the batch, counting the bookings accepted so far
+                    Map<String, int[]> taken = new HashMap<>();
+                    for (Map.Entry<String, long[]> span : spans.entrySet()) {
+                        taken.put(span.getKey(), availabilityIndex.takenNights(span.getKey(), span.getValue()[0],
+                                span.getValue()[1]));
+                    }
+                    for (int i = 0; i < results.length; i++) {
+                        if (results[i] != null) {
+                            continue;
+                        }
+                        BookingRequest request = requests.get(i);
+                        if (!take(request, spans, taken)) {
+                            results[i] = new BookingResult(request, null, BookingResult.Reason.NO_AVAILABILITY);
+                            continue;
+                        }
+                        // priced once the bookings accepted before it are indexed, as in a loop of
+                        // makeReservation, so a pipeline which prices by occupancy sees them
+                        RoomList roomList = request.getRoomList();
+                        double totalCost = costs != null ? costs[i] : calcTotalCost(roomList, request.getCheckIn(),
+                                request.getCheckOut(), request.getResType());
+                        Reservation reservation = new Reservation(nextRefNo(), request.getName(),
+                                request.getResType(), request.getCheckIn(), request.getCheckOut(),
+                                roomList.getRooms().size(), roomList, totalCost);
+                        boolean added;
+                        synchronized (bookLock) {
+                            added = resBook.add(reservation);
+                        }
+                        if (!added) {
+                            // a reference number is never booked twice, so the rooms go back to the batch
+                            hold(request, spans, taken, -1);
+                            results[i] = new BookingResult(request, null, BookingResult.Reason.DUPLICATE_REF_NO);
+                            continue;
+                        }
+                        index(reservation, 1);
+                        accepted.add(reservation);
+                        acceptedAt.add(i);
+                    }
+                    ReservationJournal opened = journal;
+                    if (opened != null && !accepted.isEmpty()) {
+                        try {
+                            position = opened.appendCreates(accepted);
+                        } catch (IOException e) {
+                            System.err.println("Can not write the reservation journal");
+                            synchronized (bookLock) {
+                                for (Reservation reservation : accepted) {
+                                    resBook.remove(reservation);
+                                }
+                            }
+                            for (Reservation reservation : accepted) {
+                                index(reservation, -1);
+                            }
+                            return notPersisted(requests, results, acceptedAt);
+                        }
+                    }
+                } finally {
+                    unlock(held);
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            if (!accepted.isEmpty()) {
+                try {
+                    persist(position);
+                } catch (IOException e) {
+                    System.err.println("Can not write the reservation journal");
+                    for (Reservation reservation : accepted) {
+                        detach(reservation, 0, null);
+                    }
+                    return notPersisted(requests, results, acceptedAt);
+                }
+            }
+            for (int j = 0; j < accepted.size(); j++) {
+                int i = acceptedAt.get(j);
+                results[i] = new BookingResult(requests.get(i), accepted.get(j), BookingResult.Reason.BOOKED);
+            }
+            return Arrays.asList(results);
+        } finally {
+            Metrics.record(Metrics.Operation.BOOK_BATCH, begin);
+        }
+    }
+
+    /**Take the rooms of a booking from the nights of a batch if every room type has enough of them left
+     * on every night of the stay, counting rooms of the same type together
+     * 
+     * @param request the booking
+     * @param spans the first and the last night of every room type of the batch
+     * @param taken the rooms taken on those nights, updated when the booking fits
+     * @return boolean true if the rooms were taken
+     */
+    private boolean take(BookingRequest request, Map<String, long[]> spans, Map<String, int[]> taken) {
+        List<Room> rooms = request.getRoomList().getRooms();
+        long checkIn = request.getCheckIn().toEpochDay();
+        long checkOut = request.getCheckOut().toEpochDay();
+        for (int i = 0; i < rooms.size(); i++) {
+            String roomType = rooms.get(i).getRoomType();
+            int demand = demand(rooms, i);
+            if (demand == 0) {
+                continue;
+            }
+            int[] nights = taken.get(roomType);
+            int from = (int) (checkIn - spans.get(roomType)[0]);
+            int to = (int) (checkOut - spans.get(roomType)[0]);
+            int capacity = capacity(roomType);
+            for (int night = from; night < to; night++) {
+                if (nights[night] + demand > capacity) {
+                    return false;
+                }
+            }
+        }
+        hold(request, spans, taken, 1);
+        return true;
+    }
+
+    /**Count the rooms of a booking as taken on the nights of a batch, or give them back
+     * 
+     * @param request the booking
+     * @param spans the first and the last night of every room type of the batch
+     * @param taken the rooms taken on those nights
+     * @param sign 1 to take the rooms, -1 to give them back
+     */
+    private void hold(BookingRequest request, Map<String, long[]> spans, Map<String, int[]> taken, int sign) {
+        List<Room> rooms = request.getRoomList().getRooms();
+        long checkIn = request.getCheckIn().toEpochDay();
+        long checkOut = request.getCheckOut().toEpochDay();
+        for (int i = 0; i < rooms.size(); i++) {
+            String roomType = rooms.get(i).getRoomType();
+            int demand = demand(rooms, i);
+            int[] nights = taken.get(roomType);
+            int from = (int) (checkIn - spans.get(roomType)[0]);
+            int to = (int) (checkOut - spans.get(roomType)[0]);
+            for (int night = from; night < to && demand > 0; night++) {
+                nights[night] += sign * demand;
+            }
+        }
+    }
+
+    /**Count the rooms of the type of a room in a list of rooms, at the first room of that type only
+     * 
+     * @param rooms the rooms of a booking
+     * @param i the index of the room
+     * @return int the rooms of its type, 0 if an earlier room has the same type
+     */
+    private static int demand(List<Room> rooms, int i) {
+        String roomType = rooms.get(i).getRoomType();
+        int demand = 0;
+        for (int j = 0; j < rooms.size(); j++) {
+            if (rooms.get(j).getRoomType().equals(roomType)) {
+                if (j < i) {
+                    return 0;
+                }
+                demand++;
+            }
+        }
+        return demand;
+    }
+
+    private static List<BookingResult> notPersisted(List<BookingRequest> requests, BookingResult[] results,
+                                                    List<Integer> acceptedAt) {
+        for (int i : acceptedAt) {
+            results[i] = new BookingResult(requests.get(i), null, BookingResult.Reason.NOT_PERSISTED);
+        }
+        return Arrays.asList(results);
     }
 
     /**Check if the refNo is valid
@@ -136,20 +1116,30 @@ public class ReservationSystem {
      * @return boolean true if a valid number (the reservation exists)
      * @author SeanFitzgerald*/
     public boolean isValidReservationNumber(int refNo) {
-        return resList.stream().anyMatch(r -> r.getRefNo() == refNo);
+        synchronized (bookLock) {
+            return resBook.contains(refNo);
+        }
     }
 
     /**Get a reservation object based on refNo
      * 
      * @param refNo reference number
      * @return Reservation reservation with that refNo
+     * @throws NoSuchElementException if no reservation has that refNo
      * @author SeanFitzgerald*/
     public Reservation findReservation(int refNo) {
-        return resList
-                .stream()
-                .filter(p -> p.getRefNo() == refNo)
-                .findFirst()
-                .get();
+        return lookupReservation(refNo).orElseThrow();
+    }
+
+    /**Look a reservation up by its refNo
+     * 
+     * @param refNo reference number
+     * @return Optional<Reservation> the reservation with that refNo, empty if there is none
+     */
+    public Optional<Reservation> lookupReservation(int refNo) {
+        synchronized (bookLock) {
+            return resBook.find(refNo);
+        }
     }
 
     /**Cancel a reservation
@@ -158,54 +1148,466 @@ public class ReservationSystem {
      * 
      * @author SeanFitzgerald*/
     public void cancelReservation(Reservation reservation) {
-        if (reservation.getResType().equals("AP")) {
-            System.out.println("Your reservation is an advance an advance and therefore can not be refunded");
-            resList.remove(reservation);
-            System.out.println("Your reservation is now canceled");
-            updateReservationCSV();
+        double refund = refundFor(reservation);
+        try {
+            if (!cancel(reservation)) {
+                System.out.println("The reservation has already been canceled");
+                return;
+            }
+        } catch (UncheckedIOException e) {
+            System.out.println("Your cancellation could not be saved, please try again later");
             return;
         }
-
-        LocalDate cancelLimit = reservation.getCheckIn().minusDays(2);
-        if (LocalDate.now().isAfter(cancelLimit)) {
+        if (refund > 0) {
+            System.out.println("" + refund + " will be refunded to your account");
+        } else if (reservation.getResType().equals("AP")) {
+            System.out.println("Your reservation is an advance an advance and therefore can not be refunded");
+        } else {
             System.out.println("Your standard reservation can not be refunded because you canceled it 48 " +
                     "hours after the check-in date");
-            resList.remove(reservation);
-            System.out.println("Your reservation is now canceled");
-            updateReservationCSV();
-            return;
         }
-        System.out.println("" + reservation.getTotalCost() + " will be refunded to your account");
-        resList.remove(reservation);
         System.out.println("Your reservation is now canceled");
-        updateReservationCSV();
     }
 
-    /**Shows all reservations
+    /**Cancel a reservation without printing anything, for callers other than the console
      * 
-     * @author SeanFitzgerald*/
+     * @param reservation the reservation to be cancelled
+     * @return boolean true if the reservation was booked and is now cancelled
+     * @throws UncheckedIOException if the cancellation can not be made durable: if it could not be
+     * journaled the reservation stays booked, if the journal could not be forced the journal has failed
+     * and the cancellation stands until the system is restarted from the journal
+     */
+    public boolean cancel(Reservation reservation) {
+        long begin = System.nanoTime();
+        try {
+            long position = detach(reservation, refundFor(reservation), LocalDate.now());
+            if (position < 0) {
+                return false;
+            }
+            try {
+                persist(position);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can not write the reservation journal", e);
+            }
+            reclaimIfDue();
+            allocateFreed(reservation);
+            return true;
+        } finally {
+            Metrics.record(Metrics.Operation.CANCEL, begin);
+        }
+    }
+
+    /**Book a booking, or put it on the waitlist if a room is not free. Entries on the waitlist are
+     * booked, at the price of the day they are booked, as soon as cancellations free their rooms
+     * 
+     * @param request the booking
+     * @param priority the priority, higher is served first and equal priorities in the order they joined
+     * @return WaitlistEntry the entry, whose allocation is already complete if the booking was made at once
+     * @throws IllegalArgumentException if the booking has no rooms or more than 3, is not a valid stay or
+     * asks for an unknown room type
+     * @throws UncheckedIOException if the booking could be made at once but not made durable; the entry
+     * then stays on the waitlist
+     */
+    public WaitlistEntry joinWaitlist(BookingRequest request, int priority) {
+        List<Room> rooms = request.getRoomList().getRooms();
+        if (rooms.isEmpty() || rooms.size() > 3) {
+            throw new IllegalArgumentException("A booking holds 1 to 3 rooms");
+        }
+        checkStay(request.getCheckIn(), request.getCheckOut());
+        for (Room room : rooms) {
+            if (roomTypes.id(room.getRoomType()) < 0) {
+                throw new IllegalArgumentException("Unknown room type " + room.getRoomType());
+            }
+        }
+        // queued before it is tried, so rooms freed meanwhile are offered to it by the pass of their cancellation
+        WaitlistEntry entry = waitlist.add(request, priority);
+        allocate(entry);
+        return entry;
+    }
+
+    /**Take an entry off the waitlist
+     * 
+     * @param entry the entry
+     * @return boolean true if it was waiting, false if it has been booked or has already left
+     */
+    public boolean leaveWaitlist(WaitlistEntry entry) {
+        if (!entry.withdraw()) {
+            return false;
+        }
+        waitlist.remove(entry);
+        return true;
+    }
+
+    /**Get the waitlist
+     * 
+     * @return Waitlist the entries waiting for rooms
+     */
+    public Waitlist getWaitlist() {
+        return waitlist;
+    }
+
+    /**Offer the nights a cancelled reservation freed to the waitlist, on the allocator thread: first to
+     * the first entries of the queues of those nights in priority order, then every night still free to
+     * the next pages of its queue. An entry is only tried if its whole stay is free, and a night reads at
+     * most WAITLIST_PAGES pages, so the cost of a pass depends on the freed nights, not on the length of
+     * their queues
+     * 
+     * @param cancelled the cancelled reservation
+     */
+    private void allocateFreed(Reservation cancelled) {
+        if (waitlist.size() == 0) {
+            return;
+        }
+        long from = cancelled.getCheckIn().toEpochDay();
+        long to = cancelled.getCheckOut().toEpochDay();
+        List<String> freed = new ArrayList<>();
+        for (Room room : cancelled.getRoomList().getRooms()) {
+            if (!freed.contains(room.getRoomType())) {
+                freed.add(room.getRoomType());
+            }
+        }
+        allocator.execute(() -> {
+            long begin = System.nanoTime();
+            try {
+                for (String roomType : freed) {
+                    Set<WaitlistEntry> offered = new HashSet<>();
+                    for (WaitlistEntry entry : waitlist.candidates(roomType, from, to, WAITLIST_PER_NIGHT)) {
+                        offered.add(entry);
+                        if (isFree(entry.getRequest())) {
+                            offer(entry);
+                        }
+                    }
+                    // the first entries may wait for other nights still full, so a night left free is
+                    // offered to the rest of its queue
+                    for (long night = from; night < to; night++) {
+                        allocateNight(roomType, night, offered);
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Can not book the waitlist: " + e.getMessage());
+            } finally {
+                Metrics.record(Metrics.Operation.WAITLIST_ALLOCATE, begin);
+            }
+        });
+    }
+
+    /**Offer a night of a room type to its queue on the waitlist, a page at a time, until no room of the
+     * type is left that night, the queue ends or WAITLIST_PAGES pages have been read. Entries waiting for
+     * other nights still full are skipped without trying to book them
+     * 
+     * @param roomType the room type
+     * @param night the epoch day of the night
+     * @param offered the entries offered the rooms already, skipped and added to
+     */
+    private void allocateNight(String roomType, long night, Set<WaitlistEntry> offered) {
+        LocalDate checkIn = LocalDate.ofEpochDay(night);
+        LocalDate checkOut = checkIn.plusDays(1);
+        WaitlistEntry after = null;
+        for (int pages = 0; pages < WAITLIST_PAGES; pages++) {
+            List<WaitlistEntry> page = waitlist.queue(roomType, night, after, WAITLIST_PER_NIGHT);
+            for (WaitlistEntry entry : page) {
+                if (!isFree(roomType, checkIn, checkOut)) {
+                    return;
+                }
+                if (offered.add(entry) && isFree(entry.getRequest())) {
+                    offer(entry);
+                }
+            }
+            if (page.size() < WAITLIST_PER_NIGHT) {
+                return;
+            }
+            after = page.get(page.size() - 1);
+        }
+    }
+
+    /**Check that every room of a booking on the waitlist is free for its whole stay, without booking it
+     * 
+     * @param request the booking
+     * @return boolean true if it would fit now
+     */
+    private boolean isFree(BookingRequest request) {
+        List<Room> rooms = request.getRoomList().getRooms();
+        stateLock.readLock().lock();
+        try {
+            int[] held = lockRoomTypes(rooms);
+            try {
+                return fits(rooms, request.getCheckIn(), request.getCheckOut());
+            } finally {
+                unlock(held);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    /**Book an entry of the waitlist if its rooms are free. The entry is claimed first, so it is booked
+     * once even when it is offered rooms by two passes, and only leaves the waitlist once it is booked;
+     * a pass finding it claimed makes the claimer try again. The tries share one reference number
+     * 
+     * @param entry the entry
+     * @return boolean true if it was booked
+     * @throws IllegalArgumentException if the stay is no longer valid, see isValidStay; the entry keeps waiting
+     * @throws UncheckedIOException if the booking can not be made durable; the entry keeps waiting
+     */
+    private boolean allocate(WaitlistEntry entry) {
+        if (!entry.claim()) {
+            return false;
+        }
+        BookingRequest request = entry.getRequest();
+        RoomList roomList = request.getRoomList();
+        int refNo = nextRefNo();
+        boolean claimed = true;
+        try {
+            while (true) {
+                Reservation reservation = makeReservation(refNo, request.getName(), request.getResType(),
+                        request.getCheckIn(), request.getCheckOut(), roomList.getRooms().size(), roomList,
+                        calcTotalCost(roomList, request.getCheckIn(), request.getCheckOut(), request.getResType()));
+                if (reservation != null) {
+                    waitlist.remove(entry);
+                    entry.booked(reservation);
+                    claimed = false;
+                    return true;
+                }
+                if (entry.release()) {
+                    claimed = false;
+                    return false;
+                }
+            }
+        } finally {
+            if (claimed) {
+                // the entry keeps waiting, even if it was offered rooms meanwhile
+                while (!entry.release()) {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+
+    /**Offer freed rooms to an entry of the waitlist within a pass, which goes on past an entry whose stay
+     * can no longer be booked
+     * 
+     * @param entry the entry
+     */
+    private void offer(WaitlistEntry entry) {
+        try {
+            allocate(entry);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Can not book " + entry + ": " + e.getMessage());
+        }
+    }
+
+    /**Work out the refund of a reservation cancelled today. Advance purchases are never refunded and
+     * standard reservations only until 48 hours before the check-in date
+     * 
+     * @param reservation the reservation to be cancelled
+     * @return double the amount to refund
+     */
+    public double refundFor(Reservation reservation) {
+        if (reservation.getResType().equals("AP")) {
+            return 0;
+        }
+        LocalDate cancelLimit = reservation.getCheckIn().minusDays(2);
+        if (LocalDate.now().isAfter(cancelLimit)) {
+            return 0;
+        }
+        return reservation.getTotalCost();
+    }
+
+    /**Cancel a reservation in the book, keeping the record of the cancellation, take it out of the
+     * indexes and journal the cancellation, holding the locks of its room types
+     * 
+     * @param reservation the reservation to cancel
+     * @param refund the amount refunded
+     * @param cancelledOn the day of the cancellation, null to roll back a booking which never became durable,
+     * of which no cancellation is kept and which is journaled as a rollback
+     * @return long the journal position of the cancel or rollback record, 0 without journal, -1 if it was not
+     * booked
+     * @throws UncheckedIOException if the cancel record can not be journaled, in which case the reservation
+     * is booked again
+     */
+    private long detach(Reservation reservation, double refund, LocalDate cancelledOn) {
+        stateLock.readLock().lock();
+        try {
+            int[] held = lockRoomTypes(reservation.getRoomList().getRooms());
+            try {
+                Reservation removed;
+                synchronized (bookLock) {
+                    removed = cancelledOn == null ? resBook.remove(reservation)
+                            : resBook.cancel(reservation, refund, cancelledOn);
+                }
+                if (removed == null) {
+                    return -1;
+                }
+                // as booked, a columnar store hands out copies
+                index(removed, -1);
+                ReservationJournal opened = journal;
+                if (opened == null) {
+                    return 0;
+                }
+                try {
+                    return cancelledOn == null ? opened.appendRollback(reservation.getRefNo())
+                            : opened.appendCancel(reservation.getRefNo(), refund, cancelledOn);
+                } catch (IOException e) {
+                    if (cancelledOn == null) {
+                        // the journal has failed, so nothing written after the record of the booking is durable
+                        System.err.println("Can not write the reservation journal");
+                        return 0;
+                    }
+                    // not journaled, so the cancellation is undone while the rooms are still locked
+                    synchronized (bookLock) {
+                        resBook.findCancelled(removed.getRefNo()).ifPresent(c -> resBook.forget(List.of(c)));
+                        resBook.add(removed);
+                    }
+                    index(removed, 1);
+                    throw new UncheckedIOException("Can not write the reservation journal", e);
+                }
+            } finally {
+                unlock(held);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    /**Make a change durable: force the journal up to its record, or rewrite reservation.csv when no
+     * journal is open. Concurrent callers share the force of the journal, and a journal grown past the
+     * compaction threshold is compacted on the compactor thread, so no booking waits for the snapshot
+     * 
+     * @param position the journal position of the record
+     * @throws IOException if the journal can not be forced, after which it has failed
+     */
+    private void persist(long position) throws IOException {
+        ReservationJournal opened = journal;
+        if (opened == null) {
+            updateReservationCSV();
+            return;
+        }
+        opened.commit(position);
+        compactJournalInBackgroundIfDue();
+    }
+
+    private List<Reservation> snapshot() {
+        synchronized (bookLock) {
+            return resBook.toList();
+        }
+    }
+
+    /**Shows all reservations, read a page at a time rather than copied as a whole
+     * 
+     * @author SeanFitzgerald*/
     public void showAllReservation() {
-        for (Reservation res : resList) {
-            System.out.println(res.toString());
+        streamReservations(ReservationQuery.all()).forEach(System.out::println);
+    }
+
+    /**Get a page of the reservations selected by a query, in the order of their refNo. A query by a name
+     * few guests have is answered from an index of the names, without walking every reservation
+     * 
+     * @param query the query
+     * @param cursor ReservationPage.FIRST for the first page, else the next cursor of the page before
+     * @param limit the most reservations on the page
+     * @return ReservationPage the reservations with the cursor of the next page
+     */
+    public ReservationPage queryReservations(ReservationQuery query, int cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("A page holds at least one reservation");
         }
+        long begin = System.nanoTime();
+        try {
+            List<Reservation> found;
+            synchronized (bookLock) {
+                // one more than the page tells whether there is a next page
+                found = resBook.query(query, cursor, limit + 1);
+            }
+            if (found.size() <= limit) {
+                return new ReservationPage(found, ReservationPage.END);
+            }
+            List<Reservation> page = found.subList(0, limit);
+            return new ReservationPage(page, page.get(limit - 1).getRefNo());
+        } finally {
+            Metrics.record(Metrics.Operation.QUERY, begin);
+        }
+    }
+
+    /**Stream the reservations selected by a query, in the order of their refNo. The stream is lazy: it
+     * reads the reservations a page at a time as they are consumed and holds no lock in between, so it
+     * sees reservations booked or cancelled while it runs as a paged listing would
+     * 
+     * @param query the query
+     * @return Stream<Reservation> the reservations
+     */
+    public Stream<Reservation> streamReservations(ReservationQuery query) {
+        Iterator<Reservation> pages = new Iterator<>() {
+            private ReservationPage page;
+            private Iterator<Reservation> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (page != null && !page.hasNext()) {
+                        return false;
+                    }
+                    page = queryReservations(query, page == null ? ReservationPage.FIRST : page.getNextCursor(),
+                            STREAM_PAGE);
+                    current = page.getReservations().iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public Reservation next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
     }
 
     /**Check if csv files are writable to
      * 
      * @author SeanFitzgerald*/
     public void initCSV() {
-        CSVEncoder csvEncoder1 = new CSVEncoder(pathReservation);
-        try {
-            csvEncoder1.csvInit();
-        } catch (IOException e) {
-            System.err.println("Can not write file reservation.csv");
+        // with a journal open reservation.csv holds the snapshot and must be kept
+        if (journal == null) {
+            CSVEncoder csvEncoder1 = new CSVEncoder(pathReservation);
+            try {
+                csvEncoder1.csvInit();
+            } catch (IOException e) {
+                System.err.println("Can not write file reservation.csv");
+            }
         }
-        CSVEncoder csvEncoder2 = new CSVEncoder(pathBilling);
-        try {
-            csvEncoder2.csvInit();
-        } catch (IOException e) {
-            System.err.println("Can not write file billing.csv");
+    }
+
+    /**Use a binary snapshot of the catalogue and the reservations instead of reservation.csv: the
+     * reservations are restored from it and compacted into it. Set it before the journal is opened
+     * 
+     * @param pathSnapshot path of the snapshot file
+     */
+    public void setSnapshotPath(String pathSnapshot) {
+        this.pathSnapshot = pathSnapshot;
+    }
+
+    /**Decode the hotels from the binary snapshot, or from the hotel csv file when there is no snapshot
+     * or the hotel file has been changed since the snapshot was written
+     * 
+     * @return HotelList list of the 3 difference hotels with their rooms
+     */
+    public HotelList decodeHotels() {
+        File snapshotFile = pathSnapshot == null ? null : new File(pathSnapshot);
+        if (snapshotFile != null && snapshotFile.isFile()
+                && snapshotFile.lastModified() >= new File(pathHotel).lastModified()) {
+            try {
+                RoomTypeRegistry catalogue = BinarySnapshot.read(snapshotFile.toPath(), false).roomTypes();
+                if (catalogue.size() > 0) {
+                    return adopt(catalogue);
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage() + ", decoding " + pathHotel + " instead");
+            }
         }
+        return decodeHotelCSV();
     }
 
     /**Decode the hotel csv file and return a HotelList
@@ -214,61 +1616,470 @@ public class ReservationSystem {
      * @author SeanFitzgerald*/
     public HotelList decodeHotelCSV() {
         CSVEncoder csvEncoder = new CSVEncoder(pathHotel);
+        // the whole file is read before any room type changes, so a broken row leaves the old ones in use
+        RoomTypeRegistry catalogue = new RoomTypeRegistry();
         try {
-            String[][] list = csvEncoder.csvRead();
-            Hotel hotel3Star = new Hotel();
-            Hotel hotel4Star = new Hotel();
-            Hotel hotel5Star = new Hotel();
-
-            for (int i = 2; i < list[0].length; i++) {
+            csvEncoder.csvStream(row -> {
+                // the first two rows are headers, rows without a room type are blank
+                if (row.number() < 2 || row.isEmpty(1)) {
+                    return true;
+                }
                 int[] rates = new int[7];
                 for (int j = 0; j < 7; j++) {
-                    rates[j] = Integer.parseInt(list[i][5 + j]);
+                    rates[j] = row.intField(5 + j);
                 }
-                HotelRoom hotelRoom = new HotelRoom(list[i][1], Integer.parseInt(list[i][2]),
-                    Integer.parseInt(list[i][4]), rates);
-                if (list[i][1].contains("Deluxe")) {
-                    hotel5Star.getListOfRooms().add(hotelRoom);
-                } else if (list[i][1].contains("Executive")) {
-                    hotel4Star.getListOfRooms().add(hotelRoom);
-                } else {
-                    hotel3Star.getListOfRooms().add(hotelRoom);
-                }
-            }
-            return new HotelList(hotel3Star, hotel4Star, hotel5Star);
-        } catch (IOException e) {
+                catalogue.register(row.string(1), row.intField(2), row.intField(4), rates);
+                return true;
+            });
+        } catch (IOException | RuntimeException e) {
             e.printStackTrace();
             System.err.println("Can not read file hotel.csv");
+            return null;
+        }
+        return adopt(catalogue);
+    }
+
+    /**Register the room types of a catalogue read in full in a new registry, with their hotels, and price
+     * with their rates from now on. A room type left out of the catalogue is no longer known, and the ids
+     * of the others may change, so the cached quotes are dropped and the indexes rebuilt before the
+     * bookings waiting meanwhile go on
+     * 
+     * @param catalogue the room types read from the hotel file or the snapshot
+     * @return HotelList the 3 hotels with their rooms
+     */
+    private HotelList adopt(RoomTypeRegistry catalogue) {
+        stateLock.writeLock().lock();
+        try {
+            RoomTypeRegistry registry = new RoomTypeRegistry();
+            Hotel[] hotels = {new Hotel(), new Hotel(), new Hotel()};
+            for (int id = 0; id < catalogue.size(); id++) {
+                addHotelRoom(registry, hotels, catalogue.name(id), catalogue.numberOfRooms(id),
+                        catalogue.maxOccupancy(id), catalogue.rates(id));
+            }
+            Runnable swap = () -> {
+                roomTypes = registry;
+                pricing = new PricingEngine(registry);
+                analytics.setRoomTypes(registry);
+            };
+            QuoteCache cache = quoteCache;
+            if (cache != null) {
+                cache.invalidate(swap);
+            } else {
+                swap.run();
+            }
+            rebuildIndexes();
+            return new HotelList(hotels[0], hotels[1], hotels[2]);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**Add a room type to its hotel and register it
+     * 
+     * @param registry the registry being built
+     * @param hotels the 3-star, 4-star and 5-star hotel
+     * @param roomType the room type
+     * @param numberOfRooms number of rooms of the type
+     * @param maxOccupancy most guests per room
+     * @param rates rates from Monday to Sunday
+     */
+    private static void addHotelRoom(RoomTypeRegistry registry, Hotel[] hotels, String roomType, int numberOfRooms,
+                                     int maxOccupancy, int[] rates) {
+        HotelRoom hotelRoom = new HotelRoom(roomType, numberOfRooms, maxOccupancy, rates);
+        registry.register(roomType, numberOfRooms, maxOccupancy, rates);
+        if (roomType.contains("Deluxe")) {
+            hotels[2].getListOfRooms().add(hotelRoom);
+        } else if (roomType.contains("Executive")) {
+            hotels[1].getListOfRooms().add(hotelRoom);
+        } else {
+            hotels[0].getListOfRooms().add(hotelRoom);
         }
-        return null;
     }
 
     /**Updates the reservation csv file
      * 
      *@author SeanFitzgerald*/
-    public void updateReservationCSV() {
+    public synchronized void updateReservationCSV() {
+        if (!stored) {
+            return;
+        }
         CSVEncoder csvEncoder = new CSVEncoder(pathReservation);
         try {
-            csvEncoder.csvWrite(resList);
+            csvEncoder.csvWrite(snapshot());
         } catch (IOException e) {
             System.err.println("Can not write file reservation.csv");
         }
     }
 
-    /**Updates the billing csv file
+    /**Switch to journaled persistence: load the binary snapshot, or the snapshot in reservation.csv
+     * until a binary snapshot has been written, replay the journal on top of it and from then on append
+     * every booking and cancellation to the journal
+     * 
+     * @param pathJournal path of the journal file
+     * @return boolean true if the reservations could be restored
+     */
+    public boolean openJournal(String pathJournal) {
+        ReservationBook book;
+        String source = pathSnapshot != null && new File(pathSnapshot).isFile() ? pathSnapshot : pathReservation;
+        try {
+            if (source.equals(pathSnapshot)) {
+                book = new ReservationBook(columnar, BinarySnapshot.read(Path.of(pathSnapshot)).reservations());
+            } else {
+                ReservationBook loaded = new ReservationBook(columnar);
+                if (new File(pathReservation).length() > 0) {
+                    new CSVEncoder(pathReservation).csvStream(row -> {
+                        // the first row is the header written by csvInit
+                        if (row.number() > 0) {
+                            loaded.add(CSVEncoder.parseReservation(row));
+                        }
+                        return true;
+                    });
+                }
+                book = loaded;
+            }
+            ReservationJournal opened = new ReservationJournal(pathJournal);
+            try {
+                opened.replay(book);
+            } catch (IOException | IllegalArgumentException e) {
+                opened.close();
+                throw e;
+            }
+            if (writeBehind > 0) {
+                opened.startWriteBehind(writeBehind);
+                // queued records are written and the journal compacted when the JVM exits
+                flushOnExit = new Thread(this::closeJournal, "reservation-journal-flush");
+                Runtime.getRuntime().addShutdownHook(flushOnExit);
+            }
+            journal = opened;
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            System.err.println("Can not restore reservations from " + source + " and " + pathJournal);
+            return false;
+        }
+        synchronized (bookLock) {
+            resBook = book;
+        }
+        rebuildIndexes();
+        // numbers of reservations cancelled and reclaimed since are not handed out again
+        nextRefNo.set(Math.max(getLastRefNo() + 1, journal.nextRefNo()));
+        return true;
+    }
+
+    /**Queue journal records for a writer thread, which writes and forces every record queued meanwhile
+     * at once, instead of writing them in the thread booking. Bookings then wait for the disk only when
+     * they ask for durability, and wait for the writer when the queue is full. Set it before the journal
+     * is opened
+     * 
+     * @param capacity the most records queued, 0 to write them in the thread booking
+     */
+    public void setWriteBehind(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The write-behind queue can not hold less than 0 records");
+        }
+        this.writeBehind = capacity;
+    }
+
+    /**Get the number of journal records waiting for the writer thread
+     * 
+     * @return int the length of the queue, 0 without write-behind journal
+     */
+    public int getJournalQueueLength() {
+        ReservationJournal opened = journal;
+        return opened == null ? 0 : opened.queued();
+    }
+
+    /**Get the number of bookings and cancellations which waited for the journal writer because its
+     * queue was full
+     * 
+     * @return long the number of stalls
+     */
+    public long getJournalStalls() {
+        ReservationJournal opened = journal;
+        return opened == null ? 0 : opened.stalls();
+    }
+
+    /**Set how many journal records are written before the journal is compacted into a snapshot, in the
+     * background
+     * 
+     * @param records number of records between compactions
+     */
+    public void setCompactionThreshold(int records) {
+        this.compactionThreshold = records;
+    }
+
+    /**Set the share of empty slots in the reservation store above which the slots of cancelled
+     * reservations are reclaimed in the background
+     * 
+     * @param fraction the share from 0 to 1
+     */
+    public void setReclaimThreshold(double fraction) {
+        if (fraction <= 0 || fraction >= 1) {
+            throw new IllegalArgumentException("The reclaim threshold is a fraction between 0 and 1");
+        }
+        this.reclaimThreshold = fraction;
+    }
+
+    /**Get every cancellation, those already moved into the cancellation log and those still held with
+     * the reservations, so refunds can be audited
+     * 
+     * @return List<CancelledReservation> the cancellations by refNo, the last one of a refNo cancelled twice
+     * @throws IOException if the cancellation log can not be read
+     */
+    public List<CancelledReservation> getCancellations() throws IOException {
+        Map<Integer, CancelledReservation> byRefNo = new HashMap<>();
+        for (CancelledReservation cancellation : cancellationLog.read()) {
+            byRefNo.put(cancellation.getRefNo(), cancellation);
+        }
+        synchronized (bookLock) {
+            for (CancelledReservation cancellation : resBook.cancellations()) {
+                byRefNo.put(cancellation.getRefNo(), cancellation);
+            }
+        }
+        List<CancelledReservation> cancellations = new ArrayList<>(byRefNo.values());
+        cancellations.sort(Comparator.comparingInt(CancelledReservation::getRefNo));
+        return cancellations;
+    }
+
+    /**Move the cancellations into the cancellation log and close the gaps their reservations left in the
+     * store. Bookings and cancellations go on meanwhile, except while the store is compacted
+     * 
+     * @return boolean true if the cancellations are in the log
+     */
+    public boolean reclaimCancellations() {
+        long begin = System.nanoTime();
+        stateLock.readLock().lock();
+        try {
+            return reclaim();
+        } finally {
+            stateLock.readLock().unlock();
+            Metrics.record(Metrics.Operation.RECLAIM, begin);
+        }
+    }
+
+    /**Move the cancellations into the cancellation log and compact the store. The caller holds the state
+     * lock, which keeps a snapshot from being written while the store is compacted
+     * 
+     * @return boolean true if the cancellations are in the log
+     */
+    private boolean reclaim() {
+        List<CancelledReservation> cancellations;
+        synchronized (bookLock) {
+            cancellations = resBook.cancellations();
+        }
+        boolean logged = true;
+        if (!cancellations.isEmpty()) {
+            try {
+                // written outside the book lock, cancellations made meanwhile wait for the next time
+                cancellationLog.append(cancellations);
+            } catch (IOException e) {
+                System.err.println("Can not write the cancellation log, the cancellations are kept in memory");
+                logged = false;
+            }
+        }
+        synchronized (bookLock) {
+            if (logged) {
+                resBook.forget(cancellations);
+            }
+            resBook.compact();
+        }
+        return logged;
+    }
+
+    /**Reclaim the cancelled reservations on the compactor thread once the share of empty slots in the
+     * store reaches the threshold, unless a reclaim is already on its way
+     */
+    private void reclaimIfDue() {
+        double empty;
+        synchronized (bookLock) {
+            empty = resBook.emptyFraction();
+        }
+        if (empty >= reclaimThreshold && reclaimPending.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    reclaimCancellations();
+                } finally {
+                    reclaimPending.set(false);
+                }
+            });
+        }
+    }
+
+    /**Write all reservations as a new snapshot, in the binary snapshot if one is set and otherwise in
+     * reservation.csv, and empty the journal. The snapshot is written to a temporary file, forced to disk
+     * and moved over the old one before the journal is emptied, so a crash at any point leaves a snapshot
+     * and journal which together hold every booking. Bookings wait while the snapshot is written
+     */
+    public void compactJournal() {
+        stateLock.writeLock().lock();
+        try {
+            if (journal == null) {
+                return;
+            }
+            // the snapshot holds booked reservations only, so cancellations have to be in their log before
+            // the journal holding them is emptied
+            if (!reclaim()) {
+                return;
+            }
+            // the writer never takes the state lock, so the records still queued reach the journal
+            // before it is emptied
+            journal.flush();
+            if (pathSnapshot != null) {
+                ReservationColumns columns;
+                synchronized (bookLock) {
+                    columns = resBook.columns();
+                }
+                if (columns == null) {
+                    columns = new ReservationColumns();
+                    for (Reservation res : snapshot()) {
+                        columns.append(res);
+                    }
+                }
+                // bookings wait for the write lock, so the columns do not change while they are written
+                new BinarySnapshot(roomTypes, columns).write(Path.of(pathSnapshot));
+            } else {
+                Path snapshot = Path.of(pathReservation);
+                Path tmp = Path.of(pathReservation + ".tmp");
+                new CSVEncoder(tmp.toString()).csvWrite(snapshot());
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+                Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            journal.reset(nextRefNo.get());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Can not compact the reservation journal into "
+                    + (pathSnapshot != null ? pathSnapshot : pathReservation));
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**Keep the reservations in memory only from now on: compact and close the journal and write neither
+     * journal records nor reservation.csv for later bookings and cancellations, so a benchmark measures
+     * the bookings rather than the disk
+     */
+    public void detachStorage() {
+        closeJournal();
+        stored = false;
+    }
+
+    /**Compact the journal into a snapshot and close it. The state lock is held exclusively meanwhile, so
+     * a compaction running on the compactor thread finishes first or finds the journal closed
+     */
+    public synchronized void closeJournal() {
+        stateLock.writeLock().lock();
+        try {
+            if (journal == null) {
+                return;
+            }
+            compactJournal();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Can not close the reservation journal");
+            }
+            journal = null;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        if (flushOnExit != null && Thread.currentThread() != flushOnExit) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(flushOnExit);
+            } catch (IllegalStateException e) {
+                // the JVM is exiting and the hook runs anyway, finding the journal closed
+            }
+        }
+        flushOnExit = null;
+    }
+
+    private void compactJournalIfDue() {
+        ReservationJournal opened = journal;
+        if (opened != null && opened.records() >= compactionThreshold) {
+            compactJournal();
+        }
+    }
+
+    /**Compact the journal on the compactor thread once it holds enough records, unless a compaction is
+     * already on its way, for callers which must not wait for it
+     */
+    private void compactJournalInBackgroundIfDue() {
+        ReservationJournal opened = journal;
+        if (opened != null && opened.records() >= compactionThreshold
+                && compactionPending.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compactJournalIfDue();
+                } finally {
+                    compactionPending.set(false);
+                }
+            });
+        }
+    }
+
+    /**Get the highest reference number in use
+     * 
+     * @return int the highest reference number, -1 if there are no reservations
+     */
+    public int getLastRefNo() {
+        int last = -1;
+        for (Reservation res : snapshot()) {
+            last = Math.max(last, res.getRefNo());
+        }
+        return last;
+    }
+
+    /**Appends the reservations charged since the last update to the billing csv file, or to its month
+     * files. Only the reservations which checked out since the watermark of the last update are
+     * selected, without copying the other reservations
      * 
+     * @return int the number of charged reservations written
      *@author SeanFitzgerald*/
-    public void updateBillingCSV() {
-        List<Reservation> billList = new ArrayList<>();
-        resList
-                .stream()
-                .filter(r -> r.getCheckOut().isBefore(LocalDate.now()))
-                .forEach(billList::add);
-        CSVEncoder csvEncoder = new CSVEncoder(pathBilling);
-        try {
-            csvEncoder.csvWrite(billList);
-        } catch (IOException e) {
-            System.err.println("Can not write file reservation.csv");
+    public int updateBillingCSV() {
+        long begin = System.nanoTime();
+        try {
+            synchronized (billingLock) {
+                try {
+                    if (billingExporter == null) {
+                        billingExporter = new BillingExporter(Path.of(pathBilling), billingPartitions);
+                    }
+                    BillingExporter exporter = billingExporter;
+                    long until = LocalDate.now().toEpochDay();
+                    List<Reservation> charged = new ArrayList<>();
+                    int[] lastRefNo = {exporter.lastRefNo()};
+                    synchronized (bookLock) {
+                        resBook.forEachMatching((refNo, checkIn, checkOut) -> {
+                            lastRefNo[0] = Math.max(lastRefNo[0], refNo);
+                            return exporter.isCharged(refNo, checkOut, until);
+                        }, charged::add);
+                    }
+                    return exporter.export(charged, until, lastRefNo[0]);
+                } catch (IOException e) {
+                    System.err.println("Can not write file billing.csv");
+                    return 0;
+                }
+            }
+        } finally {
+            Metrics.record(Metrics.Operation.BILLING_EXPORT, begin);
+        }
+    }
+
+    /**Update the billing csv file on the compactor thread, so the caller does not wait for the disk
+     * 
+     * @return CompletableFuture<Integer> the number of charged reservations written, once they are
+     */
+    public CompletableFuture<Integer> updateBillingCSVAsync() {
+        return CompletableFuture.supplyAsync(this::updateBillingCSV, compactor);
+    }
+
+    /**Choose whether updates of the billing csv file are rolled into a file per month of check out,
+     * billing-2024-05.csv next to billing.csv, instead of all going into billing.csv
+     * 
+     * @param monthly true to write a file per month
+     */
+    public void setBillingPartitions(boolean monthly) {
+        synchronized (billingLock) {
+            this.billingPartitions = monthly;
+            this.billingExporter = null;
         }
     }
 
@@ -279,18 +2090,12 @@ public class ReservationSystem {
      * @return int[] figure statistics for that period
      * @author SeanFitzgerald*/
     public int[] analyseOccupancyFigures(LocalDate start, LocalDate end) {
-        int[] figures = new int[4];
-        for (Reservation r : resList) {
-            if ((r.getCheckIn().isAfter(start) || r.getCheckIn().isEqual(start)) &&
-                (r.getCheckOut().isBefore(end) || r.getCheckOut().isEqual(end))) {
-                int[] occ = r.getTotalOccupancy();
-                figures[0] += occ[0];
-                figures[1] += occ[1];
-                figures[2] += occ[2];
-            }
+        long begin = System.nanoTime();
+        try {
+            return analysePeriod(start, end).occupancyFigures();
+        } finally {
+            Metrics.record(Metrics.Operation.ANALYSE_FIGURES, begin);
         }
-        figures[3] = figures[0] + figures[1] + figures[2];
-        return figures;
     }
 
     /**Analyzes occupancy rates
@@ -300,32 +2105,12 @@ public class ReservationSystem {
      * @return double[] percentage statistics for that period
      * @author SeanFitzgerald*/
     public double[] analyseOccupancyRates(LocalDate start, LocalDate end) {
-        int[] currentOcc = analyseOccupancyFigures(start, end);
-        int[] maxOcc = new int[4];
-        for (Reservation r : resList) {
-            if ((r.getCheckIn().isAfter(start) || r.getCheckIn().isEqual(start)) &&
-                    (r.getCheckOut().isBefore(end) || r.getCheckOut().isEqual(end))) {
-                int[] occ = r.getMaximalOccupancy();
-                maxOcc[0] += occ[0];
-                maxOcc[1] += occ[1];
-                maxOcc[2] += occ[2];
-            }
-        }
-        double[] rates = new double[4];
-        for (int i = 0; i < 3; i++) {
-            if (maxOcc[i] == 0) {
-                rates[i] = 0;
-            } else {
-                rates[i] = (double) currentOcc[i] / maxOcc[i] * 100;
-            }
-        }
-        int sum = maxOcc[0] + maxOcc[1] + maxOcc[2];
-        if (sum == 0) {
-            rates[3] = 0;
-        } else {
-            rates[3] = (double) currentOcc[3] / sum * 100;
+        long begin = System.nanoTime();
+        try {
+            return analysePeriod(start, end).occupancyRates();
+        } finally {
+            Metrics.record(Metrics.Operation.ANALYSE_RATES, begin);
         }
-        return rates;
     }
 
     /**Analyzes hotels earnings of a certain period
@@ -335,25 +2120,370 @@ public class ReservationSystem {
      * @return double[] with earnings for each hotel type, and total
      * @author SeanFitzgerald*/
     public double[] analyseBilling(LocalDate start, LocalDate end) {
-        double[] income = new double[4];
-        for (Reservation r : resList) {
-            if ((r.getCheckIn().isAfter(start) || r.getCheckIn().isEqual(start)) &&
-                    (r.getCheckOut().isBefore(end) || r.getCheckOut().isEqual(end))) {
-                RoomList rl = r.getRoomList();
-                for (Room room : rl.getRooms()) {
-                    String roomType = room.getRoomType();
-                    double cost = calcTotalCost(roomType, r.getCheckIn(), r.getCheckOut(), r.getResType());
-                    if (roomType.contains("Classic")) {
-                        income[0] += cost;
-                    } else if (roomType.contains("Executive")) {
-                        income[1] += cost;
-                    } else {
-                        income[2] += cost;
+        long begin = System.nanoTime();
+        try {
+            return analysePeriod(start, end).billing();
+        } finally {
+            Metrics.record(Metrics.Operation.ANALYSE_BILLING, begin);
+        }
+    }
+
+    /**Analyzes the occupancy figures, occupancy rates and earnings of the stays within a period together,
+     * in one pass over the reservations which runs in parallel when parallel analytics are on
+     * 
+     * @param start start date
+     * @param end end date
+     * @return ParallelAnalytics.Figures the figures of that period, with the earnings in cents
+     */
+    public ParallelAnalytics.Figures analysePeriod(LocalDate start, LocalDate end) {
+        long begin = System.nanoTime();
+        try {
+            ParallelAnalytics analyser = parallelAnalytics;
+            synchronized (bookLock) {
+                ReservationColumns columns = resBook.columns();
+                if (columns != null) {
+                    // bookings wait for the book while the rows are scanned
+                    PricingEngine engine = pricing;
+                    RoomTypeRegistry registry = engine.roomTypes();
+                    int[] maxOccOfType = new int[columns.typeCount()];
+                    for (int id = 0; id < maxOccOfType.length; id++) {
+                        String roomType = columns.typeName(id);
+                        int typeId = registry.id(roomType);
+                        maxOccOfType[id] = typeId < 0 ? 0 : registry.maxOccupancy(typeId);
                     }
+                    ParallelAnalytics.TypeTable types = new ParallelAnalytics.TypeTable(columns, registry, engine,
+                            maxOccOfType, (id, checkIn, nights) -> nightsTotal(columns.typeName(id), checkIn, nights));
+                    return analyser.analyse(ParallelAnalytics.of(columns, start, end, types));
+                }
+            }
+            return analyser.analyse(ParallelAnalytics.of(snapshot(), start, end, this::nightsTotal));
+        } finally {
+            Metrics.record(Metrics.Operation.ANALYSE_PERIOD, begin);
+        }
+    }
+
+    /**Choose whether the analyses scan the reservations in parallel on the common fork join pool or in
+     * the calling thread. Either way the results are the same
+     * 
+     * @param parallel true to scan in parallel
+     */
+    public void setParallelAnalytics(boolean parallel) {
+        parallelAnalytics = new ParallelAnalytics(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**Keep the prices of recent quotes, so a stay quoted again is not priced again. The pricing engine
+     * prices a stay in constant time, about as fast as a cache lookup, so the cache pays off once pricing
+     * does more than sum the weekly rates
+     * 
+     * @param capacity the most prices kept, 0 to price every quote
+     */
+    public void setQuoteCache(int capacity) {
+        quoteCache = capacity > 0 ? new QuoteCache(capacity) : null;
+    }
+
+    /**Price quotes with a pipeline of pricing stages. Any pipeline but the standard one is priced ahead
+     * into curves of nightly prices from yesterday on, which the bookings and cancellations of a room type
+     * price again for their nights, so a quote costs two prefix sums; the quote cache is not used then
+     * 
+     * @param pipeline the pipeline, PricingPipeline.standard() for the weekly rates and the AP discount
+     */
+    public void setPricing(PricingPipeline pipeline) {
+        stateLock.writeLock().lock();
+        try {
+            this.pipeline = pipeline;
+            buildPriceCurves();
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**Get the pipeline quotes are priced with
+     * 
+     * @return PricingPipeline the pipeline
+     */
+    public PricingPipeline getPricing() {
+        return pipeline;
+    }
+
+    /**Price the nights of the window of the price curves from the rooms taken, holding the state lock
+     * exclusively so no booking changes them meanwhile
+     */
+    private void buildPriceCurves() {
+        PricingPipeline current = pipeline;
+        if (current.isStandard()) {
+            priceCurves = null;
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        long first = today.toEpochDay() - 1;
+        priceCurves = new PriceCurves(current, roomTypes, first, id -> availabilityIndex.takenNights(
+                roomTypes.name(id), first, first + PriceCurves.WINDOW_NIGHTS));
+        priceCurvesDue = today.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**Price the curves again from the new yesterday on the compactor thread once the day has changed, so
+     * the window keeps covering the year ahead on a server which runs for years. Quotes meanwhile are
+     * still priced from the old curves, or night by night beyond their window
+     */
+    private void movePriceCurvesIfDue() {
+        if (System.currentTimeMillis() < priceCurvesDue || !priceCurvesPending.compareAndSet(false, true)) {
+            return;
+        }
+        compactor.execute(() -> {
+            stateLock.writeLock().lock();
+            try {
+                if (System.currentTimeMillis() >= priceCurvesDue) {
+                    buildPriceCurves();
+                }
+            } finally {
+                stateLock.writeLock().unlock();
+                priceCurvesPending.set(false);
+            }
+        });
+    }
+
+    /**Assign every reservation a physical room of each room it books for its whole stay, so no guest
+     * changes rooms during a stay, and report how the free nights of the rooms are split. Stays are
+     * given the free room they fit most tightly; a stay which finds no room free for all its nights
+     * makes the stays which have not started yet be assigned again in the background
+     * 
+     * @param enabled true to assign rooms, false to only count the rooms taken
+     */
+    public void setRoomAssignment(boolean enabled) {
+        stateLock.writeLock().lock();
+        try {
+            this.assignRooms = enabled;
+            buildRoomAssignments();
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**Get the physical rooms of a reservation
+     * 
+     * @param reservation the reservation
+     * @return int[] the number of the room of every room of the reservation, in the order of its room
+     * list, numbered from 0 within the room type, -1 for a room not assigned yet; null when rooms are not
+     * assigned
+     */
+    public int[] getRoomNumbers(Reservation reservation) {
+        RoomAssignmentEngine engine = roomAssignments;
+        if (engine == null) {
+            return null;
+        }
+        List<Room> rooms = reservation.getRoomList().getRooms();
+        int[] numbers = new int[rooms.size()];
+        Arrays.fill(numbers, -1);
+        int[] held = lockRoomTypes(rooms);
+        try {
+            Map<String, int[]> byType = new HashMap<>();
+            Map<String, Integer> used = new HashMap<>();
+            for (int i = 0; i < numbers.length; i++) {
+                String roomType = rooms.get(i).getRoomType();
+                int[] assigned = byType.computeIfAbsent(roomType,
+                        name -> engine.rooms(roomTypes.id(name), reservation.getRefNo()));
+                int next = used.merge(roomType, 1, Integer::sum) - 1;
+                if (next < assigned.length) {
+                    numbers[i] = assigned[next];
+                }
+            }
+        } finally {
+            unlock(held);
+        }
+        return numbers;
+    }
+
+    /**Assign the rooms of the stays which have not started yet again, room type by room type, each
+     * holding its room type lock, filling the gaps left by cancellations and giving a room to the stays
+     * which found none
+     * 
+     * @return int the number of stays which moved to another room
+     */
+    public int optimiseRoomAssignments() {
+        RoomAssignmentEngine engine = roomAssignments;
+        if (engine == null) {
+            return 0;
+        }
+        long today = LocalDate.now().toEpochDay();
+        int moved = 0;
+        stateLock.readLock().lock();
+        try {
+            for (int id = 0; id < engine.size(); id++) {
+                int[] held = lockStripes(new int[]{stripe(roomTypes.name(id))});
+                try {
+                    moved += engine.repack(id, today);
+                } finally {
+                    unlock(held);
+                }
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        return moved;
+    }
+
+    /**Report how the free nights of the rooms of every room type are split into gaps between stays,
+     * from today to the end of the horizon of the room assignment
+     * 
+     * @return List<RoomAssignmentEngine.Fragmentation> the figures of every room type, empty when rooms
+     * are not assigned
+     */
+    public List<RoomAssignmentEngine.Fragmentation> reportFragmentation() {
+        List<RoomAssignmentEngine.Fragmentation> report = new ArrayList<>();
+        RoomAssignmentEngine engine = roomAssignments;
+        if (engine == null) {
+            return report;
+        }
+        long today = LocalDate.now().toEpochDay();
+        stateLock.readLock().lock();
+        try {
+            for (int id = 0; id < engine.size(); id++) {
+                int[] held = lockStripes(new int[]{stripe(roomTypes.name(id))});
+                try {
+                    report.add(engine.fragmentation(id, today));
+                } finally {
+                    unlock(held);
                 }
             }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        return report;
+    }
+
+    /**Give every reservation its rooms again from scratch, in the order of their check in, holding the
+     * state lock exclusively
+     */
+    private void buildRoomAssignments() {
+        if (!assignRooms) {
+            roomAssignments = null;
+            return;
+        }
+        long today = LocalDate.now().toEpochDay();
+        RoomAssignmentEngine engine = new RoomAssignmentEngine(roomTypes, today);
+        List<Reservation> reservations = new ArrayList<>(snapshot());
+        reservations.sort(Comparator.comparing(Reservation::getCheckIn));
+        for (Reservation res : reservations) {
+            for (Room room : res.getRoomList().getRooms()) {
+                engine.assign(roomTypes.id(room.getRoomType()), res.getRefNo(), res.getCheckIn().toEpochDay(),
+                        res.getCheckOut().toEpochDay(), today);
+            }
+        }
+        roomAssignments = engine;
+    }
+
+    /**Give the rooms of a reservation physical rooms, or free them. The caller holds the locks of its
+     * room types
+     * 
+     * @param res the reservation
+     * @param sign 1 to assign its rooms, -1 to free them
+     */
+    private void assignRooms(Reservation res, int sign) {
+        RoomAssignmentEngine engine = roomAssignments;
+        if (engine == null) {
+            return;
+        }
+        long today = LocalDate.now().toEpochDay();
+        long checkIn = res.getCheckIn().toEpochDay();
+        long checkOut = res.getCheckOut().toEpochDay();
+        boolean placed = true;
+        for (Room room : res.getRoomList().getRooms()) {
+            int typeId = roomTypes.id(room.getRoomType());
+            if (sign > 0) {
+                placed &= engine.assign(typeId, res.getRefNo(), checkIn, checkOut, today);
+            } else {
+                engine.release(typeId, res.getRefNo(), checkIn, checkOut, today);
+            }
+        }
+        if (!placed && repackPending.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                // cleared first, so a stay which finds no room while this runs starts another pass
+                repackPending.set(false);
+                optimiseRoomAssignments();
+            });
+        }
+    }
+
+    /**Get the quote cache with its hit and miss figures
+     * 
+     * @return QuoteCache the cache, null when quotes are not cached
+     */
+    public QuoteCache getQuoteCache() {
+        return quoteCache;
+    }
+
+    /**Read the rates, room numbers and occupancies from the hotel csv file again, so prices change
+     * without a restart. The room types are swapped for those of the file, so a room type removed from it
+     * can no longer be booked; cached quotes are dropped and the indexes rebuilt. The reservations already
+     * booked keep the prices they were charged, which the analyses go on reporting
+     * 
+     * @return HotelList the hotels with the new rates, null if the hotel file can not be read, in which
+     * case the old rates stay in use
+     */
+    public HotelList reloadRates() {
+        return decodeHotelCSV();
+    }
+
+    /**Reports the guests whose stay overlaps a period, answered from the analytics cube
+     * 
+     * @param start start date
+     * @param end end date, exclusive
+     * @return int[] guests in the 3-star, 4-star and 5-star hotel and in total
+     */
+    public int[] reportOccupancyFigures(LocalDate start, LocalDate end) {
+        long begin = System.nanoTime();
+        try {
+            long[] guests = analytics.guests(start, end);
+            int[] figures = new int[4];
+            for (int i = 0; i < 4; i++) {
+                figures[i] = (int) guests[i];
+            }
+            return figures;
+        } finally {
+            Metrics.record(Metrics.Operation.REPORT_FIGURES, begin);
+        }
+    }
+
+    /**Reports the occupancy rates of a period: the guest nights as a percentage of the bed nights of
+     * every room in the hotel, answered from the analytics cube
+     * 
+     * @param start start date
+     * @param end end date, exclusive
+     * @return double[] occupancy rates of the 3-star, 4-star and 5-star hotel and in total
+     */
+    public double[] reportOccupancyRates(LocalDate start, LocalDate end) {
+        long begin = System.nanoTime();
+        try {
+            long[] guestNights = analytics.guestNights(start, end);
+            long[] capacity = analytics.capacityNights(start, end);
+            double[] rates = new double[4];
+            for (int i = 0; i < 4; i++) {
+                rates[i] = capacity[i] == 0 ? 0 : (double) guestNights[i] / capacity[i] * 100;
+            }
+            return rates;
+        } finally {
+            Metrics.record(Metrics.Operation.REPORT_RATES, begin);
+        }
+    }
+
+    /**Reports the income of the nights within a period, also for stays which only partly overlap it,
+     * answered from the analytics cube
+     * 
+     * @param start start date
+     * @param end end date, exclusive
+     * @return double[] income of the 3-star, 4-star and 5-star hotel and in total
+     */
+    public double[] reportBilling(LocalDate start, LocalDate end) {
+        long begin = System.nanoTime();
+        try {
+            long[] cents = analytics.revenueCents(start, end);
+            double[] income = new double[4];
+            for (int i = 0; i < 4; i++) {
+                income[i] = cents[i] / 100.0;
+            }
+            return income;
+        } finally {
+            Metrics.record(Metrics.Operation.REPORT_BILLING, begin);
         }
-        income[3] = income[0] + income[1] + income[2];
-        return income;
     }
 }
@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * {@code RoomAssignmentCheck} drives a {@link RoomAssignmentEngine} through years of days, booking random
+ * stays from today up to beyond the end of its horizon, cancelling some and repacking now and then, and
+ * checks after every day that no two stays which have a room share a night of it. It starts with the
+ * stay which reaches past the end of the horizon: once the horizon rolls on, its nights beyond the old end
+ * must be taken, so a later stay on those nights gets another room.
+ * <p>
+ * Usage: {@code java RoomAssignmentCheck [days] [rooms] [seed]}
+ */
+public class RoomAssignmentCheck {
+
+    private static final long TODAY = 20_000;
+
+    public static void main(String[] args) {
+        int days = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int rooms = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        SplittableRandom random = new SplittableRandom(args.length > 2 ? Long.parseLong(args[2]) : 1);
+
+        // one room, a stay placed across the end of the horizon and a stay on its nights once it rolled on
+        RoomTypeRegistry single = new RoomTypeRegistry();
+        single.register("Classic Double", 1, 2, new int[7]);
+        RoomAssignmentEngine engine = new RoomAssignmentEngine(single, TODAY);
+        if (!engine.assign(0, 1, TODAY + 700, TODAY + 800, TODAY)
+                || engine.assign(0, 2, TODAY + 780, TODAY + 790, TODAY + 128)) {
+            throw new IllegalStateException("A stay was given a room taken beyond the old end of the horizon");
+        }
+        engine.release(0, 2, TODAY + 780, TODAY + 790, TODAY + 128);
+        engine.release(0, 1, TODAY + 700, TODAY + 800, TODAY + 128);
+        if (!engine.assign(0, 3, TODAY + 750, TODAY + 850, TODAY + 128)) {
+            throw new IllegalStateException("The nights of a released stay are still taken");
+        }
+
+        RoomTypeRegistry registry = new RoomTypeRegistry();
+        registry.register("Classic Double", rooms, 2, new int[7]);
+        engine = new RoomAssignmentEngine(registry, TODAY);
+        List<long[]> booked = new ArrayList<>();
+        int refNo = 0;
+        long checks = 0;
+        for (long today = TODAY; today < TODAY + days; today++) {
+            for (int i = random.nextInt(3); i > 0; i--) {
+                long checkIn = today + random.nextInt(RoomAssignmentEngine.HORIZON_NIGHTS + 200);
+                long checkOut = checkIn + 1 + random.nextInt(random.nextInt(10) == 0 ? 150 : 14);
+                engine.assign(0, refNo, checkIn, checkOut, today);
+                booked.add(new long[]{refNo++, checkIn, checkOut});
+            }
+            if (!booked.isEmpty() && random.nextInt(3) == 0) {
+                long[] stay = booked.remove(random.nextInt(booked.size()));
+                engine.release(0, (int) stay[0], stay[1], stay[2], today);
+            }
+            if (random.nextInt(50) == 0) {
+                engine.repack(0, today);
+            }
+            long now = today;
+            booked.removeIf(stay -> stay[2] <= now);
+            checks += check(engine, booked, today);
+        }
+        System.out.printf("No room was given twice over %d days, %d stays with a room checked%n", days, checks);
+    }
+
+    /**
+     * {@code check} compare every two stays which have a room for a shared night in the same room
+     *
+     * @return the number of stays which have a room
+     */
+    private static long check(RoomAssignmentEngine engine, List<long[]> booked, long today) {
+        long placed = 0;
+        for (int i = 0; i < booked.size(); i++) {
+            long[] a = booked.get(i);
+            int roomA = room(engine, a);
+            if (roomA < 0) {
+                continue;
+            }
+            placed++;
+            for (int j = i + 1; j < booked.size(); j++) {
+                long[] b = booked.get(j);
+                if (b[1] >= a[2] || a[1] >= b[2] || room(engine, b) != roomA) {
+                    continue;
+                }
+                // the shared nights which are still to come
+                if (Math.min(a[2], b[2]) > today) {
+                    throw new IllegalStateException("Room " + roomA + " is given to stay " + a[0] + " from "
+                            + a[1] + " to " + a[2] + " and stay " + b[0] + " from " + b[1] + " to " + b[2]
+                            + " on day " + today);
+                }
+            }
+        }
+        return placed;
+    }
+
+    private static int room(RoomAssignmentEngine engine, long[] stay) {
+        int[] rooms = engine.rooms(0, (int) stay[0]);
+        return rooms.length == 0 ? -1 : rooms[0];
+    }
+}
@@ -0,0 +1,474 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code RoomAssignmentEngine} assigns the rooms a reservation books to physical rooms for its whole stay,
+ * so no guest changes rooms during a stay. Every room of a room type keeps a bit per night over a rolling
+ * horizon of {@value #HORIZON_NIGHTS} nights from today, set while the room is taken. The words of a room
+ * type are laid out night word by night word, so checking a stay against every room reads one contiguous
+ * run of longs per 64 nights of the stay.
+ * <p>
+ * A stay is given the free room which it fits most tightly: the one with the fewest free nights left
+ * directly before and after it, counting at most 64 nights on either side, and the first room where it
+ * fills a gap exactly is taken at once. A stay may find no room free for all its nights although a room
+ * of its type is free every night; it is then kept without a room until {@link #repack} gives every stay
+ * which has not started yet a room again, in the order of their check in, which always succeeds when no
+ * night has more stays than rooms.
+ * <p>
+ * The engine is not thread safe: the stays of a room type are assigned by the holder of the room type's
+ * lock in {@link ReservationSystem}, as the availability index is updated.
+ */
+public class RoomAssignmentEngine {
+
+    /** The nights covered by the bits of a room, a little over two years. */
+    public static final int HORIZON_NIGHTS = 12 * 64;
+
+    private static final int WORDS = HORIZON_NIGHTS / 64;
+    // free nights next to a stay counted by the best fit, on either side
+    private static final int GAP_CAP = 64;
+    // free gaps up to this long between two stays are hard to sell
+    private static final int ORPHAN_NIGHTS = 2;
+
+    private final TypeRooms[] types;
+
+    /**
+     * {@code RoomAssignmentEngine} an engine for every registered room type, with every room free
+     *
+     * @param roomTypes the room types with their number of rooms
+     * @param today     the epoch day of today, the first night of the horizon
+     */
+    public RoomAssignmentEngine(RoomTypeRegistry roomTypes, long today) {
+        types = new TypeRooms[roomTypes.size()];
+        for (int id = 0; id < types.length; id++) {
+            types[id] = new TypeRooms(roomTypes.name(id), roomTypes.numberOfRooms(id), today);
+        }
+    }
+
+    /**
+     * {@code assign} give one room of a reservation a room of its type
+     *
+     * @param typeId   the id of the room type
+     * @param refNo    the reference number of the reservation
+     * @param checkIn  the epoch day of the check in
+     * @param checkOut the epoch day of the check out
+     * @param today    the epoch day of today
+     * @return false if no room is free for the whole stay and it is kept without a room
+     */
+    public boolean assign(int typeId, int refNo, long checkIn, long checkOut, long today) {
+        if (typeId < 0 || typeId >= types.length) {
+            return true;
+        }
+        TypeRooms type = types[typeId];
+        type.roll(today);
+        Stay stay = new Stay(refNo, checkIn, checkOut);
+        type.stays.computeIfAbsent(refNo, k -> new ArrayList<>(1)).add(stay);
+        return type.place(stay);
+    }
+
+    /**
+     * {@code release} free the room of one room of a reservation
+     *
+     * @param typeId   the id of the room type
+     * @param refNo    the reference number of the reservation
+     * @param checkIn  the epoch day of the check in
+     * @param checkOut the epoch day of the check out
+     * @param today    the epoch day of today
+     */
+    public void release(int typeId, int refNo, long checkIn, long checkOut, long today) {
+        if (typeId < 0 || typeId >= types.length) {
+            return;
+        }
+        TypeRooms type = types[typeId];
+        type.roll(today);
+        List<Stay> stays = type.stays.get(refNo);
+        if (stays == null) {
+            return;
+        }
+        for (Iterator<Stay> it = stays.iterator(); it.hasNext(); ) {
+            Stay stay = it.next();
+            if (stay.checkIn == checkIn && stay.checkOut == checkOut) {
+                type.clear(stay);
+                it.remove();
+                break;
+            }
+        }
+        if (stays.isEmpty()) {
+            type.stays.remove(refNo);
+        }
+    }
+
+    /**
+     * {@code rooms} the rooms a reservation was given of a room type
+     *
+     * @param typeId the id of the room type
+     * @param refNo  the reference number of the reservation
+     * @return the numbers of the rooms from 0, -1 for a room not assigned yet, empty if it books none
+     */
+    public int[] rooms(int typeId, int refNo) {
+        if (typeId < 0 || typeId >= types.length) {
+            return new int[0];
+        }
+        List<Stay> stays = types[typeId].stays.get(refNo);
+        if (stays == null) {
+            return new int[0];
+        }
+        int[] rooms = new int[stays.size()];
+        for (int i = 0; i < rooms.length; i++) {
+            rooms[i] = stays.get(i).room;
+        }
+        return rooms;
+    }
+
+    /**
+     * {@code unassigned} the number of stays of a room type within the horizon without a room
+     *
+     * @param typeId the id of the room type
+     * @return the number of stays waiting for a repack
+     */
+    public int unassigned(int typeId) {
+        return typeId < 0 || typeId >= types.length ? 0 : types[typeId].unassigned;
+    }
+
+    /**
+     * {@code repack} assign the rooms of a room type again: stays which have started keep their rooms,
+     * every other stay is given a room by best fit in the order of their check in
+     *
+     * @param typeId the id of the room type
+     * @param today  the epoch day of today
+     * @return the number of stays which moved to another room
+     */
+    public int repack(int typeId, long today) {
+        if (typeId < 0 || typeId >= types.length) {
+            return 0;
+        }
+        TypeRooms type = types[typeId];
+        type.roll(today);
+        List<Stay> moving = new ArrayList<>();
+        for (List<Stay> stays : type.stays.values()) {
+            for (Stay stay : stays) {
+                if (stay.checkIn >= today) {
+                    moving.add(stay);
+                }
+            }
+        }
+        moving.sort(Comparator.comparingLong((Stay stay) -> stay.checkIn).thenComparingLong(stay -> -stay.checkOut));
+        int[] before = new int[moving.size()];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = moving.get(i).room;
+            type.clear(moving.get(i));
+        }
+        for (Stay stay : moving) {
+            type.place(stay);
+        }
+        int moved = 0;
+        for (int i = 0; i < before.length; i++) {
+            moved += before[i] == moving.get(i).room ? 0 : 1;
+        }
+        return moved;
+    }
+
+    /**
+     * {@code fragmentation} how the free nights of a room type from today on are split into gaps
+     *
+     * @param typeId the id of the room type
+     * @param today  the epoch day of today
+     * @return the free nights, the gaps and the stays without a room
+     */
+    public Fragmentation fragmentation(int typeId, long today) {
+        TypeRooms type = types[typeId];
+        type.roll(today);
+        int from = (int) Math.max(0, today - type.first);
+        long free = 0;
+        long gaps = 0;
+        long orphans = 0;
+        long largest = 0;
+        for (int room = 0; room < type.rooms; room++) {
+            // the free runs of the room between taken nights, a run reaching the end of the horizon is open
+            int night = from;
+            while (night < HORIZON_NIGHTS) {
+                int taken = type.nextTaken(room, night);
+                int run = taken - night;
+                free += run;
+                if (taken < HORIZON_NIGHTS && night > from && run > 0) {
+                    gaps++;
+                    largest = Math.max(largest, run);
+                    if (run <= ORPHAN_NIGHTS) {
+                        orphans += run;
+                    }
+                }
+                night = taken < HORIZON_NIGHTS ? type.nextFree(room, taken) : HORIZON_NIGHTS;
+            }
+        }
+        return new Fragmentation(type.name, type.rooms, free, gaps, orphans, largest, type.unassigned);
+    }
+
+    /**
+     * {@code size} the number of room types
+     *
+     * @return the number of room types
+     */
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     * How the free nights of a room type are split.
+     *
+     * @param roomType     the name of the room type
+     * @param rooms        the number of rooms
+     * @param freeNights   the room nights free from today to the end of the horizon
+     * @param gaps         the free runs between two stays of a room
+     * @param orphanNights the free nights in gaps of at most two nights
+     * @param largestGap   the nights of the longest gap between two stays
+     * @param unassigned   the stays without a room
+     */
+    public record Fragmentation(String roomType, int rooms, long freeNights, long gaps, long orphanNights,
+                                long largestGap, int unassigned) {
+    }
+
+    /**
+     * One room of a reservation for its stay, and the room it was given.
+     */
+    private static final class Stay {
+
+        final int refNo;
+        final long checkIn;
+        final long checkOut;
+        // the number of the room, -1 without a room
+        int room = -1;
+
+        Stay(int refNo, long checkIn, long checkOut) {
+            this.refNo = refNo;
+            this.checkIn = checkIn;
+            this.checkOut = checkOut;
+        }
+    }
+
+    /**
+     * The nights taken of every room of a room type, and its stays by reference number.
+     */
+    private static final class TypeRooms {
+
+        final String name;
+        final int rooms;
+        // the bits of word w of room r are at w * rooms + r; bit b of word w is night first + 64 * w + b
+        final long[] words;
+        final Map<Integer, List<Stay>> stays = new HashMap<>();
+        long first;
+        int unassigned;
+
+        TypeRooms(String name, int rooms, long today) {
+            this.name = name;
+            this.rooms = rooms;
+            this.words = new long[WORDS * rooms];
+            this.first = today;
+        }
+
+        /**
+         * {@code roll} move the horizon on by whole words once today has passed its first word, forget the
+         * stays which have ended, take the nights which came into the horizon of the stays which have a room
+         * and place the stays which came into the horizon
+         */
+        void roll(long today) {
+            int shift = (int) Math.min(WORDS, (today - first) / 64);
+            if (shift <= 0) {
+                return;
+            }
+            System.arraycopy(words, shift * rooms, words, 0, (WORDS - shift) * rooms);
+            Arrays.fill(words, (WORDS - shift) * rooms, words.length, 0);
+            first += 64L * shift;
+            // the nights from here on were past the end of the horizon before
+            int uncovered = HORIZON_NIGHTS - 64 * shift;
+            unassigned = 0;
+            List<Stay> entering = new ArrayList<>();
+            for (Iterator<List<Stay>> it = stays.values().iterator(); it.hasNext(); ) {
+                List<Stay> list = it.next();
+                list.removeIf(stay -> stay.checkOut <= first);
+                if (list.isEmpty()) {
+                    it.remove();
+                    continue;
+                }
+                for (Stay stay : list) {
+                    if (stay.room < 0) {
+                        entering.add(stay);
+                    } else if (stay.checkOut - first > uncovered) {
+                        // a room found for a stay was free on every night of it within the horizon, and two
+                        // stays of a room reaching past its end would have shared its last night
+                        take(stay.room, (int) Math.max(uncovered, stay.checkIn - first),
+                                (int) Math.min(HORIZON_NIGHTS, stay.checkOut - first));
+                    }
+                }
+            }
+            entering.sort(Comparator.comparingLong(stay -> stay.checkIn));
+            for (Stay stay : entering) {
+                place(stay);
+            }
+        }
+
+        /**
+         * {@code place} give a stay the free room it fits most tightly
+         *
+         * @return false if it is within the horizon and no room is free for all its nights
+         */
+        boolean place(Stay stay) {
+            int from = (int) Math.max(0, stay.checkIn - first);
+            int to = (int) Math.min(HORIZON_NIGHTS, stay.checkOut - first);
+            if (from >= to) {
+                // it ended before today or starts after the horizon, it is placed once the horizon reaches it
+                return true;
+            }
+            int firstWord = from >>> 6;
+            int lastWord = (to - 1) >>> 6;
+            long firstMask = mask(from & 63, firstWord == lastWord ? to - (firstWord << 6) : 64);
+            int best = -1;
+            int bestGap = Integer.MAX_VALUE;
+            int base = firstWord * rooms;
+            for (int room = 0; room < rooms; room++) {
+                if ((words[base + room] & firstMask) != 0 || !free(room, firstWord + 1, lastWord, to)) {
+                    continue;
+                }
+                int gap = gapBefore(room, from) + gapAfter(room, to);
+                if (gap < bestGap) {
+                    best = room;
+                    bestGap = gap;
+                    if (gap == 0) {
+                        break;
+                    }
+                }
+            }
+            if (best < 0) {
+                unassigned++;
+                return false;
+            }
+            stay.room = best;
+            take(best, from, to);
+            return true;
+        }
+
+        void clear(Stay stay) {
+            if (stay.room < 0) {
+                int from = (int) Math.max(0, stay.checkIn - first);
+                int to = (int) Math.min(HORIZON_NIGHTS, stay.checkOut - first);
+                if (from < to) {
+                    unassigned--;
+                }
+                return;
+            }
+            int from = (int) Math.max(0, stay.checkIn - first);
+            int to = (int) Math.min(HORIZON_NIGHTS, stay.checkOut - first);
+            if (from < to) {
+                release(stay.room, from, to);
+            }
+            stay.room = -1;
+        }
+
+        /**
+         * {@code free} whether the words after the first word of a stay are free up to its last night
+         */
+        private boolean free(int room, int fromWord, int lastWord, int to) {
+            for (int w = fromWord; w <= lastWord; w++) {
+                long mask = w == lastWord ? mask(0, to - (w << 6)) : -1L;
+                if ((words[w * rooms + room] & mask) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * {@code take} set the nights of a stay in a room
+         */
+        private void take(int room, int from, int to) {
+            for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+                words[w * rooms + room] |= mask(Math.max(from - (w << 6), 0), Math.min(to - (w << 6), 64));
+            }
+        }
+
+        /**
+         * {@code release} clear the nights of a stay in a room, which no other stay of the room holds
+         */
+        private void release(int room, int from, int to) {
+            for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+                words[w * rooms + room] &= ~mask(Math.max(from - (w << 6), 0), Math.min(to - (w << 6), 64));
+            }
+        }
+
+        /**
+         * {@code gapBefore} the free nights directly before a night, at most {@value #GAP_CAP}; the nights
+         * before the horizon are past and leave no gap
+         */
+        private int gapBefore(int room, int night) {
+            int gap = 0;
+            int w = night >>> 6;
+            int bit = night & 63;
+            long below = bit == 0 ? 0 : words[w * rooms + room] & mask(0, bit);
+            while (true) {
+                if (below != 0) {
+                    return Math.min(GAP_CAP, gap + bit - (64 - Long.numberOfLeadingZeros(below)));
+                }
+                gap += bit;
+                if (w == 0 || gap >= GAP_CAP) {
+                    return w == 0 ? Math.min(gap, GAP_CAP) : GAP_CAP;
+                }
+                w--;
+                bit = 64;
+                below = words[w * rooms + room];
+            }
+        }
+
+        /**
+         * {@code gapAfter} the free nights from a night on, at most {@value #GAP_CAP}; the end of the
+         * horizon counts as a long gap
+         */
+        private int gapAfter(int room, int night) {
+            if (night >= HORIZON_NIGHTS) {
+                return GAP_CAP;
+            }
+            int taken = nextTaken(room, night);
+            return Math.min(GAP_CAP, taken >= HORIZON_NIGHTS ? GAP_CAP : taken - night);
+        }
+
+        /**
+         * {@code nextTaken} the first taken night of a room from a night on, HORIZON_NIGHTS if there is none
+         */
+        int nextTaken(int room, int night) {
+            int w = night >>> 6;
+            long bits = words[w * rooms + room] & (-1L << (night & 63));
+            while (bits == 0) {
+                if (++w == WORDS) {
+                    return HORIZON_NIGHTS;
+                }
+                bits = words[w * rooms + room];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        /**
+         * {@code nextFree} the first free night of a room from a night on, HORIZON_NIGHTS if there is none
+         */
+        int nextFree(int room, int night) {
+            int w = night >>> 6;
+            long bits = ~words[w * rooms + room] & (-1L << (night & 63));
+            while (bits == 0) {
+                if (++w == WORDS) {
+                    return HORIZON_NIGHTS;
+                }
+                bits = ~words[w * rooms + room];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        /**
+         * {@code mask} the bits from lo up to but not including hi of a word
+         */
+        private static long mask(int lo, int hi) {
+            long upTo = hi == 64 ? -1L : (1L << hi) - 1;
+            return upTo & (-1L << lo);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import java.time.LocalDate;
+
+/**
+ * {@code RoomOffer} a room type free for a stay, as found by an availability search: how many of its
+ * rooms are left on the busiest night, how many guests a room holds and the price of one room.
+ */
+public final class RoomOffer {
+
+    private final String roomType;
+    private final LocalDate checkIn;
+    private final LocalDate checkOut;
+    private final int remaining;
+    private final int maxOccupancy;
+    private final double totalCost;
+
+    /**
+     * {@code RoomOffer} an offer of a room type
+     *
+     * @param roomType     the room type
+     * @param checkIn      check in date
+     * @param checkOut     check out date
+     * @param remaining    the rooms of the type left on every night of the stay
+     * @param maxOccupancy the most guests per room
+     * @param totalCost    the price of one room for the stay
+     */
+    public RoomOffer(String roomType, LocalDate checkIn, LocalDate checkOut, int remaining, int maxOccupancy,
+                     double totalCost) {
+        this.roomType = roomType;
+        this.checkIn = checkIn;
+        this.checkOut = checkOut;
+        this.remaining = remaining;
+        this.maxOccupancy = maxOccupancy;
+        this.totalCost = totalCost;
+    }
+
+    public String getRoomType() {
+        return roomType;
+    }
+
+    public LocalDate getCheckIn() {
+        return checkIn;
+    }
+
+    public LocalDate getCheckOut() {
+        return checkOut;
+    }
+
+    public int getRemaining() {
+        return remaining;
+    }
+
+    public int getMaxOccupancy() {
+        return maxOccupancy;
+    }
+
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s from %s to %s, %d left for up to %d guests each, %.2f per room", roomType, checkIn,
+                checkOut, remaining, maxOccupancy, totalCost);
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code RoomTypeRegistry} gives every room type of the hotel catalogue a small integer id, so that the
+ * indexes of the reservation system can keep their figures in primitive arrays instead of maps keyed
+ * by room type names. Ids are handed out in the order room types are registered and never change; when
+ * the catalogue is decoded again the reservation system registers it in a new registry and swaps that in,
+ * so a room type left out of the catalogue is no longer known.
+ */
+public class RoomTypeRegistry {
+
+    /** star tiers in the order the analyses report them */
+    public static final int TIER_3_STAR = 0;
+    public static final int TIER_4_STAR = 1;
+    public static final int TIER_5_STAR = 2;
+    public static final int TIERS = 3;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // replaced as a whole on every change, so readers never need a lock
+    private volatile Entry[] entries = new Entry[0];
+
+    /**
+     * {@code register} add a room type to the registry, or update the figures of a known one
+     *
+     * @param roomType      the name of the room type
+     * @param numberOfRooms how many rooms of this type the hotel has
+     * @param maxOccupancy  the maximum number of guests per room
+     * @param rates         the rate of each day of the week, starting with Monday
+     * @return the id of the room type
+     */
+    public synchronized int register(String roomType, int numberOfRooms, int maxOccupancy, int[] rates) {
+        Integer known = ids.get(roomType);
+        int id = known == null ? entries.length : known;
+        Entry[] updated = Arrays.copyOf(entries, Math.max(entries.length, id + 1));
+        updated[id] = new Entry(roomType, numberOfRooms, maxOccupancy, tierOf(roomType), rates.clone());
+        entries = updated;
+        ids.putIfAbsent(roomType, id);
+        return id;
+    }
+
+    /**
+     * {@code tierOf} the star tier of a room type, following the names used in the hotel catalogue
+     *
+     * @param roomType the name of the room type
+     * @return one of the TIER constants
+     */
+    public static int tierOf(String roomType) {
+        if (roomType.contains("Deluxe")) {
+            return TIER_5_STAR;
+        } else if (roomType.contains("Executive")) {
+            return TIER_4_STAR;
+        }
+        return TIER_3_STAR;
+    }
+
+    /**
+     * {@code id} look up the id of a room type
+     *
+     * @param roomType the name of the room type
+     * @return the id, -1 if the room type is not registered
+     */
+    public int id(String roomType) {
+        Integer id = ids.get(roomType);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * {@code size} the number of registered room types, ids run from 0 to size - 1
+     *
+     * @return the number of room types
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * {@code name} the name of a room type
+     *
+     * @param id the id of the room type
+     * @return the name as it appears in the hotel catalogue
+     */
+    public String name(int id) {
+        return entries[id].name;
+    }
+
+    /**
+     * {@code numberOfRooms} how many rooms of a type the hotel has
+     *
+     * @param id the id of the room type
+     * @return the number of rooms
+     */
+    public int numberOfRooms(int id) {
+        return entries[id].numberOfRooms;
+    }
+
+    /**
+     * {@code maxOccupancy} the maximum number of guests in one room of a type
+     *
+     * @param id the id of the room type
+     * @return the maximum occupancy
+     */
+    public int maxOccupancy(int id) {
+        return entries[id].maxOccupancy;
+    }
+
+    /**
+     * {@code tier} the star tier of a room type
+     *
+     * @param id the id of the room type
+     * @return one of the TIER constants
+     */
+    public int tier(int id) {
+        return entries[id].tier;
+    }
+
+    /**
+     * {@code rates} the rates of a room type
+     *
+     * @param id the id of the room type
+     * @return a copy of the rates from Monday to Sunday
+     */
+    public int[] rates(int id) {
+        return entries[id].rates.clone();
+    }
+
+    /**
+     * The figures of one room type, never changed once published.
+     */
+    private static class Entry {
+
+        final String name;
+        final int numberOfRooms;
+        final int maxOccupancy;
+        final int tier;
+        final int[] rates;
+
+        Entry(String name, int numberOfRooms, int maxOccupancy, int tier, int[] rates) {
+            this.name = name;
+            this.numberOfRooms = numberOfRooms;
+            this.maxOccupancy = maxOccupancy;
+            this.tier = tier;
+            this.rates = rates;
+        }
+    }
+}
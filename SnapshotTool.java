@@ -0,0 +1,129 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@code SnapshotTool} converts between {@link BinarySnapshot} files and the csv files of the system.
+ * <pre>
+ * java SnapshotTool import &lt;hotels.csv&gt; &lt;reservation.csv&gt; &lt;snapshot&gt;
+ * java SnapshotTool export &lt;snapshot&gt; &lt;reservation.csv&gt; [hotels.csv]
+ * java SnapshotTool info &lt;snapshot&gt;
+ * </pre>
+ * Reservations are exported in the column layout written by {@link CSVEncoder#csvWrite}. The catalogue is
+ * exported in the layout of l4Hotels.csv; the snapshot does not keep the hotel names and minimal
+ * occupancies, so the star tier and 1 are written in their place.
+ */
+public class SnapshotTool {
+
+    private static final String[] HOTELS = {"3-star", "4-star", "5-star"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 4 && args[0].equals("import")) {
+            importCsv(Path.of(args[1]), Path.of(args[2]), Path.of(args[3]));
+        } else if (args.length >= 3 && args[0].equals("export")) {
+            exportCsv(Path.of(args[1]), Path.of(args[2]), args.length > 3 ? Path.of(args[3]) : null);
+        } else if (args.length >= 2 && args[0].equals("info")) {
+            info(Path.of(args[1]));
+        } else {
+            System.err.println("Usage: java SnapshotTool import <hotels.csv> <reservation.csv> <snapshot>");
+            System.err.println("       java SnapshotTool export <snapshot> <reservation.csv> [hotels.csv]");
+            System.err.println("       java SnapshotTool info <snapshot>");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * {@code importCsv} write a snapshot of a hotel csv file and a reservation csv file
+     *
+     * @param hotels       the hotel csv file
+     * @param reservations the reservation csv file
+     * @param snapshot     the snapshot to write
+     * @throws IOException if a file can not be read or written
+     */
+    public static void importCsv(Path hotels, Path reservations, Path snapshot) throws IOException {
+        RoomTypeRegistry roomTypes = new RoomTypeRegistry();
+        new CSVEncoder(hotels.toString()).csvStream(row -> {
+            // the first two rows are headers, rows without a room type are blank
+            if (row.number() < 2 || row.isEmpty(1)) {
+                return true;
+            }
+            int[] rates = new int[7];
+            for (int j = 0; j < 7; j++) {
+                rates[j] = row.intField(5 + j);
+            }
+            roomTypes.register(row.string(1), row.intField(2), row.intField(4), rates);
+            return true;
+        });
+        ReservationColumns columns = new ReservationColumns();
+        if (Files.size(reservations) > 0) {
+            new CSVEncoder(reservations.toString()).csvStream(row -> {
+                // the first row is the header written by csvInit
+                if (row.number() > 0) {
+                    columns.append(CSVEncoder.parseReservation(row));
+                }
+                return true;
+            });
+        }
+        new BinarySnapshot(roomTypes, columns).write(snapshot);
+        System.out.println("Imported " + roomTypes.size() + " room types and " + columns.rows()
+                + " reservations into " + snapshot);
+    }
+
+    /**
+     * {@code exportCsv} write the reservations, and optionally the catalogue, of a snapshot as csv files
+     *
+     * @param snapshot     the snapshot to read
+     * @param reservations the reservation csv file to write
+     * @param hotels       the hotel csv file to write, null to leave the catalogue out
+     * @throws IOException if a file can not be read or written
+     */
+    public static void exportCsv(Path snapshot, Path reservations, Path hotels) throws IOException {
+        BinarySnapshot read = BinarySnapshot.read(snapshot);
+        // a snapshot without a reservations section holds an empty book
+        ReservationColumns columns = read.reservations() != null ? read.reservations() : new ReservationColumns();
+        new CSVEncoder(reservations.toString()).csvInit();
+        try (BufferedWriter bw = Files.newBufferedWriter(reservations, StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND)) {
+            for (int row = 0; row < columns.rows(); row++) {
+                if (!columns.isEmpty(row)) {
+                    bw.append(CSVEncoder.reservationRow(columns.reservation(row))).append("\n");
+                }
+            }
+        }
+        if (hotels != null) {
+            RoomTypeRegistry roomTypes = read.roomTypes();
+            try (BufferedWriter bw = Files.newBufferedWriter(hotels, StandardCharsets.UTF_8)) {
+                bw.append("Hotel,Room type,Number of rooms,Min occupancy,Max occupancy,Mon,Tue,Wed,Thu,Fri,Sat,Sun\n");
+                bw.append(",,,,,,,,,,,\n");
+                for (int id = 0; id < roomTypes.size(); id++) {
+                    bw.append(HOTELS[roomTypes.tier(id)]).append(",").append(CSVEncoder.quote(roomTypes.name(id)));
+                    bw.append(",").append(String.valueOf(roomTypes.numberOfRooms(id))).append(",1,");
+                    bw.append(String.valueOf(roomTypes.maxOccupancy(id)));
+                    for (int rate : roomTypes.rates(id)) {
+                        bw.append(",").append(String.valueOf(rate));
+                    }
+                    bw.append("\n");
+                }
+            }
+        }
+        System.out.println("Exported " + columns.rows() + " reservations to " + reservations);
+    }
+
+    /**
+     * {@code info} print what a snapshot holds and how long it takes to load
+     *
+     * @param snapshot the snapshot to read
+     * @throws IOException if the snapshot can not be read
+     */
+    public static void info(Path snapshot) throws IOException {
+        long begin = System.nanoTime();
+        BinarySnapshot read = BinarySnapshot.read(snapshot);
+        double millis = (System.nanoTime() - begin) / 1e6;
+        System.out.printf("%s: %d bytes, %d room types, %d reservations, loaded in %.1f ms%n", snapshot,
+                Files.size(snapshot), read.roomTypes().size(),
+                read.reservations() != null ? read.reservations().rows() : 0, millis);
+    }
+}
@@ -0,0 +1,49 @@
+import java.time.LocalDate;
+
+/**
+ * {@code StayCheck} checks the edges of the stays {@link ReservationSystem#isValidStay} accepts: a stay of
+ * 0 nights or one checking out before it checks in is refused, a stay of
+ * {@link ReservationSystem#MAX_NIGHTS} nights is accepted and one night more is refused, and a stay reaching
+ * {@link ReservationSystem#BOOKING_HORIZON} days before or after today is accepted while one a day further
+ * is refused. {@link ReservationSystem#checkStay} must throw for exactly the stays refused.
+ * <p>
+ * Usage: {@code java StayCheck}
+ */
+public class StayCheck {
+
+    public static void main(String[] args) {
+        LocalDate today = LocalDate.now();
+        int horizon = ReservationSystem.BOOKING_HORIZON;
+        int maxNights = ReservationSystem.MAX_NIGHTS;
+
+        expect(false, today, today, "0 nights");
+        expect(false, today.plusDays(1), today, "checking out before checking in");
+        expect(true, today, today.plusDays(1), "1 night");
+        expect(true, today, today.plusDays(maxNights), maxNights + " nights");
+        expect(false, today, today.plusDays(maxNights + 1), maxNights + 1 + " nights");
+        expect(true, today.minusDays(horizon), today.minusDays(horizon - 1), "checking in on the first day");
+        expect(false, today.minusDays(horizon + 1), today.minusDays(horizon), "checking in before the first day");
+        expect(true, today.plusDays(horizon - 1), today.plusDays(horizon), "checking out on the last day");
+        expect(false, today.plusDays(horizon), today.plusDays(horizon + 1), "checking out after the last day");
+        expect(false, LocalDate.of(-999999, 1, 1), LocalDate.of(999999, 1, 1), "a stay of millennia");
+        System.out.println("Stays of 0, " + maxNights + " and " + (maxNights + 1) + " nights and stays at "
+                + horizon + " days from " + today + " are accepted or refused as expected");
+    }
+
+    private static void expect(boolean valid, LocalDate checkIn, LocalDate checkOut, String stay) {
+        if (ReservationSystem.isValidStay(checkIn, checkOut) != valid) {
+            throw new IllegalStateException("A stay " + stay + " from " + checkIn + " to " + checkOut + " is "
+                    + (valid ? "refused" : "accepted"));
+        }
+        boolean thrown = false;
+        try {
+            ReservationSystem.checkStay(checkIn, checkOut);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        if (thrown == valid) {
+            throw new IllegalStateException("checkStay " + (thrown ? "refuses" : "accepts") + " a stay " + stay
+                    + " from " + checkIn + " to " + checkOut);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+/**
+ * {@code SyntheticData} writes hotel catalogues and reservation histories in the formats of l4Hotels.csv
+ * and reservation.csv, to measure the system on data much larger than the real hotels. The same seed
+ * always gives the same files.
+ * <p>
+ * Room types are spread over the three tiers, with Classic, Executive and Deluxe in their names. The
+ * reservations never book more rooms of a type on a night than the catalogue has, and the stays are
+ * spread over as many years as that needs, from {@link #FIRST_NIGHT} on.
+ * <p>
+ * Usage: {@code java SyntheticData <dir> [reservations] [roomTypes] [seed]}
+ */
+public class SyntheticData {
+
+    /** The first night any generated stay may cover. */
+    public static final LocalDate FIRST_NIGHT = LocalDate.of(2020, 1, 6);
+
+    private static final String[] TIERS = {"Classic", "Executive", "Deluxe"};
+    private static final String[] NAMES = {"Smith", "Murphy", "Kelly", "O'Brien", "Walsh", "Byrne", "Ryan",
+            "Wang", "Li", "Zhang", "Garcia", "Martin", "Novak", "Rossi", "Müller", "Dubois, J."};
+
+    private final SplittableRandom random;
+    private final int roomTypes;
+    private final int roomsPerType;
+
+    /**
+     * {@code SyntheticData} a generator for a catalogue of room types
+     *
+     * @param roomTypes    number of room types in the catalogue
+     * @param roomsPerType number of rooms of every type
+     * @param seed         seed of the random generator
+     */
+    public SyntheticData(int roomTypes, int roomsPerType, long seed) {
+        this.roomTypes = roomTypes;
+        this.roomsPerType = roomsPerType;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java SyntheticData <dir> [reservations] [roomTypes] [seed]");
+            System.exit(1);
+        }
+        Path dir = Files.createDirectories(Path.of(args[0]));
+        int reservations = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int types = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        SyntheticData data = new SyntheticData(types, 20, seed);
+        long begin = System.nanoTime();
+        data.writeCatalogue(dir.resolve("l4Hotels.csv"));
+        int nights = data.writeReservations(dir.resolve("reservation.csv"), reservations);
+        System.out.printf("Wrote %d room types and %d reservations over %d nights to %s in %.1f s%n", types,
+                reservations, nights, dir, (System.nanoTime() - begin) / 1e9);
+    }
+
+    /**
+     * {@code roomType} the name of a generated room type
+     *
+     * @param id the number of the room type, from 0
+     * @return the name, which tells the tier of the room type
+     */
+    public static String roomType(int id) {
+        return TIERS[id % 3] + " " + (id % 2 == 0 ? "Double" : "Twin") + " " + id;
+    }
+
+    /**
+     * {@code rates} the rates of a generated room type from Monday to Sunday
+     *
+     * @param id the number of the room type
+     * @return the seven rates, higher for better tiers and at weekends
+     */
+    public static int[] rates(int id) {
+        int base = 60 + 40 * (id % 3) + 5 * (id / 3 % 4);
+        return new int[] {base, base, base, base, base + 20, base + 30, base + 30};
+    }
+
+    /**
+     * {@code writeCatalogue} write the room types as a hotel csv file
+     *
+     * @param file the file to write
+     * @throws IOException if the file can not be written
+     */
+    public void writeCatalogue(Path file) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(file)) {
+            bw.append("Hotel,Room type,Number of rooms,Min occupancy,Max occupancy,Mon,Tue,Wed,Thu,Fri,Sat,Sun\n");
+            bw.append(",,,,,,,,,,,\n");
+            for (int id = 0; id < roomTypes; id++) {
+                bw.append(id % 3 + 3 + "-star,").append(roomType(id)).append(",");
+                bw.append(String.valueOf(roomsPerType)).append(",1,2");
+                for (int rate : rates(id)) {
+                    bw.append(",").append(String.valueOf(rate));
+                }
+                bw.append("\n");
+            }
+        }
+    }
+
+    /**
+     * {@code writeReservations} write a reservation history as a reservation csv file, with reference
+     * numbers from 1 to the number of reservations
+     *
+     * @param file         the file to write
+     * @param reservations number of reservations
+     * @return the number of nights the stays are spread over
+     * @throws IOException if the file can not be written
+     */
+    public int writeReservations(Path file, int reservations) throws IOException {
+        // about 2 rooms of 4 nights per reservation, filling the hotel to about two thirds
+        long roomNights = (long) reservations * 8;
+        int horizon = (int) Math.max(365, roomNights * 3 / 2 / ((long) roomTypes * roomsPerType));
+        short[][] taken = new short[roomTypes][horizon + 14];
+        int[][] rates = new int[roomTypes][];
+        for (int id = 0; id < roomTypes; id++) {
+            rates[id] = rates(id);
+        }
+
+        int[] types = new int[3];
+        int[] occupancy = new int[3];
+        try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            bw.append("Reservation number,Reservation name,Reservation type,Check-in date,Check-out date,");
+            bw.append("Number of rooms,Room type,Occupancy,Room type,Occupancy,Room type,Occupancy,Total cost\n");
+            StringBuilder sb = new StringBuilder(128);
+            for (int refNo = 1; refNo <= reservations; ) {
+                int from = random.nextInt(horizon);
+                int nights = 1 + random.nextInt(7);
+                int numOfRoom = 1 + random.nextInt(3);
+                for (int i = 0; i < numOfRoom; i++) {
+                    types[i] = random.nextInt(roomTypes);
+                    occupancy[i] = 1 + random.nextInt(2);
+                }
+                if (!fits(taken, types, numOfRoom, from, from + nights)) {
+                    continue;
+                }
+                String resType = random.nextInt(4) == 0 ? "AP" : "S";
+                LocalDate checkIn = FIRST_NIGHT.plusDays(from);
+                LocalDate checkOut = checkIn.plusDays(nights);
+                double totalCost = 0;
+                for (int i = 0; i < numOfRoom; i++) {
+                    for (int night = from; night < from + nights; night++) {
+                        taken[types[i]][night]++;
+                    }
+                    totalCost += PricingEngine.dailyCost(rates[types[i]], checkIn, checkOut, resType);
+                }
+
+                sb.setLength(0);
+                sb.append(refNo).append(',');
+                sb.append(CSVEncoder.quote(NAMES[random.nextInt(NAMES.length)])).append(',');
+                sb.append(resType).append(',').append(checkIn).append(',').append(checkOut).append(',');
+                sb.append(numOfRoom).append(',');
+                for (int i = 0; i < 3; i++) {
+                    if (i < numOfRoom) {
+                        sb.append(roomType(types[i])).append(',').append(occupancy[i]).append(',');
+                    } else {
+                        sb.append(",,");
+                    }
+                }
+                sb.append(totalCost).append('\n');
+                bw.append(sb);
+                refNo++;
+            }
+        }
+        return horizon;
+    }
+
+    private boolean fits(short[][] taken, int[] types, int numOfRoom, int from, int to) {
+        for (int i = 0; i < numOfRoom; i++) {
+            int demand = 0;
+            for (int j = 0; j < numOfRoom; j++) {
+                if (types[j] == types[i]) {
+                    demand++;
+                }
+            }
+            for (int night = from; night < to; night++) {
+                if (taken[types[i]][night] + demand > roomsPerType) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
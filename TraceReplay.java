@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@code TraceReplay} streams a trace file of operations through a {@link ReservationSystem} without the
+ * console, as fast as it can or at a set rate, and reports the throughput, the latency percentiles of every
+ * kind of operation and the inventory left. A trace is a csv file of one operation per row:
+ * <pre>
+ * book,&lt;traceRef&gt;,&lt;name&gt;,&lt;resType&gt;,&lt;checkIn&gt;,&lt;checkOut&gt;,
+ *     &lt;roomType&gt;[,&lt;roomType&gt;..]
+ * cancel,&lt;traceRef&gt;
+ * quote,&lt;resType&gt;,&lt;checkIn&gt;,&lt;checkOut&gt;,&lt;roomType&gt;[,&lt;roomType&gt;..]
+ * analyse,&lt;start&gt;,&lt;end&gt;
+ * </pre>
+ * A book row is one line, wrapped here. Dates are written as yyyy-mm-dd and every room type is one room
+ * for one guest. A booking is priced before it is made, as the console does, and is known to later cancels
+ * by its trace reference rather than by the reference number the system gives it. Rows starting with # are
+ * comments.
+ * <p>
+ * At a set rate every operation is due at a fixed time from the start, and its latency is counted from
+ * when it was due, so a slow operation shows in the latencies of the operations queued behind it.
+ */
+public class TraceReplay {
+
+    /**
+     * The kinds of operations of a trace.
+     */
+    public enum Operation {
+        BOOK, CANCEL, QUOTE, ANALYSE
+    }
+
+    private final ReservationSystem reservationSystem;
+    private final double rate;
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, Long> failures = new EnumMap<>(Operation.class);
+    // the reservations of the trace still booked, by trace reference
+    private final Map<String, Reservation> booked = new HashMap<>();
+    private long operations;
+    // the operations due so far at a set rate
+    private long rows;
+    private long malformed;
+    private long nanos;
+    private LocalDate firstNight;
+    private LocalDate lastNight;
+
+    /**
+     * {@code TraceReplay} a replay into a reservation system
+     *
+     * @param reservationSystem the system to drive
+     * @param rate              the operations per second, 0 or less for as fast as possible
+     */
+    public TraceReplay(ReservationSystem reservationSystem, double rate) {
+        this.reservationSystem = reservationSystem;
+        this.rate = rate;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            failures.put(operation, 0L);
+        }
+    }
+
+    /**
+     * {@code replay} run every operation of a trace file in order
+     *
+     * @param trace the trace file
+     * @throws IOException if the trace can not be read
+     */
+    public void replay(Path trace) throws IOException {
+        long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+        long begin = System.nanoTime();
+        new CSVEncoder(trace.toString()).csvStream(row -> {
+            if (row.size() == 0 || row.isEmpty(0) || row.field(0).charAt(0) == '#') {
+                return true;
+            }
+            Operation operation;
+            try {
+                operation = Operation.valueOf(row.string(0).trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                malformed++;
+                return true;
+            }
+            long due = interval > 0 ? begin + rows++ * interval : System.nanoTime();
+            if (interval > 0) {
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            boolean done;
+            try {
+                done = run(operation, row);
+            } catch (UncheckedIOException e) {
+                // the booking or cancellation could not be made durable
+                done = false;
+            } catch (RuntimeException e) {
+                // a row with a missing field, a bad date or an unknown room type
+                malformed++;
+                return true;
+            }
+            latencies.get(operation).record(System.nanoTime() - due);
+            operations++;
+            if (!done) {
+                failures.merge(operation, 1L, Long::sum);
+            }
+            return true;
+        });
+        nanos = System.nanoTime() - begin;
+    }
+
+    /**
+     * {@code run} run one operation
+     *
+     * @return false if a booking did not fit or a cancel found nothing to cancel
+     * @throws UncheckedIOException if a booking or a cancel could not be made durable
+     */
+    private boolean run(Operation operation, CSVRow row) {
+        switch (operation) {
+            case BOOK -> {
+                String traceRef = row.string(1);
+                String resType = row.string(3);
+                LocalDate checkIn = row.dateField(4);
+                LocalDate checkOut = row.dateField(5);
+                RoomList roomList = roomList(row, 6);
+                double totalCost = reservationSystem.calcTotalCost(roomList, checkIn, checkOut, resType);
+                // only once pricing has found the stay valid, so a malformed row does not widen the nights
+                nights(checkIn, checkOut);
+                Reservation reservation = reservationSystem.makeReservation(reservationSystem.nextRefNo(),
+                        row.string(2), resType, checkIn, checkOut, roomList.getRooms().size(), roomList, totalCost);
+                if (reservation == null) {
+                    return false;
+                }
+                booked.put(traceRef, reservation);
+                return true;
+            }
+            case CANCEL -> {
+                Reservation reservation = booked.remove(row.string(1));
+                return reservation != null && reservationSystem.cancel(reservation);
+            }
+            case QUOTE -> {
+                LocalDate checkIn = row.dateField(2);
+                LocalDate checkOut = row.dateField(3);
+                reservationSystem.calcTotalCost(roomList(row, 4), checkIn, checkOut, row.string(1));
+                return true;
+            }
+            default -> {
+                reservationSystem.analysePeriod(row.dateField(1), row.dateField(2));
+                return true;
+            }
+        }
+    }
+
+    private RoomList roomList(CSVRow row, int first) {
+        if (row.size() <= first) {
+            throw new IllegalArgumentException("Missing rooms");
+        }
+        RoomList roomList = new RoomList();
+        for (int i = first; i < row.size(); i++) {
+            String roomType = row.string(i).trim();
+            if (reservationSystem.getRoomTypes().id(roomType) < 0) {
+                throw new IllegalArgumentException("Unknown room type " + roomType);
+            }
+            roomList.add(new Room(roomType, 1));
+        }
+        return roomList;
+    }
+
+    private void nights(LocalDate checkIn, LocalDate checkOut) {
+        if (firstNight == null || checkIn.isBefore(firstNight)) {
+            firstNight = checkIn;
+        }
+        if (lastNight == null || checkOut.isAfter(lastNight)) {
+            lastNight = checkOut;
+        }
+    }
+
+    /**
+     * {@code summary} the throughput, the latencies of every kind of operation and the share of the rooms of
+     * every room type taken over the nights the bookings of the trace asked for
+     *
+     * @return the summary as plain text
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        double seconds = nanos / 1e9;
+        sb.append(String.format("operations %d in %.2f s, %.0f per second, %d malformed rows skipped%n",
+                operations, seconds, seconds > 0 ? operations / seconds : 0, malformed));
+        sb.append(String.format("%-10s %10s %10s %10s %10s %10s %10s%n", "operation", "count", "failed",
+                "p50 us", "p99 us", "p99.9 us", "max us"));
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            if (histogram.count() == 0) {
+                continue;
+            }
+            sb.append(String.format("%-10s %10d %10d %10.1f %10.1f %10.1f %10.1f%n",
+                    operation.name().toLowerCase(), histogram.count(), failures.get(operation),
+                    histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3,
+                    histogram.percentile(99.9) / 1e3, histogram.max() / 1e3));
+        }
+        sb.append(String.format("%nreservations %d, %d of them booked by the trace%n",
+                reservationSystem.getReservationCount(), booked.size()));
+        if (firstNight != null) {
+            sb.append(String.format("rooms taken from %s to %s%n", firstNight, lastNight));
+            RoomTypeRegistry roomTypes = reservationSystem.getRoomTypes();
+            for (int id = 0; id < roomTypes.size(); id++) {
+                sb.append(String.format("%-24s %5.1f%%%n", roomTypes.name(id), utilisation(roomTypes.name(id))));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * {@code utilisation} the mean share of the rooms of a type taken over the nights of the trace
+     */
+    private double utilisation(String roomType) {
+        double sum = 0;
+        int nights = 0;
+        for (LocalDate night = firstNight; night.isBefore(lastNight); night = night.plusDays(1)) {
+            sum += reservationSystem.utilisation(roomType, night);
+            nights++;
+        }
+        return nights == 0 ? 0 : sum / nights;
+    }
+
+    /**
+     * {@code getOperations} the number of operations replayed, the failed ones included but not the
+     * malformed rows
+     *
+     * @return the number of operations
+     */
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * {@code getLatencies} the latencies of one kind of operation
+     *
+     * @param operation the kind of operation
+     * @return the histogram of its latencies in nanoseconds
+     */
+    public LatencyHistogram getLatencies(Operation operation) {
+        return latencies.get(operation);
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * {@code Waitlist} the bookings waiting for rooms, queued by room type and night: an entry is in the queue
+ * of every night of its stay for every room type it asks for, in {@link WaitlistEntry#ORDER}. When a
+ * cancellation frees nights of a room type, the entries to offer them to are read from the queues of just
+ * those nights: the first entries of every queue, then the next entries of a queue a page at a time while
+ * its night has a room left, up to a few pages, so entries waiting for other nights are not read at all and
+ * a long queue is not read to its end by one cancellation.
+ * <p>
+ * The waitlist is thread safe. It is kept in memory and does not survive a restart.
+ */
+public final class Waitlist {
+
+    // the queue of every night, by room type and epoch day
+    private final Map<String, Map<Long, TreeSet<WaitlistEntry>>> queues = new HashMap<>();
+    private final Map<Long, WaitlistEntry> entries = new HashMap<>();
+    private long nextId = 1;
+
+    /**
+     * {@code add} queue a booking
+     *
+     * @param request  the booking
+     * @param priority the priority, higher is served first
+     * @return the new entry
+     */
+    public synchronized WaitlistEntry add(BookingRequest request, int priority) {
+        WaitlistEntry entry = new WaitlistEntry(nextId++, request, priority);
+        long checkIn = request.getCheckIn().toEpochDay();
+        long checkOut = request.getCheckOut().toEpochDay();
+        for (String roomType : roomTypes(request)) {
+            Map<Long, TreeSet<WaitlistEntry>> nights = queues.computeIfAbsent(roomType, k -> new HashMap<>());
+            for (long night = checkIn; night < checkOut; night++) {
+                nights.computeIfAbsent(night, k -> new TreeSet<>(WaitlistEntry.ORDER)).add(entry);
+            }
+        }
+        entries.put(entry.getId(), entry);
+        return entry;
+    }
+
+    /**
+     * {@code remove} take an entry out of every queue it is in
+     *
+     * @param entry the entry, booked or withdrawn
+     */
+    public synchronized void remove(WaitlistEntry entry) {
+        if (entries.remove(entry.getId()) == null) {
+            return;
+        }
+        BookingRequest request = entry.getRequest();
+        long checkIn = request.getCheckIn().toEpochDay();
+        long checkOut = request.getCheckOut().toEpochDay();
+        for (String roomType : roomTypes(request)) {
+            Map<Long, TreeSet<WaitlistEntry>> nights = queues.get(roomType);
+            for (long night = checkIn; night < checkOut; night++) {
+                TreeSet<WaitlistEntry> queue = nights.get(night);
+                queue.remove(entry);
+                if (queue.isEmpty()) {
+                    nights.remove(night);
+                }
+            }
+            if (nights.isEmpty()) {
+                queues.remove(roomType);
+            }
+        }
+    }
+
+    /**
+     * {@code find} an entry still on the waitlist
+     *
+     * @param id the number of the entry
+     * @return the entry, null if it is booked, withdrawn or unknown
+     */
+    public synchronized WaitlistEntry find(long id) {
+        return entries.get(id);
+    }
+
+    /**
+     * {@code size} the number of entries on the waitlist
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * {@code candidates} the entries to offer freed nights of a room type to: the first entries of the
+     * queue of every freed night, highest priority and longest waiting first
+     *
+     * @param roomType the room type
+     * @param from     the epoch day of the first freed night
+     * @param to       the epoch day after the last freed night
+     * @param perNight the most entries taken from the queue of a night
+     * @return the entries in the order they are offered the rooms
+     */
+    public synchronized List<WaitlistEntry> candidates(String roomType, long from, long to, int perNight) {
+        Map<Long, TreeSet<WaitlistEntry>> nights = queues.get(roomType);
+        if (nights == null) {
+            return List.of();
+        }
+        TreeSet<WaitlistEntry> found = new TreeSet<>(WaitlistEntry.ORDER);
+        for (long night = from; night < to; night++) {
+            TreeSet<WaitlistEntry> queue = nights.get(night);
+            if (queue == null) {
+                continue;
+            }
+            Iterator<WaitlistEntry> first = queue.iterator();
+            for (int i = 0; i < perNight && first.hasNext(); i++) {
+                found.add(first.next());
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * {@code queue} a page of the queue of a night of a room type, highest priority and longest waiting first
+     *
+     * @param roomType the room type
+     * @param night    the epoch day of the night
+     * @param after    the last entry of the page before, null for the first page
+     * @param count    the most entries of the page
+     * @return the entries of the page, fewer than count only on the last page
+     */
+    public synchronized List<WaitlistEntry> queue(String roomType, long night, WaitlistEntry after, int count) {
+        Map<Long, TreeSet<WaitlistEntry>> nights = queues.get(roomType);
+        TreeSet<WaitlistEntry> queue = nights == null ? null : nights.get(night);
+        if (queue == null) {
+            return List.of();
+        }
+        List<WaitlistEntry> page = new ArrayList<>(count);
+        Iterator<WaitlistEntry> next = (after == null ? queue : queue.tailSet(after, false)).iterator();
+        while (page.size() < count && next.hasNext()) {
+            page.add(next.next());
+        }
+        return page;
+    }
+
+    private static Set<String> roomTypes(BookingRequest request) {
+        Set<String> roomTypes = new HashSet<>();
+        for (Room room : request.getRoomList().getRooms()) {
+            roomTypes.add(room.getRoomType());
+        }
+        return roomTypes;
+    }
+}
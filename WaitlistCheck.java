@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * {@code WaitlistCheck} times the pass which offers the night a cancellation frees to the waitlist, once
+ * with a short queue and once with a long one. The hotel has one room; every entry waits for the freed
+ * night and for a later night which stays full, so none of them fits. The pass over the long queue must
+ * take about as long as the pass over the short one, as it reads a few pages of the queue of the freed
+ * night at most and books none of them, and every entry must still be waiting afterwards.
+ * <p>
+ * Usage: {@code java WaitlistCheck [shortQueue] [longQueue]}
+ */
+public class WaitlistCheck {
+
+    private static final long SLACK_NANOS = 50_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int shortQueue = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int longQueue = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        Path dir = Files.createTempDirectory("waitlist-check");
+        try {
+            Path hotel = dir.resolve("hotel.csv");
+            Files.writeString(hotel, "Hotel,Room type,Number of rooms,Min occupancy,Max occupancy,"
+                    + "Mon,Tue,Wed,Thu,Fri,Sat,Sun\n,,,,,,,,,,,\n3-star,Classic Single,1,1,1,50,50,50,50,50,50,50\n");
+            // warmed up once, so the JIT does not weigh on the short queue alone
+            pass(dir, hotel, shortQueue);
+            long shortNanos = pass(dir, hotel, shortQueue);
+            long longNanos = pass(dir, hotel, longQueue);
+            if (longNanos > Math.max(10 * shortNanos, SLACK_NANOS)) {
+                throw new IllegalStateException(String.format("A cancellation took %.1f ms to pass a queue of %d"
+                        + " entries which do not fit, %.1f ms for %d", longNanos / 1e6, longQueue,
+                        shortNanos / 1e6, shortQueue));
+            }
+            System.out.printf("A cancellation passed a queue of %d entries which do not fit in %.2f ms, %d in"
+                    + " %.2f ms%n", shortQueue, shortNanos / 1e6, longQueue, longNanos / 1e6);
+        } finally {
+            try (var paths = Files.walk(dir)) {
+                for (Path file : (Iterable<Path>) paths.sorted((a, b) -> b.compareTo(a))::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@code pass} queue entries for a freed night and a night which stays full, free the first one and
+     * time the pass of the waitlist
+     *
+     * @return the nanoseconds the pass took
+     */
+    private static long pass(Path dir, Path hotel, int queued) throws IOException, InterruptedException {
+        Path run = Files.createDirectories(dir.resolve("run-" + System.nanoTime()));
+        ReservationSystem system = new ReservationSystem(hotel.toString(), run.resolve("reservation.csv").toString(),
+                run.resolve("billing.csv").toString());
+        system.decodeHotelCSV();
+        system.openJournal(run.resolve("reservation.journal").toString());
+        system.detachStorage();
+        LocalDate freed = LocalDate.now().plusDays(10);
+        LocalDate full = freed.plusDays(5);
+        Reservation cancelled = book(system, freed, freed.plusDays(1));
+        book(system, full, full.plusDays(1));
+        for (int i = 0; i < queued; i++) {
+            system.joinWaitlist(new BookingRequest("guest " + i, "S", freed, full.plusDays(1), rooms()), 1);
+        }
+        LatencyHistogram passes = Metrics.get().histogram(Metrics.Operation.WAITLIST_ALLOCATE);
+        passes.reset();
+        if (!system.cancel(cancelled)) {
+            throw new IllegalStateException("The reservation of the freed night was not cancelled");
+        }
+        while (passes.count() == 0) {
+            Thread.sleep(1);
+        }
+        if (system.getWaitlist().size() != queued) {
+            throw new IllegalStateException("An entry waiting for a full night was booked");
+        }
+        system.closeJournal();
+        return passes.max();
+    }
+
+    private static Reservation book(ReservationSystem system, LocalDate checkIn, LocalDate checkOut) {
+        RoomList roomList = rooms();
+        Reservation reservation = system.makeReservation(system.nextRefNo(), "guest", "S", checkIn, checkOut, 1,
+                roomList, system.calcTotalCost(roomList, checkIn, checkOut, "S"));
+        if (reservation == null) {
+            throw new IllegalStateException("The room is not free from " + checkIn + " to " + checkOut);
+        }
+        return reservation;
+    }
+
+    private static RoomList rooms() {
+        RoomList roomList = new RoomList();
+        roomList.add(new Room("Classic Single", 1));
+        return roomList;
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code WaitlistEntry} a booking waiting for rooms to be freed. Entries with a higher priority are
+ * offered freed rooms first, entries of the same priority in the order they joined. The allocation
+ * completes with the reservation once the booking is made, and is cancelled if the entry leaves the
+ * waitlist first.
+ */
+public final class WaitlistEntry {
+
+    /** Higher priorities first, then first come first served. */
+    static final Comparator<WaitlistEntry> ORDER = Comparator.comparingInt((WaitlistEntry entry) -> -entry.priority)
+            .thenComparingLong(entry -> entry.id);
+
+    private static final int WAITING = 0;
+    // taken by an allocation pass which is trying to book it
+    private static final int CLAIMED = 1;
+    // claimed, and offered rooms by another pass meanwhile, so the booking is tried again
+    private static final int OFFERED = 2;
+    private static final int BOOKED = 3;
+    private static final int WITHDRAWN = 4;
+
+    private final long id;
+    private final BookingRequest request;
+    private final int priority;
+    private final AtomicInteger state = new AtomicInteger(WAITING);
+    private final CompletableFuture<Reservation> allocation = new CompletableFuture<>();
+
+    /**
+     * {@code WaitlistEntry} an entry of the waitlist
+     *
+     * @param id       the number of the entry, ascending in the order entries join
+     * @param request  the booking
+     * @param priority the priority, higher is served first
+     */
+    WaitlistEntry(long id, BookingRequest request, int priority) {
+        this.id = id;
+        this.request = request;
+        this.priority = priority;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public BookingRequest getRequest() {
+        return request;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * {@code getAllocation} the reservation made for the entry once rooms are freed
+     *
+     * @return the future reservation
+     */
+    public CompletableFuture<Reservation> getAllocation() {
+        return allocation;
+    }
+
+    /**
+     * {@code isWaiting} whether the entry is still on the waitlist
+     *
+     * @return true until it is booked or withdrawn
+     */
+    public boolean isWaiting() {
+        int current = state.get();
+        return current == WAITING || current == CLAIMED || current == OFFERED;
+    }
+
+    /**
+     * {@code claim} take the entry to try to book it, so no other pass books it as well. If another pass
+     * holds it, that pass is told to try again, as the rooms may have been freed after it tried
+     *
+     * @return true if the entry was waiting and is now claimed
+     */
+    boolean claim() {
+        while (true) {
+            int current = state.get();
+            if (current == WAITING && state.compareAndSet(WAITING, CLAIMED)) {
+                return true;
+            }
+            if (current == CLAIMED && state.compareAndSet(CLAIMED, OFFERED)) {
+                return false;
+            }
+            if (current != WAITING && current != CLAIMED) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * {@code release} put a claimed entry back, its booking did not fit
+     *
+     * @return true if it is waiting again, false if it was offered rooms meanwhile and is still claimed to
+     * try again
+     */
+    boolean release() {
+        if (state.compareAndSet(CLAIMED, WAITING)) {
+            return true;
+        }
+        state.compareAndSet(OFFERED, CLAIMED);
+        return false;
+    }
+
+    /**
+     * {@code booked} complete a claimed entry with its reservation
+     *
+     * @param reservation the reservation made
+     */
+    void booked(Reservation reservation) {
+        state.set(BOOKED);
+        allocation.complete(reservation);
+    }
+
+    /**
+     * {@code withdraw} take a waiting entry off the waitlist
+     *
+     * @return true if it was waiting, false if it is being booked or is already booked or withdrawn
+     */
+    boolean withdraw() {
+        if (!state.compareAndSet(WAITING, WITHDRAWN)) {
+            return false;
+        }
+        allocation.cancel(false);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Waitlist entry " + id + " of " + request.getName() + " from " + request.getCheckIn() + " to "
+                + request.getCheckOut() + ", priority " + priority;
+    }
+}
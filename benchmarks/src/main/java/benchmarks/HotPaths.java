@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code HotPaths} the operations of {@code HotPathBenchmarks} under JMH, one trial per operation and size
+ * of the reservation history, and the price of a stay, one trial per way of pricing and length of the stay.
+ * JMH refuses benchmarks in the default package and a class of a named package can not name the classes of
+ * the system, so the fixtures are created by reflection once per trial and every invocation is a plain
+ * interface call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class HotPaths {
+
+    /**
+     * {@code History} a reservation system with a history of a number of reservations, and an operation on it
+     */
+    @State(Scope.Benchmark)
+    public static class History {
+
+        @Param({"1000", "100000", "1000000"})
+        public int reservations;
+
+        @Param({"ReservationSystem.available", "ReservationSystem.calcTotalCost(String)",
+                "ReservationSystem.calcTotalCost(RoomList)", "ReservationSystem.calcTotalCost(RoomList) cached",
+                "ReservationSystem.calcTotalCost(String) dynamic", "ReservationSystem.makeReservation+cancel",
+                "ReservationSystem.analyseBilling", "ReservationSystem.analyseOccupancyRates",
+                "ReservationSystem.analysePeriod(parallel)", "CSVEncoder.csvRead", "CSVEncoder.csvWrite"})
+        public String operation;
+
+        private AutoCloseable fixture;
+        private Callable<Object> op;
+
+        @Setup(Level.Trial)
+        @SuppressWarnings("unchecked")
+        public void setUp() throws Exception {
+            Object created = Class.forName("HotPathBenchmarks$Fixture").getConstructor(int.class)
+                    .newInstance(reservations);
+            fixture = (AutoCloseable) created;
+            op = ((Function<String, Callable<Object>>) created).apply(operation);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            fixture.close();
+        }
+    }
+
+    /**
+     * {@code Stay} the quote of a stay of a number of nights, priced night by night or in closed form
+     */
+    @State(Scope.Benchmark)
+    public static class Stay {
+
+        @Param({"1", "2", "3", "7", "14", "30", "90", "180", "365"})
+        public int nights;
+
+        @Param({"PricingEngine.dailyCost", "PricingEngine.cost"})
+        public String method;
+
+        private DoubleSupplier quote;
+
+        @Setup(Level.Trial)
+        @SuppressWarnings("unchecked")
+        public void setUp() throws Exception {
+            Object created = Class.forName("HotPathBenchmarks$Pricing").getConstructor(int.class)
+                    .newInstance(nights);
+            quote = ((Function<String, DoubleSupplier>) created).apply(method);
+        }
+    }
+
+    @Benchmark
+    public Object run(History history) throws Exception {
+        return history.op.call();
+    }
+
+    @Benchmark
+    public double price(Stay stay) {
+        return stay.quote.getAsDouble();
+    }
+}